@@ -65,7 +65,9 @@ import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.util.StringUtils;
 
+import java.io.File;
 import java.time.Clock;
 import java.util.List;
 import java.util.Set;
@@ -85,14 +87,17 @@ public class AxonServerStandardConfiguration {
 
     @Bean
     @ConditionalOnMissingBean(StorageTransactionManagerFactory.class)
-    public StorageTransactionManagerFactory storageTransactionManagerFactory() {
-        return new DefaultStorageTransactionManagerFactory();
+    public StorageTransactionManagerFactory storageTransactionManagerFactory(MeterFactory meterFactory) {
+        return new DefaultStorageTransactionManagerFactory(meterFactory);
     }
 
     @Bean
     @ConditionalOnMissingBean(EventTransformerFactory.class)
-    public EventTransformerFactory eventTransformerFactory() {
-        return new DefaultEventTransformerFactory();
+    public EventTransformerFactory eventTransformerFactory(EmbeddedDBProperties embeddedDBProperties) {
+        String compressionDictionary = embeddedDBProperties.getEvent().getCompressionDictionary();
+        return new DefaultEventTransformerFactory(StringUtils.isEmpty(compressionDictionary) ?
+                                                          null :
+                                                          new File(compressionDictionary));
     }
 
     @Bean
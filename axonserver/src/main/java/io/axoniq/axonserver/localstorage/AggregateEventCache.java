@@ -0,0 +1,376 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+package io.axoniq.axonserver.localstorage;
+
+import io.axoniq.axonserver.metric.BaseMetricName;
+import io.axoniq.axonserver.metric.MeterFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the most recent events of recently used aggregates in memory, so loading a hot aggregate does not need an index
+ * lookup and reads from the segment files. For each aggregate the cache holds a contiguous range of events, from a
+ * first sequence number up to the last event stored for the aggregate.
+ * <p>
+ * Entries are created when an aggregate is read from the event store, or when the first event of a new aggregate is
+ * stored. Stored events are appended to the entry of the aggregate when their sequence numbers connect to the entry,
+ * otherwise the entry is removed. Listeners for stored events may run out of order, so a stored event never creates an
+ * entry starting in the middle of the history of an aggregate. The total size of the cached events is limited, the
+ * least recently used aggregates are evicted first.
+ * <p>
+ * To avoid adding events read from the event store that are outdated by events stored concurrently, the cache keeps
+ * stamps per group of aggregates. The stamp changes when an entry is removed, or when an event is stored for an
+ * aggregate that is not in the cache. Events read from the event store are only added as a new entry when the stamp
+ * did not change while reading.
+ *
+ * @author Marc Gathier
+ * @since 4.5
+ */
+public class AggregateEventCache {
+
+    /**
+     * Estimated memory used per entry and per event, besides the serialized events.
+     */
+    private static final int ENTRY_OVERHEAD = 128;
+    private static final int EVENT_OVERHEAD = 32;
+    private static final int STAMP_STRIPES = 1024;
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final long[] stamps = new long[STAMP_STRIPES];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final MeterFactory meterFactory;
+    private final List<Meter> meters = new ArrayList<>();
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter evictionCounter;
+    private long bytes;
+    private long nextToken;
+
+    /**
+     * Creates a cache without metrics.
+     *
+     * @param maxBytes maximum size of the cached events in bytes
+     */
+    public AggregateEventCache(long maxBytes) {
+        this(maxBytes, null, Tags.empty());
+    }
+
+    /**
+     * Creates a cache that publishes its hit, miss and eviction counts and its size as metrics.
+     *
+     * @param maxBytes     maximum size of the cached events in bytes
+     * @param meterFactory factory to create metrics meters, null for no metrics
+     * @param tags         tags for the metrics
+     */
+    public AggregateEventCache(long maxBytes, MeterFactory meterFactory, Tags tags) {
+        this.maxBytes = maxBytes;
+        this.meterFactory = meterFactory;
+        if (meterFactory != null) {
+            hitCounter = meterFactory.counter(BaseMetricName.AXON_AGGREGATE_CACHE_HIT, tags);
+            missCounter = meterFactory.counter(BaseMetricName.AXON_AGGREGATE_CACHE_MISS, tags);
+            evictionCounter = meterFactory.counter(BaseMetricName.AXON_AGGREGATE_CACHE_EVICTION, tags);
+            meters.add(hitCounter);
+            meters.add(missCounter);
+            meters.add(evictionCounter);
+            meters.add(meterFactory.gauge(BaseMetricName.AXON_AGGREGATE_CACHE_SIZE, tags, this,
+                                          AggregateEventCache::bytes));
+        } else {
+            hitCounter = null;
+            missCounter = null;
+            evictionCounter = null;
+        }
+    }
+
+    /**
+     * Passes the cached events for the aggregate to the consumer, if the cache contains all events for the aggregate
+     * starting at {@code minSequenceNumber}.
+     *
+     * @param aggregateId       the aggregate identifier
+     * @param minSequenceNumber first sequence number to return
+     * @param maxSequenceNumber sequence number to stop at (exclusive)
+     * @param eventConsumer     consumer for the events
+     * @return true if the events were served from the cache
+     */
+    public boolean readEvents(String aggregateId, long minSequenceNumber, long maxSequenceNumber,
+                              Consumer<SerializedEvent> eventConsumer) {
+        SerializedEvent[] events;
+        synchronized (this) {
+            Entry entry = entries.get(aggregateId);
+            if (entry == null || entry.firstSequenceNumber > minSequenceNumber) {
+                increment(misses, missCounter);
+                return false;
+            }
+            int from = (int) Math.min(minSequenceNumber - entry.firstSequenceNumber, entry.events.size());
+            int to = (int) Math.max(from, Math.min(maxSequenceNumber - entry.firstSequenceNumber,
+                                                   entry.events.size()));
+            events = entry.events.subList(from, to).toArray(new SerializedEvent[0]);
+        }
+        increment(hits, hitCounter);
+        for (SerializedEvent event : events) {
+            eventConsumer.accept(event);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the stamp for the aggregate, to pass to {@link #add(String, long, List)} after reading events from the
+     * event store.
+     *
+     * @param aggregateId the aggregate identifier
+     * @return the current stamp for the aggregate
+     */
+    public synchronized long stamp(String aggregateId) {
+        return stamps[stripe(aggregateId)];
+    }
+
+    /**
+     * Adds events read from the event store. The events must be the last events of the aggregate, with consecutive
+     * sequence numbers. The events must not refer to (memory mapped) segment buffers, as the cache may keep them after
+     * the segment is closed.
+     * <p>
+     * When the aggregate is already in the cache, the events read are merged with the cached events if they connect.
+     * Both are complete up to the last event known when they were added, so the merged entry contains the events from
+     * the lowest first sequence number up to the highest last sequence number.
+     *
+     * @param aggregateId the aggregate identifier
+     * @param stamp       the stamp for the aggregate from before the events were read
+     * @param events      the events read
+     */
+    public void add(String aggregateId, long stamp, List<SerializedEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        List<SerializedEvent> cached = new ArrayList<>(events);
+        long size = ENTRY_OVERHEAD;
+        for (SerializedEvent event : cached) {
+            size += EVENT_OVERHEAD + event.size();
+        }
+        if (size > maxBytes) {
+            return;
+        }
+        long firstSequenceNumber = cached.get(0).header().getAggregateSequenceNumber();
+        long nextRead = firstSequenceNumber + cached.size();
+        synchronized (this) {
+            Entry existing = entries.get(aggregateId);
+            if (existing == null) {
+                if (stamp == stamps[stripe(aggregateId)]) {
+                    put(aggregateId, new Entry(firstSequenceNumber, cached, size));
+                }
+            } else if (existing.firstSequenceNumber <= nextRead
+                    && firstSequenceNumber <= existing.nextSequenceNumber()
+                    && (firstSequenceNumber < existing.firstSequenceNumber
+                    || nextRead > existing.nextSequenceNumber())) {
+                Entry merged = new Entry(Math.min(firstSequenceNumber, existing.firstSequenceNumber),
+                                         new ArrayList<>(),
+                                         ENTRY_OVERHEAD);
+                if (firstSequenceNumber < existing.firstSequenceNumber) {
+                    merged.append(cached.subList(0, (int) (existing.firstSequenceNumber - firstSequenceNumber)));
+                }
+                merged.append(existing.events);
+                if (nextRead > existing.nextSequenceNumber()) {
+                    merged.append(cached.subList((int) (existing.nextSequenceNumber() - firstSequenceNumber),
+                                                 cached.size()));
+                }
+                put(aggregateId, merged);
+            }
+        }
+    }
+
+    /**
+     * Adds stored events to the cache. Events are appended to the entry for the aggregate when their sequence numbers
+     * connect to the entry. When there is a gap, the entry is removed. The first event of a new aggregate creates an
+     * entry, unless events from later transactions were already processed.
+     *
+     * @param firstToken the token of the first event
+     * @param events     the stored events
+     */
+    public void eventsStored(long firstToken, List<SerializedEvent> events) {
+        synchronized (this) {
+            // when a later transaction was processed before this one, it may contain later events of a new aggregate
+            boolean inOrder = firstToken >= nextToken;
+            nextToken = Math.max(nextToken, firstToken + events.size());
+            for (SerializedEvent event : events) {
+                EventHeader header = event.header();
+                if (StringUtils.isEmpty(header.getAggregateType())) {
+                    continue;
+                }
+                String aggregateId = header.getAggregateIdentifier();
+                long sequenceNumber = header.getAggregateSequenceNumber();
+                Entry entry = entries.get(aggregateId);
+                if (entry == null) {
+                    if (sequenceNumber == 0 && inOrder) {
+                        Entry created = new Entry(0, new ArrayList<>(), ENTRY_OVERHEAD);
+                        created.append(copy(event));
+                        put(aggregateId, created);
+                    } else {
+                        // a read in progress for this aggregate may not contain this event
+                        stamps[stripe(aggregateId)]++;
+                    }
+                } else if (sequenceNumber == entry.nextSequenceNumber()) {
+                    long before = entry.bytes;
+                    entry.append(copy(event));
+                    bytes += entry.bytes - before;
+                    evict();
+                } else if (sequenceNumber > entry.nextSequenceNumber()) {
+                    remove(aggregateId);
+                }
+                // events with lower sequence numbers were already added when the aggregate was read
+            }
+        }
+    }
+
+    private static SerializedEvent copy(SerializedEvent event) {
+        return new SerializedEvent(event.serializedData());
+    }
+
+    /**
+     * Removes the aggregate from the cache.
+     *
+     * @param aggregateId the aggregate identifier
+     */
+    public synchronized void invalidate(String aggregateId) {
+        remove(aggregateId);
+    }
+
+    /**
+     * Removes all aggregates from the cache. Used when events are removed from the event store.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+        for (int i = 0; i < stamps.length; i++) {
+            stamps[i]++;
+        }
+        // tokens are reused after a rollback or after deleting all events
+        nextToken = 0;
+    }
+
+    private void put(String aggregateId, Entry entry) {
+        Entry previous = entries.put(aggregateId, entry);
+        if (previous != null) {
+            bytes -= previous.bytes;
+        }
+        bytes += entry.bytes;
+        evict();
+    }
+
+    private void remove(String aggregateId) {
+        Entry removed = entries.remove(aggregateId);
+        if (removed != null) {
+            bytes -= removed.bytes;
+            stamps[stripe(aggregateId)]++;
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            bytes -= eldest.getValue().bytes;
+            stamps[stripe(eldest.getKey())]++;
+            iterator.remove();
+            increment(evictions, evictionCounter);
+        }
+    }
+
+    private static int stripe(String aggregateId) {
+        int h = aggregateId.hashCode() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (STAMP_STRIPES - 1);
+    }
+
+    private static void increment(LongAdder adder, Counter counter) {
+        adder.increment();
+        if (counter != null) {
+            counter.increment();
+        }
+    }
+
+    /**
+     * @return the maximum size of the cached events in bytes
+     */
+    public long maxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return the size of the cached events in bytes
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the number of aggregates in the cache
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Removes the metrics of the cache.
+     */
+    public void close() {
+        if (meterFactory != null) {
+            meters.forEach(meterFactory::remove);
+        }
+        meters.clear();
+    }
+
+    private static class Entry {
+
+        private final long firstSequenceNumber;
+        private final List<SerializedEvent> events;
+        private long bytes;
+
+        Entry(long firstSequenceNumber, List<SerializedEvent> events, long bytes) {
+            this.firstSequenceNumber = firstSequenceNumber;
+            this.events = events;
+            this.bytes = bytes;
+        }
+
+        long nextSequenceNumber() {
+            return firstSequenceNumber + events.size();
+        }
+
+        void append(SerializedEvent event) {
+            events.add(event);
+            bytes += EVENT_OVERHEAD + event.size();
+        }
+
+        void append(List<SerializedEvent> moreEvents) {
+            moreEvents.forEach(this::append);
+        }
+    }
+}
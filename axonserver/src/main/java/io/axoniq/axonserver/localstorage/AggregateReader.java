@@ -9,6 +9,8 @@
 
 package io.axoniq.axonserver.localstorage;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.function.Consumer;
 
@@ -19,10 +21,22 @@ public class AggregateReader {
 
     private final EventStorageEngine eventStorageEngine;
     private final SnapshotReader snapshotReader;
+    private final AggregateEventCache aggregateEventCache;
 
     public AggregateReader(EventStorageEngine eventStorageEngine, SnapshotReader snapshotReader) {
+        this(eventStorageEngine, snapshotReader, null);
+    }
+
+    /**
+     * @param eventStorageEngine  the storage engine for events
+     * @param snapshotReader      reader for snapshots
+     * @param aggregateEventCache cache for events of recently used aggregates, null for no cache
+     */
+    public AggregateReader(EventStorageEngine eventStorageEngine, SnapshotReader snapshotReader,
+                           AggregateEventCache aggregateEventCache) {
         this.eventStorageEngine = eventStorageEngine;
         this.snapshotReader = snapshotReader;
+        this.aggregateEventCache = aggregateEventCache;
     }
 
     public void readEvents(String aggregateId, boolean useSnapshots, long minSequenceNumber,
@@ -44,8 +58,40 @@ public class AggregateReader {
                 actualMinSequenceNumber = snapshot.get().asEvent().getAggregateSequenceNumber() + 1;
             }
         }
-        eventStorageEngine.processEventsPerAggregate(aggregateId, actualMinSequenceNumber, maxSequenceNumber, minToken, eventConsumer);
+        if (aggregateEventCache == null || minToken > 0) {
+            eventStorageEngine.processEventsPerAggregate(aggregateId, actualMinSequenceNumber, maxSequenceNumber, minToken, eventConsumer);
+            return;
+        }
+        readEventsWithCache(aggregateId, actualMinSequenceNumber, maxSequenceNumber, eventConsumer);
+    }
 
+    /**
+     * Reads the events from the cache if possible. Otherwise the events are read from the event store, and when all
+     * events up to the last event of the aggregate are read, they are added to the cache.
+     */
+    private void readEventsWithCache(String aggregateId, long minSequenceNumber, long maxSequenceNumber,
+                                     Consumer<SerializedEvent> eventConsumer) {
+        if (aggregateEventCache.readEvents(aggregateId, minSequenceNumber, maxSequenceNumber, eventConsumer)) {
+            return;
+        }
+        if (maxSequenceNumber != Long.MAX_VALUE) {
+            eventStorageEngine.processEventsPerAggregate(aggregateId, minSequenceNumber, maxSequenceNumber, 0, eventConsumer);
+            return;
+        }
+        long stamp = aggregateEventCache.stamp(aggregateId);
+        List<SerializedEvent> events = new ArrayList<>();
+        long[] bytes = {0};
+        eventStorageEngine.processEventsPerAggregate(aggregateId, minSequenceNumber, maxSequenceNumber, 0, event -> {
+            if (bytes[0] <= aggregateEventCache.maxBytes()) {
+                // copy the event, as it may refer to a segment buffer
+                events.add(new SerializedEvent(event.serializedData()));
+                bytes[0] += event.size();
+            }
+            eventConsumer.accept(event);
+        });
+        if (bytes[0] <= aggregateEventCache.maxBytes()) {
+            aggregateEventCache.add(aggregateId, stamp, events);
+        }
     }
 
     public void readSnapshots(String aggregateId, long minSequenceNumber, long maxSequenceNumber, int maxResults,
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+
+package io.axoniq.axonserver.localstorage;
+
+import io.grpc.Drainable;
+import io.grpc.KnownLength;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Input stream that reads a (small) header followed by the content of a {@link ByteBuffer}. When gRPC sends the
+ * stream, it drains the content directly to its output stream, instead of reading it through an intermediate
+ * buffer. If the buffer is a heap buffer, the backing array is written as is, a direct (memory mapped) buffer is
+ * written in chunks through a thread-local transfer array, so no per-event byte arrays are allocated.
+ *
+ * @author Marc Gathier
+ * @since 4.5
+ */
+public class DrainableInputStream extends InputStream implements Drainable, KnownLength {
+
+    private static final byte[] EMPTY = new byte[0];
+    private static final int CHUNK_SIZE = 8192;
+    private static final ThreadLocal<byte[]> transferBuffer = ThreadLocal.withInitial(() -> new byte[CHUNK_SIZE]);
+
+    private final byte[] header;
+    private final int headerLength;
+    private final ByteBuffer body;
+    private int headerPosition;
+
+    /**
+     * Creates a stream for the content of the buffer, from its current position to its limit.
+     *
+     * @param body the buffer to read, the stream updates the position of this buffer
+     */
+    public DrainableInputStream(ByteBuffer body) {
+        this(EMPTY, 0, body);
+    }
+
+    /**
+     * Creates a stream that first reads the first {@code headerLength} bytes from the header and then the content of
+     * the buffer.
+     *
+     * @param header       array containing the header
+     * @param headerLength number of bytes in the header
+     * @param body         the buffer to read, the stream updates the position of this buffer
+     */
+    public DrainableInputStream(byte[] header, int headerLength, ByteBuffer body) {
+        this.header = header;
+        this.headerLength = headerLength;
+        this.body = body;
+    }
+
+    @Override
+    public int read() {
+        if (headerPosition < headerLength) {
+            return header[headerPosition++] & 0xFF;
+        }
+        return body.hasRemaining() ? body.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] target, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        if (available() == 0) {
+            return -1;
+        }
+        int read = 0;
+        if (headerPosition < headerLength) {
+            read = Math.min(length, headerLength - headerPosition);
+            System.arraycopy(header, headerPosition, target, offset, read);
+            headerPosition += read;
+        }
+        int fromBody = Math.min(length - read, body.remaining());
+        body.get(target, offset + read, fromBody);
+        return read + fromBody;
+    }
+
+    @Override
+    public long skip(long n) {
+        if (n <= 0) {
+            return 0;
+        }
+        int fromHeader = (int) Math.min(n, headerLength - headerPosition);
+        headerPosition += fromHeader;
+        int fromBody = (int) Math.min(n - fromHeader, body.remaining());
+        body.position(body.position() + fromBody);
+        return (long) fromHeader + fromBody;
+    }
+
+    @Override
+    public int available() {
+        return headerLength - headerPosition + body.remaining();
+    }
+
+    @Override
+    public int drainTo(OutputStream target) throws IOException {
+        int total = available();
+        if (headerPosition < headerLength) {
+            target.write(header, headerPosition, headerLength - headerPosition);
+            headerPosition = headerLength;
+        }
+        if (body.hasArray()) {
+            target.write(body.array(), body.arrayOffset() + body.position(), body.remaining());
+            body.position(body.limit());
+        } else {
+            byte[] chunk = transferBuffer.get();
+            while (body.hasRemaining()) {
+                int length = Math.min(chunk.length, body.remaining());
+                body.get(chunk, 0, length);
+                target.write(chunk, 0, length);
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+package io.axoniq.axonserver.localstorage;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
+import io.axoniq.axonserver.grpc.SerializedObject;
+import io.axoniq.axonserver.grpc.event.Event;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The header fields of an event: all fields except the payload data and the meta data. The header can be read from the
+ * serialized event without parsing the payload data and meta data, which is sufficient for most query filters.
+ *
+ * @author Marc Gathier
+ * @since 4.5
+ */
+public class EventHeader {
+
+    private final String messageIdentifier;
+    private final String aggregateIdentifier;
+    private final long aggregateSequenceNumber;
+    private final String aggregateType;
+    private final long timestamp;
+    private final String payloadType;
+    private final String payloadRevision;
+
+    private EventHeader(String messageIdentifier, String aggregateIdentifier, long aggregateSequenceNumber,
+                        String aggregateType, long timestamp, String payloadType, String payloadRevision) {
+        this.messageIdentifier = messageIdentifier;
+        this.aggregateIdentifier = aggregateIdentifier;
+        this.aggregateSequenceNumber = aggregateSequenceNumber;
+        this.aggregateType = aggregateType;
+        this.timestamp = timestamp;
+        this.payloadType = payloadType;
+        this.payloadRevision = payloadRevision;
+    }
+
+    /**
+     * Creates the header from a parsed event.
+     *
+     * @param event the event
+     * @return the header of the event
+     */
+    public static EventHeader from(Event event) {
+        return new EventHeader(event.getMessageIdentifier(),
+                               event.getAggregateIdentifier(),
+                               event.getAggregateSequenceNumber(),
+                               event.getAggregateType(),
+                               event.getTimestamp(),
+                               event.getPayload().getType(),
+                               event.getPayload().getRevision());
+    }
+
+    /**
+     * Reads the header from a serialized event. Skips the payload data and the meta data without decoding them.
+     *
+     * @param serializedEvent buffer containing the serialized event, from its position to its limit
+     * @return the header of the event
+     * @throws IOException when the buffer does not contain a valid event
+     */
+    public static EventHeader scan(ByteBuffer serializedEvent) throws IOException {
+        CodedInputStream input = CodedInputStream.newInstance(serializedEvent);
+        String messageIdentifier = "";
+        String aggregateIdentifier = "";
+        long aggregateSequenceNumber = 0;
+        String aggregateType = "";
+        long timestamp = 0;
+        String payloadType = "";
+        String payloadRevision = "";
+        int tag;
+        while ((tag = input.readTag()) != 0) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case Event.MESSAGE_IDENTIFIER_FIELD_NUMBER:
+                    messageIdentifier = input.readString();
+                    break;
+                case Event.AGGREGATE_IDENTIFIER_FIELD_NUMBER:
+                    aggregateIdentifier = input.readString();
+                    break;
+                case Event.AGGREGATE_SEQUENCE_NUMBER_FIELD_NUMBER:
+                    aggregateSequenceNumber = input.readInt64();
+                    break;
+                case Event.AGGREGATE_TYPE_FIELD_NUMBER:
+                    aggregateType = input.readString();
+                    break;
+                case Event.TIMESTAMP_FIELD_NUMBER:
+                    timestamp = input.readInt64();
+                    break;
+                case Event.PAYLOAD_FIELD_NUMBER:
+                    int oldLimit = input.pushLimit(input.readRawVarint32());
+                    int payloadTag;
+                    while ((payloadTag = input.readTag()) != 0) {
+                        switch (WireFormat.getTagFieldNumber(payloadTag)) {
+                            case SerializedObject.TYPE_FIELD_NUMBER:
+                                payloadType = input.readString();
+                                break;
+                            case SerializedObject.REVISION_FIELD_NUMBER:
+                                payloadRevision = input.readString();
+                                break;
+                            default:
+                                input.skipField(payloadTag);
+                        }
+                    }
+                    input.popLimit(oldLimit);
+                    break;
+                default:
+                    input.skipField(tag);
+            }
+        }
+        return new EventHeader(messageIdentifier, aggregateIdentifier, aggregateSequenceNumber, aggregateType,
+                               timestamp, payloadType, payloadRevision);
+    }
+
+    public String getMessageIdentifier() {
+        return messageIdentifier;
+    }
+
+    public String getAggregateIdentifier() {
+        return aggregateIdentifier;
+    }
+
+    public long getAggregateSequenceNumber() {
+        return aggregateSequenceNumber;
+    }
+
+    public String getAggregateType() {
+        return aggregateType;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getPayloadType() {
+        return payloadType;
+    }
+
+    public String getPayloadRevision() {
+        return payloadRevision;
+    }
+}
@@ -9,10 +9,10 @@
 
 package io.axoniq.axonserver.localstorage;
 
-import io.axoniq.axonserver.grpc.event.EventWithToken;
 import org.springframework.boot.actuate.health.Health;
 import org.springframework.data.util.CloseableIterator;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
@@ -154,7 +154,19 @@ public interface EventStorageEngine {
      * @param queryOptions
      * @param consumer     applied for each event
      */
-    void query(QueryOptions queryOptions, Predicate<EventWithToken> consumer);
+    void query(QueryOptions queryOptions, Predicate<SerializedEventWithToken> consumer);
+
+    /**
+     * Splits a query in partitions that can be executed concurrently. Each partition calls the {@link Predicate} for
+     * the events in its part of the event store. The partitions are returned in the order in which {@link
+     * #query(QueryOptions, Predicate)} would process the events.
+     *
+     * @param queryOptions the query options
+     * @return the partitions of the query
+     */
+    default List<Consumer<Predicate<SerializedEventWithToken>>> queryPartitions(QueryOptions queryOptions) {
+        return Collections.singletonList(consumer -> query(queryOptions, consumer));
+    }
 
     /**
      * Gets filenames to back up for this storage engine. Only relevant for file based storage.
@@ -193,6 +205,16 @@ public interface EventStorageEngine {
     default void rollback(long token) {
     }
 
+    /**
+     * Registers a listener that will be called when the storage engine has been rolled back.
+     * @param listener the listener to call
+     * @return a registration that can be used to unregister the listener
+     */
+    default Registration registerRollbackListener(Runnable listener) {
+        return () -> {
+        };
+    }
+
     /**
      * Return a closeable iterator to iterate over all events starting at token start.
      * @param start first token to return
@@ -9,9 +9,10 @@
 
 package io.axoniq.axonserver.localstorage;
 
-import io.axoniq.axonserver.grpc.event.EventWithToken;
 import org.springframework.boot.actuate.health.Health;
 
+import java.util.List;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 
 /**
@@ -26,10 +27,20 @@ public class EventStreamReader {
         this.eventStorageEngine = datafileManagerChain;
     }
 
-    public void query(QueryOptions queryOptions, Predicate<EventWithToken> consumer) {
+    public void query(QueryOptions queryOptions, Predicate<SerializedEventWithToken> consumer) {
         eventStorageEngine.query(queryOptions, consumer);
     }
 
+    /**
+     * Splits a query in partitions that can be executed concurrently, in the order of a sequential query.
+     *
+     * @param queryOptions the query options
+     * @return the partitions of the query
+     */
+    public List<Consumer<Predicate<SerializedEventWithToken>>> queryPartitions(QueryOptions queryOptions) {
+        return eventStorageEngine.queryPartitions(queryOptions);
+    }
+
     /**
      * Returns the first token in the event store for the current context. Returns -1 if event store is empty.
      *
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+
+package io.axoniq.axonserver.localstorage;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded ring buffer containing the most recently stored events for a context. Tracking event processors that have
+ * caught up with the head of the event store read new events from this buffer, so each event is only wrapped once,
+ * regardless of the number of trackers.
+ * <p>
+ * There is a single writer at a time (appends are synchronized), readers do not need locking. A reader verifies the
+ * token of the entry it finds in a slot, so an entry that is overwritten by a newer event is never returned for an
+ * older token.
+ *
+ * @author Marc Gathier
+ * @since 4.5
+ */
+class EventTailBuffer {
+
+    private final AtomicReferenceArray<SerializedEventWithToken> buffer;
+    private final int mask;
+    /**
+     * Token of the next event expected in the buffer, -1 when the buffer has not received any events.
+     */
+    private volatile long nextToken = -1;
+
+    /**
+     * Constructor for the buffer. The capacity is rounded up to the next power of 2.
+     *
+     * @param capacity the minimum number of events kept in the buffer
+     */
+    EventTailBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.buffer = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Adds events that have been stored in the event store. If there is a gap between the last event in the buffer and
+     * the first new event, the buffer restarts at the new event. Events that are already in the buffer are ignored.
+     *
+     * @param firstToken the token of the first event
+     * @param events     the stored events
+     */
+    synchronized void append(long firstToken, List<SerializedEvent> events) {
+        long expected = nextToken;
+        long lastToken = firstToken + events.size();
+        if (events.isEmpty() || lastToken <= expected) {
+            return;
+        }
+        int start = firstToken < expected ? (int) (expected - firstToken) : 0;
+        for (int i = start; i < events.size(); i++) {
+            long token = firstToken + i;
+            buffer.set((int) (token & mask), new SerializedEventWithToken(token, events.get(i)));
+        }
+        nextToken = lastToken;
+    }
+
+    /**
+     * Returns the event with given token, or null when the event is not (or no longer) in the buffer.
+     *
+     * @param token the token of the event
+     * @return the event or null
+     */
+    SerializedEventWithToken get(long token) {
+        if (token < 0 || token >= nextToken) {
+            return null;
+        }
+        SerializedEventWithToken event = buffer.get((int) (token & mask));
+        return event != null && event.getToken() == token ? event : null;
+    }
+
+    /**
+     * Checks if a reader at given token has read all events in the buffer. Returns false when the buffer has not
+     * received any events yet.
+     *
+     * @param token the next token for the reader
+     * @return true if the reader has read all events in the buffer
+     */
+    boolean caughtUp(long token) {
+        long next = nextToken;
+        return next >= 0 && token >= next;
+    }
+
+    /**
+     * Removes all events from the buffer. Needed when the event store is cleared, as tokens will be reused.
+     */
+    synchronized void clear() {
+        for (int i = 0; i < buffer.length(); i++) {
+            buffer.set(i, null);
+        }
+        nextToken = -1;
+    }
+}
@@ -30,6 +30,7 @@ public class EventWriteStorage {
     private static final Logger logger = LoggerFactory.getLogger(EventWriteStorage.class);
 
     private final Map<String, BiConsumer<Long, List<SerializedEvent>>> listeners = new ConcurrentHashMap<>();
+    private final Map<String, BiConsumer<Long, List<SerializedEvent>>> preCompletionListeners = new ConcurrentHashMap<>();
     private final StorageTransactionManager storageTransactionManager;
 
 
@@ -46,6 +47,8 @@ public class EventWriteStorage {
             unreserve.set(reserveSequences(eventList));
             storageTransactionManager.store(eventList).whenComplete((firstToken, cause) -> {
                 if( cause == null) {
+                    preCompletionListeners.values()
+                                          .forEach(consumer -> eventsStored(consumer, firstToken, eventList));
                     completableFuture.complete(null);
 
                     if( ! listeners.isEmpty()) {
@@ -85,6 +88,20 @@ public class EventWriteStorage {
         return () -> listeners.remove(id);
     }
 
+    /**
+     * Registers a listener that is notified of stored events before the append is confirmed to the caller. Use this
+     * for listeners that must reflect the stored events when the caller continues, like caches of aggregate events.
+     * These listeners delay the confirmation of the append, so they must be fast.
+     *
+     * @param listener consumer of the token of the first stored event and the stored events
+     * @return registration to remove the listener
+     */
+    public Registration registerPreCompletionListener(BiConsumer<Long, List<SerializedEvent>> listener) {
+        String id = UUID.randomUUID().toString();
+        preCompletionListeners.put(id, listener);
+        return () -> preCompletionListeners.remove(id);
+    }
+
     /**
      * Returns the number of transactions in progress for appending events.
      * @return number of transactions
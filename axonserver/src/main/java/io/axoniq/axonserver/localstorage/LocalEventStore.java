@@ -26,6 +26,7 @@ import io.axoniq.axonserver.grpc.event.QueryEventsResponse;
 import io.axoniq.axonserver.grpc.event.ReadHighestSequenceNrRequest;
 import io.axoniq.axonserver.grpc.event.ReadHighestSequenceNrResponse;
 import io.axoniq.axonserver.grpc.event.TrackingToken;
+import io.axoniq.axonserver.localstorage.query.ParallelQueryExecutor;
 import io.axoniq.axonserver.localstorage.query.QueryEventsRequestStreamObserver;
 import io.axoniq.axonserver.localstorage.transaction.StorageTransactionManagerFactory;
 import io.axoniq.axonserver.metric.BaseMetricName;
@@ -99,6 +100,25 @@ public class LocalEventStore implements io.axoniq.axonserver.message.event.Event
     private long newPermitsTimeout = 120000;
     @Value("${axoniq.axonserver.check-sequence-nr-for-snapshots:true}")
     private boolean checkSequenceNrForSnapshots = true;
+    /**
+     * Number of recently stored events kept in memory per context, to be shared by all tracking event processors that
+     * have caught up with the head of the event store.
+     */
+    @Value("${axoniq.axonserver.tracker-tail-buffer-size:8192}")
+    private int trackerTailBufferSize = 8192;
+    /**
+     * Number of segments read concurrently by an ad-hoc query. Queries with live updates are always executed
+     * sequentially.
+     */
+    @Value("${axoniq.axonserver.query.parallelism:1}")
+    private int queryParallelism = 1;
+    /**
+     * Maximum size in bytes of the events of recently used aggregates kept in memory per context. Set to 0 to disable
+     * the cache.
+     */
+    @Value("${axoniq.axonserver.aggregate-cache-size:0}")
+    private long aggregateCacheSize = 0;
+    private volatile ParallelQueryExecutor parallelQueryExecutor;
 
     public LocalEventStore(EventStoreFactory eventStoreFactory, MeterRegistry meterFactory,
                            StorageTransactionManagerFactory storageTransactionManagerFactory) {
@@ -487,7 +507,31 @@ public class LocalEventStore implements io.axoniq.axonserver.message.event.Event
                                                     defaultLimit,
                                                     timeout,
                                                     eventDecorator,
-                                                    responseObserver);
+                                                    responseObserver,
+                                                    parallelQueryExecutor());
+    }
+
+    private ParallelQueryExecutor parallelQueryExecutor() {
+        if (queryParallelism <= 1) {
+            return null;
+        }
+        if (parallelQueryExecutor == null) {
+            synchronized (workersMap) {
+                if (parallelQueryExecutor == null) {
+                    parallelQueryExecutor = new ParallelQueryExecutor(queryParallelism);
+                }
+            }
+        }
+        return parallelQueryExecutor;
+    }
+
+    private void stopParallelQueryExecutor() {
+        synchronized (workersMap) {
+            if (parallelQueryExecutor != null) {
+                parallelQueryExecutor.shutdown();
+                parallelQueryExecutor = null;
+            }
+        }
     }
 
     @Override
@@ -500,6 +544,7 @@ public class LocalEventStore implements io.axoniq.axonserver.message.event.Event
         running = false;
         dataFetcher.shutdown();
         workersMap.forEach((k, workers) -> workers.close(false));
+        stopParallelQueryExecutor();
         try {
             dataFetcher.awaitTermination(10, TimeUnit.SECONDS);
         } catch (InterruptedException e) {
@@ -577,7 +622,7 @@ public class LocalEventStore implements io.axoniq.axonserver.message.event.Event
         try {
             Workers worker = workers(context);
             worker.eventSyncStorage.sync(value.getToken(), value.getEvents());
-            worker.triggerTrackerEventProcessors();
+            worker.eventsSynced(value.getToken(), value.getEvents());
             return value.getToken() + value.getEvents().size();
         } catch (MessagingPlatformException ex) {
             if (ErrorCode.NO_EVENTSTORE.equals(ex.getErrorCode())) {
@@ -652,6 +697,7 @@ public class LocalEventStore implements io.axoniq.axonserver.message.event.Event
         private final EventWriteStorage eventWriteStorage;
         private final SnapshotWriteStorage snapshotWriteStorage;
         private final AggregateReader aggregateReader;
+        private final AggregateEventCache aggregateEventCache;
         private final EventStreamReader eventStreamReader;
         private final EventStorageEngine eventStorageEngine;
         private final EventStorageEngine snapshotStorageEngine;
@@ -673,13 +719,24 @@ public class LocalEventStore implements io.axoniq.axonserver.message.event.Event
                                                                    .createTransactionManager(this.eventStorageEngine));
             this.snapshotWriteStorage = new SnapshotWriteStorage(storageTransactionManagerFactory
                                                                          .createTransactionManager(this.snapshotStorageEngine));
-            this.aggregateReader = new AggregateReader(eventStorageEngine, new SnapshotReader(snapshotStorageEngine));
-            this.trackingEventManager = new TrackingEventProcessorManager(eventStorageEngine, blacklistedSendAfter);
+            this.aggregateEventCache = aggregateCacheSize > 0 ?
+                    new AggregateEventCache(aggregateCacheSize, meterFactory, Tags.of(MeterFactory.CONTEXT, context)) :
+                    null;
+            this.aggregateReader = new AggregateReader(eventStorageEngine,
+                                                       new SnapshotReader(snapshotStorageEngine),
+                                                       aggregateEventCache);
+            this.trackingEventManager = new TrackingEventProcessorManager(eventStorageEngine,
+                                                                        blacklistedSendAfter,
+                                                                        trackerTailBufferSize);
 
             this.eventStreamReader = new EventStreamReader(eventStorageEngine);
             this.snapshotSyncStorage = new SyncStorage(snapshotStorageEngine);
             this.eventSyncStorage = new SyncStorage(eventStorageEngine);
-            this.eventWriteStorage.registerEventListener((token, events) -> this.trackingEventManager.reschedule());
+            this.eventWriteStorage.registerEventListener(this.trackingEventManager::eventsStored);
+            if (aggregateEventCache != null) {
+                this.eventWriteStorage.registerPreCompletionListener(aggregateEventCache::eventsStored);
+                this.eventStorageEngine.registerRollbackListener(aggregateEventCache::clear);
+            }
             this.gauge = meterFactory.gauge(BaseMetricName.AXON_EVENT_LAST_TOKEN,
                                             Tags.of(MeterFactory.CONTEXT, context),
                                             context,
@@ -721,6 +778,9 @@ public class LocalEventStore implements io.axoniq.axonserver.message.event.Event
             snapshotStorageEngine.close(deleteData);
             meterFactory.remove(gauge);
             meterFactory.remove(snapshotGauge);
+            if (aggregateEventCache != null) {
+                aggregateEventCache.close();
+            }
         }
 
         private TrackingEventProcessorManager.EventTracker createEventTracker(long trackingToken,
@@ -733,8 +793,11 @@ public class LocalEventStore implements io.axoniq.axonserver.message.event.Event
                                                            eventStream);
         }
 
-        private void triggerTrackerEventProcessors() {
-            trackingEventManager.reschedule();
+        private void eventsSynced(long firstToken, List<SerializedEvent> events) {
+            trackingEventManager.eventsStored(firstToken, events);
+            if (aggregateEventCache != null) {
+                aggregateEventCache.eventsStored(firstToken, events);
+            }
         }
 
 
@@ -758,6 +821,10 @@ public class LocalEventStore implements io.axoniq.axonserver.message.event.Event
         public void deleteAllEventData() {
             eventWriteStorage.deleteAllEventData();
             snapshotWriteStorage.deleteAllEventData();
+            trackingEventManager.clearTailBuffer();
+            if (aggregateEventCache != null) {
+                aggregateEventCache.clear();
+            }
         }
     }
 }
@@ -20,6 +20,7 @@ public class QueryOptions {
     private final long minToken;
     private final long maxToken;
     private final long minTimestamp;
+    private final String payloadType;
 
     /**
      * @param minToken     minumum token of events to process
@@ -27,9 +28,20 @@ public class QueryOptions {
      * @param minTimestamp minimum timestamp of events to process
      */
     public QueryOptions(long minToken, long maxToken, long minTimestamp) {
+        this(minToken, maxToken, minTimestamp, null);
+    }
+
+    /**
+     * @param minToken     minumum token of events to process
+     * @param maxToken     maximum token of events to process
+     * @param minTimestamp minimum timestamp of events to process
+     * @param payloadType  payload type of events to process, null for all payload types
+     */
+    public QueryOptions(long minToken, long maxToken, long minTimestamp, String payloadType) {
         this.minToken = minToken;
         this.maxToken = maxToken;
         this.minTimestamp = minTimestamp;
+        this.payloadType = payloadType;
     }
 
     public long getMinToken() {
@@ -43,4 +55,8 @@ public class QueryOptions {
     public long getMinTimestamp() {
         return minTimestamp;
     }
+
+    public String getPayloadType() {
+        return payloadType;
+    }
 }
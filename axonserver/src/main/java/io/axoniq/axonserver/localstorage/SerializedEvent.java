@@ -15,11 +15,12 @@ import io.axoniq.axonserver.exception.ErrorCode;
 import io.axoniq.axonserver.exception.MessagingPlatformException;
 import io.axoniq.axonserver.grpc.MetaDataValue;
 import io.axoniq.axonserver.grpc.event.Event;
+import io.axoniq.axonserver.grpc.event.PayloadDescription;
 import org.springframework.util.StringUtils;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
@@ -32,34 +33,54 @@ import static org.apache.commons.compress.utils.IOUtils.toByteArray;
  */
 public class SerializedEvent  {
 
-    private final byte[] serializedData;
+    private volatile byte[] serializedData;
+    /**
+     * Read-only view on the serialized event in a (memory mapped) buffer, null when the event is created from bytes.
+     */
+    private final ByteBuffer serializedBuffer;
     private volatile Event event;
+    private volatile EventHeader header;
 
     public SerializedEvent(Event event) {
         this.serializedData = event.toByteArray();
+        this.serializedBuffer = null;
         this.event = event;
     }
 
     public SerializedEvent(byte[] eventFromFile) {
         this.serializedData = eventFromFile;
+        this.serializedBuffer = null;
+    }
+
+    /**
+     * Creates a serialized event backed by a slice of a buffer, without copying the data. The buffer must contain
+     * exactly the serialized event (from position 0 to the limit), and must remain valid as long as this instance is
+     * used.
+     *
+     * @param serializedBuffer the buffer containing the serialized event
+     */
+    public SerializedEvent(ByteBuffer serializedBuffer) {
+        this.serializedBuffer = serializedBuffer.asReadOnlyBuffer();
     }
 
     public SerializedEvent(InputStream event) {
         try {
             this.serializedData = toByteArray(event);
+            this.serializedBuffer = null;
         } catch (IOException e) {
             throw new MessagingPlatformException(ErrorCode.DATAFILE_READ_ERROR, e.getMessage(), e);
         }
     }
 
     public InputStream asInputStream() {
-        return new ByteArrayInputStream(serializedData);
+        return new DrainableInputStream(asByteBuffer());
     }
 
     public Event asEvent() {
         if (event == null) {
             try {
-                event = Event.parseFrom(serializedData);
+                byte[] data = serializedData;
+                event = data == null ? Event.parseFrom(asByteBuffer()) : Event.parseFrom(data);
             } catch (InvalidProtocolBufferException e) {
                 throw new MessagingPlatformException(ErrorCode.DATAFILE_READ_ERROR, e.getMessage(), e);
             }
@@ -68,11 +89,39 @@ public class SerializedEvent  {
     }
 
     public int size() {
-        return serializedData.length;
+        return serializedData == null ? serializedBuffer.limit() : serializedData.length;
     }
 
+    /**
+     * Returns the serialized event as a byte array. For an event backed by a buffer, the data is copied the first time
+     * this method is called.
+     *
+     * @return the serialized event
+     */
     public byte[] serializedData() {
-        return serializedData;
+        byte[] data = serializedData;
+        if (data == null) {
+            data = new byte[serializedBuffer.limit()];
+            asByteBuffer().get(data);
+            serializedData = data;
+        }
+        return data;
+    }
+
+    /**
+     * Returns a new buffer containing the serialized event, positioned at the start of the event. Does not copy the
+     * data.
+     *
+     * @return a buffer containing the serialized event
+     */
+    public ByteBuffer asByteBuffer() {
+        byte[] data = serializedData;
+        if (data != null) {
+            return ByteBuffer.wrap(data);
+        }
+        ByteBuffer buffer = serializedBuffer.duplicate();
+        buffer.position(0);
+        return buffer;
     }
 
     public long getAggregateSequenceNumber() {
@@ -99,6 +148,40 @@ public class SerializedEvent  {
         return asEvent().getPayload().getRevision();
     }
 
+    /**
+     * Returns the payload type and revision of the event. If the event has not been parsed yet, the values are taken
+     * from the {@link #header()}, without parsing the complete event.
+     *
+     * @return the payload type and revision
+     */
+    public PayloadDescription payloadDescription() {
+        EventHeader eventHeader = header();
+        return PayloadDescription.newBuilder()
+                                 .setType(eventHeader.getPayloadType())
+                                 .setRevision(eventHeader.getPayloadRevision())
+                                 .build();
+    }
+
+    /**
+     * Returns the header fields of the event. If the event has not been parsed yet, the header is read by scanning
+     * the serialized data, skipping the payload data and the meta data. The result is cached.
+     *
+     * @return the header of the event
+     */
+    public EventHeader header() {
+        EventHeader current = header;
+        if (current == null) {
+            Event parsed = event;
+            try {
+                current = parsed == null ? EventHeader.scan(asByteBuffer()) : EventHeader.from(parsed);
+            } catch (IOException e) {
+                throw new MessagingPlatformException(ErrorCode.DATAFILE_READ_ERROR, e.getMessage(), e);
+            }
+            header = current;
+        }
+        return current;
+    }
+
     public long getTimestamp() {
         return asEvent().getTimestamp();
     }
@@ -150,15 +233,15 @@ public class SerializedEvent  {
             return false;
         }
         SerializedEvent that = (SerializedEvent) o;
-        return Arrays.equals(serializedData, that.serializedData);
+        return Arrays.equals(serializedData(), that.serializedData());
     }
 
     @Override
     public int hashCode() {
-        return Arrays.hashCode(serializedData);
+        return Arrays.hashCode(serializedData());
     }
 
     public ByteString asByteString() {
-        return ByteString.copyFrom(serializedData);
+        return ByteString.copyFrom(asByteBuffer());
     }
 }
@@ -15,8 +15,8 @@ import io.axoniq.axonserver.exception.ErrorCode;
 import io.axoniq.axonserver.exception.MessagingPlatformException;
 import io.axoniq.axonserver.grpc.event.Event;
 import io.axoniq.axonserver.grpc.event.EventWithToken;
+import io.axoniq.axonserver.grpc.event.PayloadDescription;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -28,6 +28,7 @@ public class SerializedEventWithToken {
 
     private final long token;
     private final SerializedEvent serializedEvent;
+    private volatile PayloadDescription payloadDescription;
 
     public SerializedEventWithToken(long token, SerializedEvent event) {
         this.serializedEvent = event;
@@ -39,8 +40,8 @@ public class SerializedEventWithToken {
     }
 
     public InputStream asInputStream() {
-        byte[] bytes = new byte[serializedEvent.size() + 32]; // extra space for tags, token and some to spare(see sizes below)
-        CodedOutputStream cos = CodedOutputStream.newInstance(bytes);
+        byte[] header = new byte[24]; // space for tags, token and length of the event (see sizes below)
+        CodedOutputStream cos = CodedOutputStream.newInstance(header);
         try {
             if (token != 0L) {
                 cos.writeInt64(EventWithToken.TOKEN_FIELD_NUMBER, token); // max 14 bytes long
@@ -48,9 +49,9 @@ public class SerializedEventWithToken {
             // 'manually' encode the event, as we have the serialized form already
             cos.writeTag(EventWithToken.EVENT_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED); // max 5 bytes
             cos.writeUInt32NoTag(serializedEvent.size()); // max 5 bytes
-            cos.writeRawBytes(serializedEvent.serializedData());
             cos.flush();
-            return new ByteArrayInputStream(bytes, 0, cos.getTotalBytesWritten());
+            // the event itself is not copied, it is drained from its buffer when the message is sent
+            return new DrainableInputStream(header, cos.getTotalBytesWritten(), serializedEvent.asByteBuffer());
         } catch (IOException e) {
             throw new MessagingPlatformException(ErrorCode.OTHER, "Unable to writed to Coded Stream", e);
         }
@@ -68,6 +69,21 @@ public class SerializedEventWithToken {
         return serializedEvent.asEvent();
     }
 
+    /**
+     * Returns the payload type and revision of the event, without parsing the complete event. The result is cached, as
+     * the same instance may be checked by multiple trackers.
+     *
+     * @return the payload type and revision
+     */
+    public PayloadDescription payloadDescription() {
+        PayloadDescription description = payloadDescription;
+        if (description == null) {
+            description = serializedEvent.payloadDescription();
+            payloadDescription = description;
+        }
+        return description;
+    }
+
     public SerializedEvent getSerializedEvent() {
         return serializedEvent;
     }
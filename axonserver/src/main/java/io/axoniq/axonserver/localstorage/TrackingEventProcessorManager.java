@@ -20,20 +20,19 @@ import org.springframework.data.util.CloseableIterator;
 import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 import java.io.InputStream;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
-import static java.util.concurrent.TimeUnit.MILLISECONDS;
-
 /**
  * Manages all tracking event processors for a single context.
  *
@@ -43,14 +42,28 @@ import static java.util.concurrent.TimeUnit.MILLISECONDS;
 public class TrackingEventProcessorManager {
 
     private static final int MAX_EVENTS_PER_RUN = 500;
+    private static final int DEFAULT_TAIL_BUFFER_SIZE = 8192;
     private static final Logger logger = LoggerFactory.getLogger(TrackingEventProcessorManager.class);
 
-    private final ScheduledExecutorService scheduledExecutorService;
+    private final ExecutorService executorService;
     private final Set<EventTracker> eventTrackerSet = ConcurrentHashMap.newKeySet();
+    /**
+     * Trackers that have permits and events to send.
+     */
+    private final Queue<EventTracker> readyTrackers = new ConcurrentLinkedQueue<>();
+    /**
+     * Trackers that have permits, but have sent all available events.
+     */
+    private final Set<EventTracker> waitingTrackers = ConcurrentHashMap.newKeySet();
+    /**
+     * Incremented each time new events are available, to detect events stored while a tracker was running.
+     */
+    private final AtomicLong storeVersion = new AtomicLong();
     private final AtomicBoolean replicationRunning = new AtomicBoolean();
     private final String context;
     private final Function<Long, CloseableIterator<SerializedEventWithToken>> iteratorBuilder;
     private final int blacklistedSendAfter;
+    private final EventTailBuffer tailBuffer;
 
     /**
      * Constructor for {@link TrackingEventProcessorManager}.
@@ -58,7 +71,21 @@ public class TrackingEventProcessorManager {
      * @param blacklistedSendAfter max number of ignored events before sending next event
      */
     public TrackingEventProcessorManager(EventStorageEngine eventStorageEngine, int blacklistedSendAfter) {
-        this(eventStorageEngine.getType().getContext(), eventStorageEngine::getGlobalIterator, blacklistedSendAfter);
+        this(eventStorageEngine, blacklistedSendAfter, DEFAULT_TAIL_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructor for {@link TrackingEventProcessorManager}.
+     * @param eventStorageEngine the event storage engine
+     * @param blacklistedSendAfter max number of ignored events before sending next event
+     * @param tailBufferSize number of recently stored events kept for tracking event processors that are caught up
+     */
+    public TrackingEventProcessorManager(EventStorageEngine eventStorageEngine, int blacklistedSendAfter,
+                                         int tailBufferSize) {
+        this(eventStorageEngine.getType().getContext(),
+             eventStorageEngine::getGlobalIterator,
+             blacklistedSendAfter,
+             tailBufferSize);
     }
 
     /**
@@ -68,18 +95,32 @@ public class TrackingEventProcessorManager {
      * @param blacklistedSendAfter max number of ignored events before sending next event
      */
     TrackingEventProcessorManager(String context, Function<Long, CloseableIterator<SerializedEventWithToken>> iteratorBuilder, int blacklistedSendAfter) {
+        this(context, iteratorBuilder, blacklistedSendAfter, DEFAULT_TAIL_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructor for {@link TrackingEventProcessorManager} for easier testing.
+     * @param context the context for the storage engine
+     * @param iteratorBuilder function that creates an event iterator
+     * @param blacklistedSendAfter max number of ignored events before sending next event
+     * @param tailBufferSize number of recently stored events kept for tracking event processors that are caught up
+     */
+    TrackingEventProcessorManager(String context,
+                                  Function<Long, CloseableIterator<SerializedEventWithToken>> iteratorBuilder,
+                                  int blacklistedSendAfter, int tailBufferSize) {
         this.context = context;
+        this.tailBuffer = new EventTailBuffer(tailBufferSize);
         this.iteratorBuilder = iteratorBuilder;
-        // Use 2 threads (one to send events and one to avoid queuing of reschedules.
-        this.scheduledExecutorService = Executors.newScheduledThreadPool(2, new CustomizableThreadFactory(
+        this.executorService = Executors.newSingleThreadExecutor(new CustomizableThreadFactory(
                 context + "-trackers-"));
         this.blacklistedSendAfter = blacklistedSendAfter;
     }
 
     /**
-     * Send events to all tracking event processors until there are no new events or no tracking event processors ready to
-     * receive events. If there are tracking event processors left after processing one run, it reschedules to try again
-     * after 100ms.
+     * Sends events to the tracking event processors in the ready queue until the queue is empty. A tracker is added to
+     * the ready queue when it is started, when it receives new permits and when new events are stored while it is
+     * waiting for events. A tracker that reaches the maximum number of events per run is added to the end of the queue
+     * again, so other trackers get their turn.
      * Only one instance of this operation will run.
      */
     private void sendEvents() {
@@ -88,42 +129,57 @@ public class TrackingEventProcessorManager {
             return;
         }
         try {
-            int runsWithoutChanges = 0;
-            List<EventTracker> failedReplicators = new ArrayList<>();
-            while (runsWithoutChanges < 3) {
-                int sent = 0;
-                failedReplicators.clear();
-                for (EventTracker raftPeer : eventTrackerSet) {
-                    try {
-                        sent += raftPeer.sendNext();
-                    } catch (Throwable ex) {
-                        failedReplicators.add(raftPeer);
-                    }
-                }
-                if (!failedReplicators.isEmpty()) {
-                    logger.debug("{}: removing {} replicators",
-                                context,
-                                failedReplicators.size());
-                    eventTrackerSet.removeAll(failedReplicators);
-                    logger.debug("{}: {} replicators remaining",
-                                context,
-                                eventTrackerSet.size());
+            EventTracker eventTracker;
+            while ((eventTracker = readyTrackers.poll()) != null) {
+                eventTracker.queued.set(false);
+                long version = storeVersion.get();
+                int sent;
+                try {
+                    sent = eventTracker.sendNext();
+                } catch (Throwable ex) {
+                    logger.debug("{}: removing tracker for {}", context, eventTracker.client);
+                    eventTrackerSet.remove(eventTracker);
+                    continue;
                 }
 
-                if (sent == 0) {
-                    runsWithoutChanges++;
-                } else {
-                    runsWithoutChanges = 0;
+                if (!eventTracker.running) {
+                    eventTrackerSet.remove(eventTracker);
+                } else if (sent >= MAX_EVENTS_PER_RUN) {
+                    eventTracker.enqueue();
+                } else if (eventTracker.permits.get() > 0) {
+                    waitForEvents(eventTracker, version);
                 }
             }
         } finally {
             replicationRunning.set(false);
-            if (!eventTrackerSet.isEmpty()) {
-                scheduledExecutorService.schedule(this::sendEvents,
-                                                  100,
-                                                  MILLISECONDS);
+            if (!readyTrackers.isEmpty()) {
+                startSendEvents();
+            }
+        }
+    }
+
+    /**
+     * Parks a tracker until new events are stored. If events were stored since the tracker started its last run, the
+     * tracker may have missed the wakeup, so it is added to the ready queue immediately.
+     */
+    private void waitForEvents(EventTracker eventTracker, long version) {
+        waitingTrackers.add(eventTracker);
+        if (storeVersion.get() != version && waitingTrackers.remove(eventTracker)) {
+            eventTracker.enqueue();
+        }
+    }
+
+    /**
+     * Moves all trackers waiting for new events to the ready queue and starts the sendEvents operation.
+     */
+    private void wakeWaitingTrackers() {
+        storeVersion.incrementAndGet();
+        for (EventTracker eventTracker : waitingTrackers) {
+            if (waitingTrackers.remove(eventTracker)) {
+                eventTracker.enqueue();
             }
         }
+        startSendEvents();
     }
 
 
@@ -144,12 +200,39 @@ public class TrackingEventProcessorManager {
     /**
      * Starts the sendEvents operation if it is not running.
      */
-    public void reschedule() {
-        if (!replicationRunning.get()) {
-            this.scheduledExecutorService.execute(this::sendEvents);
+    private void startSendEvents() {
+        if (!replicationRunning.get() && !executorService.isShutdown()) {
+            this.executorService.execute(this::sendEvents);
         }
     }
 
+    /**
+     * Wakes up the tracking event processors that are waiting for new events and starts the sendEvents operation if it
+     * is not running.
+     */
+    public void reschedule() {
+        wakeWaitingTrackers();
+    }
+
+    /**
+     * Adds newly stored events to the tail buffer shared by the tracking event processors that are caught up, and
+     * starts the sendEvents operation.
+     *
+     * @param firstToken the token of the first stored event
+     * @param events     the stored events
+     */
+    public void eventsStored(long firstToken, List<SerializedEvent> events) {
+        tailBuffer.append(firstToken, events);
+        wakeWaitingTrackers();
+    }
+
+    /**
+     * Clears the tail buffer. Must be called when all events are deleted from the event store, as tokens will be reused.
+     */
+    public void clearTailBuffer() {
+        tailBuffer.clear();
+    }
+
     /**
      * Stop all tracking event processors.
      */
@@ -177,7 +260,7 @@ public class TrackingEventProcessorManager {
      */
     public void close() {
         stopAll();
-        scheduledExecutorService.shutdown();
+        executorService.shutdown();
     }
 
     /**
@@ -204,6 +287,10 @@ public class TrackingEventProcessorManager {
         private final Set<PayloadDescription> blacklistedTypes = new CopyOnWriteArraySet<>();
         private volatile int force = blacklistedSendAfter;
         private final boolean forceReadingFromLeader;
+        /**
+         * Set when the tracker is in the ready queue, to avoid adding it twice.
+         */
+        private final AtomicBoolean queued = new AtomicBoolean();
 
         private EventTracker(long trackingToken, String clientId, boolean forceReadingFromLeader,
                              StreamObserver<InputStream> eventStream) {
@@ -219,18 +306,18 @@ public class TrackingEventProcessorManager {
                 throw new MessagingPlatformException(ErrorCode.OTHER,
                                                      context + ":Tracking event processor stopped for " + client);
             }
-            if (eventIterator == null) {
-                eventIterator = iteratorBuilder.apply(nextToken.get());
-            }
 
             int count = 0;
             try {
                 while (running
                         && permits.get() > 0
                         && count < MAX_EVENTS_PER_RUN
-                        && eventIterator.hasNext()
                 ) {
-                    SerializedEventWithToken next = eventIterator.next();
+                    SerializedEventWithToken next = nextEvent();
+                    if (next == null) {
+                        break;
+                    }
+                    nextToken.set(next.getToken() + 1);
                     if( !blacklisted(next)) {
                         eventStream.onNext(next.asInputStream());
                         if (permits.decrementAndGet() == 0) {
@@ -250,14 +337,37 @@ public class TrackingEventProcessorManager {
             return count;
         }
 
-        private boolean blacklisted(SerializedEventWithToken next) {
-            return force > 1 && !blacklistedTypes.isEmpty() && blacklistedTypes.contains(payloadType(next));
+        /**
+         * Returns the next event for this tracker. Reads from the shared tail buffer when it contains the next token, or
+         * when the tracker has already read all events in the tail buffer. Otherwise the tracker is behind, and it reads
+         * from its own iterator on the event store.
+         *
+         * @return the next event or null when there are no new events
+         */
+        private SerializedEventWithToken nextEvent() {
+            long token = nextToken.get();
+            SerializedEventWithToken next = tailBuffer.get(token);
+            if (next != null || tailBuffer.caughtUp(token)) {
+                closeIterator();
+                return next;
+            }
+
+            if (eventIterator == null) {
+                eventIterator = iteratorBuilder.apply(token);
+            }
+            return eventIterator.hasNext() ? eventIterator.next() : null;
+        }
+
+        private void closeIterator() {
+            CloseableIterator<SerializedEventWithToken> iterator = eventIterator;
+            if (iterator != null) {
+                eventIterator = null;
+                iterator.close();
+            }
         }
 
-        private PayloadDescription payloadType(SerializedEventWithToken next) {
-            return PayloadDescription.newBuilder().
-                    setRevision(next.asEvent().getPayload().getRevision()).setType(next.asEvent().getPayload().getType()).
-                    build();
+        private boolean blacklisted(SerializedEventWithToken next) {
+            return force > 1 && !blacklistedTypes.isEmpty() && blacklistedTypes.contains(next.payloadDescription());
         }
 
         private void sendError(Exception ex) {
@@ -266,20 +376,27 @@ public class TrackingEventProcessorManager {
 
         public void addPermits(int newPermits) {
             permits.addAndGet(newPermits);
-            reschedule();
+            enqueue();
+            startSendEvents();
+        }
+
+        private void enqueue() {
+            if (running && queued.compareAndSet(false, true)) {
+                readyTrackers.add(this);
+            }
         }
 
         public void close() {
             running = false;
-            if (eventIterator != null) {
-                eventIterator.close();
-                eventIterator = null;
-            }
+            eventTrackerSet.remove(this);
+            waitingTrackers.remove(this);
+            closeIterator();
         }
 
         public void start() {
             eventTrackerSet.add(this);
-            reschedule();
+            enqueue();
+            startSendEvents();
         }
 
         public void stop() {
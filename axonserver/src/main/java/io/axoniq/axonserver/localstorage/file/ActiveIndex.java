@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+
+package io.axoniq.axonserver.localstorage.file;
+
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Index for an active (writable) segment. Keeps the positions of the events per aggregate until the segment is
+ * completed and the index is written to disk.
+ *
+ * @author Marc Gathier
+ * @since 4.5
+ */
+public interface ActiveIndex {
+
+    /**
+     * Adds a new index entry for an aggregate.
+     *
+     * @param aggregateId the identifier for the aggregate
+     * @param indexEntry  position, sequence number and token of the new entry
+     */
+    void add(String aggregateId, IndexEntry indexEntry);
+
+    /**
+     * Adds a number of index entries for an aggregate.
+     *
+     * @param aggregateId  the identifier for the aggregate
+     * @param indexEntries the entries to add, ordered by sequence number
+     */
+    void addAll(String aggregateId, List<IndexEntry> indexEntries);
+
+    /**
+     * Returns the index entries for an aggregate, or null when the aggregate does not occur in the segment.
+     *
+     * @param aggregateId the identifier for the aggregate
+     * @return the index entries for the aggregate
+     */
+    IndexEntries get(String aggregateId);
+
+    /**
+     * Returns the number of aggregates in the index.
+     *
+     * @return the number of aggregates in the index
+     */
+    int size();
+
+    /**
+     * Performs the given action for each aggregate in the index.
+     *
+     * @param action the action to perform for each aggregate identifier and its index entries
+     */
+    void forEach(BiConsumer<String, IndexEntries> action);
+
+    /**
+     * Releases resources held by the index. The index must not be used after it is closed.
+     */
+    default void close() {
+        // no-action
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+package io.axoniq.axonserver.localstorage.file;
+
+import io.axoniq.axonserver.exception.ErrorCode;
+import io.axoniq.axonserver.exception.MessagingPlatformException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Checkpoint of the index of the active segment, used at startup to avoid reading all events in the active segment to
+ * rebuild its index. The checkpoint contains the index entries for all events before a transaction boundary, and the
+ * token and position of the first transaction after that boundary. Only the events from that position on need to be
+ * read at startup.
+ * <p>
+ * The file ends with a CRC32 checksum of its content, an incomplete or corrupt checkpoint is rejected.
+ *
+ * @author Marc Gathier
+ * @since 4.5
+ */
+public class ActiveIndexCheckpoint {
+
+    private static final byte VERSION = 1;
+
+    private final long segment;
+    private final long token;
+    private final int position;
+    private final Map<String, List<IndexEntry>> entries;
+
+    private ActiveIndexCheckpoint(long segment, long token, int position, Map<String, List<IndexEntry>> entries) {
+        this.segment = segment;
+        this.token = token;
+        this.position = position;
+        this.entries = entries;
+    }
+
+    /**
+     * Writes a checkpoint. The checkpoint is written to a temporary file first, which is then moved to the target
+     * location, so a crash during the write leaves the previous checkpoint intact. Index entries at or after the given
+     * position are not included.
+     *
+     * @param file     the target file
+     * @param segment  the segment of the active index
+     * @param token    the token of the first event after the checkpoint
+     * @param position the position of the first transaction after the checkpoint
+     * @param index    provides the index entries per aggregate
+     */
+    public static void write(File file, long segment, long token, int position,
+                             Consumer<BiConsumer<String, IndexEntries>> index) {
+        File tempFile = new File(file.getAbsolutePath() + ".temp");
+        try {
+            try (OutputStream fileOut = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+                CRC32 crc = new CRC32();
+                DataOutputStream out = new DataOutputStream(new CheckedOutputStream(fileOut, crc));
+                out.writeByte(VERSION);
+                out.writeLong(segment);
+                out.writeLong(token);
+                out.writeInt(position);
+                IOException[] failure = new IOException[1];
+                index.accept((aggregateId, indexEntries) -> {
+                    if (failure[0] == null) {
+                        try {
+                            writeEntries(out, aggregateId, indexEntries, position);
+                        } catch (IOException ioException) {
+                            failure[0] = ioException;
+                        }
+                    }
+                });
+                if (failure[0] != null) {
+                    throw failure[0];
+                }
+                out.writeBoolean(false);
+                out.flush();
+                new DataOutputStream(fileOut).writeInt((int) crc.getValue());
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ioException) {
+            FileUtils.delete(tempFile);
+            throw new MessagingPlatformException(ErrorCode.INDEX_WRITE_ERROR,
+                                                 "Failed to write active index checkpoint " + file,
+                                                 ioException);
+        }
+    }
+
+    private static void writeEntries(DataOutputStream out, String aggregateId, IndexEntries indexEntries,
+                                     int position) throws IOException {
+        List<Integer> positions = indexEntries.positions();
+        int count = 0;
+        // entries are ordered by position, entries added after the checkpoint are at the end
+        while (count < positions.size() && positions.get(count) < position) {
+            count++;
+        }
+        if (count == 0) {
+            return;
+        }
+        out.writeBoolean(true);
+        out.writeUTF(aggregateId);
+        out.writeLong(indexEntries.firstSequenceNumber());
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            out.writeInt(positions.get(i));
+        }
+    }
+
+    /**
+     * Reads a checkpoint from file.
+     *
+     * @param file the file to read
+     * @return the checkpoint
+     */
+    public static ActiveIndexCheckpoint read(File file) {
+        try (InputStream fileIn = new BufferedInputStream(new FileInputStream(file))) {
+            CRC32 crc = new CRC32();
+            DataInputStream in = new DataInputStream(new CheckedInputStream(fileIn, crc));
+            if (in.readByte() != VERSION) {
+                throw new MessagingPlatformException(ErrorCode.INDEX_READ_ERROR,
+                                                     "Invalid active index checkpoint " + file);
+            }
+            long segment = in.readLong();
+            long token = in.readLong();
+            int position = in.readInt();
+            Map<String, List<IndexEntry>> entries = new HashMap<>();
+            while (in.readBoolean()) {
+                String aggregateId = in.readUTF();
+                long sequenceNumber = in.readLong();
+                int count = in.readInt();
+                List<IndexEntry> aggregateEntries = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    // the active index does not keep the tokens of the entries
+                    aggregateEntries.add(new IndexEntry(sequenceNumber + i, in.readInt(), -1));
+                }
+                entries.put(aggregateId, aggregateEntries);
+            }
+            int expected = (int) crc.getValue();
+            if (new DataInputStream(fileIn).readInt() != expected) {
+                throw new MessagingPlatformException(ErrorCode.INDEX_READ_ERROR,
+                                                     "Invalid checksum in active index checkpoint " + file);
+            }
+            return new ActiveIndexCheckpoint(segment, token, position, entries);
+        } catch (IOException ioException) {
+            throw new MessagingPlatformException(ErrorCode.INDEX_READ_ERROR,
+                                                 "Failed to read active index checkpoint " + file,
+                                                 ioException);
+        }
+    }
+
+    /**
+     * @return the segment of the active index
+     */
+    public long segment() {
+        return segment;
+    }
+
+    /**
+     * @return the token of the first event after the checkpoint
+     */
+    public long token() {
+        return token;
+    }
+
+    /**
+     * @return the position of the first transaction after the checkpoint
+     */
+    public int position() {
+        return position;
+    }
+
+    /**
+     * @return the index entries per aggregate
+     */
+    public Map<String, List<IndexEntry>> entries() {
+        return entries;
+    }
+}
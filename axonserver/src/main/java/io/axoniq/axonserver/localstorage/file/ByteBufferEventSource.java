@@ -9,9 +9,12 @@
 
 package io.axoniq.axonserver.localstorage.file;
 
+import io.axoniq.axonserver.exception.ErrorCode;
+import io.axoniq.axonserver.exception.MessagingPlatformException;
 import io.axoniq.axonserver.localstorage.SerializedEvent;
 import io.axoniq.axonserver.localstorage.transformation.EventTransformer;
 import io.axoniq.axonserver.localstorage.transformation.EventTransformerFactory;
+import io.axoniq.axonserver.localstorage.transformation.NoOpEventTransformer;
 
 import java.nio.ByteBuffer;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -24,6 +27,8 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 public class ByteBufferEventSource implements EventSource {
     private final EventTransformer eventTransformer;
+    // transformer for transactions stored as a single frame, null when events are stored individually
+    private final EventTransformer transactionTransformer;
     private final Runnable onClose;
     private final ByteBuffer buffer;
     private final boolean main;
@@ -31,6 +36,9 @@ public class ByteBufferEventSource implements EventSource {
     private final String path;
     // indicates if the low-level clean method should be called (needed to free file lock on windows)
     private final boolean cleanerHack;
+    // indicates if events can be returned as slices of the buffer, instead of copies
+    private final boolean zeroCopy;
+    private CompressedTransaction lastTransaction;
 
     public ByteBufferEventSource(String path, ByteBuffer buffer, EventTransformerFactory eventTransformerFactory,
                                  StorageProperties storageProperties) {
@@ -38,34 +46,57 @@ public class ByteBufferEventSource implements EventSource {
         byte version = buffer.get();
         int flags = buffer.getInt();
         this.eventTransformer = eventTransformerFactory.get(version, flags);
+        this.transactionTransformer = eventTransformerFactory.getTransactionTransformer(version, flags);
         this.buffer = buffer;
         this.main = true;
         this.onClose = null;
         this.cleanerHack = storageProperties.isCleanRequired();
+        this.zeroCopy = zeroCopy(eventTransformer, cleanerHack);
     }
 
     protected ByteBufferEventSource(String path, ByteBuffer buffer, EventTransformer eventTransformer,
-                                    boolean cleanerHack, Runnable onClose) {
+                                    EventTransformer transactionTransformer, boolean cleanerHack,
+                                    Runnable onClose) {
         this.path = path;
         this.buffer = buffer;
         this.eventTransformer = eventTransformer;
+        this.transactionTransformer = transactionTransformer;
         this.onClose = onClose;
         this.main = false;
         this.cleanerHack = cleanerHack;
+        this.zeroCopy = zeroCopy(eventTransformer, cleanerHack);
     }
 
     protected ByteBufferEventSource(String path, ByteBuffer buffer, EventTransformer eventTransformer,
-                                    boolean cleanerHack) {
+                                    EventTransformer transactionTransformer, boolean cleanerHack) {
         this.path = path;
         this.buffer = buffer;
         this.eventTransformer = eventTransformer;
+        this.transactionTransformer = transactionTransformer;
         this.onClose = null;
         this.main = true;
         this.cleanerHack = cleanerHack;
+        this.zeroCopy = zeroCopy(eventTransformer, cleanerHack);
+    }
+
+    /**
+     * Events can be returned as slices of the buffer when they are stored without transformation, and when the buffer
+     * is not explicitly cleaned. A slice keeps a reference to the buffer, so the memory mapping remains valid as long
+     * as the event is used. When the buffer is explicitly cleaned, after a delay, there is no guarantee that all
+     * events are released, so events are copied.
+     */
+    private static boolean zeroCopy(EventTransformer eventTransformer, boolean cleanerHack) {
+        return !cleanerHack && eventTransformer instanceof NoOpEventTransformer;
     }
 
     public SerializedEvent readEvent() {
         int size = buffer.getInt();
+        if (zeroCopy) {
+            ByteBuffer slice = buffer.slice();
+            slice.limit(size);
+            buffer.position(buffer.position() + size);
+            return new SerializedEvent(slice);
+        }
         byte[] bytes = new byte[size];
         buffer.get(bytes);
         return new SerializedEvent(eventTransformer.fromStorage(bytes));
@@ -76,6 +107,7 @@ public class ByteBufferEventSource implements EventSource {
         return new ByteBufferEventSource(path,
                                          buffer.duplicate(),
                                          eventTransformer,
+                                         transactionTransformer,
                                          cleanerHack,
                                          duplicatesCount::decrementAndGet);
     }
@@ -88,10 +120,55 @@ public class ByteBufferEventSource implements EventSource {
     }
 
     public SerializedEvent readEvent(int position) {
+        if (transactionTransformer != null) {
+            return readCompressedEvent(position);
+        }
         buffer.position(position);
         return readEvent();
     }
 
+    /**
+     * Reads a compressed transaction, starting at the slot of the first event. Leaves the buffer positioned after the
+     * frame.
+     *
+     * @param nrOfEvents the number of events in the transaction
+     * @return the decoded transaction
+     */
+    public CompressedTransaction readTransaction(short nrOfEvents) {
+        if (transactionTransformer == null) {
+            throw new MessagingPlatformException(ErrorCode.DATAFILE_READ_ERROR,
+                                                 path + ": compressed transaction found at " + buffer.position()
+                                                         + ", but segment does not use transaction compression");
+        }
+        CompressedTransaction transaction = readFrame(buffer.position() + CompressedTransaction.SLOT_BYTES * nrOfEvents);
+        if (transaction.events().size() != nrOfEvents) {
+            throw new MessagingPlatformException(ErrorCode.DATAFILE_READ_ERROR,
+                                                 path + ": invalid number of events in transaction frame");
+        }
+        return transaction;
+    }
+
+    /**
+     * Reads an event from a compressed transaction. Keeps the last decoded transaction, as consecutive reads for an
+     * aggregate are often in the same transaction.
+     */
+    private SerializedEvent readCompressedEvent(int slotPosition) {
+        CompressedTransaction transaction = lastTransaction;
+        if (transaction == null || !transaction.containsSlot(slotPosition)) {
+            short remaining = buffer.getShort(slotPosition);
+            transaction = readFrame(CompressedTransaction.framePosition(slotPosition, remaining));
+            lastTransaction = transaction;
+        }
+        return transaction.event(slotPosition);
+    }
+
+    private CompressedTransaction readFrame(int framePosition) {
+        buffer.position(framePosition);
+        byte[] frame = new byte[buffer.getInt()];
+        buffer.get(frame);
+        return CompressedTransaction.decode(framePosition, frame, transactionTransformer, eventTransformer);
+    }
+
     @Override
     public TransactionIterator createTransactionIterator(long segment, long token, boolean validating) {
         return new TransactionByteBufferIterator(this, segment, token, validating);
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+package io.axoniq.axonserver.localstorage.file;
+
+import io.axoniq.axonserver.exception.ErrorCode;
+import io.axoniq.axonserver.exception.MessagingPlatformException;
+import io.axoniq.axonserver.localstorage.SerializedEvent;
+import io.axoniq.axonserver.localstorage.transformation.EventTransformer;
+import io.axoniq.axonserver.localstorage.transformation.ProcessedEvent;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Transaction where all events are stored as a single frame, transformed (compressed) as a whole by the transaction
+ * transformer. Compressing the transaction instead of the individual events gives better compression for small
+ * events.
+ * <p>
+ * Layout of the transaction block (between the transaction header and the checksum): one slot (short) per event,
+ * followed by the size of the frame (int) and the frame. The slot of an event contains the number of events following
+ * it in the transaction. The frame contains the events in the same layout as an uncompressed transaction (size and
+ * bytes per event). Index entries refer to the position of the slot of the event, so the frame can be found from
+ * the slot, and the event from the position in the decoded frame, even when the file can only be read forward.
+ *
+ * @author Marc Gathier
+ * @since 4.5
+ */
+public class CompressedTransaction {
+
+    /**
+     * Transaction version for compressed transactions.
+     */
+    public static final byte TRANSACTION_VERSION = 3;
+    static final int SLOT_BYTES = 2;
+
+    private final int framePosition;
+    private final List<SerializedEvent> events;
+
+    private CompressedTransaction(int framePosition, List<SerializedEvent> events) {
+        this.framePosition = framePosition;
+        this.events = events;
+    }
+
+    /**
+     * Creates the frame for a list of events.
+     *
+     * @param events                 the events in the transaction
+     * @param transactionTransformer transformer to apply to the frame
+     * @return the transformed frame
+     */
+    public static byte[] frame(List<ProcessedEvent> events, EventTransformer transactionTransformer) {
+        int size = 0;
+        for (ProcessedEvent event : events) {
+            size += Integer.BYTES + event.getSerializedSize();
+        }
+        ByteBuffer block = ByteBuffer.allocate(size);
+        for (ProcessedEvent event : events) {
+            block.putInt(event.getSerializedSize());
+            block.put(event.toByteArray());
+        }
+        return transactionTransformer.toStorage(block.array());
+    }
+
+    /**
+     * Returns the size of the transaction block (slots and frame) for a transaction.
+     *
+     * @param nrOfEvents the number of events in the transaction
+     * @param frame      the transformed frame
+     * @return the size of the transaction block
+     */
+    public static int blockSize(int nrOfEvents, byte[] frame) {
+        return SLOT_BYTES * nrOfEvents + Integer.BYTES + frame.length;
+    }
+
+    /**
+     * Writes the slots and the frame of a transaction at the current position of the buffer.
+     *
+     * @param buffer     the buffer to write to
+     * @param nrOfEvents the number of events in the transaction
+     * @param frame      the transformed frame
+     * @return the position of the slot of the first event
+     */
+    public static int write(ByteBuffer buffer, int nrOfEvents, byte[] frame) {
+        int slotsPosition = buffer.position();
+        for (int i = 0; i < nrOfEvents; i++) {
+            buffer.putShort((short) (nrOfEvents - 1 - i));
+        }
+        buffer.putInt(frame.length);
+        buffer.put(frame);
+        return slotsPosition;
+    }
+
+    /**
+     * Returns the position of the frame based on the position of a slot and its content.
+     *
+     * @param slotPosition the position of the slot
+     * @param remaining    the content of the slot
+     * @return the position of the frame
+     */
+    public static int framePosition(int slotPosition, short remaining) {
+        return slotPosition + SLOT_BYTES * (remaining + 1);
+    }
+
+    /**
+     * Decodes a transformed frame.
+     *
+     * @param framePosition          the position of the frame in the segment
+     * @param frame                  the transformed frame
+     * @param transactionTransformer the transformer applied to the frame
+     * @param eventTransformer       the transformer applied to the individual events
+     * @return the decoded transaction
+     */
+    public static CompressedTransaction decode(int framePosition, byte[] frame,
+                                               EventTransformer transactionTransformer,
+                                               EventTransformer eventTransformer) {
+        try {
+            ByteBuffer block = ByteBuffer.wrap(transactionTransformer.fromStorage(frame));
+            List<SerializedEvent> events = new ArrayList<>();
+            while (block.hasRemaining()) {
+                byte[] bytes = new byte[block.getInt()];
+                block.get(bytes);
+                events.add(new SerializedEvent(eventTransformer.fromStorage(bytes)));
+            }
+            return new CompressedTransaction(framePosition, events);
+        } catch (BufferUnderflowException | NegativeArraySizeException exception) {
+            throw new MessagingPlatformException(ErrorCode.DATAFILE_READ_ERROR,
+                                                 "Invalid transaction frame at " + framePosition,
+                                                 exception);
+        }
+    }
+
+    /**
+     * Checks if the slot at the given position is part of this transaction.
+     *
+     * @param slotPosition the position of the slot
+     * @return true if the slot is part of this transaction
+     */
+    public boolean containsSlot(int slotPosition) {
+        int slotsPosition = framePosition - SLOT_BYTES * events.size();
+        return slotPosition >= slotsPosition && slotPosition < framePosition
+                && (slotPosition - slotsPosition) % SLOT_BYTES == 0;
+    }
+
+    /**
+     * Returns the event for the slot at the given position.
+     *
+     * @param slotPosition the position of the slot
+     * @return the event
+     */
+    public SerializedEvent event(int slotPosition) {
+        if (!containsSlot(slotPosition)) {
+            throw new MessagingPlatformException(ErrorCode.DATAFILE_READ_ERROR,
+                                                 "Invalid slot " + slotPosition + " for transaction frame at "
+                                                         + framePosition);
+        }
+        int slotsPosition = framePosition - SLOT_BYTES * events.size();
+        return events.get((slotPosition - slotsPosition) / SLOT_BYTES);
+    }
+
+    /**
+     * @return the events in the transaction
+     */
+    public List<SerializedEvent> events() {
+        return events;
+    }
+}
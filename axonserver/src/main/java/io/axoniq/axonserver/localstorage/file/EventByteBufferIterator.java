@@ -11,10 +11,12 @@ package io.axoniq.axonserver.localstorage.file;
 
 import io.axoniq.axonserver.exception.ErrorCode;
 import io.axoniq.axonserver.exception.MessagingPlatformException;
+import io.axoniq.axonserver.localstorage.SerializedEvent;
 import io.axoniq.axonserver.localstorage.SerializedEventWithToken;
 
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.util.List;
 
 /**
  * @author Marc Gathier
@@ -32,6 +34,20 @@ public class EventByteBufferIterator extends EventIterator {
         forwardTo(token);
     }
 
+    /**
+     * Creates an iterator starting at a known transaction boundary in the segment.
+     *
+     * @param eventSource the segment to read
+     * @param token       the token of the first event in the transaction at the position
+     * @param position    the position of the transaction
+     */
+    public EventByteBufferIterator(ByteBufferEventSource eventSource, long token, int position) {
+        this.eventSource = eventSource;
+        this.reader = eventSource.getBuffer();
+        this.currentSequenceNumber = token;
+        reader.position(position);
+    }
+
     private void forwardTo(long firstSequence) {
             reader.position(5);
             while (firstSequence > currentSequenceNumber) {
@@ -40,7 +56,7 @@ public class EventByteBufferIterator extends EventIterator {
                 if (size == -1 || size == 0) {
                     return;
                 }
-                reader.get(); // version
+                byte version = reader.get();
                 short nrOfMessages = reader.getShort();
 
                 if (firstSequence >= currentSequenceNumber + nrOfMessages) {
@@ -48,7 +64,11 @@ public class EventByteBufferIterator extends EventIterator {
                     currentSequenceNumber += nrOfMessages;
                 } else {
                     short skip = (short) (firstSequence - currentSequenceNumber);
-                    readPartialTransaction(nrOfMessages, skip);
+                    if (version == CompressedTransaction.TRANSACTION_VERSION) {
+                        readCompressedTransaction(nrOfMessages, skip);
+                    } else {
+                        readPartialTransaction(nrOfMessages, skip);
+                    }
                     reader.getInt();
                 }
             }
@@ -67,6 +87,24 @@ public class EventByteBufferIterator extends EventIterator {
         }
     }
 
+    private void readCompressedTransaction(short nrOfMessages, short skip) {
+        try {
+            int slotsPosition = reader.position();
+            List<SerializedEvent> events = eventSource.readTransaction(nrOfMessages).events();
+            currentSequenceNumber += skip;
+            for (int i = skip; i < nrOfMessages; i++) {
+                eventsInTransaction.add(new EventInformation(slotsPosition + CompressedTransaction.SLOT_BYTES * i,
+                                                             new SerializedEventWithToken(currentSequenceNumber,
+                                                                                          events.get(i))));
+                currentSequenceNumber++;
+            }
+        } catch (BufferUnderflowException io) {
+            throw new MessagingPlatformException(ErrorCode.DATAFILE_READ_ERROR,
+                                                 "Failed to read transaction: " + currentSequenceNumber,
+                                                 io);
+        }
+    }
+
     private void addEvent() {
         try {
             int position = reader.position();
@@ -83,10 +121,14 @@ public class EventByteBufferIterator extends EventIterator {
                 reader.position(reader.position()-4);
                 return false;
             }
-            reader.get(); // version
+            byte version = reader.get();
             short nrOfMessages = reader.getShort();
-            for( int idx = 0; idx < nrOfMessages ; idx++) {
-                addEvent();
+            if (version == CompressedTransaction.TRANSACTION_VERSION) {
+                readCompressedTransaction(nrOfMessages, (short) 0);
+            } else {
+                for (int idx = 0; idx < nrOfMessages; idx++) {
+                    addEvent();
+                }
             }
             reader.getInt(); // checksum
             return true;
@@ -21,11 +21,18 @@ public class FilePreparedTransaction extends PreparedTransaction {
 
     private final WritePosition writePosition;
     private final int eventSize;
+    private final byte[] frame;
 
     public FilePreparedTransaction(WritePosition writePosition, int eventSize, List<ProcessedEvent> eventList) {
+        this(writePosition, eventSize, eventList, null);
+    }
+
+    public FilePreparedTransaction(WritePosition writePosition, int eventSize, List<ProcessedEvent> eventList,
+                                   byte[] frame) {
         super( writePosition.sequence, eventList);
         this.writePosition = writePosition;
         this.eventSize = eventSize;
+        this.frame = frame;
     }
 
     public WritePosition getWritePosition() {
@@ -35,4 +42,11 @@ public class FilePreparedTransaction extends PreparedTransaction {
     public int getEventSize() {
         return eventSize;
     }
+
+    /**
+     * @return the compressed frame containing all events, null when the events are stored individually
+     */
+    public byte[] getFrame() {
+        return frame;
+    }
 }
@@ -13,6 +13,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.SortedMap;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
 import java.util.stream.Stream;
 
 /**
@@ -83,6 +85,25 @@ public interface IndexManager {
     SortedMap<Long, IndexEntries> lookupAggregate(String aggregateId, long firstSequenceNumber, long lastSequenceNumber,
                                                   long maxResults, long minToken);
 
+    /**
+     * Finds all locations of events for the given aggregate within range of sequence numbers specified. Implementations
+     * may use the given executor to search multiple segments in parallel. The default implementation searches the
+     * segments sequentially.
+     *
+     * @param aggregateId         the aggregate identifier
+     * @param firstSequenceNumber minimum sequence number for the events returned (inclusive)
+     * @param lastSequenceNumber  maximum sequence number for the events returned (exclusive)
+     * @param maxResults          maximum number of results allowed
+     * @param minToken            minimum token hint for the entries to return
+     * @param executor            executor to search segments in parallel
+     * @return map of positions per segment
+     */
+    default SortedMap<Long, IndexEntries> lookupAggregate(String aggregateId, long firstSequenceNumber,
+                                                          long lastSequenceNumber, long maxResults, long minToken,
+                                                          Executor executor) {
+        return lookupAggregate(aggregateId, firstSequenceNumber, lastSequenceNumber, maxResults, minToken);
+    }
+
     /**
      * Stops index manager and optionally deletes all indexes.
      *
@@ -116,4 +137,15 @@ public interface IndexManager {
      * @param indexEntries list of index entries to add
      */
     void addToActiveSegment(Long segment, Map<String, List<IndexEntry>> indexEntries);
+
+    /**
+     * Performs the given action for each aggregate in the active index of a segment. Does nothing when the segment
+     * has no active index.
+     *
+     * @param segment the segment number
+     * @param action  the action to perform for each aggregate identifier and its index entries
+     */
+    default void forEachInActiveSegment(long segment, BiConsumer<String, IndexEntries> action) {
+        // no-action
+    }
 }
@@ -11,9 +11,11 @@ package io.axoniq.axonserver.localstorage.file;
 
 import io.axoniq.axonserver.exception.ErrorCode;
 import io.axoniq.axonserver.exception.MessagingPlatformException;
+import io.axoniq.axonserver.localstorage.SerializedEvent;
 import io.axoniq.axonserver.localstorage.SerializedEventWithToken;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * @author Marc Gathier
@@ -41,7 +43,7 @@ public class InputStreamEventIterator extends EventIterator {
             if (size == -1 || size == 0) {
                 return;
             }
-            processVersion(reader);
+            byte version = processVersion(reader);
             short nrOfMessages = reader.readShort();
 
             if (firstSequence >= currentSequenceNumber + nrOfMessages) {
@@ -49,7 +51,11 @@ public class InputStreamEventIterator extends EventIterator {
                 currentSequenceNumber += nrOfMessages;
             } else {
                 short skip = (short) (firstSequence - currentSequenceNumber);
-                readPartialTransaction(nrOfMessages, skip);
+                if (version == CompressedTransaction.TRANSACTION_VERSION) {
+                    readCompressedTransaction(nrOfMessages, skip);
+                } else {
+                    readPartialTransaction(nrOfMessages, skip);
+                }
                 reader.readInt();
             }
         }
@@ -66,6 +72,18 @@ public class InputStreamEventIterator extends EventIterator {
         }
     }
 
+    private void readCompressedTransaction(short nrOfMessages, short skip) throws IOException {
+        int slotsPosition = reader.position();
+        List<SerializedEvent> events = eventSource.readTransaction(nrOfMessages).events();
+        currentSequenceNumber += skip;
+        for (int i = skip; i < nrOfMessages; i++) {
+            eventsInTransaction.add(new EventInformation(slotsPosition + CompressedTransaction.SLOT_BYTES * i,
+                                                         new SerializedEventWithToken(currentSequenceNumber,
+                                                                                      events.get(i))));
+            currentSequenceNumber++;
+        }
+    }
+
     private void addEvent() throws IOException {
         int position = reader.position();
         eventsInTransaction.add(new EventInformation(position,
@@ -79,10 +97,14 @@ public class InputStreamEventIterator extends EventIterator {
             if (size == -1 || size == 0) {
                 return false;
             }
-            processVersion(reader);
+            byte version = processVersion(reader);
             short nrOfMessages = reader.readShort();
-            for (int idx = 0; idx < nrOfMessages; idx++) {
-                addEvent();
+            if (version == CompressedTransaction.TRANSACTION_VERSION) {
+                readCompressedTransaction(nrOfMessages, (short) 0);
+            } else {
+                for (int idx = 0; idx < nrOfMessages; idx++) {
+                    addEvent();
+                }
             }
             reader.readInt(); // checksum
             return true;
@@ -98,8 +120,8 @@ public class InputStreamEventIterator extends EventIterator {
         eventSource.close();
     }
 
-    private void processVersion(PositionKeepingDataInputStream reader) throws IOException {
-        reader.readByte();
+    private byte processVersion(PositionKeepingDataInputStream reader) throws IOException {
+        return reader.readByte();
     }
 
 
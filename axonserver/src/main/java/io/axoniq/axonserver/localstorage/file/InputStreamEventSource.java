@@ -29,6 +29,9 @@ public class InputStreamEventSource implements EventSource {
     private static final Logger logger = LoggerFactory.getLogger(InputStreamEventSource.class);
     private final PositionKeepingDataInputStream dataInputStream;
     private final EventTransformer eventTransformer;
+    private final EventTransformer transactionTransformer;
+    private final String path;
+    private CompressedTransaction lastTransaction;
     private volatile boolean closed;
 
 
@@ -37,11 +40,13 @@ public class InputStreamEventSource implements EventSource {
                                   StorageProperties storageProperties) {
         try {
             logger.debug("Open file {}", dataFile);
+            path = dataFile.getAbsolutePath();
             dataInputStream = new PositionKeepingDataInputStream(new BufferedInputStream(new FileInputStream(dataFile),
                                                                                          storageProperties.getReadBufferSize()));
             byte version = dataInputStream.readByte();
             int modifiers = dataInputStream.readInt();
             eventTransformer = eventTransformerFactory.get(version, modifiers);
+            transactionTransformer = eventTransformerFactory.getTransactionTransformer(version, modifiers);
         } catch (IOException e) {
             throw new MessagingPlatformException(ErrorCode.DATAFILE_READ_ERROR, e.getMessage(), e);
         }
@@ -50,6 +55,9 @@ public class InputStreamEventSource implements EventSource {
     @Override
     public SerializedEvent readEvent(int position)  {
         try {
+            if (transactionTransformer != null) {
+                return readCompressedEvent(position);
+            }
             dataInputStream.position(position);
             return readEvent();
         } catch (IOException ioException) {
@@ -62,6 +70,54 @@ public class InputStreamEventSource implements EventSource {
         return new SerializedEvent(eventTransformer.fromStorage(bytes));
     }
 
+    /**
+     * Reads a compressed transaction, starting at the slot of the first event. Leaves the stream positioned after the
+     * frame.
+     *
+     * @param nrOfEvents the number of events in the transaction
+     * @return the decoded transaction
+     * @throws IOException when reading the frame fails
+     */
+    public CompressedTransaction readTransaction(short nrOfEvents) throws IOException {
+        if (transactionTransformer == null) {
+            throw new MessagingPlatformException(ErrorCode.DATAFILE_READ_ERROR,
+                                                 path + ": compressed transaction found at "
+                                                         + dataInputStream.position()
+                                                         + ", but segment does not use transaction compression");
+        }
+        dataInputStream.skipBytes(CompressedTransaction.SLOT_BYTES * nrOfEvents);
+        CompressedTransaction transaction = readFrame();
+        if (transaction.events().size() != nrOfEvents) {
+            throw new MessagingPlatformException(ErrorCode.DATAFILE_READ_ERROR,
+                                                 path + ": invalid number of events in transaction frame");
+        }
+        return transaction;
+    }
+
+    /**
+     * Reads an event from a compressed transaction. As the stream can only move forward, the last decoded transaction
+     * is kept for reading the next events from the same transaction.
+     */
+    private SerializedEvent readCompressedEvent(int slotPosition) throws IOException {
+        CompressedTransaction transaction = lastTransaction;
+        if (transaction == null || !transaction.containsSlot(slotPosition)) {
+            dataInputStream.position(slotPosition);
+            short remaining = dataInputStream.readShort();
+            dataInputStream.position(CompressedTransaction.framePosition(slotPosition, remaining));
+            transaction = readFrame();
+            lastTransaction = transaction;
+        }
+        return transaction.event(slotPosition);
+    }
+
+    private CompressedTransaction readFrame() throws IOException {
+        int framePosition = dataInputStream.position();
+        return CompressedTransaction.decode(framePosition,
+                                            dataInputStream.readEvent(),
+                                            transactionTransformer,
+                                            eventTransformer);
+    }
+
     @Override
     public TransactionIterator createTransactionIterator(long segment, long token, boolean validating) {
         return new InputStreamTransactionIterator(this, segment, token, validating);
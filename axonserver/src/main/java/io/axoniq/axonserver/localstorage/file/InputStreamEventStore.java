@@ -13,12 +13,29 @@ import io.axoniq.axonserver.exception.ErrorCode;
 import io.axoniq.axonserver.exception.MessagingPlatformException;
 import io.axoniq.axonserver.localstorage.EventTypeContext;
 import io.axoniq.axonserver.localstorage.transformation.EventTransformerFactory;
+import io.axoniq.axonserver.localstorage.transformation.NoOpEventTransformer;
 import io.axoniq.axonserver.metric.MeterFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.SortedSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.IntSupplier;
+import java.util.function.LongFunction;
 
 /**
  * Manages the completed segments for the event store.
@@ -30,12 +47,63 @@ public class InputStreamEventStore extends SegmentBasedEventStore implements Rea
 
     private final SortedSet<Long> segments = new ConcurrentSkipListSet<>(Comparator.reverseOrder());
     private final EventTransformerFactory eventTransformerFactory;
+    private final SegmentChannelPool channelPool;
+    private final Map<Long, SegmentTimestampIndex> timestampIndexes;
+    private final Map<Long, SegmentPayloadTypeIndex> payloadTypeIndexes;
+    private final Map<Long, ByteBufferEventSource> mappedSegments;
+    private final Set<Long> pendingTimestampIndexes = ConcurrentHashMap.newKeySet();
+    private volatile ExecutorService timestampIndexBuilder;
 
     public InputStreamEventStore(EventTypeContext context, IndexManager indexManager,
                                  EventTransformerFactory eventTransformerFactory,
                                  StorageProperties storageProperties, MeterFactory meterFactory) {
         super(context, indexManager, storageProperties, meterFactory);
         this.eventTransformerFactory = eventTransformerFactory;
+        this.channelPool = new SegmentChannelPool(context, storageProperties, eventTransformerFactory, meterFactory);
+        this.timestampIndexes = boundedCache(storageProperties::getMaxTimestampIndexesInMemory);
+        this.payloadTypeIndexes = boundedCache(storageProperties::getMaxPayloadTypeIndexesInMemory);
+        this.mappedSegments = boundedCache(storageProperties::getMaxMappedSegments);
+    }
+
+    /**
+     * Creates a map that keeps the most recently used entries, up to the given maximum size. Access to the map must be
+     * synchronized on the map.
+     */
+    private static <T> Map<Long, T> boundedCache(IntSupplier maxSize) {
+        return new LinkedHashMap<Long, T>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, T> eldest) {
+                return size() > maxSize.getAsInt();
+            }
+        };
+    }
+
+    /**
+     * Returns the cached value for the segment, or loads it and adds it to the cache. The value is loaded without
+     * holding the lock on the cache, so other segments can be read from the cache while loading. Returns null if the
+     * loader returns null.
+     */
+    private static <T> T cached(Map<Long, T> cache, long segment, LongFunction<T> loader) {
+        synchronized (cache) {
+            T value = cache.get(segment);
+            if (value != null) {
+                return value;
+            }
+        }
+        T loaded = loader.apply(segment);
+        if (loaded == null) {
+            return null;
+        }
+        synchronized (cache) {
+            T current = cache.putIfAbsent(segment, loaded);
+            return current == null ? loaded : current;
+        }
+    }
+
+    private static void evict(Map<Long, ?> cache, long segment) {
+        synchronized (cache) {
+            cache.remove(segment);
+        }
     }
 
     @Override
@@ -54,6 +122,15 @@ public class InputStreamEventStore extends SegmentBasedEventStore implements Rea
 
     @Override
     public void close(boolean deleteData) {
+        ExecutorService builder = timestampIndexBuilder;
+        timestampIndexBuilder = null;
+        if (builder != null) {
+            builder.shutdownNow();
+        }
+        channelPool.close();
+        synchronized (mappedSegments) {
+            mappedSegments.clear();
+        }
         if (deleteData) {
             segments.forEach(this::removeSegment);
         }
@@ -61,6 +138,13 @@ public class InputStreamEventStore extends SegmentBasedEventStore implements Rea
 
 
     private void removeSegment(long segment) {
+        channelPool.evict(segment);
+        evict(mappedSegments, segment);
+        evict(timestampIndexes, segment);
+        evict(payloadTypeIndexes, segment);
+        FileUtils.delete(storageProperties.timestampIndex(context, segment));
+        FileUtils.delete(storageProperties.payloadTypeIndex(context, segment));
+        FileUtils.delete(storageProperties.manifest(context, segment));
         if (segments.remove(segment) && (!FileUtils.delete(storageProperties.dataFile(context, segment)) ||
                 !indexManager.remove(segment))) {
             throw new MessagingPlatformException(ErrorCode.DATAFILE_WRITE_ERROR,
@@ -72,12 +156,47 @@ public class InputStreamEventStore extends SegmentBasedEventStore implements Rea
     @Override
     public Optional<EventSource> getEventSource(long segment) {
         logger.debug("Get eventsource: {}", segment);
-        InputStreamEventSource eventSource = get(segment, false);
-        logger.trace("result={}", eventSource);
-        if (eventSource == null) {
+        if (!segments.contains(segment)) {
             return Optional.empty();
         }
-        return Optional.of(eventSource);
+        return Optional.of(new SegmentChannelEventSource(segment, channelPool, () -> sequentialSource(segment)));
+    }
+
+    /**
+     * Returns an event source to iterate over the events in the segment. When the events in the segment are stored
+     * without transformation, the segment is memory mapped and the iterators return events as slices of the mapped
+     * file, without copying them. The most recently used mappings are kept, so trackers reading the same segment share
+     * the mapping. Otherwise, the segment is read through an input stream.
+     */
+    private EventSource sequentialSource(long segment) {
+        if (storageProperties.getMaxMappedSegments() > 0 && !storageProperties.isCleanRequired()) {
+            ByteBufferEventSource mapped = cached(mappedSegments, segment, this::mapSegment);
+            if (mapped != null) {
+                return mapped.duplicate();
+            }
+        }
+        return get(segment, true);
+    }
+
+    private ByteBufferEventSource mapSegment(long segment) {
+        File file = storageProperties.dataFile(context, segment);
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(VERSION_BYTES + FILE_OPTIONS_BYTES);
+            fileChannel.read(header, 0);
+            header.flip();
+            if (header.remaining() < VERSION_BYTES + FILE_OPTIONS_BYTES ||
+                    !(eventTransformerFactory.get(header.get(), header.getInt()) instanceof NoOpEventTransformer)) {
+                return null;
+            }
+            MappedByteBuffer buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+            return new ByteBufferEventSource(file.getAbsolutePath(), buffer, eventTransformerFactory, storageProperties);
+        } catch (IOException ioException) {
+            logger.warn("{}: Failed to map segment {}, reading it as a stream - {}",
+                        context,
+                        segment,
+                        ioException.getMessage());
+            return null;
+        }
     }
 
     @Override
@@ -100,8 +219,132 @@ public class InputStreamEventStore extends SegmentBasedEventStore implements Rea
                                           storageProperties);
     }
 
+    /**
+     * Uses the timestamp index of the segment to find the block containing the token, and only reads the events in
+     * that block. When the segment has no timestamp index yet, it reads the segment from the start.
+     */
+    @Override
+    protected Long getTokenAt(long segment, long instant) {
+        if (!segments.contains(segment)) {
+            return null;
+        }
+        SegmentTimestampIndex timestampIndex = zoneMap(segment);
+        if (timestampIndex == null) {
+            return scanBlock(segment, segment, instant);
+        }
+        return timestampIndex.tokenAt(instant, start -> scanBlock(segment, start, instant));
+    }
+
+    /**
+     * Returns the timestamp index of the segment. When the segment has no (valid) timestamp index file, for instance
+     * after an upgrade, this returns null and the index is created in the background.
+     */
+    @Override
+    protected SegmentTimestampIndex zoneMap(long segment) {
+        if (!segments.contains(segment)) {
+            return null;
+        }
+        return cached(timestampIndexes, segment, this::loadTimestampIndex);
+    }
+
+    @Override
+    protected SegmentPayloadTypeIndex payloadTypeIndex(long segment) {
+        if (!storageProperties.isPayloadTypeIndex() || !segments.contains(segment)) {
+            return null;
+        }
+        return cached(payloadTypeIndexes, segment, this::loadPayloadTypeIndex);
+    }
+
+    private SegmentPayloadTypeIndex loadPayloadTypeIndex(long segment) {
+        File file = storageProperties.payloadTypeIndex(context, segment);
+        if (file.exists()) {
+            try {
+                return SegmentPayloadTypeIndex.read(file);
+            } catch (MessagingPlatformException exception) {
+                logger.warn("{}: Recreating payload type index for segment {} - {}",
+                            context,
+                            segment,
+                            exception.getMessage());
+            }
+        }
+        try (EventIterator iterator = createEventIterator(get(segment, true), segment, segment)) {
+            return createPayloadTypeIndex(segment, iterator);
+        }
+    }
+
+    private Long scanBlock(long segment, long start, long instant) {
+        try (EventIterator iterator = createEventIterator(get(segment, true), segment, start)) {
+            while (iterator.hasNext()) {
+                EventInformation event = iterator.next();
+                if (event.getEvent().getTimestamp() >= instant) {
+                    return event.getToken();
+                }
+            }
+        }
+        return null;
+    }
+
+    private SegmentTimestampIndex loadTimestampIndex(long segment) {
+        File file = storageProperties.timestampIndex(context, segment);
+        if (file.exists()) {
+            try {
+                return SegmentTimestampIndex.read(file);
+            } catch (MessagingPlatformException exception) {
+                logger.warn("{}: Recreating timestamp index for segment {} - {}",
+                            context,
+                            segment,
+                            exception.getMessage());
+            }
+        }
+        buildTimestampIndex(segment);
+        return null;
+    }
+
+    private void buildTimestampIndex(long segment) {
+        if (!pendingTimestampIndexes.add(segment)) {
+            return;
+        }
+        try {
+            timestampIndexBuilder().execute(() -> {
+                try {
+                    if (segments.contains(segment)) {
+                        try (EventIterator iterator = createEventIterator(get(segment, true), segment, segment)) {
+                            SegmentTimestampIndex timestampIndex = createTimestampIndex(segment, iterator);
+                            synchronized (timestampIndexes) {
+                                timestampIndexes.putIfAbsent(segment, timestampIndex);
+                            }
+                        }
+                    }
+                } catch (RuntimeException exception) {
+                    logger.warn("{}: Failed to create timestamp index for segment {} - {}",
+                                context,
+                                segment,
+                                exception.getMessage());
+                } finally {
+                    pendingTimestampIndexes.remove(segment);
+                }
+            });
+        } catch (RejectedExecutionException rejectedExecutionException) {
+            pendingTimestampIndexes.remove(segment);
+        }
+    }
+
+    private ExecutorService timestampIndexBuilder() {
+        if (timestampIndexBuilder == null) {
+            synchronized (this) {
+                if (timestampIndexBuilder == null) {
+                    timestampIndexBuilder = Executors.newSingleThreadExecutor(new CustomizableThreadFactory(
+                            context + "-timestamp-index-builder-"));
+                }
+            }
+        }
+        return timestampIndexBuilder;
+    }
+
     @Override
     protected void recreateIndex(long segment) {
+        evict(timestampIndexes, segment);
+        evict(payloadTypeIndexes, segment);
         try (InputStreamEventSource is = get(segment, true);
              EventIterator iterator = createEventIterator(is, segment, segment)) {
             recreateIndexFromIterator(segment, iterator);
@@ -79,8 +79,14 @@ public class InputStreamTransactionIterator implements TransactionIterator {
             byte version = processVersion(reader);
             short nrOfMessages = reader.readShort();
             List<SerializedEvent> events = new ArrayList<>(nrOfMessages);
-            for (int idx = 0; idx < nrOfMessages; idx++) {
-                events.add(eventSource.readEvent());
+            if (version == CompressedTransaction.TRANSACTION_VERSION) {
+                events.addAll(eventSource.readTransaction(nrOfMessages).events());
+                // events are decoded, so the transaction is passed on in the uncompressed format
+                version = SegmentBasedEventStore.TRANSACTION_VERSION;
+            } else {
+                for (int idx = 0; idx < nrOfMessages; idx++) {
+                    events.add(eventSource.readEvent());
+                }
             }
             next = new SerializedTransactionWithToken(currentSequenceNumber, version, events);
             currentSequenceNumber += nrOfMessages;
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+package io.axoniq.axonserver.localstorage.file;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import io.axoniq.axonserver.exception.ErrorCode;
+import io.axoniq.axonserver.exception.MessagingPlatformException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Filter containing the identifiers of all aggregates in an event store, used to confirm in a single probe that an
+ * aggregate does not exist yet. The filter may return false positives, but never false negatives.
+ * <p>
+ * Implemented as a scalable bloom filter: a list of bloom filters where each next filter has twice the capacity and
+ * half the false positive probability of the previous one. When the last filter reaches its capacity a new one is
+ * added, so the total false positive probability stays below the configured probability regardless of the number of
+ * aggregates.
+ * <p>
+ * The filter is not usable for negative lookups until it is marked as ready, as it may still be rebuilt from the
+ * segment indexes.
+ *
+ * @author Marc Gathier
+ * @since 4.5
+ */
+public class KnownAggregatesFilter {
+
+    private static final byte VERSION = 1;
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private final double fpp;
+    private volatile List<Stage> stages;
+    private final Object writeLock = new Object();
+    private volatile boolean ready;
+    private volatile long lastSegment;
+
+    /**
+     * @param initialCapacity number of aggregates in the first bloom filter
+     * @param fpp             maximum false positive probability for the complete filter
+     */
+    public KnownAggregatesFilter(int initialCapacity, double fpp) {
+        this(fpp, Collections.singletonList(new Stage(initialCapacity, fpp / 2)), -1);
+    }
+
+    private KnownAggregatesFilter(double fpp, List<Stage> stages, long lastSegment) {
+        this.fpp = fpp;
+        this.stages = stages;
+        this.lastSegment = lastSegment;
+    }
+
+    /**
+     * Adds an aggregate identifier to the filter.
+     *
+     * @param aggregateId the aggregate identifier
+     */
+    public synchronized void add(String aggregateId) {
+        List<Stage> current = stages;
+        Stage last = current.get(current.size() - 1);
+        if (last.count >= last.capacity) {
+            if (last.filter.mightContain(aggregateId)) {
+                return;
+            }
+            List<Stage> grown = new ArrayList<>(current);
+            last = new Stage((int) Math.min(MAX_CAPACITY, 2L * last.capacity), last.fpp / 2);
+            grown.add(last);
+            stages = grown;
+        }
+        if (last.filter.put(aggregateId)) {
+            last.count++;
+        }
+    }
+
+    /**
+     * Checks if the aggregate may exist. When this returns false the aggregate is certainly not in the filter.
+     *
+     * @param aggregateId the aggregate identifier
+     * @return true if the aggregate may be in the filter
+     */
+    public boolean mightContain(String aggregateId) {
+        for (Stage stage : stages) {
+            if (stage.filter.mightContain(aggregateId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the filter contains all aggregates of the event store
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    public void setReady() {
+        this.ready = true;
+    }
+
+    /**
+     * @return the last completed segment included in the filter when it was stored
+     */
+    public long lastSegment() {
+        return lastSegment;
+    }
+
+    /**
+     * @return the number of bloom filters in the filter
+     */
+    public int stageCount() {
+        return stages.size();
+    }
+
+    /**
+     * Writes the filter to file. The filter is written to a temporary file first, which is then moved to the target
+     * location, so a crash during the write leaves the previous version intact.
+     * <p>
+     * Only the list of bloom filters and their counts are taken while holding the lock for {@link #add(String)}, the
+     * bloom filters are written without it. The bit arrays of the bloom filters can be read while aggregates are
+     * added, an aggregate added during the write is either included in the file or added again from the active
+     * segment after a restart.
+     *
+     * @param file        the target file
+     * @param lastSegment the last completed segment included in the filter
+     */
+    public void write(File file, long lastSegment) {
+        List<Stage> snapshot;
+        int[] counts;
+        synchronized (this) {
+            snapshot = stages;
+            counts = new int[snapshot.size()];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = snapshot.get(i).count;
+            }
+        }
+        synchronized (writeLock) {
+            File tempFile = new File(file.getAbsolutePath() + ".temp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+                        tempFile)))) {
+                    out.writeByte(VERSION);
+                    out.writeLong(lastSegment);
+                    out.writeDouble(fpp);
+                    out.writeInt(snapshot.size());
+                    for (int i = 0; i < counts.length; i++) {
+                        Stage stage = snapshot.get(i);
+                        out.writeInt(stage.capacity);
+                        out.writeInt(counts[i]);
+                        out.writeDouble(stage.fpp);
+                        stage.filter.writeTo(out);
+                    }
+                }
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                this.lastSegment = lastSegment;
+            } catch (IOException ioException) {
+                throw new MessagingPlatformException(ErrorCode.INDEX_WRITE_ERROR,
+                                                     "Failed to write known aggregates filter " + file,
+                                                     ioException);
+            }
+        }
+    }
+
+    /**
+     * Reads a filter from file. The filter is not marked as ready.
+     *
+     * @param file the file to read
+     * @return the filter
+     */
+    public static KnownAggregatesFilter read(File file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readByte() != VERSION) {
+                throw new MessagingPlatformException(ErrorCode.INDEX_READ_ERROR,
+                                                     "Invalid known aggregates filter " + file);
+            }
+            long lastSegment = in.readLong();
+            double fpp = in.readDouble();
+            int stageCount = in.readInt();
+            List<Stage> stages = new ArrayList<>(stageCount);
+            for (int i = 0; i < stageCount; i++) {
+                int capacity = in.readInt();
+                int count = in.readInt();
+                double stageFpp = in.readDouble();
+                stages.add(new Stage(capacity, count, stageFpp, BloomFilter.readFrom(in, Funnels.stringFunnel(
+                        StandardCharsets.UTF_8))));
+            }
+            return new KnownAggregatesFilter(fpp, stages, lastSegment);
+        } catch (IOException ioException) {
+            throw new MessagingPlatformException(ErrorCode.INDEX_READ_ERROR,
+                                                 "Failed to read known aggregates filter " + file,
+                                                 ioException);
+        }
+    }
+
+    private static class Stage {
+
+        private final int capacity;
+        private final double fpp;
+        private final BloomFilter<CharSequence> filter;
+        private int count;
+
+        private Stage(int capacity, double fpp) {
+            this(capacity, 0, fpp, BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), capacity, fpp));
+        }
+
+        private Stage(int capacity, int count, double fpp, BloomFilter<CharSequence> filter) {
+            this.capacity = capacity;
+            this.count = count;
+            this.fpp = fpp;
+            this.filter = filter;
+        }
+    }
+}
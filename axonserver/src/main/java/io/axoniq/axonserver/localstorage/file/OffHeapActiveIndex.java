@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+
+package io.axoniq.axonserver.localstorage.file;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+/**
+ * {@link ActiveIndex} implementation that keeps all data in direct (off-heap) memory, so the heap does not grow with
+ * the number of aggregates in the active segment.
+ * <p>
+ * Aggregates are located through an open-addressing hash table with linear probing. Each slot contains the hash of
+ * the aggregate identifier and the address of the aggregate record. The aggregate record contains the identifier, the
+ * first sequence number, the number of positions and the addresses of the first and last chunk of positions. Chunks
+ * are linked lists of packed int positions, growing in size for aggregates with many events. Records and chunks are
+ * allocated from fixed size direct memory blocks, which are released when the index is closed.
+ *
+ * @author Marc Gathier
+ * @since 4.5
+ */
+public class OffHeapActiveIndex implements ActiveIndex {
+
+    private static final int BLOCK_SIZE = 1024 * 1024;
+    private static final int SLOT_BYTES = 16;
+    private static final int SLOT_ADDRESS = 8;
+    private static final int INITIAL_SLOTS = 1024;
+    private static final int INITIAL_CHUNK_CAPACITY = 4;
+    private static final int MAX_CHUNK_CAPACITY = 1024;
+
+    private static final int KEY_LENGTH_BYTES = 4;
+    private static final int RECORD_FIRST_SEQUENCE_NUMBER = 0;
+    private static final int RECORD_SIZE = 8;
+    private static final int RECORD_HEAD_CHUNK = 12;
+    private static final int RECORD_TAIL_CHUNK = 20;
+    private static final int RECORD_FIXED_BYTES = 28;
+
+    private static final int CHUNK_NEXT = 0;
+    private static final int CHUNK_CAPACITY = 8;
+    private static final int CHUNK_USED = 12;
+    private static final int CHUNK_HEADER_BYTES = 16;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<ByteBuffer> blocks = new ArrayList<>();
+    private int allocationOffset;
+    private ByteBuffer slots;
+    private int slotCount;
+    private int size;
+    private boolean closed;
+
+    public OffHeapActiveIndex() {
+        slotCount = INITIAL_SLOTS;
+        slots = ByteBuffer.allocateDirect(slotCount * SLOT_BYTES);
+    }
+
+    @Override
+    public void add(String aggregateId, IndexEntry indexEntry) {
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            long record = getOrCreateRecord(aggregateId, indexEntry.getSequenceNumber());
+            appendPosition(record, indexEntry.getPosition());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void addAll(String aggregateId, List<IndexEntry> indexEntries) {
+        if (indexEntries.isEmpty()) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            long record = getOrCreateRecord(aggregateId, indexEntries.get(0).getSequenceNumber());
+            for (IndexEntry indexEntry : indexEntries) {
+                appendPosition(record, indexEntry.getPosition());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public IndexEntries get(String aggregateId) {
+        lock.readLock().lock();
+        try {
+            if (closed) {
+                return null;
+            }
+            byte[] key = aggregateId.getBytes(StandardCharsets.UTF_8);
+            long record = slots.getLong(findSlot(key, hash(aggregateId)) * SLOT_BYTES + SLOT_ADDRESS);
+            if (record == 0) {
+                return null;
+            }
+            return readEntries(record);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, IndexEntries> action) {
+        lock.readLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            for (int slot = 0; slot < slotCount; slot++) {
+                long record = slots.getLong(slot * SLOT_BYTES + SLOT_ADDRESS);
+                if (record != 0) {
+                    action.accept(readKey(record), readEntries(record));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Releases the direct memory used by this index.
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            free(slots);
+            blocks.forEach(this::free);
+            blocks.clear();
+            slots = null;
+            size = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Active index already closed");
+        }
+    }
+
+    private long getOrCreateRecord(String aggregateId, long firstSequenceNumber) {
+        byte[] key = aggregateId.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(aggregateId);
+        int slot = findSlot(key, hash);
+        long record = slots.getLong(slot * SLOT_BYTES + SLOT_ADDRESS);
+        if (record == 0) {
+            record = createRecord(key, firstSequenceNumber);
+            slots.putInt(slot * SLOT_BYTES, hash);
+            slots.putLong(slot * SLOT_BYTES + SLOT_ADDRESS, record);
+            size++;
+            if (size * 2 > slotCount) {
+                resize();
+            }
+        }
+        return record;
+    }
+
+    private int findSlot(byte[] key, int hash) {
+        int mask = slotCount - 1;
+        int slot = hash & mask;
+        while (true) {
+            long record = slots.getLong(slot * SLOT_BYTES + SLOT_ADDRESS);
+            if (record == 0 || (slots.getInt(slot * SLOT_BYTES) == hash && keyEquals(record, key))) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void resize() {
+        int newSlotCount = slotCount * 2;
+        ByteBuffer newSlots = ByteBuffer.allocateDirect(newSlotCount * SLOT_BYTES);
+        int mask = newSlotCount - 1;
+        for (int slot = 0; slot < slotCount; slot++) {
+            long record = slots.getLong(slot * SLOT_BYTES + SLOT_ADDRESS);
+            if (record != 0) {
+                int hash = slots.getInt(slot * SLOT_BYTES);
+                int newSlot = hash & mask;
+                while (newSlots.getLong(newSlot * SLOT_BYTES + SLOT_ADDRESS) != 0) {
+                    newSlot = (newSlot + 1) & mask;
+                }
+                newSlots.putInt(newSlot * SLOT_BYTES, hash);
+                newSlots.putLong(newSlot * SLOT_BYTES + SLOT_ADDRESS, record);
+            }
+        }
+        free(slots);
+        slots = newSlots;
+        slotCount = newSlotCount;
+    }
+
+    private long createRecord(byte[] key, long firstSequenceNumber) {
+        long record = allocate(KEY_LENGTH_BYTES + key.length + RECORD_FIXED_BYTES);
+        ByteBuffer block = block(record);
+        int offset = offset(record);
+        block.putInt(offset, key.length);
+        for (int i = 0; i < key.length; i++) {
+            block.put(offset + KEY_LENGTH_BYTES + i, key[i]);
+        }
+        block.putLong(fields(offset, key.length) + RECORD_FIRST_SEQUENCE_NUMBER, firstSequenceNumber);
+        return record;
+    }
+
+    private void appendPosition(long record, int position) {
+        ByteBuffer block = block(record);
+        int fields = fields(offset(record), block.getInt(offset(record)));
+        long tail = block.getLong(fields + RECORD_TAIL_CHUNK);
+        if (tail == 0 || chunkUsed(tail) == chunkCapacity(tail)) {
+            int capacity = tail == 0 ?
+                    INITIAL_CHUNK_CAPACITY :
+                    Math.min(MAX_CHUNK_CAPACITY, chunkCapacity(tail) * 2);
+            long chunk = allocate(CHUNK_HEADER_BYTES + capacity * 4);
+            block(chunk).putInt(offset(chunk) + CHUNK_CAPACITY, capacity);
+            if (tail == 0) {
+                block.putLong(fields + RECORD_HEAD_CHUNK, chunk);
+            } else {
+                block(tail).putLong(offset(tail) + CHUNK_NEXT, chunk);
+            }
+            block.putLong(fields + RECORD_TAIL_CHUNK, chunk);
+            tail = chunk;
+        }
+        ByteBuffer chunkBlock = block(tail);
+        int chunkOffset = offset(tail);
+        int used = chunkBlock.getInt(chunkOffset + CHUNK_USED);
+        chunkBlock.putInt(chunkOffset + CHUNK_HEADER_BYTES + used * 4, position);
+        chunkBlock.putInt(chunkOffset + CHUNK_USED, used + 1);
+        block.putInt(fields + RECORD_SIZE, block.getInt(fields + RECORD_SIZE) + 1);
+    }
+
+    private IndexEntries readEntries(long record) {
+        ByteBuffer block = block(record);
+        int fields = fields(offset(record), block.getInt(offset(record)));
+        long firstSequenceNumber = block.getLong(fields + RECORD_FIRST_SEQUENCE_NUMBER);
+        List<Integer> positions = new ArrayList<>(block.getInt(fields + RECORD_SIZE));
+        long chunk = block.getLong(fields + RECORD_HEAD_CHUNK);
+        while (chunk != 0) {
+            ByteBuffer chunkBlock = block(chunk);
+            int chunkOffset = offset(chunk);
+            int used = chunkBlock.getInt(chunkOffset + CHUNK_USED);
+            for (int i = 0; i < used; i++) {
+                positions.add(chunkBlock.getInt(chunkOffset + CHUNK_HEADER_BYTES + i * 4));
+            }
+            chunk = chunkBlock.getLong(chunkOffset + CHUNK_NEXT);
+        }
+        return new StandardIndexEntries(firstSequenceNumber, positions);
+    }
+
+    private String readKey(long record) {
+        ByteBuffer block = block(record);
+        int offset = offset(record);
+        byte[] key = new byte[block.getInt(offset)];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = block.get(offset + KEY_LENGTH_BYTES + i);
+        }
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    private boolean keyEquals(long record, byte[] key) {
+        ByteBuffer block = block(record);
+        int offset = offset(record);
+        if (block.getInt(offset) != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (block.get(offset + KEY_LENGTH_BYTES + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int chunkCapacity(long chunk) {
+        return block(chunk).getInt(offset(chunk) + CHUNK_CAPACITY);
+    }
+
+    private int chunkUsed(long chunk) {
+        return block(chunk).getInt(offset(chunk) + CHUNK_USED);
+    }
+
+    /**
+     * Allocates a number of bytes in the current memory block, or in a new block if the current block is full.
+     * Addresses contain the block index in the high 32 bits and the offset in the block in the low 32 bits. Address 0
+     * is never returned, so it can be used to mark empty slots and missing chunks.
+     */
+    private long allocate(int bytes) {
+        if (blocks.isEmpty() || allocationOffset + bytes > blocks.get(blocks.size() - 1).capacity()) {
+            int reserved = blocks.isEmpty() ? 8 : 0;
+            blocks.add(ByteBuffer.allocateDirect(Math.max(BLOCK_SIZE, bytes + reserved)));
+            allocationOffset = reserved;
+        }
+        long address = ((long) (blocks.size() - 1) << 32) | allocationOffset;
+        allocationOffset += bytes;
+        return address;
+    }
+
+    private ByteBuffer block(long address) {
+        return blocks.get((int) (address >>> 32));
+    }
+
+    private static int offset(long address) {
+        return (int) address;
+    }
+
+    private static int fields(int recordOffset, int keyLength) {
+        return recordOffset + KEY_LENGTH_BYTES + keyLength;
+    }
+
+    private void free(ByteBuffer buffer) {
+        CleanUtils.cleanDirectBuffer(buffer, () -> true, 0, "off-heap active index");
+    }
+
+    private static int hash(String aggregateId) {
+        int hash = aggregateId.hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
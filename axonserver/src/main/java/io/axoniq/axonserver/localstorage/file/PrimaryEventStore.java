@@ -22,7 +22,9 @@ import io.axoniq.axonserver.localstorage.transformation.WrappedEvent;
 import io.axoniq.axonserver.metric.MeterFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.health.Health;
 import org.springframework.data.util.CloseableIterator;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 import java.io.File;
 import java.io.IOException;
@@ -30,6 +32,8 @@ import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -38,9 +42,18 @@ import java.util.Map;
 import java.util.NavigableSet;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.concurrent.BlockingDeque;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
@@ -57,6 +70,8 @@ import java.util.stream.Stream;
 public class PrimaryEventStore extends SegmentBasedEventStore {
 
     protected static final Logger logger = LoggerFactory.getLogger(PrimaryEventStore.class);
+    private static final int MAX_COMPLETE_SEGMENT_ATTEMPTS = 5;
+    private static final long COMPLETE_SEGMENT_RETRY_DELAY = 1000;
 
     protected final EventTransformerFactory eventTransformerFactory;
     protected final Synchronizer synchronizer;
@@ -64,7 +79,21 @@ public class PrimaryEventStore extends SegmentBasedEventStore {
     protected final AtomicLong lastToken = new AtomicLong(-1);
     //
     protected final ConcurrentNavigableMap<Long, ByteBufferEventSource> readBuffers = new ConcurrentSkipListMap<>();
+    private final BlockingDeque<GroupCommitRequest> groupCommitQueue = new LinkedBlockingDeque<>();
+    private final AtomicBoolean groupCommitScheduled = new AtomicBoolean();
+    private volatile ExecutorService groupCommitWriter;
     protected EventTransformer eventTransformer;
+    protected EventTransformer transactionTransformer;
+    private volatile ExecutorService segmentAllocator;
+    private volatile ExecutorService indexBuilder;
+    private volatile CompletableFuture<MappedByteBuffer> preparedSegment;
+    private final Map<Long, CompletableFuture<Void>> pendingCompletions = new ConcurrentHashMap<>();
+    private final Map<Long, Integer> completionAttempts = new ConcurrentHashMap<>();
+    private final Map<Long, String> failedCompletions = new ConcurrentHashMap<>();
+    private final Object checkpointLock = new Object();
+    private volatile ScheduledExecutorService checkpointScheduler;
+    private volatile SegmentScrubber scrubber;
+    private WritePosition lastCheckpoint;
 
     /**
      * @param context                 the context and the content type (events or snapshots)
@@ -88,7 +117,12 @@ public class PrimaryEventStore extends SegmentBasedEventStore {
         FileUtils.checkCreateDirectory(storageDir);
         indexManager.init();
         eventTransformer = eventTransformerFactory.get(VERSION, storageProperties.getFlags());
+        transactionTransformer = eventTransformerFactory.getTransactionTransformer(VERSION,
+                                                                                   storageProperties.getFlags());
         initLatestSegment(lastInitialized, Long.MAX_VALUE, storageDir, defaultFirstIndex);
+        prepareNextSegment();
+        scheduleActiveIndexCheckpoints();
+        startScrubber();
     }
 
     private void initLatestSegment(long lastInitialized, long nextToken, File storageDir, long defaultFirstIndex) {
@@ -101,7 +135,14 @@ public class PrimaryEventStore extends SegmentBasedEventStore {
         WritableEventSource buffer = getOrOpenDatafile(first);
         indexManager.remove(first);
         long sequence = first;
-        try (EventByteBufferIterator iterator = new EventByteBufferIterator(buffer, first, first)) {
+        ActiveIndexCheckpoint checkpoint = activeIndexCheckpoint(first, nextToken, buffer);
+        if (checkpoint != null) {
+            indexManager.addToActiveSegment(first, checkpoint.entries());
+            sequence = checkpoint.token();
+        }
+        try (EventByteBufferIterator iterator = checkpoint == null ?
+                new EventByteBufferIterator(buffer, first, first) :
+                new EventByteBufferIterator(buffer, checkpoint.token(), checkpoint.position())) {
             while (sequence < nextToken && iterator.hasNext()) {
                 EventInformation event = iterator.next();
                 if (event.isDomainEvent()) {
@@ -146,8 +187,11 @@ public class PrimaryEventStore extends SegmentBasedEventStore {
             return latestSegment;
         }
         WritableEventSource buffer = getOrOpenDatafile(latestSegment);
-        long token = latestSegment;
-        try (EventByteBufferIterator iterator = new EventByteBufferIterator(buffer, latestSegment, latestSegment)) {
+        ActiveIndexCheckpoint checkpoint = activeIndexCheckpoint(latestSegment, Long.MAX_VALUE, buffer);
+        long token = checkpoint == null ? latestSegment : checkpoint.token();
+        try (EventByteBufferIterator iterator = checkpoint == null ?
+                new EventByteBufferIterator(buffer, latestSegment, latestSegment) :
+                new EventByteBufferIterator(buffer, checkpoint.token(), checkpoint.position())) {
             while (iterator.hasNext()) {
                 iterator.next();
                 token++;
@@ -159,6 +203,107 @@ public class PrimaryEventStore extends SegmentBasedEventStore {
         return token;
     }
 
+    /**
+     * Returns the checkpoint of the active index, when checkpoints are enabled and the checkpoint is valid for the
+     * segment. Returns null when the events in the segment must be read from the start.
+     */
+    private ActiveIndexCheckpoint activeIndexCheckpoint(long segment, long nextToken, WritableEventSource buffer) {
+        File file = storageProperties.activeIndexCheckpoint(context);
+        if (storageProperties.getActiveIndexCheckpointInterval() <= 0 || !file.exists()) {
+            return null;
+        }
+        try {
+            ActiveIndexCheckpoint checkpoint = ActiveIndexCheckpoint.read(file);
+            if (checkpoint.segment() == segment
+                    && checkpoint.token() <= nextToken
+                    && checkpoint.position() >= VERSION_BYTES + FILE_OPTIONS_BYTES
+                    && checkpoint.position() + 4 <= buffer.capacity()) {
+                logger.info("{}: Reading events from token {} using active index checkpoint",
+                            context,
+                            checkpoint.token());
+                return checkpoint;
+            }
+        } catch (MessagingPlatformException ex) {
+            logger.warn("{}: Ignoring active index checkpoint {}", context, file, ex);
+        }
+        return null;
+    }
+
+    private void startScrubber() {
+        if (next == null || scrubber != null || !storageProperties.isValidationManifest()
+                || storageProperties.getScrubRate() <= 0) {
+            return;
+        }
+        scrubber = new SegmentScrubber(context, storageProperties, next::getSegments, next::validateTransactions);
+        scrubber.start();
+    }
+
+    private void stopScrubber() {
+        SegmentScrubber current = scrubber;
+        scrubber = null;
+        if (current != null) {
+            current.stop();
+        }
+    }
+
+    private void scheduleActiveIndexCheckpoints() {
+        long interval = storageProperties.getActiveIndexCheckpointInterval();
+        if (interval <= 0) {
+            FileUtils.delete(storageProperties.activeIndexCheckpoint(context));
+            return;
+        }
+        if (checkpointScheduler == null) {
+            checkpointScheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory(
+                    context + "-index-checkpoint-"));
+            checkpointScheduler.scheduleWithFixedDelay(this::checkpointActiveIndex,
+                                                       interval,
+                                                       interval,
+                                                       TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes a checkpoint of the index of the active segment. The checkpoint is taken at the last completed write
+     * position, after forcing the segment to disk, so the checkpoint never refers to events that are not on disk.
+     */
+    private void checkpointActiveIndex() {
+        synchronized (checkpointLock) {
+            WritePosition writePosition = synchronizer.current();
+            WritePosition active = writePositionRef.get();
+            if (writePosition == null || writePosition.buffer == null || writePosition == lastCheckpoint
+                    || active == null || !writePosition.segment.equals(active.segment)) {
+                return;
+            }
+            try {
+                writePosition.force();
+                ActiveIndexCheckpoint.write(storageProperties.activeIndexCheckpoint(context),
+                                            writePosition.segment,
+                                            writePosition.sequence,
+                                            writePosition.position,
+                                            action -> indexManager.forEachInActiveSegment(writePosition.segment,
+                                                                                          action));
+                lastCheckpoint = writePosition;
+            } catch (RuntimeException ex) {
+                logger.warn("{}: Failed to write active index checkpoint", context, ex);
+            }
+        }
+    }
+
+    private void stopActiveIndexCheckpoints(boolean deleteData) {
+        ScheduledExecutorService scheduler = checkpointScheduler;
+        checkpointScheduler = null;
+        if (scheduler != null) {
+            scheduler.shutdown();
+            if (!deleteData) {
+                // final checkpoint, so a restart does not need to read any events
+                checkpointActiveIndex();
+            }
+        }
+        if (deleteData) {
+            FileUtils.delete(storageProperties.activeIndexCheckpoint(context));
+        }
+    }
+
     private long getFirstFile(long lastInitialized, File events, long defaultFirstIndex) {
         String[] eventFiles = FileUtils.getFilesWithSuffix(events, storageProperties.getEventsSuffix());
 
@@ -172,9 +317,10 @@ public class PrimaryEventStore extends SegmentBasedEventStore {
     private FilePreparedTransaction prepareTransaction(List<SerializedEvent> origEventList) {
         List<ProcessedEvent> eventList = origEventList.stream().map(s -> new WrappedEvent(s, eventTransformer)).collect(
                 Collectors.toList());
-        int eventSize = eventBlockSize(eventList);
+        byte[] frame = frame(eventList);
+        int eventSize = eventBlockSize(eventList, frame);
         WritePosition writePosition = claim(eventSize, eventList.size());
-        return new FilePreparedTransaction(writePosition, eventSize, eventList);
+        return new FilePreparedTransaction(writePosition, eventSize, eventList, frame);
     }
 
     /**
@@ -185,6 +331,9 @@ public class PrimaryEventStore extends SegmentBasedEventStore {
      */
     @Override
     public CompletableFuture<Long> store(List<SerializedEvent> events) {
+        if (storageProperties.isGroupCommit()) {
+            return storeInGroup(events);
+        }
 
         CompletableFuture<Long> completableFuture = new CompletableFuture<>();
         try {
@@ -199,8 +348,9 @@ public class PrimaryEventStore extends SegmentBasedEventStore {
                 public boolean onCompleted(long firstToken) {
                     if (execute.getAndSet(false)) {
                         indexManager.addToActiveSegment(writePosition.segment, indexEntries);
-                        completableFuture.complete(firstToken);
+                        // update lastToken before completing, so trackers woken on completion can read the events
                         lastToken.set(firstToken + preparedTransaction.getEventList().size() - 1);
+                        completableFuture.complete(firstToken);
                         return true;
                     }
                     return false;
@@ -211,7 +361,11 @@ public class PrimaryEventStore extends SegmentBasedEventStore {
                     completableFuture.completeExceptionally(cause);
                 }
             });
-            write(writePosition, preparedTransaction.getEventSize(), preparedTransaction.getEventList(), indexEntries);
+            write(writePosition,
+                  preparedTransaction.getEventSize(),
+                  preparedTransaction.getEventList(),
+                  preparedTransaction.getFrame(),
+                  indexEntries);
             synchronizer.notifyWritePositions();
         } catch (RuntimeException cause) {
             completableFuture.completeExceptionally(cause);
@@ -220,6 +374,207 @@ public class PrimaryEventStore extends SegmentBasedEventStore {
         return completableFuture;
     }
 
+    /**
+     * Stores a list of events as part of a group commit. The request is queued and the group commit writer thread
+     * writes the queued requests in a single claimed region of the segment. The caller does not wait for the writer.
+     * The completable future completes when these events and all previous events are written.
+     *
+     * @param events the events to store
+     * @return completable future with the token of the first event
+     */
+    private CompletableFuture<Long> storeInGroup(List<SerializedEvent> events) {
+        CompletableFuture<Long> completableFuture = new CompletableFuture<>();
+        try {
+            List<ProcessedEvent> eventList = events.stream()
+                                                   .map(s -> new WrappedEvent(s, eventTransformer))
+                                                   .collect(Collectors.toList());
+            byte[] frame = frame(eventList);
+            GroupCommitRequest request = new GroupCommitRequest(eventList,
+                                                                frame,
+                                                                eventBlockSize(eventList, frame),
+                                                                completableFuture);
+            checkTransactionSize(request.transactionSize());
+            groupCommitQueue.add(request);
+            scheduleGroupCommit();
+        } catch (RuntimeException cause) {
+            completableFuture.completeExceptionally(cause);
+        }
+        return completableFuture;
+    }
+
+    /**
+     * Schedules the writer to write the next batch of queued requests, unless it is already scheduled. The writer
+     * writes one batch per run and schedules itself again while there are queued requests.
+     */
+    private void scheduleGroupCommit() {
+        if (groupCommitScheduled.compareAndSet(false, true)) {
+            try {
+                groupCommitWriter().execute(this::writeGroupCommitBatch);
+            } catch (RejectedExecutionException rejectedExecutionException) {
+                groupCommitScheduled.set(false);
+                failQueuedGroupCommits(new MessagingPlatformException(ErrorCode.DATAFILE_WRITE_ERROR,
+                                                                      context + ": Event store is closed",
+                                                                      rejectedExecutionException));
+            }
+        }
+    }
+
+    private void writeGroupCommitBatch() {
+        try {
+            List<GroupCommitRequest> batch = nextGroupCommitBatch();
+            if (!batch.isEmpty()) {
+                storeBatch(batch);
+            }
+        } finally {
+            groupCommitScheduled.set(false);
+        }
+        if (!groupCommitQueue.isEmpty()) {
+            scheduleGroupCommit();
+        }
+    }
+
+    private void failQueuedGroupCommits(Throwable cause) {
+        GroupCommitRequest request;
+        while ((request = groupCommitQueue.poll()) != null) {
+            request.completableFuture.completeExceptionally(cause);
+        }
+    }
+
+    private ExecutorService groupCommitWriter() {
+        if (groupCommitWriter == null) {
+            synchronized (this) {
+                if (groupCommitWriter == null) {
+                    groupCommitWriter = Executors.newSingleThreadExecutor(new CustomizableThreadFactory(
+                            context + "-group-commit-"));
+                }
+            }
+        }
+        return groupCommitWriter;
+    }
+
+    private void stopGroupCommitWriter() {
+        ExecutorService writer = groupCommitWriter;
+        if (writer == null) {
+            return;
+        }
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(5, TimeUnit.SECONDS)) {
+                logger.warn("{}: Group commit writer did not stop in time", context);
+            }
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+        }
+        failQueuedGroupCommits(new MessagingPlatformException(ErrorCode.DATAFILE_WRITE_ERROR,
+                                                              context + ": Event store is closed"));
+    }
+
+    private List<GroupCommitRequest> nextGroupCommitBatch() {
+        List<GroupCommitRequest> batch = new ArrayList<>();
+        long maxBatchBytes = storageProperties.getSegmentSize() - 9;
+        long lingerDeadline = System.nanoTime()
+                + TimeUnit.MICROSECONDS.toNanos(storageProperties.getGroupCommitMaxLinger());
+        long batchBytes = 0;
+        GroupCommitRequest request = groupCommitQueue.poll();
+        while (request != null) {
+            if (!batch.isEmpty() && batchBytes + request.transactionSize() > maxBatchBytes) {
+                groupCommitQueue.addFirst(request);
+                return batch;
+            }
+            batch.add(request);
+            batchBytes += request.transactionSize();
+            if (batch.size() >= storageProperties.getGroupCommitMaxBatchSize()) {
+                return batch;
+            }
+            request = groupCommitQueue.poll();
+            if (request == null) {
+                request = pollUntil(lingerDeadline);
+            }
+        }
+        return batch;
+    }
+
+    private GroupCommitRequest pollUntil(long deadline) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+            return null;
+        }
+        try {
+            return groupCommitQueue.poll(remaining, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private void storeBatch(List<GroupCommitRequest> batch) {
+        try {
+            int totalSize = 0;
+            int nrOfEvents = 0;
+            for (GroupCommitRequest request : batch) {
+                totalSize += request.transactionSize();
+                nrOfEvents += request.eventList.size();
+            }
+            WritePosition writePosition = claimRegion(totalSize, nrOfEvents);
+            List<Map<String, List<IndexEntry>>> indexEntriesPerRequest = new ArrayList<>(batch.size());
+            batch.forEach(request -> indexEntriesPerRequest.add(new HashMap<>()));
+
+            synchronizer.register(writePosition, new StorageCallback() {
+                private final AtomicBoolean execute = new AtomicBoolean(true);
+
+                @Override
+                public boolean onCompleted(long firstToken) {
+                    if (execute.getAndSet(false)) {
+                        Map<String, List<IndexEntry>> indexEntries = new HashMap<>();
+                        indexEntriesPerRequest.forEach(requestEntries -> requestEntries.forEach(
+                                (aggregateId, entries) -> indexEntries.computeIfAbsent(aggregateId,
+                                                                                       k -> new ArrayList<>())
+                                                                      .addAll(entries)));
+                        indexManager.addToActiveSegment(writePosition.segment, indexEntries);
+                        lastToken.set(firstToken + batch.stream().mapToInt(r -> r.eventList.size()).sum() - 1);
+                        long token = firstToken;
+                        for (GroupCommitRequest request : batch) {
+                            request.completableFuture.complete(token);
+                            token += request.eventList.size();
+                        }
+                        return true;
+                    }
+                    return false;
+                }
+
+                @Override
+                public void onError(Throwable cause) {
+                    batch.forEach(request -> request.completableFuture.completeExceptionally(cause));
+                }
+            });
+
+            List<WritePosition> transactionPositions = new ArrayList<>(batch.size());
+            long sequence = writePosition.sequence;
+            int position = writePosition.position;
+            for (GroupCommitRequest request : batch) {
+                transactionPositions.add(new WritePosition(sequence,
+                                                           position,
+                                                           writePosition.buffer,
+                                                           writePosition.segment));
+                sequence += request.eventList.size();
+                position += request.transactionSize();
+            }
+            // the first transaction is written last, as its size marks the whole region as complete
+            for (int i = 1; i <= batch.size(); i++) {
+                int idx = i % batch.size();
+                GroupCommitRequest request = batch.get(idx);
+                write(transactionPositions.get(idx),
+                      request.eventSize,
+                      request.eventList,
+                      request.frame,
+                      indexEntriesPerRequest.get(idx));
+            }
+            synchronizer.notifyWritePositions();
+        } catch (RuntimeException cause) {
+            batch.forEach(request -> request.completableFuture.completeExceptionally(cause));
+        }
+    }
+
     @Override
     public void handover(Long segment, Runnable callback) {
         callback.run();
@@ -227,7 +582,14 @@ public class PrimaryEventStore extends SegmentBasedEventStore {
 
     @Override
     public void close(boolean deleteData) {
+        stopGroupCommitWriter();
         synchronizer.shutdown(true);
+        waitForPendingCompletions();
+        shutdownIndexBuilder();
+        stopActiveIndexCheckpoints(deleteData);
+        stopScrubber();
+        shutdownAggregateReaderPool();
+        discardPreparedSegment();
         readBuffers.forEach((s, source) -> {
             source.clean(0);
             if( deleteData) removeSegment(s);
@@ -271,7 +633,18 @@ public class PrimaryEventStore extends SegmentBasedEventStore {
         if (token >= getLastToken()) {
             return;
         }
+        synchronized (checkpointLock) {
+            // the checkpoint may contain events that are removed
+            FileUtils.delete(storageProperties.activeIndexCheckpoint(context));
+            lastCheckpoint = null;
+            rollbackSegments(token);
+        }
+        rollbackListeners.forEach(Runnable::run);
+    }
+
+    private void rollbackSegments(long token) {
         synchronizer.shutdown(false);
+        waitForPendingCompletions();
         NavigableSet<Long> segments = getSegments();
 
         if (segments.first() < token) {
@@ -350,43 +723,178 @@ public class PrimaryEventStore extends SegmentBasedEventStore {
         if (eventSource != null) {
             eventSource.clean(0);
         }
+        FileUtils.delete(storageProperties.timestampIndex(context, segment));
+        FileUtils.delete(storageProperties.payloadTypeIndex(context, segment));
+        FileUtils.delete(storageProperties.manifest(context, segment));
         FileUtils.delete(storageProperties.dataFile(context, segment));
     }
 
+    /**
+     * Builds the index and bloom filter for a completed segment and hands the segment over to the next store. This
+     * runs on the index builder thread of this store, so the synchronizer can continue flushing the active segment.
+     * Until the index is built, lookups for the segment are served from the active index.
+     */
     protected void completeSegment(WritePosition writePosition) {
-        indexManager.complete(writePosition.segment);
-        if (next != null) {
-            next.handover(writePosition.segment, () -> {
-                ByteBufferEventSource source = readBuffers.remove(writePosition.segment);
-                logger.debug("Handed over {}, remaining segments: {}",
-                             writePosition.segment,
-                             getSegments());
-                source.clean(storageProperties.getPrimaryCleanupDelay());
-            });
+        pendingCompletions.computeIfAbsent(writePosition.segment,
+                                           segment -> CompletableFuture.runAsync(() -> doCompleteSegment(
+                                                   writePosition), indexBuilder()));
+    }
+
+    private void doCompleteSegment(WritePosition writePosition) {
+        try {
+            indexManager.complete(writePosition.segment);
+            createTimestampIndex(writePosition.segment);
+            if (storageProperties.isPayloadTypeIndex()) {
+                createPayloadTypeIndex(writePosition.segment);
+            }
+            if (storageProperties.isValidationManifest()) {
+                createManifest(writePosition.segment);
+            }
+            if (next != null) {
+                next.handover(writePosition.segment, () -> {
+                    ByteBufferEventSource source = readBuffers.remove(writePosition.segment);
+                    logger.debug("Handed over {}, remaining segments: {}",
+                                 writePosition.segment,
+                                 getSegments());
+                    source.clean(storageProperties.getPrimaryCleanupDelay());
+                });
+            }
+            completionAttempts.remove(writePosition.segment);
+            failedCompletions.remove(writePosition.segment);
+            pendingCompletions.remove(writePosition.segment);
+        } catch (Exception ex) {
+            pendingCompletions.remove(writePosition.segment);
+            retryCompleteSegment(writePosition, ex);
+        }
+    }
+
+    /**
+     * Schedules a new attempt to complete the segment, with an exponentially increasing delay. After the last attempt
+     * the segment stays in the primary store and the failure is reported in the health of the event store.
+     */
+    private void retryCompleteSegment(WritePosition writePosition, Exception cause) {
+        int attempt = completionAttempts.merge(writePosition.segment, 1, Integer::sum);
+        if (attempt >= MAX_COMPLETE_SEGMENT_ATTEMPTS) {
+            logger.error("{}: Failed to complete segment {} after {} attempts",
+                         context,
+                         writePosition.segment,
+                         attempt,
+                         cause);
+            completionAttempts.remove(writePosition.segment);
+            failedCompletions.put(writePosition.segment, String.valueOf(cause.getMessage()));
+            return;
         }
+        long delay = COMPLETE_SEGMENT_RETRY_DELAY << (attempt - 1);
+        logger.warn("{}: Failed to complete segment {}, retrying in {}ms - {}",
+                    context,
+                    writePosition.segment,
+                    delay,
+                    cause.getMessage());
+        synchronizer.retryCompleteSegment(writePosition, delay);
+    }
+
+    @Override
+    public void health(Health.Builder builder) {
+        failedCompletions.forEach((segment, message) -> {
+            builder.down();
+            builder.withDetail(context + ".segment." + segment, "Failed to complete segment: " + message);
+        });
+        super.health(builder);
     }
 
-    private void write(WritePosition writePosition, int eventSize, List<ProcessedEvent> eventList,
+    private void createManifest(long segment) {
+        ByteBufferEventSource source = readBuffers.get(segment);
+        if (source instanceof WritableEventSource) {
+            ((WritableEventSource) source).force();
+        }
+        ValidationResult result = validateTransactions(segment);
+        if (result.isValid()) {
+            writeManifest(segment, result.getLastToken());
+        } else {
+            logger.warn("{}: Not creating validation manifest for segment {} - {}",
+                        context,
+                        segment,
+                        result.getMessage());
+        }
+    }
+
+    private void createPayloadTypeIndex(long segment) {
+        ByteBufferEventSource source = readBuffers.get(segment);
+        if (source == null) {
+            return;
+        }
+        try (EventIterator iterator = createEventIterator(source.duplicate(), segment, segment)) {
+            createPayloadTypeIndex(segment, iterator);
+        } catch (RuntimeException exception) {
+            // not fatal, the payload type index is created when it is first needed
+            logger.warn("{}: Failed to create payload type index for segment {} - {}",
+                        context,
+                        segment,
+                        exception.getMessage());
+        }
+    }
+
+    private void createTimestampIndex(long segment) {
+        ByteBufferEventSource source = readBuffers.get(segment);
+        if (source == null) {
+            return;
+        }
+        try (EventIterator iterator = createEventIterator(source.duplicate(), segment, segment)) {
+            createTimestampIndex(segment, iterator);
+        } catch (RuntimeException exception) {
+            // not fatal, the timestamp index is created when it is first needed
+            logger.warn("{}: Failed to create timestamp index for segment {} - {}",
+                        context,
+                        segment,
+                        exception.getMessage());
+        }
+    }
+
+    private void waitForPendingCompletions() {
+        for (CompletableFuture<Void> pending : pendingCompletions.values()) {
+            try {
+                pending.get();
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException executionException) {
+                // failure already logged by the completion task
+            }
+        }
+    }
+
+    /**
+     * Writes a transaction at the claimed position. When a frame is given, the transaction is written as a compressed
+     * transaction and the index entries refer to the slots of the events.
+     */
+    private void write(WritePosition writePosition, int eventSize, List<ProcessedEvent> eventList, byte[] frame,
                        Map<String, List<IndexEntry>> indexEntries) {
         ByteBufferEventSource source = writePosition.buffer.duplicate();
         ByteBuffer writeBuffer = source.getBuffer();
         writeBuffer.position(writePosition.position);
         writeBuffer.putInt(0);
-        writeBuffer.put(TRANSACTION_VERSION);
+        writeBuffer.put(frame == null ? TRANSACTION_VERSION : CompressedTransaction.TRANSACTION_VERSION);
         writeBuffer.putShort((short) eventList.size());
         long token = writePosition.sequence;
         Checksum checksum = new Checksum();
         int eventsPosition = writeBuffer.position();
-        for (ProcessedEvent event : eventList) {
-            int position = writeBuffer.position();
-            writeBuffer.putInt(event.getSerializedSize());
-            writeBuffer.put(event.toByteArray());
-            if (event.isDomainEvent()) {
-                indexEntries.computeIfAbsent(event.getAggregateIdentifier(),
-                                             k -> new ArrayList<>())
-                            .add(new IndexEntry(event.getAggregateSequenceNumber(), position, token));
+        if (frame == null) {
+            for (ProcessedEvent event : eventList) {
+                int position = writeBuffer.position();
+                writeBuffer.putInt(event.getSerializedSize());
+                writeBuffer.put(event.toByteArray());
+                addIndexEntry(indexEntries, event, position, token);
+                token++;
+            }
+        } else {
+            int slotsPosition = CompressedTransaction.write(writeBuffer, eventList.size(), frame);
+            for (int i = 0; i < eventList.size(); i++) {
+                addIndexEntry(indexEntries,
+                              eventList.get(i),
+                              slotsPosition + CompressedTransaction.SLOT_BYTES * i,
+                              token);
+                token++;
             }
-            token++;
         }
 
         writeBuffer.putInt(checksum.update(writeBuffer, eventsPosition, writeBuffer.position() - eventsPosition).get());
@@ -395,13 +903,30 @@ public class PrimaryEventStore extends SegmentBasedEventStore {
         source.close();
     }
 
+    private void addIndexEntry(Map<String, List<IndexEntry>> indexEntries, ProcessedEvent event, int position,
+                               long token) {
+        if (event.isDomainEvent()) {
+            indexEntries.computeIfAbsent(event.getAggregateIdentifier(),
+                                         k -> new ArrayList<>())
+                        .add(new IndexEntry(event.getAggregateSequenceNumber(), position, token));
+        }
+    }
+
     private WritePosition claim(int eventBlockSize, int nrOfEvents) {
         int totalSize = HEADER_BYTES + eventBlockSize + TX_CHECKSUM_BYTES;
+        checkTransactionSize(totalSize);
+        return claimRegion(totalSize, nrOfEvents);
+    }
+
+    private void checkTransactionSize(int totalSize) {
         if (totalSize > storageProperties.getSegmentSize() - 9) {
             throw new MessagingPlatformException(ErrorCode.PAYLOAD_TOO_LARGE,
                                                  "Size of transaction too large, max size = " + (
                                                          storageProperties.getSegmentSize() - 9));
         }
+    }
+
+    private WritePosition claimRegion(int totalSize, int nrOfEvents) {
         WritePosition writePosition;
         do {
             writePosition = writePositionRef.getAndAccumulate(
@@ -437,6 +962,11 @@ public class PrimaryEventStore extends SegmentBasedEventStore {
         long size = storageProperties.getSegmentSize();
         if (file.exists()) {
             size = file.length();
+        } else {
+            WritableEventSource prepared = openPreparedSegment(segment, file);
+            if (prepared != null) {
+                return prepared;
+            }
         }
         try (FileChannel fileChannel = new RandomAccessFile(file, "rw").getChannel()) {
             logger.info("Opening file {}", file);
@@ -446,6 +976,7 @@ public class PrimaryEventStore extends SegmentBasedEventStore {
             WritableEventSource writableEventSource = new WritableEventSource(file.getAbsolutePath(),
                                                                               buffer,
                                                                               eventTransformer,
+                                                                              transactionTransformer,
                                                                               storageProperties.isCleanRequired());
             readBuffers.put(segment, writableEventSource);
             return writableEventSource;
@@ -456,11 +987,165 @@ public class PrimaryEventStore extends SegmentBasedEventStore {
         }
     }
 
-    private int eventBlockSize(List<ProcessedEvent> eventList) {
+    /**
+     * Starts creating and mapping the file for the next segment in the background, so that it is ready when the current
+     * segment is full. The segment number is not known yet, so the file is created with a temporary name.
+     */
+    private void prepareNextSegment() {
+        if (!storageProperties.isPreAllocateSegments()) {
+            return;
+        }
+        preparedSegment = CompletableFuture.supplyAsync(this::mapPreparedSegment, segmentAllocator());
+    }
+
+    private MappedByteBuffer mapPreparedSegment() {
+        File file = storageProperties.preparedDataFile(context);
+        FileUtils.delete(file);
+        try (FileChannel fileChannel = new RandomAccessFile(file, "rw").getChannel()) {
+            MappedByteBuffer buffer = fileChannel.map(FileChannel.MapMode.READ_WRITE,
+                                                      0,
+                                                      storageProperties.getSegmentSize());
+            buffer.put(VERSION);
+            buffer.putInt(storageProperties.getFlags());
+            logger.debug("{}: Prepared next segment {}", context, file);
+            return buffer;
+        } catch (IOException ioException) {
+            throw new MessagingPlatformException(ErrorCode.DATAFILE_WRITE_ERROR,
+                                                 "Failed to prepare next segment: " + file,
+                                                 ioException);
+        }
+    }
+
+    /**
+     * Renames the prepared segment file to the data file for the given segment and returns it as a writable event
+     * source. Returns null if there is no prepared segment, or the prepared segment cannot be used, in which case the
+     * caller creates the segment itself.
+     */
+    private WritableEventSource openPreparedSegment(long segment, File file) {
+        CompletableFuture<MappedByteBuffer> prepared = preparedSegment;
+        if (prepared == null) {
+            return null;
+        }
+        preparedSegment = null;
+        try {
+            MappedByteBuffer buffer = prepared.get();
+            Files.move(storageProperties.preparedDataFile(context).toPath(),
+                       file.toPath(),
+                       StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Opening file {}", file);
+            WritableEventSource writableEventSource = new WritableEventSource(file.getAbsolutePath(),
+                                                                              buffer,
+                                                                              eventTransformer,
+                                                                              transactionTransformer,
+                                                                              storageProperties.isCleanRequired());
+            readBuffers.put(segment, writableEventSource);
+            return writableEventSource;
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | IOException exception) {
+            logger.warn("{}: Failed to use prepared segment for {}", context, segment, exception);
+            FileUtils.delete(storageProperties.preparedDataFile(context));
+            return null;
+        } finally {
+            prepareNextSegment();
+        }
+    }
+
+    private void discardPreparedSegment() {
+        CompletableFuture<MappedByteBuffer> prepared = preparedSegment;
+        preparedSegment = null;
+        ExecutorService allocator = segmentAllocator;
+        segmentAllocator = null;
+        if (allocator != null) {
+            allocator.shutdown();
+        }
+        if (prepared != null) {
+            try {
+                CleanUtils.cleanDirectBuffer(prepared.get(), () -> true, 0, context);
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException executionException) {
+                // nothing to clean
+            }
+            FileUtils.delete(storageProperties.preparedDataFile(context));
+        }
+    }
+
+    private ExecutorService indexBuilder() {
+        if (indexBuilder == null) {
+            synchronized (this) {
+                if (indexBuilder == null) {
+                    indexBuilder = Executors.newSingleThreadExecutor(new CustomizableThreadFactory(
+                            context + "-index-builder-"));
+                }
+            }
+        }
+        return indexBuilder;
+    }
+
+    private void shutdownIndexBuilder() {
+        ExecutorService builder = indexBuilder;
+        indexBuilder = null;
+        if (builder != null) {
+            builder.shutdown();
+        }
+    }
+
+    /**
+     * Returns the pending preparation of the next segment, or null if there is none.
+     */
+    CompletableFuture<MappedByteBuffer> preparedSegment() {
+        return preparedSegment;
+    }
+
+    private ExecutorService segmentAllocator() {
+        if (segmentAllocator == null) {
+            synchronized (this) {
+                if (segmentAllocator == null) {
+                    segmentAllocator = Executors.newSingleThreadExecutor(new CustomizableThreadFactory(
+                            context + "-segment-allocator-"));
+                }
+            }
+        }
+        return segmentAllocator;
+    }
+
+    private byte[] frame(List<ProcessedEvent> eventList) {
+        if (transactionTransformer == null) {
+            return null;
+        }
+        return CompressedTransaction.frame(eventList, transactionTransformer);
+    }
+
+    private int eventBlockSize(List<ProcessedEvent> eventList, byte[] frame) {
+        if (frame != null) {
+            return CompressedTransaction.blockSize(eventList.size(), frame);
+        }
         int size = 0;
         for (ProcessedEvent event : eventList) {
             size += 4 + event.getSerializedSize();
         }
         return size;
     }
+
+    private static class GroupCommitRequest {
+
+        private final List<ProcessedEvent> eventList;
+        private final byte[] frame;
+        private final int eventSize;
+        private final CompletableFuture<Long> completableFuture;
+
+        private GroupCommitRequest(List<ProcessedEvent> eventList, byte[] frame, int eventSize,
+                                   CompletableFuture<Long> completableFuture) {
+            this.eventList = eventList;
+            this.frame = frame;
+            this.eventSize = eventSize;
+            this.completableFuture = completableFuture;
+        }
+
+        private int transactionSize() {
+            return HEADER_BYTES + eventSize + TX_CHECKSUM_BYTES;
+        }
+    }
 }
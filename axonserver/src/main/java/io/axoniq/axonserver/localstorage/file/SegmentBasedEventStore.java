@@ -9,10 +9,11 @@
 
 package io.axoniq.axonserver.localstorage.file;
 
+import io.axoniq.axonserver.exception.ConcurrencyExceptions;
 import io.axoniq.axonserver.exception.ErrorCode;
 import io.axoniq.axonserver.exception.EventStoreValidationException;
 import io.axoniq.axonserver.exception.MessagingPlatformException;
-import io.axoniq.axonserver.grpc.event.EventWithToken;
+import io.axoniq.axonserver.localstorage.EventHeader;
 import io.axoniq.axonserver.localstorage.EventStorageEngine;
 import io.axoniq.axonserver.localstorage.EventTypeContext;
 import io.axoniq.axonserver.localstorage.QueryOptions;
@@ -28,6 +29,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.actuate.health.Health;
 import org.springframework.data.util.CloseableIterator;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 import java.io.File;
 import java.io.IOException;
@@ -35,20 +37,28 @@ import java.nio.file.FileStore;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -77,9 +87,11 @@ public abstract class SegmentBasedEventStore implements EventStorageEngine {
     protected final StorageProperties storageProperties;
     protected final EventTypeContext type;
     protected final Set<Runnable> closeListeners = new CopyOnWriteArraySet<>();
+    protected final Set<Runnable> rollbackListeners = new CopyOnWriteArraySet<>();
     private final Timer aggregateReadTimer;
     private final Timer lastSequenceReadTimer;
     protected final SegmentBasedEventStore next;
+    private volatile ExecutorService aggregateReaderPool;
 
     public SegmentBasedEventStore(EventTypeContext eventTypeContext, IndexManager indexManager,
                                   StorageProperties storageProperties, MeterFactory meterFactory) {
@@ -112,6 +124,14 @@ public abstract class SegmentBasedEventStore implements EventStorageEngine {
     @Override
     public void processEventsPerAggregate(String aggregateId, long firstSequenceNumber, long lastSequenceNumber,
                                           long minToken, Consumer<SerializedEvent> eventConsumer) {
+        if (storageProperties.getAggregateReadParallelism() > 1) {
+            processEventsPerAggregateInParallel(aggregateId,
+                                                firstSequenceNumber,
+                                                lastSequenceNumber,
+                                                minToken,
+                                                eventConsumer);
+            return;
+        }
         long before = System.currentTimeMillis();
         SortedMap<Long, IndexEntries> positionInfos = indexManager.lookupAggregate(aggregateId,
                                                                                    firstSequenceNumber,
@@ -128,6 +148,94 @@ public abstract class SegmentBasedEventStore implements EventStorageEngine {
         aggregateReadTimer.record(System.currentTimeMillis() - before, TimeUnit.MILLISECONDS);
     }
 
+    /**
+     * Reads the events for an aggregate from multiple segments in parallel. The index lookups and the reads from the
+     * segments are done on a bounded pool, with at most twice the configured parallelism segments in progress. The
+     * events are passed to the consumer in segment order, which is also the order of the sequence numbers.
+     */
+    private void processEventsPerAggregateInParallel(String aggregateId, long firstSequenceNumber,
+                                                     long lastSequenceNumber, long minToken,
+                                                     Consumer<SerializedEvent> eventConsumer) {
+        long before = System.currentTimeMillis();
+        ExecutorService pool = aggregateReaderPool();
+        SortedMap<Long, IndexEntries> positionInfos = indexManager.lookupAggregate(aggregateId,
+                                                                                   firstSequenceNumber,
+                                                                                   lastSequenceNumber,
+                                                                                   Long.MAX_VALUE,
+                                                                                   minToken,
+                                                                                   pool);
+        Iterator<Map.Entry<Long, IndexEntries>> segments = positionInfos.entrySet().iterator();
+        Deque<CompletableFuture<List<SerializedEvent>>> inProgress = new ArrayDeque<>();
+        int window = 2 * storageProperties.getAggregateReadParallelism();
+        while (inProgress.size() < window && segments.hasNext()) {
+            inProgress.add(readEventsAsync(segments.next(), firstSequenceNumber, lastSequenceNumber, minToken, pool));
+        }
+        while (!inProgress.isEmpty()) {
+            List<SerializedEvent> events = join(inProgress.poll());
+            if (segments.hasNext()) {
+                inProgress.add(readEventsAsync(segments.next(),
+                                               firstSequenceNumber,
+                                               lastSequenceNumber,
+                                               minToken,
+                                               pool));
+            }
+            events.forEach(eventConsumer);
+        }
+        aggregateReadTimer.record(System.currentTimeMillis() - before, TimeUnit.MILLISECONDS);
+    }
+
+    private CompletableFuture<List<SerializedEvent>> readEventsAsync(Map.Entry<Long, IndexEntries> positionInfo,
+                                                                     long firstSequenceNumber,
+                                                                     long lastSequenceNumber, long minToken,
+                                                                     Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            List<SerializedEvent> events = new ArrayList<>(positionInfo.getValue().size());
+            retrieveEventsForAnAggregate(positionInfo.getKey(),
+                                         positionInfo.getValue().positions(),
+                                         firstSequenceNumber,
+                                         lastSequenceNumber,
+                                         events::add,
+                                         Long.MAX_VALUE,
+                                         minToken);
+            return events;
+        }, executor);
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            Throwable cause = ConcurrencyExceptions.unwrap(ex);
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new MessagingPlatformException(ErrorCode.DATAFILE_READ_ERROR, cause.getMessage(), cause);
+        }
+    }
+
+    private ExecutorService aggregateReaderPool() {
+        if (aggregateReaderPool == null) {
+            synchronized (this) {
+                if (aggregateReaderPool == null) {
+                    aggregateReaderPool = Executors.newFixedThreadPool(storageProperties.getAggregateReadParallelism(),
+                                                                       new CustomizableThreadFactory(
+                                                                               context + "-aggregate-reader-"));
+                }
+            }
+        }
+        return aggregateReaderPool;
+    }
+
+    /**
+     * Stops the threads used to read aggregates in parallel, if they were started.
+     */
+    protected void shutdownAggregateReaderPool() {
+        ExecutorService pool = aggregateReaderPool;
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
     @Override
     public void processEventsPerAggregateHighestFirst(String aggregateId, long firstSequenceNumber,
                                                       long maxSequenceNumber,
@@ -158,49 +266,220 @@ public abstract class SegmentBasedEventStore implements EventStorageEngine {
 
 
     @Override
-    public void query(QueryOptions queryOptions, Predicate<EventWithToken> consumer) {
+    public void query(QueryOptions queryOptions, Predicate<SerializedEventWithToken> consumer) {
         for (long segment : getSegments()) {
             if (segment <= queryOptions.getMaxToken()) {
-                Optional<EventSource> eventSource = getEventSource(segment);
-                AtomicBoolean done = new AtomicBoolean();
-                eventSource.ifPresent(e -> {
-                    long minTimestampInSegment = Long.MAX_VALUE;
-                    EventInformation eventWithToken;
-                    EventIterator iterator = createEventIterator(e, segment, segment);
-                    while (iterator.hasNext()) {
-                        eventWithToken = iterator.next();
-                        minTimestampInSegment = Math.min(minTimestampInSegment,
-                                                         eventWithToken.getEvent().getTimestamp());
-                        if (eventWithToken.getToken() > queryOptions.getMaxToken()) {
-                            iterator.close();
-                            return;
-                        }
-                        if (eventWithToken.getToken() >= queryOptions.getMinToken()
-                                && eventWithToken.getEvent().getTimestamp() >= queryOptions.getMinTimestamp()
-                                && !consumer.test(eventWithToken.asEventWithToken())) {
-                            iterator.close();
-                            return;
-                        }
-                    }
-                    if (queryOptions.getMinToken() > segment || minTimestampInSegment < queryOptions
-                            .getMinTimestamp()) {
-                        done.set(true);
-                    }
-                    iterator.close();
-                });
-                if (done.get()) {
+                SegmentTimestampIndex zoneMap = zoneMap(segment);
+                if (cannotMatch(zoneMap, queryOptions)) {
+                    // no matches in this segment, and older segments are older still
+                    return;
+                }
+                Long minTimestampInSegment = querySegment(segment, zoneMap, queryOptions, consumer);
+                if (minTimestampInSegment != null && (queryOptions.getMinToken() > segment
+                        || minTimestampInSegment < queryOptions.getMinTimestamp())) {
                     return;
                 }
             }
         }
 
         if (next != null) {
-            next.query(new QueryOptions(queryOptions.getMinToken(),
-                                        queryOptions.getMaxToken(),
-                                        queryOptions.getMinTimestamp()), consumer);
+            next.query(queryOptions, consumer);
+        }
+    }
+
+    /**
+     * Splits the query in one partition per segment. The zone map of a segment decides if it is the last segment to
+     * read. Writable segments have no zone map, so for these segments the query does not stop on the timestamp.
+     */
+    @Override
+    public List<Consumer<Predicate<SerializedEventWithToken>>> queryPartitions(QueryOptions queryOptions) {
+        List<Consumer<Predicate<SerializedEventWithToken>>> partitions = new ArrayList<>();
+        addQueryPartitions(queryOptions, partitions);
+        return partitions;
+    }
+
+    private void addQueryPartitions(QueryOptions queryOptions, List<Consumer<Predicate<SerializedEventWithToken>>> partitions) {
+        for (long segment : getSegments()) {
+            if (segment <= queryOptions.getMaxToken()) {
+                SegmentTimestampIndex zoneMap = zoneMap(segment);
+                if (cannotMatch(zoneMap, queryOptions)) {
+                    return;
+                }
+                partitions.add(consumer -> queryPartition(segment, queryOptions, consumer));
+                if (queryOptions.getMinToken() > segment || (zoneMap != null && !zoneMap.isEmpty()
+                        && zoneMap.minTimestamp() < queryOptions.getMinTimestamp())) {
+                    return;
+                }
+            }
+        }
+        if (next != null) {
+            next.addQueryPartitions(queryOptions, partitions);
         }
     }
 
+    private void queryPartition(long segment, QueryOptions queryOptions, Predicate<SerializedEventWithToken> consumer) {
+        if (getSegments().contains(segment)) {
+            querySegment(segment, zoneMap(segment), queryOptions, consumer);
+        } else if (next != null) {
+            // segment was handed over to the next store after the partitions were created
+            next.queryPartition(segment, queryOptions, consumer);
+        }
+    }
+
+    private boolean cannotMatch(SegmentTimestampIndex zoneMap, QueryOptions queryOptions) {
+        return zoneMap != null && !zoneMap.isEmpty() && (zoneMap.lastToken() < queryOptions.getMinToken()
+                || zoneMap.maxTimestamp() < queryOptions.getMinTimestamp());
+    }
+
+    /**
+     * Reads the events for a query from a single segment.
+     *
+     * @return the lowest timestamp in the segment, or null if the segment was not read completely
+     */
+    private Long querySegment(long segment, SegmentTimestampIndex zoneMap, QueryOptions queryOptions,
+                              Predicate<SerializedEventWithToken> consumer) {
+        long start = Math.max(segment, queryOptions.getMinToken());
+        long minTimestampInSegment = Long.MAX_VALUE;
+        if (zoneMap != null && !zoneMap.isEmpty()) {
+            start = Math.max(start, zoneMap.firstBlockTokenAtOrAfter(queryOptions.getMinTimestamp()));
+            minTimestampInSegment = zoneMap.minTimestamp();
+        }
+        Optional<EventSource> eventSource = getEventSource(segment);
+        if (!eventSource.isPresent()) {
+            return null;
+        }
+        String payloadType = queryOptions.getPayloadType();
+        if (payloadType != null) {
+            SegmentPayloadTypeIndex payloadTypeIndex = payloadTypeIndex(segment);
+            if (payloadTypeIndex != null) {
+                try (EventSource source = eventSource.get()) {
+                    return querySegment(segment, source, payloadTypeIndex.entries(payloadType), start,
+                                        minTimestampInSegment, queryOptions, consumer);
+                }
+            }
+        }
+        try (EventIterator iterator = createEventIterator(eventSource.get(), segment, start)) {
+            while (iterator.hasNext()) {
+                EventInformation eventWithToken = iterator.next();
+                EventHeader header = eventWithToken.getSerializedEventWithToken().getSerializedEvent().header();
+                minTimestampInSegment = Math.min(minTimestampInSegment, header.getTimestamp());
+                if (eventWithToken.getToken() > queryOptions.getMaxToken()) {
+                    return null;
+                }
+                if (eventWithToken.getToken() >= queryOptions.getMinToken()
+                        && header.getTimestamp() >= queryOptions.getMinTimestamp()
+                        && (payloadType == null || payloadType.equals(header.getPayloadType()))
+                        && !consumer.test(eventWithToken.getSerializedEventWithToken())) {
+                    return null;
+                }
+            }
+        }
+        return minTimestampInSegment;
+    }
+
+    /**
+     * Reads the events with the payload type of the query from a single segment, using the payload type index of the
+     * segment to read only those events.
+     */
+    private Long querySegment(long segment, EventSource eventSource, SegmentPayloadTypeIndex.Entries entries,
+                              long start, long minTimestampInSegment, QueryOptions queryOptions,
+                              Predicate<SerializedEventWithToken> consumer) {
+        for (int i = 0; i < entries.size(); i++) {
+            long token = entries.token(segment, i);
+            if (token > queryOptions.getMaxToken()) {
+                return null;
+            }
+            if (token >= start) {
+                SerializedEvent event = eventSource.readEvent(entries.position(i));
+                if (event.header().getTimestamp() >= queryOptions.getMinTimestamp()
+                        && !consumer.test(new SerializedEventWithToken(token, event))) {
+                    return null;
+                }
+            }
+        }
+        return minTimestampInSegment;
+    }
+
+    /**
+     * Returns the summary of timestamps and tokens for a segment, used to skip segments and blocks of events that
+     * cannot match a query.
+     *
+     * @param segment the segment
+     * @return the summary or null when there is no summary available for the segment
+     */
+    protected SegmentTimestampIndex zoneMap(long segment) {
+        return null;
+    }
+
+    /**
+     * Finds the first token in the segment with a timestamp at or after the given instant, by reading the segment
+     * from the start.
+     *
+     * @param segment the segment to search
+     * @param instant the timestamp to find
+     * @return the token or null when the first event in the segment is after the instant
+     */
+    protected Long getTokenAt(long segment, long instant) {
+        return getEventSource(segment).map(es -> {
+            try (EventIterator iterator = createEventIterator(es, segment, segment)) {
+                return iterator.getTokenAt(instant);
+            }
+        }).orElse(null);
+    }
+
+    /**
+     * Builds the timestamp index for a segment from the events returned by the iterator, and writes it next to the
+     * segment.
+     *
+     * @param segment  the segment
+     * @param iterator iterator over all events in the segment
+     * @return the timestamp index
+     */
+    protected SegmentTimestampIndex createTimestampIndex(long segment, EventIterator iterator) {
+        SegmentTimestampIndex.Builder builder = new SegmentTimestampIndex.Builder(storageProperties
+                                                                                          .getTimestampIndexBlockSize());
+        while (iterator.hasNext()) {
+            EventInformation event = iterator.next();
+            builder.add(event.getToken(), event.getEvent().getTimestamp());
+        }
+        SegmentTimestampIndex timestampIndex = builder.build();
+        timestampIndex.write(storageProperties.timestampIndex(context, segment));
+        return timestampIndex;
+    }
+
+    /**
+     * Returns the payload type index for a segment.
+     *
+     * @param segment the segment
+     * @return the payload type index or null when there is no index for the segment
+     */
+    protected SegmentPayloadTypeIndex payloadTypeIndex(long segment) {
+        return null;
+    }
+
+    /**
+     * Builds the payload type index for a segment from the events returned by the iterator, and writes it next to
+     * the segment.
+     *
+     * @param segment  the segment
+     * @param iterator iterator over all events in the segment
+     * @return the payload type index
+     */
+    protected SegmentPayloadTypeIndex createPayloadTypeIndex(long segment, EventIterator iterator) {
+        SegmentPayloadTypeIndex.Builder builder = new SegmentPayloadTypeIndex.Builder(segment);
+        while (iterator.hasNext()) {
+            EventInformation event = iterator.next();
+            builder.add(event.getToken(), event.getPosition(), payloadType(event));
+        }
+        SegmentPayloadTypeIndex payloadTypeIndex = builder.build();
+        payloadTypeIndex.write(storageProperties.payloadTypeIndex(context, segment));
+        return payloadTypeIndex;
+    }
+
+    private String payloadType(EventInformation event) {
+        return event.getSerializedEventWithToken().getSerializedEvent().header().getPayloadType();
+    }
+
     protected EventIterator createEventIterator(EventSource e, long segment, long startToken) {
         return e.createEventIterator(segment, startToken);
     }
@@ -275,13 +554,7 @@ public abstract class SegmentBasedEventStore implements EventStorageEngine {
     @Override
     public long getTokenAt(long instant) {
         for (long segment : getSegments()) {
-            Optional<EventSource> eventSource = getEventSource(segment);
-            Long found = eventSource.map(es -> {
-                try (EventIterator iterator = createEventIterator(es, segment, segment)) {
-                    return iterator.getTokenAt(instant);
-                }
-            }).orElse(null);
-
+            Long found = getTokenAt(segment, instant);
             if (found != null) {
                 return found;
             }
@@ -328,12 +601,95 @@ public abstract class SegmentBasedEventStore implements EventStorageEngine {
         return Stream.concat(getSegments().stream(), next.getSegments().stream()).distinct();
     }
 
+    /**
+     * Validates a segment. When validation manifests are enabled and the segment file is unchanged since its manifest
+     * was written, the result is taken from the manifest. Otherwise all transactions in the segment are read, and a
+     * manifest is written for a valid completed segment.
+     *
+     * @param segment the segment to validate
+     * @return the validation result
+     */
     protected ValidationResult validateSegment(long segment) {
+        if (!storageProperties.isValidationManifest()) {
+            return validateTransactions(segment);
+        }
+        String context = type.getContext();
+        File dataFile = storageProperties.dataFile(context, segment);
+        File manifestFile = storageProperties.manifest(context, segment);
+        if (manifestFile.exists()) {
+            try {
+                SegmentManifest manifest = SegmentManifest.read(manifestFile);
+                if (manifest.segment() == segment && manifest.matches(dataFile)) {
+                    logger.debug("{}: Segment {} unchanged since last validation", context, segment);
+                    return new ValidationResult(segment, manifest.lastToken());
+                }
+            } catch (MessagingPlatformException ex) {
+                logger.debug("{}: Ignoring validation manifest for segment {} - {}",
+                             context,
+                             segment,
+                             ex.getMessage());
+            }
+        }
+        ValidationResult result = validateTransactions(segment);
+        if (result.isValid() && indexManager.validIndex(segment)) {
+            writeManifest(segment, result.getLastToken());
+        }
+        return result;
+    }
+
+    /**
+     * Writes the validation manifest for a completed segment. Failure to write the manifest is not fatal, the segment
+     * is fully validated again on the next start.
+     *
+     * @param segment   the segment
+     * @param lastToken the token following the last event in the segment
+     */
+    protected void writeManifest(long segment, long lastToken) {
+        String context = type.getContext();
+        try {
+            SegmentManifest.create(storageProperties.dataFile(context, segment), segment, lastToken)
+                           .write(storageProperties.manifest(context, segment));
+        } catch (IOException | MessagingPlatformException ex) {
+            logger.warn("{}: Failed to write validation manifest for segment {} - {}",
+                        context,
+                        segment,
+                        ex.getMessage());
+        }
+    }
+
+    /**
+     * Validates a segment by reading all its transactions.
+     *
+     * @param segment the segment to validate
+     * @return the validation result
+     */
+    protected ValidationResult validateTransactions(long segment) {
+        return validateTransactions(segment, 0);
+    }
+
+    /**
+     * Validates a segment by reading all its transactions, reading at most {@code maxBytesPerSecond} bytes of events
+     * per second. When the thread is interrupted while waiting, the validation stops with an invalid result and the
+     * interrupt flag set.
+     *
+     * @param segment           the segment to validate
+     * @param maxBytesPerSecond maximum read rate, 0 for no limit
+     * @return the validation result
+     */
+    protected ValidationResult validateTransactions(long segment, long maxBytesPerSecond) {
         logger.debug("{}: Validating {} segment: {}", type.getContext(), type.getEventType(), segment);
+        long start = System.nanoTime();
+        long total = 0;
         try (TransactionIterator iterator = getTransactions(segment, segment, true)) {
             SerializedTransactionWithToken last = null;
             while (iterator.hasNext()) {
                 last = iterator.next();
+                if (maxBytesPerSecond > 0) {
+                    for (SerializedEvent event : last.getEvents()) {
+                        total += event.size();
+                    }
+                    SegmentManifest.throttle(start, total, maxBytesPerSecond);
+                }
             }
             return new ValidationResult(segment, last == null ? segment : last.getToken() + last.getEvents().size());
         } catch (Exception ex) {
@@ -352,6 +708,12 @@ public abstract class SegmentBasedEventStore implements EventStorageEngine {
         return () -> closeListeners.remove(listener);
     }
 
+    @Override
+    public Registration registerRollbackListener(Runnable listener) {
+        rollbackListeners.add(listener);
+        return () -> rollbackListeners.remove(listener);
+    }
+
     public void initSegments(long maxValue, long defaultFirstToken) {
         initSegments(maxValue);
     }
@@ -517,8 +879,16 @@ public abstract class SegmentBasedEventStore implements EventStorageEngine {
     }
 
     protected void recreateIndexFromIterator(long segment, EventIterator iterator) {
+        SegmentTimestampIndex.Builder timestamps = new SegmentTimestampIndex.Builder(storageProperties
+                                                                                             .getTimestampIndexBlockSize());
+        SegmentPayloadTypeIndex.Builder payloadTypes = storageProperties.isPayloadTypeIndex() ?
+                new SegmentPayloadTypeIndex.Builder(segment) : null;
         while (iterator.hasNext()) {
             EventInformation event = iterator.next();
+            timestamps.add(event.getToken(), event.getEvent().getTimestamp());
+            if (payloadTypes != null) {
+                payloadTypes.add(event.getToken(), event.getPosition(), payloadType(event));
+            }
             if (event.isDomainEvent()) {
                 indexManager.addToActiveSegment(segment, event.getEvent().getAggregateIdentifier(), new IndexEntry(
                         event.getEvent().getAggregateSequenceNumber(),
@@ -527,6 +897,10 @@ public abstract class SegmentBasedEventStore implements EventStorageEngine {
             }
         }
         indexManager.complete(segment);
+        timestamps.build().write(storageProperties.timestampIndex(context, segment));
+        if (payloadTypes != null) {
+            payloadTypes.build().write(storageProperties.payloadTypeIndex(context, segment));
+        }
     }
 
     /**
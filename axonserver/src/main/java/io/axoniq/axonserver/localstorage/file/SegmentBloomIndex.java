@@ -0,0 +1,363 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+package io.axoniq.axonserver.localstorage.file;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import io.axoniq.axonserver.exception.ErrorCode;
+import io.axoniq.axonserver.exception.MessagingPlatformException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bloom filters for many completed segments, combined in a single memory mapped file.
+ * <p>
+ * The segments are stored in groups of {@value #GROUP_SEGMENTS}. Within a group the filters are bit-sliced: each bit
+ * position of the bloom filter is a 64 bit word, where bit {@code i} belongs to the {@code i}-th segment of the group.
+ * Combining the words for the bit positions of an aggregate gives the segments in the group that might contain the
+ * aggregate. The bit positions of an aggregate are all in the same block of {@value #BLOCK_ROWS} words (one page), so
+ * checking a group reads a single page. The hash of the aggregate identifier is computed once per lookup.
+ * <p>
+ * File layout, per group:
+ * <pre>
+ *     header (4096 bytes):
+ *         magic (int), number of blocks (int), number of hash functions (int), capacity (int),
+ *         number of segments (int), segment numbers (long[64], starting at offset 64, -1 for removed segments)
+ *     blocks (4096 bytes each):
+ *         512 words (long), one for each bit position in the block
+ * </pre>
+ * A group is sized for the number of aggregates in its first segment (with some headroom). When a segment has more
+ * aggregates than the capacity of the current group, or the group is full, a new group is started.
+ *
+ * @author Marc Gathier
+ * @since 4.5
+ */
+public class SegmentBloomIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentBloomIndex.class);
+    private static final int MAGIC = 0x41534231;
+    private static final int GROUP_SEGMENTS = 64;
+    private static final int PAGE_BYTES = 4096;
+    private static final int BLOCK_ROWS = PAGE_BYTES / Long.BYTES;
+    private static final int SEGMENTS_OFFSET = 64;
+    private static final int MIN_CAPACITY = 1024;
+    private static final int MAX_HASH_FUNCTIONS = 16;
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final File file;
+    private final double fpp;
+    private final List<Group> groups = new ArrayList<>();
+    private final Map<Long, Column> columns = new ConcurrentHashMap<>();
+    private FileChannel channel;
+    private long fileSize;
+
+    /**
+     * @param file the file containing the combined bloom filters
+     * @param fpp  false positive probability per segment
+     */
+    public SegmentBloomIndex(File file, double fpp) {
+        this.file = file;
+        this.fpp = fpp;
+    }
+
+    /**
+     * Opens the file and reads the groups in it. Incomplete groups at the end of the file (after a crash) are
+     * truncated.
+     */
+    public synchronized void open() {
+        try {
+            channel = FileChannel.open(file.toPath(),
+                                       StandardOpenOption.CREATE,
+                                       StandardOpenOption.READ,
+                                       StandardOpenOption.WRITE);
+            long size = channel.size();
+            long offset = 0;
+            while (offset + PAGE_BYTES <= size) {
+                ByteBuffer header = ByteBuffer.allocate(SEGMENTS_OFFSET);
+                channel.read(header, offset);
+                if (header.getInt(0) != MAGIC) {
+                    break;
+                }
+                int blocks = header.getInt(4);
+                long groupSize = PAGE_BYTES + (long) blocks * PAGE_BYTES;
+                if (blocks <= 0 || offset + groupSize > size) {
+                    break;
+                }
+                Group group = new Group(map(offset, groupSize), blocks, header.getInt(8), header.getInt(12));
+                int count = header.getInt(16);
+                if (count < 0 || count > GROUP_SEGMENTS) {
+                    break;
+                }
+                for (int i = 0; i < count; i++) {
+                    long segment = group.buffer.getLong(SEGMENTS_OFFSET + i * Long.BYTES);
+                    if (segment >= 0) {
+                        columns.put(segment, new Column(group, i));
+                    }
+                }
+                group.segments = count;
+                groups.add(group);
+                offset += groupSize;
+            }
+            if (offset < size) {
+                logger.warn("{}: truncating incomplete bloom filter group at {}", file, offset);
+                channel.truncate(offset);
+            }
+            fileSize = offset;
+        } catch (IOException ioException) {
+            throw new MessagingPlatformException(ErrorCode.INDEX_READ_ERROR,
+                                                 "Failed to open bloom filters " + file,
+                                                 ioException);
+        }
+    }
+
+    /**
+     * Checks if the bloom filter for the segment is in this index.
+     *
+     * @param segment the segment number
+     * @return true if the segment is in this index
+     */
+    public boolean contains(long segment) {
+        return columns.containsKey(segment);
+    }
+
+    /**
+     * Adds the bloom filter for a segment.
+     *
+     * @param segment      the segment number
+     * @param aggregateIds the identifiers of all aggregates in the segment
+     */
+    public synchronized void add(long segment, Collection<String> aggregateIds) {
+        if (columns.containsKey(segment)) {
+            remove(segment);
+        }
+        Group group = groups.isEmpty() ? null : groups.get(groups.size() - 1);
+        if (group == null || group.segments == GROUP_SEGMENTS || aggregateIds.size() > group.capacity) {
+            group = createGroup(aggregateIds.size());
+        }
+        int column = group.segments;
+        long bit = 1L << column;
+        for (String aggregateId : aggregateIds) {
+            Probe probe = new Probe(aggregateId);
+            int base = probe.blockOffset(group);
+            for (int i = 0; i < group.hashFunctions; i++) {
+                int position = base + probe.row(i) * Long.BYTES;
+                group.buffer.putLong(position, group.buffer.getLong(position) | bit);
+            }
+        }
+        // make sure the bits are stored before the segment is registered in the header
+        group.buffer.force();
+        group.buffer.putLong(SEGMENTS_OFFSET + column * Long.BYTES, segment);
+        group.buffer.putInt(16, column + 1);
+        group.buffer.force();
+        group.segments = column + 1;
+        columns.put(segment, new Column(group, column));
+    }
+
+    /**
+     * Removes the bloom filter for a segment. The space for the segment is not reused.
+     *
+     * @param segment the segment number
+     */
+    public synchronized void remove(long segment) {
+        Column column = columns.remove(segment);
+        if (column != null) {
+            column.group.buffer.putLong(SEGMENTS_OFFSET + column.index * Long.BYTES, -1L);
+        }
+    }
+
+    /**
+     * Creates a probe for an aggregate, to check which segments might contain the aggregate. The probe computes the
+     * hash of the aggregate identifier only once.
+     *
+     * @param aggregateId the aggregate identifier
+     * @return the probe
+     */
+    public Probe probe(String aggregateId) {
+        return new Probe(aggregateId);
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @param clean forcefully unmap the buffers, instead of leaving it to the garbage collector
+     */
+    public synchronized void close(boolean clean) {
+        columns.clear();
+        if (clean) {
+            groups.forEach(group -> CleanUtils.cleanDirectBuffer(group.buffer,
+                                                                 () -> true,
+                                                                 0,
+                                                                 file.getAbsolutePath()));
+        }
+        groups.clear();
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException ioException) {
+            logger.warn("{}: failed to close bloom filters", file, ioException);
+        }
+    }
+
+    private Group createGroup(int aggregates) {
+        int capacity = Math.max(MIN_CAPACITY, 2 * aggregates);
+        double bits = -capacity * Math.log(fpp) / (Math.log(2) * Math.log(2));
+        int blocks = (int) Math.max(1, Math.ceil(bits / BLOCK_ROWS));
+        int hashFunctions = (int) Math.round((double) blocks * BLOCK_ROWS / capacity * Math.log(2));
+        hashFunctions = Math.max(1, Math.min(MAX_HASH_FUNCTIONS, hashFunctions));
+        long groupSize = PAGE_BYTES + (long) blocks * PAGE_BYTES;
+        MappedByteBuffer buffer = map(fileSize, groupSize);
+        for (int i = 0; i < GROUP_SEGMENTS; i++) {
+            buffer.putLong(SEGMENTS_OFFSET + i * Long.BYTES, -1L);
+        }
+        buffer.putInt(4, blocks);
+        buffer.putInt(8, hashFunctions);
+        buffer.putInt(12, capacity);
+        buffer.putInt(16, 0);
+        buffer.putInt(0, MAGIC);
+        buffer.force();
+        fileSize += groupSize;
+        Group group = new Group(buffer, blocks, hashFunctions, capacity);
+        groups.add(group);
+        return group;
+    }
+
+    private MappedByteBuffer map(long offset, long size) {
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, offset, size);
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            return buffer;
+        } catch (IOException ioException) {
+            throw new MessagingPlatformException(ErrorCode.INDEX_WRITE_ERROR,
+                                                 "Failed to map bloom filters " + file,
+                                                 ioException);
+        }
+    }
+
+    /**
+     * Checks the bloom filters for a single aggregate. Keeps the result per group, so checking multiple segments of
+     * the same group reads the block only once.
+     */
+    public class Probe {
+
+        private final long hash1;
+        private final long hash2;
+        private final Map<Group, Mask> masks = new ConcurrentHashMap<>();
+
+        private Probe(String aggregateId) {
+            HashCode hashCode = HASH_FUNCTION.hashString(aggregateId, StandardCharsets.UTF_8);
+            ByteBuffer bytes = ByteBuffer.wrap(hashCode.asBytes());
+            this.hash1 = bytes.getLong(0);
+            this.hash2 = bytes.getLong(8);
+        }
+
+        /**
+         * Checks if the bloom filter for the segment is in the index.
+         *
+         * @param segment the segment number
+         * @return true if the segment is in this index
+         */
+        public boolean covers(long segment) {
+            return columns.containsKey(segment);
+        }
+
+        /**
+         * Checks if the segment might contain the aggregate. Returns true if the segment is not in the index.
+         *
+         * @param segment the segment number
+         * @return false if the segment certainly does not contain the aggregate
+         */
+        public boolean mightContain(long segment) {
+            Column column = columns.get(segment);
+            if (column == null) {
+                return true;
+            }
+            Mask mask = masks.get(column.group);
+            if (mask == null || column.index >= mask.segments) {
+                // segments added to the group after the mask was computed are not in the mask
+                mask = mask(column.group);
+                masks.put(column.group, mask);
+            }
+            return (mask.bits & (1L << column.index)) != 0;
+        }
+
+        private Mask mask(Group group) {
+            int segments = group.segments;
+            int base = blockOffset(group);
+            long bits = -1L;
+            for (int i = 0; i < group.hashFunctions && bits != 0; i++) {
+                bits &= group.buffer.getLong(base + row(i) * Long.BYTES);
+            }
+            return new Mask(bits, segments);
+        }
+
+        private int blockOffset(Group group) {
+            int block = (int) (((hash1 >>> 32) * group.blocks) >>> 32);
+            return PAGE_BYTES + block * PAGE_BYTES;
+        }
+
+        private int row(int i) {
+            return (int) ((hash2 + i * hash1) >>> 55);
+        }
+    }
+
+    private static class Group {
+
+        private final MappedByteBuffer buffer;
+        private final int blocks;
+        private final int hashFunctions;
+        private final int capacity;
+        private volatile int segments;
+
+        private Group(MappedByteBuffer buffer, int blocks, int hashFunctions, int capacity) {
+            this.buffer = buffer;
+            this.blocks = blocks;
+            this.hashFunctions = hashFunctions;
+            this.capacity = capacity;
+        }
+    }
+
+    private static class Mask {
+
+        private final long bits;
+        private final int segments;
+
+        private Mask(long bits, int segments) {
+            this.bits = bits;
+            this.segments = segments;
+        }
+    }
+
+    private static class Column {
+
+        private final Group group;
+        private final int index;
+
+        private Column(Group group, int index) {
+            this.group = group;
+            this.index = index;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+package io.axoniq.axonserver.localstorage.file;
+
+import io.axoniq.axonserver.localstorage.SerializedEvent;
+
+import java.util.function.Supplier;
+
+/**
+ * Event source for a completed segment that reads single events using positional reads on a pooled channel.
+ * Iterators read the segment sequentially from the event source provided by the sequential source supplier.
+ *
+ * @author Marc Gathier
+ * @since 4.5
+ */
+public class SegmentChannelEventSource implements EventSource {
+
+    private final long segment;
+    private final SegmentChannelPool channelPool;
+    private final Supplier<EventSource> sequentialSourceSupplier;
+
+    /**
+     * @param segment                  the segment to read from
+     * @param channelPool              pool of open segment channels
+     * @param sequentialSourceSupplier creates an event source for sequential reads
+     */
+    public SegmentChannelEventSource(long segment, SegmentChannelPool channelPool,
+                                     Supplier<EventSource> sequentialSourceSupplier) {
+        this.segment = segment;
+        this.channelPool = channelPool;
+        this.sequentialSourceSupplier = sequentialSourceSupplier;
+    }
+
+    @Override
+    public SerializedEvent readEvent(int position) {
+        return channelPool.readEvent(segment, position);
+    }
+
+    @Override
+    public TransactionIterator createTransactionIterator(long segment, long token, boolean validating) {
+        return sequentialSourceSupplier.get().createTransactionIterator(segment, token, validating);
+    }
+
+    @Override
+    public EventIterator createEventIterator(long segment, long startToken) {
+        return sequentialSourceSupplier.get().createEventIterator(segment, startToken);
+    }
+}
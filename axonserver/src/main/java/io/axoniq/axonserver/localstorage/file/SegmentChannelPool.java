@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+package io.axoniq.axonserver.localstorage.file;
+
+import io.axoniq.axonserver.exception.ErrorCode;
+import io.axoniq.axonserver.exception.MessagingPlatformException;
+import io.axoniq.axonserver.localstorage.EventTypeContext;
+import io.axoniq.axonserver.localstorage.SerializedEvent;
+import io.axoniq.axonserver.localstorage.transformation.EventTransformer;
+import io.axoniq.axonserver.localstorage.transformation.EventTransformerFactory;
+import io.axoniq.axonserver.metric.BaseMetricName;
+import io.axoniq.axonserver.metric.MeterFactory;
+import io.micrometer.core.instrument.Tags;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps a bounded number of completed segment files open for positional reads. Positional reads do not use a shared
+ * file position, so a single open channel can be used by concurrent readers. When the pool is full, the least
+ * recently used channel is closed.
+ *
+ * @author Marc Gathier
+ * @since 4.5
+ */
+public class SegmentChannelPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentChannelPool.class);
+    private static final int HEADER_SIZE = 5;
+    private static final int INITIAL_READ_SIZE = 4096;
+
+    private final EventTypeContext context;
+    private final StorageProperties storageProperties;
+    private final EventTransformerFactory eventTransformerFactory;
+    private final Map<Long, SegmentChannel> channels;
+    private final MeterFactory.RateMeter openMeter;
+    private final MeterFactory.RateMeter hitMeter;
+
+    /**
+     * @param context                 the context and the content type (events or snapshots)
+     * @param storageProperties       configuration of the storage engine
+     * @param eventTransformerFactory factory to create the transformer for the events in a segment
+     * @param meterFactory            factory to create metrics meters
+     */
+    public SegmentChannelPool(EventTypeContext context, StorageProperties storageProperties,
+                              EventTransformerFactory eventTransformerFactory, MeterFactory meterFactory) {
+        this.context = context;
+        this.storageProperties = storageProperties;
+        this.eventTransformerFactory = eventTransformerFactory;
+        this.channels = new LinkedHashMap<Long, SegmentChannel>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, SegmentChannel> eldest) {
+                if (size() > storageProperties.getMaxOpenSegmentChannels()) {
+                    eldest.getValue().close();
+                    return true;
+                }
+                return false;
+            }
+        };
+        Tags tags = Tags.of(MeterFactory.CONTEXT, context.getContext(), "type", context.getEventType().toString());
+        this.openMeter = meterFactory.rateMeter(BaseMetricName.AXON_SEGMENT_CHANNEL_OPEN, tags);
+        this.hitMeter = meterFactory.rateMeter(BaseMetricName.AXON_SEGMENT_CHANNEL_HIT, tags);
+    }
+
+    /**
+     * Reads the event stored at the given position in the segment. If the channel is closed by a concurrent eviction
+     * while reading, the read is retried once on a newly opened channel.
+     *
+     * @param segment  the segment containing the event
+     * @param position the position of the event in the segment
+     * @return the event
+     */
+    public SerializedEvent readEvent(long segment, int position) {
+        try {
+            try {
+                return channel(segment).readEvent(position);
+            } catch (ClosedChannelException closedChannelException) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw closedChannelException;
+                }
+                return channel(segment).readEvent(position);
+            }
+        } catch (IOException ioException) {
+            throw new MessagingPlatformException(ErrorCode.DATAFILE_READ_ERROR, ioException.getMessage(), ioException);
+        }
+    }
+
+    /**
+     * Closes the channel for the given segment, if it is open. Must be called before the segment file is deleted.
+     *
+     * @param segment the segment to close
+     */
+    public void evict(long segment) {
+        SegmentChannel channel;
+        synchronized (channels) {
+            channel = channels.remove(segment);
+        }
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Closes all open channels.
+     */
+    public void close() {
+        List<SegmentChannel> open;
+        synchronized (channels) {
+            open = new ArrayList<>(channels.values());
+            channels.clear();
+        }
+        open.forEach(SegmentChannel::close);
+    }
+
+    /**
+     * @return the number of open channels
+     */
+    public int size() {
+        synchronized (channels) {
+            return channels.size();
+        }
+    }
+
+    private SegmentChannel channel(long segment) throws IOException {
+        synchronized (channels) {
+            SegmentChannel channel = channels.get(segment);
+            if (channel != null && channel.isOpen()) {
+                hitMeter.mark();
+                return channel;
+            }
+            channel = open(segment);
+            channels.put(segment, channel);
+            openMeter.mark();
+            return channel;
+        }
+    }
+
+    private SegmentChannel open(long segment) throws IOException {
+        File file = storageProperties.dataFile(context.getContext(), segment);
+        logger.debug("{}: Open channel for {}", context, file);
+        FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(fileChannel, header, 0);
+            EventTransformer eventTransformer = eventTransformerFactory.get(header.get(0), header.getInt(1));
+            EventTransformer transactionTransformer = eventTransformerFactory.getTransactionTransformer(header.get(0),
+                                                                                                      header.getInt(1));
+            return new SegmentChannel(fileChannel, eventTransformer, transactionTransformer);
+        } catch (IOException | RuntimeException exception) {
+            fileChannel.close();
+            throw exception;
+        }
+    }
+
+    private static void readFully(FileChannel fileChannel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = fileChannel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of file at " + (position + buffer.position()));
+            }
+        }
+    }
+
+    private static class SegmentChannel {
+
+        private final FileChannel fileChannel;
+        private final EventTransformer eventTransformer;
+        private final EventTransformer transactionTransformer;
+        private volatile CompressedTransaction lastTransaction;
+
+        SegmentChannel(FileChannel fileChannel, EventTransformer eventTransformer,
+                       EventTransformer transactionTransformer) {
+            this.fileChannel = fileChannel;
+            this.eventTransformer = eventTransformer;
+            this.transactionTransformer = transactionTransformer;
+        }
+
+        SerializedEvent readEvent(int position) throws IOException {
+            if (transactionTransformer != null) {
+                return readCompressedEvent(position);
+            }
+            return new SerializedEvent(eventTransformer.fromStorage(readBytes(position)));
+        }
+
+        /**
+         * Reads an event from a compressed transaction. Keeps the last decoded transaction, as consecutive reads for
+         * an aggregate are often in the same transaction.
+         */
+        private SerializedEvent readCompressedEvent(int slotPosition) throws IOException {
+            CompressedTransaction transaction = lastTransaction;
+            if (transaction == null || !transaction.containsSlot(slotPosition)) {
+                ByteBuffer slot = ByteBuffer.allocate(CompressedTransaction.SLOT_BYTES);
+                readFully(fileChannel, slot, slotPosition);
+                int framePosition = CompressedTransaction.framePosition(slotPosition, slot.getShort(0));
+                transaction = CompressedTransaction.decode(framePosition,
+                                                           readBytes(framePosition),
+                                                           transactionTransformer,
+                                                           eventTransformer);
+                lastTransaction = transaction;
+            }
+            return transaction.event(slotPosition);
+        }
+
+        /**
+         * Reads the size and the bytes in a single positional read for most events. Only events larger than the
+         * initial read size need a second read.
+         */
+        private byte[] readBytes(int position) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(INITIAL_READ_SIZE);
+            int read = 0;
+            while (read < Integer.BYTES) {
+                int count = fileChannel.read(buffer, (long) position + read);
+                if (count < 0) {
+                    throw new EOFException("Unexpected end of file at " + (position + read));
+                }
+                read += count;
+            }
+            int size = buffer.getInt(0);
+            byte[] bytes = new byte[size];
+            int available = Math.min(size, read - Integer.BYTES);
+            buffer.position(Integer.BYTES);
+            buffer.get(bytes, 0, available);
+            if (available < size) {
+                ByteBuffer remaining = ByteBuffer.wrap(bytes, available, size - available).slice();
+                readFully(fileChannel, remaining, (long) position + Integer.BYTES + available);
+            }
+            return bytes;
+        }
+
+        boolean isOpen() {
+            return fileChannel.isOpen();
+        }
+
+        void close() {
+            try {
+                fileChannel.close();
+            } catch (IOException ioException) {
+                logger.debug("Error while closing channel", ioException);
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+
+package io.axoniq.axonserver.localstorage.file;
+
+import java.io.Closeable;
+import java.util.function.Consumer;
+
+/**
+ * Index for a completed segment, providing the positions of the events per aggregate.
+ *
+ * @author Marc Gathier
+ * @since 4.5
+ */
+public interface SegmentIndex extends Closeable {
+
+    /**
+     * Returns the index entries for an aggregate, or null when the aggregate does not occur in the segment.
+     *
+     * @param aggregateId the identifier for the aggregate
+     * @return the index entries for the aggregate
+     */
+    IndexEntries getPositions(String aggregateId);
+
+    /**
+     * Passes the identifiers of all aggregates in the segment to the consumer.
+     *
+     * @param consumer consumer for the aggregate identifiers
+     */
+    void forEachAggregate(Consumer<String> consumer);
+
+    /**
+     * Opens the index if it is not opened yet, or when it has been closed.
+     *
+     * @return the opened index
+     * @throws IndexNotFoundException when the index file does not exist
+     */
+    SegmentIndex ensureReady();
+
+    /**
+     * Closes the index.
+     */
+    @Override
+    void close();
+}
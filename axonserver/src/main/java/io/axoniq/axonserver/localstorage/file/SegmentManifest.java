@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+package io.axoniq.axonserver.localstorage.file;
+
+import io.axoniq.axonserver.exception.ErrorCode;
+import io.axoniq.axonserver.exception.MessagingPlatformException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Validation manifest for a completed segment. Contains the checksum of the segment file, the token following the
+ * last event in the segment and the time of the last validation. As long as the size and the modification time of
+ * the segment file match the manifest, the segment does not need to be read again to validate it at startup.
+ *
+ * @author Marc Gathier
+ * @since 4.5
+ */
+public class SegmentManifest {
+
+    private static final byte VERSION = 1;
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+    private final long segment;
+    private final long lastToken;
+    private final long checksum;
+    private final long fileSize;
+    private final long lastModified;
+    private final long validatedAt;
+
+    private SegmentManifest(long segment, long lastToken, long checksum, long fileSize, long lastModified,
+                            long validatedAt) {
+        this.segment = segment;
+        this.lastToken = lastToken;
+        this.checksum = checksum;
+        this.fileSize = fileSize;
+        this.lastModified = lastModified;
+        this.validatedAt = validatedAt;
+    }
+
+    /**
+     * Creates a manifest for a validated segment.
+     *
+     * @param dataFile  the segment file
+     * @param segment   the segment number
+     * @param lastToken the token following the last event in the segment
+     * @return the manifest
+     * @throws IOException when reading the segment file fails
+     */
+    public static SegmentManifest create(File dataFile, long segment, long lastToken) throws IOException {
+        return create(dataFile, segment, lastToken, 0);
+    }
+
+    /**
+     * Creates a manifest for a validated segment, reading the segment file at a limited rate.
+     *
+     * @param dataFile          the segment file
+     * @param segment           the segment number
+     * @param lastToken         the token following the last event in the segment
+     * @param maxBytesPerSecond maximum read rate, 0 for no limit
+     * @return the manifest
+     * @throws IOException when reading the segment file fails, or the thread is interrupted while throttling
+     */
+    public static SegmentManifest create(File dataFile, long segment, long lastToken, long maxBytesPerSecond)
+            throws IOException {
+        long fileSize = dataFile.length();
+        long lastModified = dataFile.lastModified();
+        return new SegmentManifest(segment,
+                                   lastToken,
+                                   checksum(dataFile, maxBytesPerSecond),
+                                   fileSize,
+                                   lastModified,
+                                   System.currentTimeMillis());
+    }
+
+    /**
+     * Computes the checksum of a segment file.
+     *
+     * @param dataFile          the segment file
+     * @param maxBytesPerSecond maximum read rate, 0 for no limit
+     * @return the checksum of the file
+     * @throws IOException when reading the file fails, or the thread is interrupted while throttling
+     */
+    public static long checksum(File dataFile, long maxBytesPerSecond) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        long start = System.nanoTime();
+        long total = 0;
+        try (FileChannel channel = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ)) {
+            int read;
+            while ((read = channel.read(buffer)) >= 0) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+                total += read;
+                if (maxBytesPerSecond > 0) {
+                    throttle(start, total, maxBytesPerSecond);
+                }
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Waits until reading {@code total} bytes since {@code start} does not exceed the maximum read rate.
+     *
+     * @param start             start of the read in nanoseconds
+     * @param total             number of bytes read since the start
+     * @param maxBytesPerSecond maximum read rate
+     * @throws InterruptedIOException when the thread is interrupted while waiting
+     */
+    static void throttle(long start, long total, long maxBytesPerSecond) throws InterruptedIOException {
+        long ahead = total * TimeUnit.SECONDS.toNanos(1) / maxBytesPerSecond - (System.nanoTime() - start);
+        if (ahead > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(ahead);
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttling segment read");
+            }
+        }
+    }
+
+    /**
+     * Checks if the size and modification time of the segment file are still the same as when the manifest was
+     * created.
+     *
+     * @param dataFile the segment file
+     * @return true if the file metadata matches the manifest
+     */
+    public boolean matches(File dataFile) {
+        return dataFile.length() == fileSize && dataFile.lastModified() == lastModified;
+    }
+
+    /**
+     * Returns a copy of this manifest with a new validation time.
+     *
+     * @param validatedAt the time of the validation
+     * @return the updated manifest
+     */
+    public SegmentManifest withValidatedAt(long validatedAt) {
+        return new SegmentManifest(segment, lastToken, checksum, fileSize, lastModified, validatedAt);
+    }
+
+    /**
+     * Writes the manifest to file, using a temporary file that is moved to the target location.
+     *
+     * @param file the target file
+     */
+    public void write(File file) {
+        File tempFile = new File(file.getAbsolutePath() + ".temp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                out.writeByte(VERSION);
+                out.writeLong(segment);
+                out.writeLong(lastToken);
+                out.writeLong(checksum);
+                out.writeLong(fileSize);
+                out.writeLong(lastModified);
+                out.writeLong(validatedAt);
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ioException) {
+            throw new MessagingPlatformException(ErrorCode.INDEX_WRITE_ERROR,
+                                                 "Failed to write segment manifest " + file,
+                                                 ioException);
+        }
+    }
+
+    /**
+     * Reads a manifest from file.
+     *
+     * @param file the file to read
+     * @return the manifest
+     */
+    public static SegmentManifest read(File file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readByte() != VERSION) {
+                throw new MessagingPlatformException(ErrorCode.INDEX_READ_ERROR,
+                                                     "Invalid segment manifest " + file);
+            }
+            return new SegmentManifest(in.readLong(),
+                                       in.readLong(),
+                                       in.readLong(),
+                                       in.readLong(),
+                                       in.readLong(),
+                                       in.readLong());
+        } catch (IOException ioException) {
+            throw new MessagingPlatformException(ErrorCode.INDEX_READ_ERROR,
+                                                 "Failed to read segment manifest " + file,
+                                                 ioException);
+        }
+    }
+
+    public long segment() {
+        return segment;
+    }
+
+    public long lastToken() {
+        return lastToken;
+    }
+
+    public long checksum() {
+        return checksum;
+    }
+
+    public long validatedAt() {
+        return validatedAt;
+    }
+}
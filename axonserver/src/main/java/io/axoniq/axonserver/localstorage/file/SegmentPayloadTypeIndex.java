@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+package io.axoniq.axonserver.localstorage.file;
+
+import io.axoniq.axonserver.exception.ErrorCode;
+import io.axoniq.axonserver.exception.MessagingPlatformException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index on payload type for a completed segment. For each payload type in the segment the index keeps the tokens
+ * (relative to the segment) and positions of the events with that payload type, in token order.
+ * <p>
+ * File layout:
+ * <pre>
+ *     version (byte), number of payload types (int),
+ *     payload types: payload type (UTF), number of events (int), events: token offset (int), position (int)
+ * </pre>
+ *
+ * @author Marc Gathier
+ * @since 4.5
+ */
+public class SegmentPayloadTypeIndex {
+
+    private static final byte VERSION = 1;
+    private static final Entries NO_ENTRIES = new Entries(new int[0], new int[0], 0);
+
+    private final Map<String, Entries> entries;
+
+    private SegmentPayloadTypeIndex(Map<String, Entries> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * @return the payload types of the events in the segment
+     */
+    public Set<String> payloadTypes() {
+        return entries.keySet();
+    }
+
+    /**
+     * @param payloadType the payload type
+     * @return the tokens and positions of the events with the given payload type
+     */
+    public Entries entries(String payloadType) {
+        return entries.getOrDefault(payloadType, NO_ENTRIES);
+    }
+
+    /**
+     * Writes the index to a temporary file and renames it to the given file.
+     *
+     * @param file the target file
+     */
+    public void write(File file) {
+        File tempFile = new File(file.getAbsolutePath() + ".temp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeByte(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entries> entry : entries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                Entries typeEntries = entry.getValue();
+                out.writeInt(typeEntries.size);
+                for (int i = 0; i < typeEntries.size; i++) {
+                    out.writeInt(typeEntries.tokenOffsets[i]);
+                    out.writeInt(typeEntries.positions[i]);
+                }
+            }
+        } catch (IOException ioException) {
+            throw new MessagingPlatformException(ErrorCode.INDEX_WRITE_ERROR,
+                                                 "Failed to write payload type index " + file,
+                                                 ioException);
+        }
+        if (!FileUtils.delete(file) || !tempFile.renameTo(file)) {
+            throw new MessagingPlatformException(ErrorCode.INDEX_WRITE_ERROR,
+                                                 "Failed to rename payload type index file: " + tempFile);
+        }
+    }
+
+    /**
+     * Reads a payload type index from file.
+     *
+     * @param file the file containing the index
+     * @return the index
+     */
+    public static SegmentPayloadTypeIndex read(File file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readByte() != VERSION) {
+                throw new MessagingPlatformException(ErrorCode.INDEX_READ_ERROR,
+                                                     "Invalid payload type index file " + file);
+            }
+            int payloadTypes = in.readInt();
+            Map<String, Entries> entries = new HashMap<>();
+            for (int i = 0; i < payloadTypes; i++) {
+                String payloadType = in.readUTF();
+                int size = in.readInt();
+                int[] tokenOffsets = new int[size];
+                int[] positions = new int[size];
+                for (int j = 0; j < size; j++) {
+                    tokenOffsets[j] = in.readInt();
+                    positions[j] = in.readInt();
+                }
+                entries.put(payloadType, new Entries(tokenOffsets, positions, size));
+            }
+            return new SegmentPayloadTypeIndex(entries);
+        } catch (IOException ioException) {
+            throw new MessagingPlatformException(ErrorCode.INDEX_READ_ERROR,
+                                                 "Failed to read payload type index " + file,
+                                                 ioException);
+        }
+    }
+
+    /**
+     * Tokens and positions of the events with one payload type, in token order.
+     */
+    public static class Entries {
+
+        private int[] tokenOffsets;
+        private int[] positions;
+        private int size;
+
+        private Entries(int[] tokenOffsets, int[] positions, int size) {
+            this.tokenOffsets = tokenOffsets;
+            this.positions = positions;
+            this.size = size;
+        }
+
+        private void add(int tokenOffset, int position) {
+            if (size == tokenOffsets.length) {
+                tokenOffsets = Arrays.copyOf(tokenOffsets, Math.max(16, size * 2));
+                positions = Arrays.copyOf(positions, tokenOffsets.length);
+            }
+            tokenOffsets[size] = tokenOffset;
+            positions[size] = position;
+            size++;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @param segment the segment containing the events
+         * @param index   the index of the entry
+         * @return the token of the event
+         */
+        public long token(long segment, int index) {
+            return segment + tokenOffsets[index];
+        }
+
+        /**
+         * @param index the index of the entry
+         * @return the position of the event in the segment
+         */
+        public int position(int index) {
+            return positions[index];
+        }
+    }
+
+    /**
+     * Collects the payload types of the events in a segment, in token order.
+     */
+    public static class Builder {
+
+        private final long segment;
+        private final Map<String, Entries> entries = new HashMap<>();
+
+        /**
+         * @param segment the segment to index
+         */
+        public Builder(long segment) {
+            this.segment = segment;
+        }
+
+        public Builder add(long token, int position, String payloadType) {
+            entries.computeIfAbsent(payloadType, t -> new Entries(new int[0], new int[0], 0))
+                   .add((int) (token - segment), position);
+            return this;
+        }
+
+        public SegmentPayloadTypeIndex build() {
+            return new SegmentPayloadTypeIndex(new HashMap<>(entries));
+        }
+    }
+}
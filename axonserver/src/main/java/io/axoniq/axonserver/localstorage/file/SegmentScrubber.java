@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+package io.axoniq.axonserver.localstorage.file;
+
+import io.axoniq.axonserver.exception.MessagingPlatformException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Re-verifies completed segments in the background. The scrubber picks the segment that was validated longest ago,
+ * and when that is longer than the scrub interval, compares the checksum of the segment file with the checksum in its
+ * validation manifest. The segment file is read at a limited rate, to avoid impact on regular reads. Segments without
+ * a valid manifest are fully validated and get a new manifest.
+ *
+ * @author Marc Gathier
+ * @since 4.5
+ */
+public class SegmentScrubber {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentScrubber.class);
+    private static final long DELAY = TimeUnit.SECONDS.toMillis(10);
+
+    private final String context;
+    private final StorageProperties storageProperties;
+    private final Supplier<Collection<Long>> segments;
+    private final SegmentValidator validator;
+    private final Map<Long, Long> validatedAt = new ConcurrentHashMap<>();
+    private final Set<Long> failedSegments = ConcurrentHashMap.newKeySet();
+    private volatile ScheduledExecutorService executor;
+
+    /**
+     * @param context           the context of the event store
+     * @param storageProperties configuration of the storage engine
+     * @param segments          provides the completed segments
+     * @param validator         validates all transactions in a segment at a limited read rate
+     */
+    public SegmentScrubber(String context, StorageProperties storageProperties, Supplier<Collection<Long>> segments,
+                           SegmentValidator validator) {
+        this.context = context;
+        this.storageProperties = storageProperties;
+        this.segments = segments;
+        this.validator = validator;
+    }
+
+    public void start() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory(
+                    context + "-scrubber-"));
+            executor.scheduleWithFixedDelay(this::scrubNext, DELAY, DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void stop() {
+        ScheduledExecutorService current = executor;
+        executor = null;
+        if (current != null) {
+            current.shutdownNow();
+        }
+    }
+
+    /**
+     * Verifies the segment that was validated longest ago, if this is longer ago than the scrub interval.
+     *
+     * @return true if a segment was verified
+     */
+    public boolean scrubNext() {
+        long now = System.currentTimeMillis();
+        Long next = null;
+        long oldest = Long.MAX_VALUE;
+        for (Long segment : new ArrayList<>(segments.get())) {
+            long segmentValidatedAt = validatedAt.computeIfAbsent(segment, this::readValidatedAt);
+            if (segmentValidatedAt < oldest && !failedSegments.contains(segment)) {
+                oldest = segmentValidatedAt;
+                next = segment;
+            }
+        }
+        if (next == null || now - oldest < storageProperties.getScrubInterval()) {
+            return false;
+        }
+        scrub(next);
+        return true;
+    }
+
+    private long readValidatedAt(long segment) {
+        File file = storageProperties.manifest(context, segment);
+        if (!file.exists()) {
+            return 0;
+        }
+        try {
+            return SegmentManifest.read(file).validatedAt();
+        } catch (MessagingPlatformException ex) {
+            return 0;
+        }
+    }
+
+    private void scrub(long segment) {
+        File dataFile = storageProperties.dataFile(context, segment);
+        File manifestFile = storageProperties.manifest(context, segment);
+        try {
+            SegmentManifest manifest = manifestFile.exists() ? SegmentManifest.read(manifestFile) : null;
+            if (manifest == null || !manifest.matches(dataFile)) {
+                validate(segment, dataFile, manifestFile);
+                return;
+            }
+            if (SegmentManifest.checksum(dataFile, storageProperties.getScrubRate()) != manifest.checksum()) {
+                logger.error("{}: Checksum of segment {} does not match its validation manifest", context, segment);
+                ValidationResult result = validateTransactions(segment);
+                if (!result.isValid()) {
+                    logger.error("{}: Validation of segment {} failed - {}", context, segment, result.getMessage());
+                }
+                failedSegments.add(segment);
+                return;
+            }
+            SegmentManifest validated = manifest.withValidatedAt(System.currentTimeMillis());
+            validated.write(manifestFile);
+            validatedAt.put(segment, validated.validatedAt());
+            logger.debug("{}: Verified segment {}", context, segment);
+        } catch (InterruptedIOException interruptedIOException) {
+            logger.debug("{}: Scrubbing of segment {} interrupted", context, segment);
+        } catch (IOException | MessagingPlatformException ex) {
+            if (dataFile.exists()) {
+                logger.warn("{}: Failed to verify segment {} - {}", context, segment, ex.getMessage());
+            } else {
+                // segment removed while scrubbing
+                validatedAt.remove(segment);
+            }
+        }
+    }
+
+    /**
+     * Validates a segment without a matching manifest and creates the manifest. Both the validation and the checksum
+     * for the manifest read the segment at the scrub rate.
+     */
+    private void validate(long segment, File dataFile, File manifestFile) throws IOException {
+        ValidationResult result = validateTransactions(segment);
+        if (!result.isValid()) {
+            logger.error("{}: Validation of segment {} failed - {}", context, segment, result.getMessage());
+            failedSegments.add(segment);
+            return;
+        }
+        SegmentManifest manifest = SegmentManifest.create(dataFile,
+                                                          segment,
+                                                          result.getLastToken(),
+                                                          storageProperties.getScrubRate());
+        manifest.write(manifestFile);
+        validatedAt.put(segment, manifest.validatedAt());
+    }
+
+    private ValidationResult validateTransactions(long segment) throws InterruptedIOException {
+        ValidationResult result = validator.validate(segment, storageProperties.getScrubRate());
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Interrupted while validating segment " + segment);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the segments that failed verification since the scrubber was created.
+     *
+     * @return the failed segments
+     */
+    public Set<Long> failedSegments() {
+        return Collections.unmodifiableSet(failedSegments);
+    }
+
+    /**
+     * Validates all transactions in a segment, reading at a limited rate.
+     */
+    @FunctionalInterface
+    public interface SegmentValidator {
+
+        /**
+         * @param segment           the segment to validate
+         * @param maxBytesPerSecond maximum read rate, 0 for no limit
+         * @return the validation result
+         */
+        ValidationResult validate(long segment, long maxBytesPerSecond);
+    }
+}
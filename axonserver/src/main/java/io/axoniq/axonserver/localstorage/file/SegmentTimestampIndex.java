@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+package io.axoniq.axonserver.localstorage.file;
+
+import io.axoniq.axonserver.exception.ErrorCode;
+import io.axoniq.axonserver.exception.MessagingPlatformException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.LongFunction;
+
+/**
+ * Sparse timestamp index for a completed segment. The segment is divided in blocks of a fixed number of events. For
+ * each block the index keeps the first token and the highest timestamp seen up to and including that block. As these
+ * maximums never decrease, the first block that may contain an event at or after a given instant is found with a
+ * binary search, and only that block has to be read.
+ * <p>
+ * The minimum and maximum timestamp and the last token also serve as a zone map for the segment, allowing queries to
+ * skip segments that cannot contain matching events.
+ * <p>
+ * File layout:
+ * <pre>
+ *     version (byte), first timestamp (long), min timestamp (long), max timestamp (long), last token (long),
+ *     number of blocks (int), blocks: first token (long), max timestamp up to this block (long)
+ * </pre>
+ *
+ * @author Marc Gathier
+ * @since 4.5
+ */
+public class SegmentTimestampIndex {
+
+    private static final byte VERSION = 1;
+
+    private final long firstTimestamp;
+    private final long minTimestamp;
+    private final long maxTimestamp;
+    private final long lastToken;
+    private final long[] blockTokens;
+    private final long[] blockMaxTimestamps;
+
+    private SegmentTimestampIndex(long firstTimestamp, long minTimestamp, long maxTimestamp, long lastToken,
+                                  long[] blockTokens, long[] blockMaxTimestamps) {
+        this.firstTimestamp = firstTimestamp;
+        this.minTimestamp = minTimestamp;
+        this.maxTimestamp = maxTimestamp;
+        this.lastToken = lastToken;
+        this.blockTokens = blockTokens;
+        this.blockMaxTimestamps = blockMaxTimestamps;
+    }
+
+    /**
+     * Returns the token of the first event in the segment with a timestamp at or after the given instant, following
+     * the same rules as {@link EventIterator#getTokenAt(long)}. Returns null when the first event in the segment is
+     * after the instant, or when the segment is empty.
+     *
+     * @param instant   the timestamp to find
+     * @param scanBlock returns the first token from the given token onwards with a timestamp at or after the instant
+     * @return the token or null
+     */
+    public Long tokenAt(long instant, LongFunction<Long> scanBlock) {
+        if (blockTokens.length == 0 || firstTimestamp > instant) {
+            return null;
+        }
+        if (firstTimestamp == instant) {
+            return blockTokens[0];
+        }
+        int block = firstBlockWithMaxAtOrAfter(instant);
+        if (block < 0) {
+            return lastToken + 1;
+        }
+        Long token = scanBlock.apply(blockTokens[block]);
+        return token == null ? lastToken + 1 : token;
+    }
+
+    private int firstBlockWithMaxAtOrAfter(long instant) {
+        int low = 0;
+        int high = blockMaxTimestamps.length - 1;
+        int result = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (blockMaxTimestamps[mid] >= instant) {
+                result = mid;
+                high = mid - 1;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the first token of the first block that may contain an event with a timestamp at or after the given
+     * instant. All events before this token have an earlier timestamp.
+     *
+     * @param instant the timestamp to find
+     * @return the token or -1 if there are no events at or after the instant in this segment
+     */
+    public long firstBlockTokenAtOrAfter(long instant) {
+        int block = firstBlockWithMaxAtOrAfter(instant);
+        return block < 0 ? -1 : blockTokens[block];
+    }
+
+    public boolean isEmpty() {
+        return blockTokens.length == 0;
+    }
+
+    public long lastToken() {
+        return lastToken;
+    }
+
+    public long minTimestamp() {
+        return minTimestamp;
+    }
+
+    public long maxTimestamp() {
+        return maxTimestamp;
+    }
+
+    /**
+     * Writes the index to a temporary file and renames it to the given file.
+     *
+     * @param file the target file
+     */
+    public void write(File file) {
+        File tempFile = new File(file.getAbsolutePath() + ".temp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeByte(VERSION);
+            out.writeLong(firstTimestamp);
+            out.writeLong(minTimestamp);
+            out.writeLong(maxTimestamp);
+            out.writeLong(lastToken);
+            out.writeInt(blockTokens.length);
+            for (int i = 0; i < blockTokens.length; i++) {
+                out.writeLong(blockTokens[i]);
+                out.writeLong(blockMaxTimestamps[i]);
+            }
+        } catch (IOException ioException) {
+            throw new MessagingPlatformException(ErrorCode.INDEX_WRITE_ERROR,
+                                                 "Failed to write timestamp index " + file,
+                                                 ioException);
+        }
+        if (!FileUtils.delete(file) || !tempFile.renameTo(file)) {
+            throw new MessagingPlatformException(ErrorCode.INDEX_WRITE_ERROR,
+                                                 "Failed to rename timestamp index file: " + tempFile);
+        }
+    }
+
+    /**
+     * Reads a timestamp index from file.
+     *
+     * @param file the file containing the index
+     * @return the index
+     */
+    public static SegmentTimestampIndex read(File file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readByte() != VERSION) {
+                throw new MessagingPlatformException(ErrorCode.INDEX_READ_ERROR,
+                                                     "Invalid timestamp index file " + file);
+            }
+            long firstTimestamp = in.readLong();
+            long minTimestamp = in.readLong();
+            long maxTimestamp = in.readLong();
+            long lastToken = in.readLong();
+            int blocks = in.readInt();
+            long[] blockTokens = new long[blocks];
+            long[] blockMaxTimestamps = new long[blocks];
+            for (int i = 0; i < blocks; i++) {
+                blockTokens[i] = in.readLong();
+                blockMaxTimestamps[i] = in.readLong();
+            }
+            return new SegmentTimestampIndex(firstTimestamp,
+                                             minTimestamp,
+                                             maxTimestamp,
+                                             lastToken,
+                                             blockTokens,
+                                             blockMaxTimestamps);
+        } catch (IOException ioException) {
+            throw new MessagingPlatformException(ErrorCode.INDEX_READ_ERROR,
+                                                 "Failed to read timestamp index " + file,
+                                                 ioException);
+        }
+    }
+
+    /**
+     * Collects the timestamps of the events in a segment, in token order.
+     */
+    public static class Builder {
+
+        private final int blockSize;
+        private long[] blockTokens = new long[16];
+        private long[] blockMaxTimestamps = new long[16];
+        private int blocks;
+        private long count;
+        private long firstTimestamp;
+        private long minTimestamp = Long.MAX_VALUE;
+        private long maxTimestamp = Long.MIN_VALUE;
+        private long lastToken = -1;
+
+        /**
+         * @param blockSize number of events per block
+         */
+        public Builder(int blockSize) {
+            this.blockSize = Math.max(1, blockSize);
+        }
+
+        public Builder add(long token, long timestamp) {
+            if (count == 0) {
+                firstTimestamp = timestamp;
+            }
+            if (count % blockSize == 0) {
+                if (blocks == blockTokens.length) {
+                    blockTokens = Arrays.copyOf(blockTokens, blocks * 2);
+                    blockMaxTimestamps = Arrays.copyOf(blockMaxTimestamps, blocks * 2);
+                }
+                blockTokens[blocks] = token;
+                blockMaxTimestamps[blocks] = blocks == 0 ? timestamp : blockMaxTimestamps[blocks - 1];
+                blocks++;
+            }
+            blockMaxTimestamps[blocks - 1] = Math.max(blockMaxTimestamps[blocks - 1], timestamp);
+            minTimestamp = Math.min(minTimestamp, timestamp);
+            maxTimestamp = Math.max(maxTimestamp, timestamp);
+            lastToken = token;
+            count++;
+            return this;
+        }
+
+        public SegmentTimestampIndex build() {
+            return new SegmentTimestampIndex(firstTimestamp,
+                                             minTimestamp,
+                                             maxTimestamp,
+                                             lastToken,
+                                             Arrays.copyOf(blockTokens, blocks),
+                                             Arrays.copyOf(blockMaxTimestamps, blocks));
+        }
+    }
+}
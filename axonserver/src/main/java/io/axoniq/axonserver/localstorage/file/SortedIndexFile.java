@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+
+package io.axoniq.axonserver.localstorage.file;
+
+import io.axoniq.axonserver.exception.ErrorCode;
+import io.axoniq.axonserver.exception.MessagingPlatformException;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Immutable index file for a completed segment. The file is written once when the segment is completed and is
+ * memory mapped read-only when it is opened, so opening it only requires reading the trailer.
+ * <p>
+ * File layout:
+ * <pre>
+ *     version (byte)
+ *     entries, sorted by hash and aggregate identifier:
+ *         hash (int), key length (int), key (bytes), first sequence number (long), count (int), positions (int[])
+ *     fence pointers, one for every {@value #FENCE_INTERVAL} entries:
+ *         hash (int), offset of the entry (int)
+ *     trailer:
+ *         number of entries (int), number of fence pointers (int), offset of the fence pointers (int)
+ * </pre>
+ * A lookup does a binary search on the fence pointers and scans at most {@value #FENCE_INTERVAL} entries (plus entries
+ * with colliding hashes).
+ *
+ * @author Marc Gathier
+ * @since 4.5
+ */
+public class SortedIndexFile {
+
+    private static final byte VERSION = 1;
+    private static final int HEADER_BYTES = 1;
+    private static final int TRAILER_BYTES = 12;
+    private static final int FENCE_BYTES = 8;
+    private static final int FENCE_INTERVAL = 64;
+    private static final int ENTRY_FIXED_BYTES = 20;
+    private static final Comparator<Entry> ENTRY_ORDER = Comparator.comparingInt((Entry e) -> e.hash)
+                                                                     .thenComparing(e -> e.aggregateId);
+
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private final int fenceCount;
+    private final int fenceTableOffset;
+
+    /**
+     * Opens an existing index file.
+     *
+     * @param file the index file
+     */
+    public SortedIndexFile(File file) {
+        this.file = file;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException ioException) {
+            throw new MessagingPlatformException(ErrorCode.INDEX_READ_ERROR,
+                                                 "Failed to open index " + file,
+                                                 ioException);
+        }
+        if (buffer.capacity() < HEADER_BYTES + TRAILER_BYTES || buffer.get(0) != VERSION) {
+            throw new MessagingPlatformException(ErrorCode.INDEX_READ_ERROR, "Invalid index file " + file);
+        }
+        int trailer = buffer.capacity() - TRAILER_BYTES;
+        fenceCount = buffer.getInt(trailer + 4);
+        fenceTableOffset = buffer.getInt(trailer + 8);
+    }
+
+    /**
+     * Writes an index file containing all entries provided by the source.
+     *
+     * @param file   the file to write
+     * @param source provides all aggregates with their index entries
+     */
+    public static void write(File file, Consumer<BiConsumer<String, IndexEntries>> source) {
+        List<Entry> entries = new ArrayList<>();
+        source.accept((aggregateId, indexEntries) -> entries.add(new Entry(aggregateId, indexEntries)));
+        entries.sort(ENTRY_ORDER);
+
+        int fenceCount = (entries.size() + FENCE_INTERVAL - 1) / FENCE_INTERVAL;
+        int[] fenceHashes = new int[fenceCount];
+        int[] fenceOffsets = new int[fenceCount];
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeByte(VERSION);
+            int offset = HEADER_BYTES;
+            for (int i = 0; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                if (i % FENCE_INTERVAL == 0) {
+                    fenceHashes[i / FENCE_INTERVAL] = entry.hash;
+                    fenceOffsets[i / FENCE_INTERVAL] = offset;
+                }
+                List<Integer> positions = entry.indexEntries.positions();
+                out.writeInt(entry.hash);
+                out.writeInt(entry.key.length);
+                out.write(entry.key);
+                out.writeLong(entry.indexEntries.firstSequenceNumber());
+                out.writeInt(positions.size());
+                for (Integer position : positions) {
+                    out.writeInt(position);
+                }
+                offset += ENTRY_FIXED_BYTES + entry.key.length + 4 * positions.size();
+            }
+            for (int i = 0; i < fenceCount; i++) {
+                out.writeInt(fenceHashes[i]);
+                out.writeInt(fenceOffsets[i]);
+            }
+            out.writeInt(entries.size());
+            out.writeInt(fenceCount);
+            out.writeInt(offset);
+        } catch (IOException ioException) {
+            throw new MessagingPlatformException(ErrorCode.INDEX_WRITE_ERROR,
+                                                 "Failed to write index " + file,
+                                                 ioException);
+        }
+    }
+
+    /**
+     * Returns the index entries for an aggregate, or null when the aggregate is not in the index.
+     *
+     * @param aggregateId the identifier for the aggregate
+     * @return the index entries for the aggregate
+     */
+    public IndexEntries get(String aggregateId) {
+        int hash = hash(aggregateId);
+        byte[] key = aggregateId.getBytes(StandardCharsets.UTF_8);
+        int position = startOfScan(hash);
+        while (position < fenceTableOffset) {
+            int entryHash = buffer.getInt(position);
+            if (entryHash > hash) {
+                return null;
+            }
+            int keyLength = buffer.getInt(position + 4);
+            int fields = position + 8 + keyLength;
+            int count = buffer.getInt(fields + 8);
+            if (entryHash == hash && keyEquals(position + 8, keyLength, key)) {
+                List<Integer> positions = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    positions.add(buffer.getInt(fields + 12 + i * 4));
+                }
+                return new StandardIndexEntries(buffer.getLong(fields), positions);
+            }
+            position = fields + 12 + count * 4;
+        }
+        return null;
+    }
+
+    /**
+     * Passes the identifiers of all aggregates in the index to the consumer, in index order.
+     *
+     * @param consumer consumer for the aggregate identifiers
+     */
+    public void forEachAggregate(Consumer<String> consumer) {
+        int position = HEADER_BYTES;
+        while (position < fenceTableOffset) {
+            int keyLength = buffer.getInt(position + 4);
+            byte[] key = new byte[keyLength];
+            for (int i = 0; i < keyLength; i++) {
+                key[i] = buffer.get(position + 8 + i);
+            }
+            consumer.accept(new String(key, StandardCharsets.UTF_8));
+            int fields = position + 8 + keyLength;
+            position = fields + 12 + buffer.getInt(fields + 8) * 4;
+        }
+    }
+
+    /**
+     * Releases the memory mapped buffer.
+     *
+     * @param clean forcefully unmap the buffer, instead of leaving it to the garbage collector
+     */
+    public void close(boolean clean) {
+        if (clean) {
+            CleanUtils.cleanDirectBuffer(buffer, () -> true, 0, file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Finds the offset of the last fence with a hash lower than the given hash, so that all entries with the given hash
+     * are after this offset.
+     */
+    private int startOfScan(int hash) {
+        int low = 0;
+        int high = fenceCount - 1;
+        int start = HEADER_BYTES;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int fence = fenceTableOffset + mid * FENCE_BYTES;
+            if (buffer.getInt(fence) < hash) {
+                start = buffer.getInt(fence + 4);
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return start;
+    }
+
+    private boolean keyEquals(int offset, int keyLength, byte[] key) {
+        if (keyLength != key.length) {
+            return false;
+        }
+        for (int i = 0; i < keyLength; i++) {
+            if (buffer.get(offset + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(String aggregateId) {
+        int hash = aggregateId.hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    private static class Entry {
+
+        private final String aggregateId;
+        private final byte[] key;
+        private final int hash;
+        private final IndexEntries indexEntries;
+
+        private Entry(String aggregateId, IndexEntries indexEntries) {
+            this.aggregateId = aggregateId;
+            this.key = aggregateId.getBytes(StandardCharsets.UTF_8);
+            this.hash = hash(aggregateId);
+            this.indexEntries = indexEntries;
+        }
+    }
+}
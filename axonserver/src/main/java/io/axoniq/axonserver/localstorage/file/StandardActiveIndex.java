@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+
+package io.axoniq.axonserver.localstorage.file;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * {@link ActiveIndex} implementation that keeps the index entries per aggregate in a map on the heap.
+ *
+ * @author Marc Gathier
+ * @since 4.5
+ */
+public class StandardActiveIndex implements ActiveIndex {
+
+    private final Map<String, IndexEntries> entriesPerAggregate = new ConcurrentHashMap<>();
+
+    @Override
+    public void add(String aggregateId, IndexEntry indexEntry) {
+        entriesPerAggregate.computeIfAbsent(aggregateId, a -> new StandardIndexEntries(indexEntry.getSequenceNumber()))
+                           .add(indexEntry);
+    }
+
+    @Override
+    public void addAll(String aggregateId, List<IndexEntry> indexEntries) {
+        entriesPerAggregate.computeIfAbsent(aggregateId,
+                                            a -> new StandardIndexEntries(indexEntries.get(0).getSequenceNumber()))
+                           .addAll(indexEntries);
+    }
+
+    @Override
+    public IndexEntries get(String aggregateId) {
+        return entriesPerAggregate.get(aggregateId);
+    }
+
+    @Override
+    public int size() {
+        return entriesPerAggregate.size();
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, IndexEntries> action) {
+        entriesPerAggregate.forEach(action);
+    }
+}
@@ -9,6 +9,7 @@
 
 package io.axoniq.axonserver.localstorage.file;
 
+import io.axoniq.axonserver.exception.ConcurrencyExceptions;
 import io.axoniq.axonserver.exception.ErrorCode;
 import io.axoniq.axonserver.exception.MessagingPlatformException;
 import io.axoniq.axonserver.localstorage.EventType;
@@ -23,25 +24,33 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
-import java.io.Closeable;
 import java.io.File;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -55,21 +64,45 @@ import java.util.stream.Stream;
 public class StandardIndexManager implements IndexManager {
 
     private static final Logger logger = LoggerFactory.getLogger(StandardIndexManager.class);
+    /**
+     * Value for the index format in the {@link StorageProperties} to keep the index for the active segment in
+     * off-heap memory.
+     */
+    public static final String OFF_HEAP_INDEX_FORMAT = "off-heap";
+    /**
+     * Value for the index format in the {@link StorageProperties} to write the indexes for completed segments as
+     * immutable sorted files, which are memory mapped read-only when opened.
+     */
+    public static final String SORTED_INDEX_FORMAT = "sorted";
+    /**
+     * Value for the index format in the {@link StorageProperties} to combine the sorted index files for completed
+     * segments with an off-heap index for the active segment.
+     */
+    public static final String SORTED_OFF_HEAP_INDEX_FORMAT = "sorted-off-heap";
     private static final String AGGREGATE_MAP = "aggregateMap";
     private static final ScheduledExecutorService scheduledExecutorService =
             Executors.newScheduledThreadPool(1, new CustomizableThreadFactory("index-manager-"));
+    private static final CustomizableThreadFactory segmentBloomIndexThreadFactory =
+            new CustomizableThreadFactory("segment-bloom-index-");
     protected final StorageProperties storageProperties;
     protected final String context;
     private final EventType eventType;
-    private final ConcurrentNavigableMap<Long, Map<String, IndexEntries>> activeIndexes = new ConcurrentSkipListMap<>();
+    private final ConcurrentNavigableMap<Long, ActiveIndex> activeIndexes = new ConcurrentSkipListMap<>();
     private final ConcurrentNavigableMap<Long, PersistedBloomFilter> bloomFilterPerSegment = new ConcurrentSkipListMap<>();
-    private final ConcurrentSkipListMap<Long, Index> indexMap = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<Long, SegmentIndex> indexMap = new ConcurrentSkipListMap<>();
     private final SortedSet<Long> indexesDescending = new ConcurrentSkipListSet<>(Comparator.reverseOrder());
     private final MeterFactory.RateMeter indexOpenMeter;
     private final MeterFactory.RateMeter indexCloseMeter;
     private final RemoteAggregateSequenceNumberResolver remoteIndexManager;
     private ScheduledFuture<?> cleanupTask;
+    /**
+     * Active indexes of completed segments, that are closed after a delay as concurrent readers may still use them.
+     */
+    private final Set<ActiveIndex> pendingActiveIndexCloses = ConcurrentHashMap.newKeySet();
     private final AtomicLong useMmapAfterIndex = new AtomicLong();
+    private volatile KnownAggregatesFilter knownAggregates;
+    private volatile ExecutorService knownAggregatesRebuilder;
+    private volatile SegmentBloomIndex segmentBloomIndex;
 
     /**
      * @param context           the context of the storage engine
@@ -113,8 +146,147 @@ public class StandardIndexManager implements IndexManager {
             long index = Long.parseLong(indexFile.substring(0, indexFile.indexOf('.')));
             indexesDescending.add(index);
         }
+        if (sortedIndexFormat()) {
+            String[] sortedIndexFiles = FileUtils.getFilesWithSuffix(new File(storageProperties.getStorage(context)),
+                                                                     storageProperties.getNewIndexSuffix());
+            for (String indexFile : sortedIndexFiles) {
+                indexesDescending.add(Long.parseLong(indexFile.substring(0, indexFile.indexOf('.'))));
+            }
+        }
 
         updateUseMmapAfterIndex();
+        if (storageProperties.isKnownAggregatesFilter() && remoteIndexManager == null) {
+            initKnownAggregates();
+        }
+        if (storageProperties.isSegmentBloomIndex()) {
+            initSegmentBloomIndex();
+        }
+    }
+
+    /**
+     * Opens the combined bloom filters file and adds the completed segments that are not in there yet in a background
+     * thread. Until a segment is added, lookups for that segment use its own bloom filter.
+     */
+    private void initSegmentBloomIndex() {
+        SegmentBloomIndex bloomIndex = new SegmentBloomIndex(storageProperties.segmentBloomIndex(context),
+                                                             storageProperties.getBloomIndexFpp());
+        bloomIndex.open();
+        segmentBloomIndex = bloomIndex;
+        List<Long> missingSegments = indexesDescending.stream()
+                                                      .filter(segment -> !bloomIndex.contains(segment))
+                                                      .collect(Collectors.toList());
+        if (!missingSegments.isEmpty()) {
+            segmentBloomIndexThreadFactory.newThread(() -> addToSegmentBloomIndex(bloomIndex, missingSegments))
+                                          .start();
+        }
+    }
+
+    private void addToSegmentBloomIndex(SegmentBloomIndex bloomIndex, List<Long> segments) {
+        logger.info("{}: Adding {} segments to combined bloom filters", context, segments.size());
+        for (Long segment : segments) {
+            if (segmentBloomIndex != bloomIndex) {
+                return;
+            }
+            try {
+                SegmentIndex index = createSegmentIndex(segment).ensureReady();
+                List<String> aggregateIds = new ArrayList<>();
+                try {
+                    index.forEachAggregate(aggregateIds::add);
+                } finally {
+                    index.close();
+                }
+                if (indexesDescending.contains(segment) && !bloomIndex.contains(segment)) {
+                    bloomIndex.add(segment, aggregateIds);
+                    bloomFilterPerSegment.remove(segment);
+                }
+            } catch (IndexNotFoundException indexNotFoundException) {
+                logger.debug("{}: No index for segment {}", context, segment);
+            } catch (Exception ex) {
+                logger.warn("{}: Failed to add segment {} to combined bloom filters", context, segment, ex);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Loads the known aggregates filter and adds the aggregates from segments completed after the filter was stored.
+     * When there are such segments, they are added in a background thread and the filter is only used when this is
+     * done. Aggregates added to active segments in the meantime are added to the filter directly.
+     * <p>
+     * The filter is not used when there is a remote index manager, as it does not know the aggregates in the other
+     * tiers.
+     */
+    private void initKnownAggregates() {
+        File file = storageProperties.knownAggregatesFilter(context);
+        KnownAggregatesFilter filter = null;
+        if (file.exists()) {
+            try {
+                filter = KnownAggregatesFilter.read(file);
+            } catch (MessagingPlatformException ex) {
+                logger.warn("{}: Failed to read known aggregates filter, rebuilding", context, ex);
+            }
+        }
+        if (filter == null) {
+            filter = new KnownAggregatesFilter(storageProperties.getKnownAggregatesFilterInitialCapacity(),
+                                               storageProperties.getBloomIndexFpp());
+        }
+        long lastSegment = filter.lastSegment();
+        List<Long> missingSegments = indexesDescending.stream()
+                                                      .filter(segment -> segment > lastSegment)
+                                                      .collect(Collectors.toList());
+        knownAggregates = filter;
+        if (missingSegments.isEmpty()) {
+            filter.setReady();
+            return;
+        }
+        KnownAggregatesFilter target = filter;
+        ExecutorService rebuilder = Executors.newSingleThreadExecutor(new CustomizableThreadFactory(
+                context + "-known-aggregates-"));
+        knownAggregatesRebuilder = rebuilder;
+        rebuilder.execute(() -> rebuildKnownAggregates(target, missingSegments));
+        rebuilder.shutdown();
+    }
+
+    private void rebuildKnownAggregates(KnownAggregatesFilter filter, List<Long> segments) {
+        logger.info("{}: Adding {} segments to known aggregates filter", context, segments.size());
+        for (Long segment : segments) {
+            if (knownAggregates != filter) {
+                return;
+            }
+            try {
+                SegmentIndex index = createSegmentIndex(segment).ensureReady();
+                try {
+                    index.forEachAggregate(filter::add);
+                } finally {
+                    index.close();
+                }
+            } catch (IndexNotFoundException indexNotFoundException) {
+                logger.debug("{}: No index for segment {}", context, segment);
+            } catch (Exception ex) {
+                logger.warn("{}: Failed to add segment {} to known aggregates filter, filter not used",
+                            context,
+                            segment,
+                            ex);
+                return;
+            }
+        }
+        if (knownAggregates != filter) {
+            return;
+        }
+        filter.setReady();
+        storeKnownAggregates(filter);
+        logger.info("{}: Known aggregates filter ready", context);
+    }
+
+    private void storeKnownAggregates(KnownAggregatesFilter filter) {
+        if (indexesDescending.isEmpty()) {
+            return;
+        }
+        try {
+            filter.write(storageProperties.knownAggregatesFilter(context), indexesDescending.first());
+        } catch (MessagingPlatformException ex) {
+            logger.warn("{}: Failed to store known aggregates filter", context, ex);
+        }
     }
 
     private void updateUseMmapAfterIndex() {
@@ -122,10 +294,95 @@ public class StandardIndexManager implements IndexManager {
                                                .orElse(-1L));
     }
 
-    private void createIndex(Long segment, Map<String, IndexEntries> positionsPerAggregate) {
+    private boolean sortedIndexFormat() {
+        return SORTED_INDEX_FORMAT.equalsIgnoreCase(storageProperties.getIndexFormat())
+                || SORTED_OFF_HEAP_INDEX_FORMAT.equalsIgnoreCase(storageProperties.getIndexFormat());
+    }
+
+    private ActiveIndex createActiveIndex() {
+        if (OFF_HEAP_INDEX_FORMAT.equalsIgnoreCase(storageProperties.getIndexFormat())
+                || SORTED_OFF_HEAP_INDEX_FORMAT.equalsIgnoreCase(storageProperties.getIndexFormat())) {
+            return new OffHeapActiveIndex();
+        }
+        return new StandardActiveIndex();
+    }
+
+    private void createIndex(Long segment, ActiveIndex positionsPerAggregate) {
         if (positionsPerAggregate == null) {
-            positionsPerAggregate = Collections.emptyMap();
+            positionsPerAggregate = new StandardActiveIndex();
+        }
+        if (sortedIndexFormat()) {
+            writeSortedIndex(segment, positionsPerAggregate::forEach);
+        } else {
+            writeMapDbIndex(segment, positionsPerAggregate);
+        }
+
+        PersistedBloomFilter filter = new PersistedBloomFilter(storageProperties.bloomFilter(context, segment)
+                                                                                .getAbsolutePath(),
+                                                               positionsPerAggregate.size(),
+                                                               storageProperties.getBloomIndexFpp());
+        filter.create();
+        List<String> aggregateIds = new ArrayList<>(positionsPerAggregate.size());
+        positionsPerAggregate.forEach((aggregateId, entries) -> {
+            filter.insert(aggregateId);
+            aggregateIds.add(aggregateId);
+        });
+        filter.store();
+        if (!addToSegmentBloomIndex(segment, aggregateIds)) {
+            bloomFilterPerSegment.put(segment, filter);
+        }
+
+        getIndex(segment);
+    }
+
+    private boolean addToSegmentBloomIndex(long segment, List<String> aggregateIds) {
+        SegmentBloomIndex bloomIndex = segmentBloomIndex;
+        if (bloomIndex == null) {
+            return false;
+        }
+        try {
+            bloomIndex.add(segment, aggregateIds);
+            return true;
+        } catch (MessagingPlatformException ex) {
+            logger.warn("{}: Failed to add segment {} to combined bloom filters", context, segment, ex);
+            return false;
+        }
+    }
+
+    private void writeSortedIndex(Long segment, Consumer<BiConsumer<String, IndexEntries>> positionsPerAggregate) {
+        File tempFile = storageProperties.newIndexTemp(context, segment);
+        if (!FileUtils.delete(tempFile)) {
+            throw new MessagingPlatformException(ErrorCode.INDEX_WRITE_ERROR,
+                                                 "Failed to delete temp index file:" + tempFile);
         }
+        SortedIndexFile.write(tempFile, positionsPerAggregate);
+        if (!tempFile.renameTo(storageProperties.newIndex(context, segment))) {
+            throw new MessagingPlatformException(ErrorCode.INDEX_WRITE_ERROR,
+                                                 "Failed to rename index file:" + tempFile);
+        }
+    }
+
+    /**
+     * Converts the MapDB index file for a segment to a sorted index file. The original index file is kept.
+     */
+    private void convertToSortedIndex(long segment) {
+        logger.info("{}: converting index for segment {} to sorted index", context, segment);
+        DB db = DBMaker.fileDB(storageProperties.index(context, segment))
+                       .readOnly()
+                       .fileLockDisable()
+                       .fileChannelEnable()
+                       .make();
+        try (HTreeMap<String, IndexEntries> map = db.hashMap(AGGREGATE_MAP,
+                                                             Serializer.STRING,
+                                                             StandardIndexEntriesSerializer.get())
+                                                    .createOrOpen()) {
+            writeSortedIndex(segment, map::forEach);
+        } finally {
+            db.close();
+        }
+    }
+
+    private void writeMapDbIndex(Long segment, ActiveIndex positionsPerAggregate) {
         File tempFile = storageProperties.indexTemp(context, segment);
         if (!FileUtils.delete(tempFile)) {
             throw new MessagingPlatformException(ErrorCode.INDEX_WRITE_ERROR,
@@ -144,7 +401,7 @@ public class StandardIndexManager implements IndexManager {
         try (HTreeMap<String, IndexEntries> map = db.hashMap(AGGREGATE_MAP, Serializer.STRING,
                                                              StandardIndexEntriesSerializer.get())
                                                     .createOrOpen()) {
-            map.putAll(positionsPerAggregate);
+            positionsPerAggregate.forEach(map::put);
         }
         db.close();
 
@@ -152,28 +409,17 @@ public class StandardIndexManager implements IndexManager {
             throw new MessagingPlatformException(ErrorCode.INDEX_WRITE_ERROR,
                                                  "Failed to rename index file:" + tempFile);
         }
-
-        PersistedBloomFilter filter = new PersistedBloomFilter(storageProperties.bloomFilter(context, segment)
-                                                                                .getAbsolutePath(),
-                                                               positionsPerAggregate.keySet().size(),
-                                                               storageProperties.getBloomIndexFpp());
-        filter.create();
-        filter.insertAll(positionsPerAggregate.keySet());
-        filter.store();
-        bloomFilterPerSegment.put(segment, filter);
-
-        getIndex(segment);
     }
 
-    private IndexEntries getPositions(long segment, String aggregateId) {
-        if (notInBloomIndex(segment, aggregateId)) {
+    private IndexEntries getPositions(long segment, String aggregateId, SegmentBloomIndex.Probe probe) {
+        if (notInBloomIndex(segment, aggregateId, probe)) {
             return null;
         }
 
         RuntimeException lastError = new RuntimeException();
         for (int retry = 0; retry < 3; retry++) {
             try {
-                Index idx = getIndex(segment);
+                SegmentIndex idx = getIndex(segment);
                 return idx.getPositions(aggregateId);
             } catch (IndexNotFoundException ex) {
                 return null;
@@ -185,18 +431,25 @@ public class StandardIndexManager implements IndexManager {
         throw lastError;
     }
 
-    private Index getIndex(long segment) {
+    private SegmentIndex getIndex(long segment) {
         try {
-            return indexMap.computeIfAbsent(segment, Index::new).ensureReady();
+            return indexMap.computeIfAbsent(segment, this::createSegmentIndex).ensureReady();
         } catch (IndexNotFoundException indexNotFoundException) {
             indexMap.remove(segment);
             throw indexNotFoundException;
         }
     }
 
+    private SegmentIndex createSegmentIndex(long segment) {
+        if (sortedIndexFormat()) {
+            return new SortedIndex(segment);
+        }
+        return new Index(segment);
+    }
+
     private void indexCleanup() {
         while (indexMap.size() > storageProperties.getMaxIndexesInMemory()) {
-            Map.Entry<Long, Index> entry = indexMap.pollFirstEntry();
+            Map.Entry<Long, SegmentIndex> entry = indexMap.pollFirstEntry();
             logger.debug("{}: Closing index {}", context, entry.getKey());
             cleanupTask = scheduledExecutorService.schedule(() -> entry.getValue().close(), 2, TimeUnit.SECONDS);
         }
@@ -207,7 +460,15 @@ public class StandardIndexManager implements IndexManager {
         }
     }
 
-    private boolean notInBloomIndex(Long segment, String aggregateId) {
+    private SegmentBloomIndex.Probe probe(String aggregateId) {
+        SegmentBloomIndex bloomIndex = segmentBloomIndex;
+        return bloomIndex == null ? null : bloomIndex.probe(aggregateId);
+    }
+
+    private boolean notInBloomIndex(Long segment, String aggregateId, SegmentBloomIndex.Probe probe) {
+        if (probe != null && probe.covers(segment)) {
+            return !probe.mightContain(segment);
+        }
         PersistedBloomFilter persistedBloomFilter = bloomFilterPerSegment.computeIfAbsent(segment,
                                                                                           i -> loadBloomFilter(segment));
         return persistedBloomFilter != null && !persistedBloomFilter.mightContain(aggregateId);
@@ -236,9 +497,12 @@ public class StandardIndexManager implements IndexManager {
         if (indexesDescending.contains(segment)) {
             throw new IndexNotFoundException(segment + ": already completed");
         }
-        activeIndexes.computeIfAbsent(segment, s -> new ConcurrentHashMap<>())
-                     .computeIfAbsent(aggregateId, a -> new StandardIndexEntries(indexEntry.getSequenceNumber()))
-                     .add(indexEntry);
+        activeIndexes.computeIfAbsent(segment, s -> createActiveIndex())
+                     .add(aggregateId, indexEntry);
+        KnownAggregatesFilter filter = knownAggregates;
+        if (filter != null) {
+            filter.add(aggregateId);
+        }
     }
 
     /**
@@ -253,12 +517,20 @@ public class StandardIndexManager implements IndexManager {
             throw new IndexNotFoundException(segment + ": already completed");
         }
 
-        indexEntries.forEach((aggregateId, entries) ->
-                                     activeIndexes.computeIfAbsent(segment, s -> new ConcurrentHashMap<>())
-                                                  .computeIfAbsent(aggregateId,
-                                                                   a -> new StandardIndexEntries(
-                                                                           entries.get(0).getSequenceNumber()))
-                                                  .addAll(entries));
+        ActiveIndex activeIndex = activeIndexes.computeIfAbsent(segment, s -> createActiveIndex());
+        indexEntries.forEach(activeIndex::addAll);
+        KnownAggregatesFilter filter = knownAggregates;
+        if (filter != null) {
+            indexEntries.keySet().forEach(filter::add);
+        }
+    }
+
+    @Override
+    public void forEachInActiveSegment(long segment, BiConsumer<String, IndexEntries> action) {
+        ActiveIndex activeIndex = activeIndexes.get(segment);
+        if (activeIndex != null) {
+            activeIndex.forEach(action);
+        }
     }
 
     /**
@@ -270,8 +542,30 @@ public class StandardIndexManager implements IndexManager {
     public void complete(long segment) {
         createIndex(segment, activeIndexes.get(segment));
         indexesDescending.add(segment);
-        activeIndexes.remove(segment);
+        ActiveIndex activeIndex = activeIndexes.remove(segment);
+        if (activeIndex != null) {
+            // delay releasing the active index, as concurrent readers may still be using it
+            pendingActiveIndexCloses.add(activeIndex);
+            scheduledExecutorService.schedule(() -> closePendingActiveIndex(activeIndex), 10, TimeUnit.SECONDS);
+        }
         updateUseMmapAfterIndex();
+        KnownAggregatesFilter filter = knownAggregates;
+        if (filter != null && filter.isReady()) {
+            storeKnownAggregates(filter);
+        }
+    }
+
+    /**
+     * Returns the number of active indexes of completed segments that are not closed yet.
+     */
+    int activeIndexesPendingClose() {
+        return pendingActiveIndexCloses.size();
+    }
+
+    private void closePendingActiveIndex(ActiveIndex activeIndex) {
+        if (pendingActiveIndexCloses.remove(activeIndex)) {
+            activeIndex.close();
+        }
     }
 
     /**
@@ -284,10 +578,15 @@ public class StandardIndexManager implements IndexManager {
      */
     @Override
     public Optional<Long> getLastSequenceNumber(String aggregateId, int maxSegments, long maxTokenHint) {
+        KnownAggregatesFilter filter = knownAggregates;
+        if (filter != null && filter.isReady() && !filter.mightContain(aggregateId)) {
+            return Optional.empty();
+        }
         if (activeIndexes.isEmpty()) {
             return Optional.empty();
         }
         int checked = 0;
+        SegmentBloomIndex.Probe probe = null;
         for (Long segment : activeIndexes.descendingKeySet()) {
             if (checked >= maxSegments) {
                 return Optional.empty();
@@ -305,7 +604,10 @@ public class StandardIndexManager implements IndexManager {
                 return Optional.empty();
             }
             if (segment <= maxTokenHint) {
-                IndexEntries indexEntries = getPositions(segment, aggregateId);
+                if (probe == null) {
+                    probe = probe(aggregateId);
+                }
+                IndexEntries indexEntries = getPositions(segment, aggregateId, probe);
                 if (indexEntries != null) {
                     return Optional.of(indexEntries.lastSequenceNumber());
                 }
@@ -342,8 +644,9 @@ public class StandardIndexManager implements IndexManager {
                 }
             }
         }
+        SegmentBloomIndex.Probe probe = probe(aggregateId);
         for (Long segment : indexesDescending) {
-            IndexEntries indexEntries = getPositions(segment, aggregateId);
+            IndexEntries indexEntries = getPositions(segment, aggregateId, probe);
             if (indexEntries != null) {
                 if (minSequenceNumber < indexEntries.lastSequenceNumber()) {
                     return new SegmentAndPosition(segment, indexEntries.last());
@@ -378,8 +681,15 @@ public class StandardIndexManager implements IndexManager {
      */
     @Override
     public boolean remove(long segment) {
-        if (activeIndexes.remove(segment) == null) {
-            Index index = indexMap.remove(segment);
+        SegmentBloomIndex bloomIndex = segmentBloomIndex;
+        if (bloomIndex != null) {
+            bloomIndex.remove(segment);
+        }
+        ActiveIndex activeIndex = activeIndexes.remove(segment);
+        if (activeIndex != null) {
+            activeIndex.close();
+        } else {
+            SegmentIndex index = indexMap.remove(segment);
             if (index != null) {
                 index.close();
             }
@@ -387,6 +697,7 @@ public class StandardIndexManager implements IndexManager {
             indexesDescending.remove(segment);
         }
         return FileUtils.delete(storageProperties.index(context, segment)) &&
+                FileUtils.delete(storageProperties.newIndex(context, segment)) &&
                 FileUtils.delete(storageProperties.bloomFilter(context, segment));
     }
 
@@ -402,6 +713,26 @@ public class StandardIndexManager implements IndexManager {
     @Override
     public SortedMap<Long, IndexEntries> lookupAggregate(String aggregateId, long firstSequenceNumber,
                                                          long lastSequenceNumber, long maxResults, long minToken) {
+        return lookupAggregate(aggregateId, firstSequenceNumber, lastSequenceNumber, maxResults, minToken, null);
+    }
+
+    /**
+     * Finds all positions for an aggregate within the specified sequence number range. When an executor is provided,
+     * the indexes of completed segments are searched in batches of
+     * {@link StorageProperties#getAggregateReadParallelism()} segments in parallel.
+     *
+     * @param aggregateId         the aggregate identifier
+     * @param firstSequenceNumber minimum sequence number for the events returned (inclusive)
+     * @param lastSequenceNumber  maximum sequence number for the events returned (exclusive)
+     * @param maxResults          maximum number of results allowed
+     * @param minToken            minimum token hint for the entries to return
+     * @param executor            executor to search segments in parallel, null to search sequentially
+     * @return all positions for an aggregate within the specified sequence number range
+     */
+    @Override
+    public SortedMap<Long, IndexEntries> lookupAggregate(String aggregateId, long firstSequenceNumber,
+                                                         long lastSequenceNumber, long maxResults, long minToken,
+                                                         Executor executor) {
         SortedMap<Long, IndexEntries> results = new TreeMap<>();
         logger.debug("{}: lookupAggregate {} minSequenceNumber {}, lastSequenceNumber {}",
                      context,
@@ -414,7 +745,8 @@ public class StandardIndexManager implements IndexManager {
             if (minTokenInPreviousSegment < minToken) {
                 return results;
             }
-            IndexEntries entries = activeIndexes.getOrDefault(segment, Collections.emptyMap()).get(aggregateId);
+            ActiveIndex activeIndex = activeIndexes.get(segment);
+            IndexEntries entries = activeIndex == null ? null : activeIndex.get(aggregateId);
             if (entries != null) {
                 entries = addToResult(firstSequenceNumber, lastSequenceNumber, results, segment, entries);
                 maxResults -= entries.size();
@@ -425,25 +757,64 @@ public class StandardIndexManager implements IndexManager {
             minTokenInPreviousSegment = segment;
         }
 
-        for (Long index : indexesDescending) {
-            if (minTokenInPreviousSegment < minToken) {
+        int batchSize = executor == null ? 1 : Math.max(1, storageProperties.getAggregateReadParallelism());
+        SegmentBloomIndex.Probe probe = probe(aggregateId);
+        Iterator<Long> indexes = indexesDescending.iterator();
+        while (indexes.hasNext()) {
+            List<Long> batch = new ArrayList<>(batchSize);
+            while (indexes.hasNext() && batch.size() < batchSize && minTokenInPreviousSegment >= minToken) {
+                Long index = indexes.next();
+                batch.add(index);
+                minTokenInPreviousSegment = index;
+            }
+            if (batch.isEmpty()) {
                 return results;
             }
-            IndexEntries entries = getPositions(index, aggregateId);
-            logger.debug("{}: lookupAggregate {} in segment {} found {}", context, aggregateId, index, entries);
-            if (entries != null) {
-                entries = addToResult(firstSequenceNumber, lastSequenceNumber, results, index, entries);
-                maxResults -= entries.size();
-                if (allEntriesFound(firstSequenceNumber, maxResults, entries)) {
-                    return results;
+            List<IndexEntries> batchEntries = getPositions(batch, aggregateId, probe, executor);
+            for (int i = 0; i < batch.size(); i++) {
+                Long index = batch.get(i);
+                IndexEntries entries = batchEntries.get(i);
+                logger.debug("{}: lookupAggregate {} in segment {} found {}", context, aggregateId, index, entries);
+                if (entries != null) {
+                    entries = addToResult(firstSequenceNumber, lastSequenceNumber, results, index, entries);
+                    maxResults -= entries.size();
+                    if (allEntriesFound(firstSequenceNumber, maxResults, entries)) {
+                        return results;
+                    }
                 }
             }
-            minTokenInPreviousSegment = index;
         }
 
         return results;
     }
 
+    private List<IndexEntries> getPositions(List<Long> segments, String aggregateId, SegmentBloomIndex.Probe probe,
+                                            Executor executor) {
+        if (executor == null || segments.size() == 1) {
+            List<IndexEntries> entries = new ArrayList<>(segments.size());
+            segments.forEach(segment -> entries.add(getPositions(segment, aggregateId, probe)));
+            return entries;
+        }
+        List<CompletableFuture<IndexEntries>> futures = new ArrayList<>(segments.size());
+        segments.forEach(segment -> futures.add(CompletableFuture.supplyAsync(() -> getPositions(segment,
+                                                                                                 aggregateId,
+                                                                                                 probe),
+                                                                             executor)));
+        List<IndexEntries> entries = new ArrayList<>(segments.size());
+        for (CompletableFuture<IndexEntries> future : futures) {
+            try {
+                entries.add(future.join());
+            } catch (CompletionException ex) {
+                Throwable cause = ConcurrencyExceptions.unwrap(ex);
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new MessagingPlatformException(ErrorCode.INDEX_READ_ERROR, cause.getMessage(), cause);
+            }
+        }
+        return entries;
+    }
+
     private IndexEntries addToResult(long firstSequenceNumber, long lastSequenceNumber,
                                      SortedMap<Long, IndexEntries> results, Long segment, IndexEntries entries) {
         entries = entries.range(firstSequenceNumber, lastSequenceNumber, EventType.SNAPSHOT.equals(eventType));
@@ -457,13 +828,47 @@ public class StandardIndexManager implements IndexManager {
         return !entries.isEmpty() && firstSequenceNumber >= entries.firstSequenceNumber() || maxResults <= 0;
     }
 
+    private void stopKnownAggregatesRebuilder() {
+        ExecutorService rebuilder = knownAggregatesRebuilder;
+        knownAggregatesRebuilder = null;
+        if (rebuilder == null) {
+            return;
+        }
+        rebuilder.shutdownNow();
+        try {
+            if (!rebuilder.awaitTermination(5, TimeUnit.SECONDS)) {
+                logger.warn("{}: Rebuilding known aggregates filter did not stop", context);
+            }
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * Cleanup the index manager.
      *
      * @param delete flag to indicate that all indexes should be deleted
      */
     public void cleanup(boolean delete) {
+        KnownAggregatesFilter filter = knownAggregates;
+        knownAggregates = null;
+        stopKnownAggregatesRebuilder();
+        if (delete) {
+            FileUtils.delete(storageProperties.knownAggregatesFilter(context));
+        } else if (filter != null && filter.isReady()) {
+            storeKnownAggregates(filter);
+        }
+        SegmentBloomIndex bloomIndex = segmentBloomIndex;
+        segmentBloomIndex = null;
+        if (bloomIndex != null) {
+            bloomIndex.close(storageProperties.isForceCleanMmapIndex());
+        }
+        if (delete) {
+            FileUtils.delete(storageProperties.segmentBloomIndex(context));
+        }
+        activeIndexes.values().forEach(ActiveIndex::close);
         activeIndexes.clear();
+        new ArrayList<>(pendingActiveIndexCloses).forEach(this::closePendingActiveIndex);
         bloomFilterPerSegment.clear();
         indexMap.forEach((segment, index) -> index.close());
         indexMap.clear();
@@ -478,12 +883,15 @@ public class StandardIndexManager implements IndexManager {
         return indexesDescending.stream()
                                 .filter(s -> s > lastSegmentBackedUp)
                                 .flatMap(s -> Stream.of(
-                                        storageProperties.index(context, s).getAbsolutePath(),
-                                        storageProperties.bloomFilter(context, s).getAbsolutePath()
-                                ));
+                                        storageProperties.index(context, s),
+                                        storageProperties.newIndex(context, s),
+                                        storageProperties.bloomFilter(context, s)
+                                ))
+                                .filter(File::exists)
+                                .map(File::getAbsolutePath);
     }
 
-    private class Index implements Closeable {
+    private class Index implements SegmentIndex {
 
         private final long segment;
         private final Object initLock = new Object();
@@ -496,10 +904,16 @@ public class StandardIndexManager implements IndexManager {
             this.segment = segment;
         }
 
+        @Override
         public IndexEntries getPositions(String aggregateId) {
             return positions.get(aggregateId);
         }
 
+        @Override
+        public void forEachAggregate(Consumer<String> consumer) {
+            positions.keySet().forEach(consumer);
+        }
+
         @Override
         public void close() {
             logger.debug("{}: close {}", segment, storageProperties.index(context, segment));
@@ -510,6 +924,7 @@ public class StandardIndexManager implements IndexManager {
             }
         }
 
+        @Override
         public Index ensureReady() {
             if (initialized && !db.isClosed()) {
                 return this;
@@ -544,4 +959,70 @@ public class StandardIndexManager implements IndexManager {
             return this;
         }
     }
+
+    private class SortedIndex implements SegmentIndex {
+
+        private final long segment;
+        private final Object initLock = new Object();
+        private volatile SortedIndexFile indexFile;
+
+        private SortedIndex(long segment) {
+            this.segment = segment;
+        }
+
+        @Override
+        public IndexEntries getPositions(String aggregateId) {
+            SortedIndexFile current = indexFile;
+            if (current == null) {
+                current = ensureReady().indexFile;
+            }
+            return current.get(aggregateId);
+        }
+
+        @Override
+        public void forEachAggregate(Consumer<String> consumer) {
+            SortedIndexFile current = indexFile;
+            if (current == null) {
+                current = ensureReady().indexFile;
+            }
+            current.forEachAggregate(consumer);
+        }
+
+        @Override
+        public void close() {
+            synchronized (initLock) {
+                if (indexFile != null) {
+                    logger.debug("{}: close {}", segment, storageProperties.newIndex(context, segment));
+                    indexCloseMeter.mark();
+                    indexFile.close(storageProperties.isForceCleanMmapIndex());
+                    indexFile = null;
+                }
+            }
+        }
+
+        @Override
+        public SortedIndex ensureReady() {
+            if (indexFile != null) {
+                return this;
+            }
+
+            synchronized (initLock) {
+                if (indexFile != null) {
+                    return this;
+                }
+
+                File file = storageProperties.newIndex(context, segment);
+                if (!file.exists()) {
+                    if (!storageProperties.index(context, segment).exists()) {
+                        throw new IndexNotFoundException("Index not found for segment: " + segment);
+                    }
+                    convertToSortedIndex(segment);
+                }
+                indexOpenMeter.mark();
+                logger.debug("{}: open {}", segment, file);
+                indexFile = new SortedIndexFile(file);
+            }
+            return this;
+        }
+    }
 }
@@ -13,6 +13,7 @@ import io.axoniq.axonserver.config.SystemInfoProvider;
 
 import java.io.File;
 import java.time.Duration;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Marc Gathier
@@ -43,6 +44,18 @@ public class StorageProperties implements Cloneable {
      * File suffix for bloom files.
      */
     private String bloomIndexSuffix = ".bloom";
+    /**
+     * File suffix for timestamp index files.
+     */
+    private String timestampIndexSuffix = ".tindex";
+    /**
+     * File suffix for payload type index files.
+     */
+    private String payloadTypeIndexSuffix = ".pindex";
+    /**
+     * File suffix for segment validation manifests.
+     */
+    private String manifestSuffix = ".manifest";
 
     /**
      * Size for new storage segments.
@@ -91,6 +104,85 @@ public class StorageProperties implements Cloneable {
      * Interval (ms) to check if there are files that are complete and can be closed
      */
     private long syncInterval = 1000;
+    /**
+     * Coalesce concurrent store requests into a single claimed region of the segment (group commit)
+     */
+    private boolean groupCommit = false;
+    /**
+     * Maximum number of store requests to combine in a single group commit
+     */
+    private int groupCommitMaxBatchSize = 64;
+    /**
+     * Maximum time (microseconds) to wait for additional store requests before writing a group commit batch
+     */
+    private long groupCommitMaxLinger = 0;
+    /**
+     * Number of segments to search and read in parallel when reading the events for an aggregate (1 = sequential)
+     */
+    private int aggregateReadParallelism = 1;
+    /**
+     * Create and map the next segment file in the background, so it is ready when the current segment is full
+     */
+    private boolean preAllocateSegments = true;
+    /**
+     * Maximum number of completed segment files kept open for reading single events
+     */
+    private int maxOpenSegmentChannels = 64;
+    /**
+     * Maximum number of completed segment files kept memory mapped for sequential reads without copying the events.
+     * Segments are only mapped when their events are stored without transformation. Set to 0 to read completed
+     * segments through an input stream.
+     */
+    private int maxMappedSegments = 16;
+    /**
+     * Number of events per block in the timestamp index of a segment
+     */
+    private int timestampIndexBlockSize = 1024;
+    /**
+     * Maximum number of timestamp indexes of completed segments to keep in memory
+     */
+    private int maxTimestampIndexesInMemory = 100;
+    /**
+     * Create an index on payload type for completed segments, used by ad-hoc queries filtering on payload type
+     */
+    private boolean payloadTypeIndex;
+    /**
+     * Maximum number of payload type indexes of completed segments to keep in memory
+     */
+    private int maxPayloadTypeIndexesInMemory = 20;
+    /**
+     * Maintain a filter with all aggregate identifiers in the event store, to quickly detect new aggregates
+     */
+    private boolean knownAggregatesFilter;
+    /**
+     * Number of aggregates in the first bloom filter of the known aggregates filter, the filter grows when more
+     * aggregates are added
+     */
+    private int knownAggregatesFilterInitialCapacity = 1_000_000;
+    /**
+     * Combine the bloom filters of completed segments in a single memory mapped file, instead of keeping them on the
+     * heap per segment
+     */
+    private boolean segmentBloomIndex;
+    /**
+     * Interval (ms) to write a checkpoint of the index of the active segment, so that startup only needs to read the
+     * events written after the checkpoint. 0 disables the checkpoints.
+     */
+    private long activeIndexCheckpointInterval;
+    /**
+     * Write a validation manifest for completed segments, startup validation skips segments that have not changed
+     * since the manifest was written
+     */
+    private boolean validationManifest;
+    /**
+     * Maximum read rate (bytes per second) for the background scrubber that re-verifies the checksums of completed
+     * segments. 0 disables the scrubber. Requires validation manifests.
+     */
+    private long scrubRate;
+    /**
+     * Minimum interval (ms) between two verifications of the same segment by the scrubber. Defaults to 7 days.
+     */
+    private long scrubInterval = TimeUnit.DAYS.toMillis(7);
 
     /**
      * Use memory mapped files for index files
@@ -107,7 +199,16 @@ public class StorageProperties implements Cloneable {
      */
     private int readBufferSize = DEFAULT_READ_BUFFER_SIZE;
     private final SystemInfoProvider systemInfoProvider;
+    /**
+     * Flags for new segments, the lowest 4 bits select the compression of events (0 = none, 1 = deflate fast, 2 =
+     * deflate), with 0x10 the compression uses the compression dictionary and with 0x20 complete transactions are
+     * compressed instead of individual events
+     */
     private int flags;
+    /**
+     * File containing the preset dictionary for compression, used when the flags include 0x10
+     */
+    private String compressionDictionary;
     /**
      * Time to keep events in primary tier before deleting them, if secondary tier is defined.
      */
@@ -162,6 +263,22 @@ public class StorageProperties implements Cloneable {
         this.bloomIndexSuffix = bloomIndexSuffix;
     }
 
+    public String getTimestampIndexSuffix() {
+        return timestampIndexSuffix;
+    }
+
+    public void setTimestampIndexSuffix(String timestampIndexSuffix) {
+        this.timestampIndexSuffix = timestampIndexSuffix;
+    }
+
+    public String getPayloadTypeIndexSuffix() {
+        return payloadTypeIndexSuffix;
+    }
+
+    public void setPayloadTypeIndexSuffix(String payloadTypeIndexSuffix) {
+        this.payloadTypeIndexSuffix = payloadTypeIndexSuffix;
+    }
+
     public long getSegmentSize() {
         return segmentSize;
     }
@@ -186,6 +303,30 @@ public class StorageProperties implements Cloneable {
         return new File(String.format(PATH_FORMAT, getStorage(context), segment, bloomIndexSuffix));
     }
 
+    public File timestampIndex(String context, long segment) {
+        return new File(String.format(PATH_FORMAT, getStorage(context), segment, timestampIndexSuffix));
+    }
+
+    public File payloadTypeIndex(String context, long segment) {
+        return new File(String.format(PATH_FORMAT, getStorage(context), segment, payloadTypeIndexSuffix));
+    }
+
+    public File manifest(String context, long segment) {
+        return new File(String.format(PATH_FORMAT, getStorage(context), segment, manifestSuffix));
+    }
+
+    public File knownAggregatesFilter(String context) {
+        return new File(getStorage(context), "aggregates" + eventsSuffix + ".filter");
+    }
+
+    public File segmentBloomIndex(String context) {
+        return new File(getStorage(context), "segments" + eventsSuffix + ".blooms");
+    }
+
+    public File activeIndexCheckpoint(String context) {
+        return new File(getStorage(context), "active" + eventsSuffix + ".checkpoint");
+    }
+
     public File index(String context, long segment) {
         return new File(String.format(PATH_FORMAT, getStorage(context), segment, indexSuffix));
     }
@@ -210,6 +351,17 @@ public class StorageProperties implements Cloneable {
         this.globalIndexSuffix = globalIndexSuffix;
     }
 
+    /**
+     * Returns the file used to prepare the next segment. This file is renamed to the data file of the segment once the
+     * current segment is full.
+     *
+     * @param context the context
+     * @return the file for the next segment
+     */
+    public File preparedDataFile(String context) {
+        return new File(getStorage(context), "next" + eventsSuffix + ".temp");
+    }
+
     public File dataFile(String context, long segment) {
         return new File(String.format(PATH_FORMAT, getStorage(context), segment, eventsSuffix));
     }
@@ -289,6 +441,164 @@ public class StorageProperties implements Cloneable {
         this.syncInterval = syncInterval;
     }
 
+    public boolean isGroupCommit() {
+        return groupCommit;
+    }
+
+    public void setGroupCommit(boolean groupCommit) {
+        this.groupCommit = groupCommit;
+    }
+
+    public int getGroupCommitMaxBatchSize() {
+        return groupCommitMaxBatchSize;
+    }
+
+    public void setGroupCommitMaxBatchSize(int groupCommitMaxBatchSize) {
+        this.groupCommitMaxBatchSize = groupCommitMaxBatchSize;
+    }
+
+    public long getGroupCommitMaxLinger() {
+        return groupCommitMaxLinger;
+    }
+
+    public void setGroupCommitMaxLinger(long groupCommitMaxLinger) {
+        this.groupCommitMaxLinger = groupCommitMaxLinger;
+    }
+
+    public int getAggregateReadParallelism() {
+        return aggregateReadParallelism;
+    }
+
+    public void setAggregateReadParallelism(int aggregateReadParallelism) {
+        this.aggregateReadParallelism = aggregateReadParallelism;
+    }
+
+    /**
+     * Returns if the next segment should be prepared in the background. Not supported when memory mapped files need
+     * to be cleaned explicitly, as the prepared file is renamed while it is mapped.
+     *
+     * @return true if the next segment should be prepared in the background
+     */
+    public boolean isPreAllocateSegments() {
+        return preAllocateSegments && !isCleanRequired();
+    }
+
+    public void setPreAllocateSegments(boolean preAllocateSegments) {
+        this.preAllocateSegments = preAllocateSegments;
+    }
+
+    public int getMaxOpenSegmentChannels() {
+        return maxOpenSegmentChannels;
+    }
+
+    public int getMaxMappedSegments() {
+        return maxMappedSegments;
+    }
+
+    public void setMaxMappedSegments(int maxMappedSegments) {
+        this.maxMappedSegments = maxMappedSegments;
+    }
+
+    public void setMaxOpenSegmentChannels(int maxOpenSegmentChannels) {
+        this.maxOpenSegmentChannels = maxOpenSegmentChannels;
+    }
+
+    public int getTimestampIndexBlockSize() {
+        return timestampIndexBlockSize;
+    }
+
+    public void setTimestampIndexBlockSize(int timestampIndexBlockSize) {
+        this.timestampIndexBlockSize = timestampIndexBlockSize;
+    }
+
+    public int getMaxTimestampIndexesInMemory() {
+        return maxTimestampIndexesInMemory;
+    }
+
+    public void setMaxTimestampIndexesInMemory(int maxTimestampIndexesInMemory) {
+        this.maxTimestampIndexesInMemory = maxTimestampIndexesInMemory;
+    }
+
+    public boolean isPayloadTypeIndex() {
+        return payloadTypeIndex;
+    }
+
+    public void setPayloadTypeIndex(boolean payloadTypeIndex) {
+        this.payloadTypeIndex = payloadTypeIndex;
+    }
+
+    public int getMaxPayloadTypeIndexesInMemory() {
+        return maxPayloadTypeIndexesInMemory;
+    }
+
+    public void setMaxPayloadTypeIndexesInMemory(int maxPayloadTypeIndexesInMemory) {
+        this.maxPayloadTypeIndexesInMemory = maxPayloadTypeIndexesInMemory;
+    }
+
+    public boolean isKnownAggregatesFilter() {
+        return knownAggregatesFilter;
+    }
+
+    public void setKnownAggregatesFilter(boolean knownAggregatesFilter) {
+        this.knownAggregatesFilter = knownAggregatesFilter;
+    }
+
+    public boolean isSegmentBloomIndex() {
+        return segmentBloomIndex;
+    }
+
+    public void setSegmentBloomIndex(boolean segmentBloomIndex) {
+        this.segmentBloomIndex = segmentBloomIndex;
+    }
+
+    public String getManifestSuffix() {
+        return manifestSuffix;
+    }
+
+    public void setManifestSuffix(String manifestSuffix) {
+        this.manifestSuffix = manifestSuffix;
+    }
+
+    public boolean isValidationManifest() {
+        return validationManifest;
+    }
+
+    public void setValidationManifest(boolean validationManifest) {
+        this.validationManifest = validationManifest;
+    }
+
+    public long getScrubRate() {
+        return scrubRate;
+    }
+
+    public void setScrubRate(long scrubRate) {
+        this.scrubRate = scrubRate;
+    }
+
+    public long getScrubInterval() {
+        return scrubInterval;
+    }
+
+    public void setScrubInterval(long scrubInterval) {
+        this.scrubInterval = scrubInterval;
+    }
+
+    public long getActiveIndexCheckpointInterval() {
+        return activeIndexCheckpointInterval;
+    }
+
+    public void setActiveIndexCheckpointInterval(long activeIndexCheckpointInterval) {
+        this.activeIndexCheckpointInterval = activeIndexCheckpointInterval;
+    }
+
+    public int getKnownAggregatesFilterInitialCapacity() {
+        return knownAggregatesFilterInitialCapacity;
+    }
+
+    public void setKnownAggregatesFilterInitialCapacity(int knownAggregatesFilterInitialCapacity) {
+        this.knownAggregatesFilterInitialCapacity = knownAggregatesFilterInitialCapacity;
+    }
+
     public int getReadBufferSize() {
         return readBufferSize;
     }
@@ -338,6 +648,14 @@ public class StorageProperties implements Cloneable {
         this.flags = flags;
     }
 
+    public String getCompressionDictionary() {
+        return compressionDictionary;
+    }
+
+    public void setCompressionDictionary(String compressionDictionary) {
+        this.compressionDictionary = compressionDictionary;
+    }
+
     public StorageProperties withStorage(String storage) {
         StorageProperties clone = cloneProperties();
         clone.contextStorage = storage;
@@ -395,6 +713,38 @@ public class StorageProperties implements Cloneable {
         return clone;
     }
 
+    public StorageProperties withGroupCommit(int maxBatchSize, long maxLinger) {
+        StorageProperties clone = cloneProperties();
+        clone.groupCommit = true;
+        clone.groupCommitMaxBatchSize = maxBatchSize;
+        clone.groupCommitMaxLinger = maxLinger;
+        return clone;
+    }
+
+    public StorageProperties withAggregateReadParallelism(int aggregateReadParallelism) {
+        StorageProperties clone = cloneProperties();
+        clone.aggregateReadParallelism = aggregateReadParallelism;
+        return clone;
+    }
+
+    public StorageProperties withPreAllocateSegments(boolean preAllocateSegments) {
+        StorageProperties clone = cloneProperties();
+        clone.preAllocateSegments = preAllocateSegments;
+        return clone;
+    }
+
+    public StorageProperties withActiveIndexCheckpointInterval(long activeIndexCheckpointInterval) {
+        StorageProperties clone = cloneProperties();
+        clone.activeIndexCheckpointInterval = activeIndexCheckpointInterval;
+        return clone;
+    }
+
+    public StorageProperties withValidationManifest(boolean validationManifest) {
+        StorageProperties clone = cloneProperties();
+        clone.validationManifest = validationManifest;
+        return clone;
+    }
+
     public StorageProperties withRetentionTime(Duration[] retentionTime) {
         StorageProperties clone = cloneProperties();
         clone.retentionTime = retentionTime;
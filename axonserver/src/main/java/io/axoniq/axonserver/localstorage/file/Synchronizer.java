@@ -25,6 +25,7 @@ import java.util.SortedMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -99,6 +100,31 @@ public class Synchronizer {
         }
     }
 
+    /**
+     * Schedules the completion of a segment again, after an earlier attempt failed.
+     * @param writePosition the last write position in the segment
+     * @param delay         the time in milliseconds to wait before the next attempt
+     */
+    public void retryCompleteSegment(WritePosition writePosition, long delay) {
+        try {
+            fsync.schedule(() -> syncAndCloseFile.add(writePosition), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException rejectedExecutionException) {
+            log.warn("{}: Not retrying completion of segment {} as synchronizer is stopped",
+                     context,
+                     writePosition.segment);
+        }
+    }
+
+    /**
+     * Returns the position of the last transaction (or group of transactions) for which the writer is notified. All
+     * transactions before this position are completed.
+     *
+     * @return the last completed write position
+     */
+    public WritePosition current() {
+        return current;
+    }
+
     public void register(WritePosition writePosition, StorageCallback callback) {
         writePositions.put(writePosition, callback);
     }
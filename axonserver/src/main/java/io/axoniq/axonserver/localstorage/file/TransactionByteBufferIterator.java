@@ -73,8 +73,14 @@ public class TransactionByteBufferIterator implements TransactionIterator {
         short nrOfMessages = reader.getShort();
         List<SerializedEvent> events = new ArrayList<>(nrOfMessages);
         int position = reader.position();
-        for (int idx = 0; idx < nrOfMessages; idx++) {
-            events.add(eventSource.readEvent());
+        if (version == CompressedTransaction.TRANSACTION_VERSION) {
+            events.addAll(eventSource.readTransaction(nrOfMessages).events());
+            // events are decoded, so the transaction is passed on in the uncompressed format
+            version = SegmentBasedEventStore.TRANSACTION_VERSION;
+        } else {
+            for (int idx = 0; idx < nrOfMessages; idx++) {
+                events.add(eventSource.readEvent());
+            }
         }
         next = new SerializedTransactionWithToken(currentSequenceNumber, version, events);
         currentSequenceNumber += nrOfMessages;
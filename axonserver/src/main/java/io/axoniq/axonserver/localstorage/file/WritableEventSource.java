@@ -23,8 +23,9 @@ import java.util.Arrays;
 public class WritableEventSource extends ByteBufferEventSource {
     private static final Logger logger = LoggerFactory.getLogger(WritableEventSource.class);
 
-    public WritableEventSource(String file, ByteBuffer buffer, EventTransformer eventTransformer, boolean cleanerHack) {
-        super(file, buffer, eventTransformer, cleanerHack);
+    public WritableEventSource(String file, ByteBuffer buffer, EventTransformer eventTransformer,
+                               EventTransformer transactionTransformer, boolean cleanerHack) {
+        super(file, buffer, eventTransformer, transactionTransformer, cleanerHack);
     }
 
     private MappedByteBuffer mappedByteBuffer() {
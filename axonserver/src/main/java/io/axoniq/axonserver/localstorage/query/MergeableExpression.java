@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+package io.axoniq.axonserver.localstorage.query;
+
+/**
+ * Aggregating expression that keeps its state in the {@link ExpressionContext}, where the state built by separate
+ * partitions of a query can be combined.
+ *
+ * @author Marc Gathier
+ * @since 4.5
+ */
+public interface MergeableExpression extends Expression {
+
+    /**
+     * Adds the state of this expression in the partial context to the state in the target context.
+     *
+     * @param target  the context to merge into
+     * @param partial the context built by one partition of the query
+     */
+    void merge(ExpressionContext target, ExpressionContext partial);
+
+    /**
+     * Returns the current value of the aggregation, or null when the expression has not processed any values.
+     *
+     * @param context the context containing the state of the expression
+     * @return the current value
+     */
+    ExpressionResult current(ExpressionContext context);
+}
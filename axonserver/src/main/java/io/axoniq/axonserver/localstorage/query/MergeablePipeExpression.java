@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+package io.axoniq.axonserver.localstorage.query;
+
+/**
+ * Aggregating pipe expression that can be executed on separate partitions of a query, after which the partial states
+ * are merged and the final results are sent to the rest of the pipeline.
+ *
+ * @author Marc Gathier
+ * @since 4.5
+ */
+public interface MergeablePipeExpression extends PipeExpression {
+
+    /**
+     * @return true if the state of this expression can be merged
+     */
+    default boolean isMergeable() {
+        return true;
+    }
+
+    /**
+     * Adds the state of this expression in the partial context to the state in the target context.
+     *
+     * @param target  the context to merge into
+     * @param partial the context built by one partition of the query
+     */
+    void merge(ExpressionContext target, ExpressionContext partial);
+
+    /**
+     * Sends the results for the state in the context to the next step in the pipeline.
+     *
+     * @param context the context containing the merged state
+     * @param next    the next step in the pipeline
+     * @return false if the next step does not want more results
+     */
+    boolean flush(ExpressionContext context, Pipeline next);
+}
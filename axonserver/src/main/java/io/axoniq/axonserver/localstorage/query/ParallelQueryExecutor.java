@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+package io.axoniq.axonserver.localstorage.query;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Executes an ad-hoc query on multiple partitions of the event store concurrently. The leading stateless steps of the
+ * pipeline run on each partition separately. If these are followed by an aggregation that can be merged (count, min,
+ * max, avg or groupby using these), the aggregation runs per partition as well, and the partial results are merged
+ * when all partitions are done. Otherwise the results of the partitions are passed to the rest of the pipeline in
+ * partition order, so the results are the same as for a sequential query.
+ *
+ * @author Marc Gathier
+ * @since 4.5
+ */
+public class ParallelQueryExecutor {
+
+    private static final int MAX_BUFFERED_RESULTS = 10_000;
+
+    private final int parallelism;
+    private final ForkJoinPool pool;
+    private final QueryProcessor queryProcessor = new QueryProcessor();
+
+    /**
+     * @param parallelism the maximum number of partitions to read concurrently
+     */
+    public ParallelQueryExecutor(int parallelism) {
+        this.parallelism = parallelism;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Stops the threads used for reading partitions. Queries that are still running fail when they submit a new
+     * partition.
+     */
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Checks if a pipeline benefits from parallel execution, which is the case when it starts with a stateless step
+     * or a mergeable aggregation.
+     *
+     * @param pipeExpressions the steps in the pipeline
+     * @return true if the pipeline can be executed in parallel
+     */
+    public static boolean canExecuteInParallel(List<PipeExpression> pipeExpressions) {
+        return !pipeExpressions.isEmpty() && (pipeExpressions.get(0).isStateless()
+                || isMergeable(pipeExpressions.get(0)));
+    }
+
+    private static boolean isMergeable(PipeExpression pipeExpression) {
+        return pipeExpression instanceof MergeablePipeExpression
+                && ((MergeablePipeExpression) pipeExpression).isMergeable();
+    }
+
+    /**
+     * Executes the query. Returns when all results are passed to the terminal function.
+     *
+     * @param pipeExpressions the steps in the pipeline
+     * @param partitions      the partitions of the event store to read, in the order of a sequential query
+     * @param terminal        receives the results of the pipeline
+     * @param cancelled       returns true when the query is cancelled
+     */
+    public void execute(List<PipeExpression> pipeExpressions, List<Consumer<Predicate<QueryResult>>> partitions,
+                        Function<QueryResult, Boolean> terminal, BooleanSupplier cancelled) {
+        int prefixLength = 0;
+        while (prefixLength < pipeExpressions.size() && pipeExpressions.get(prefixLength).isStateless()) {
+            prefixLength++;
+        }
+        List<PipeExpression> prefix = pipeExpressions.subList(0, prefixLength);
+        if (prefixLength < pipeExpressions.size() && isMergeable(pipeExpressions.get(prefixLength))) {
+            MergeablePipeExpression aggregation = (MergeablePipeExpression) pipeExpressions.get(prefixLength);
+            Pipeline rest = queryProcessor.buildPipeline(pipeExpressions.subList(prefixLength + 1,
+                                                                                 pipeExpressions.size()), terminal);
+            executeAggregation(prefix, aggregation, partitions, rest, cancelled);
+        } else {
+            Pipeline rest = queryProcessor.buildPipeline(pipeExpressions.subList(prefixLength,
+                                                                                 pipeExpressions.size()), terminal);
+            executeOrdered(prefix, partitions, rest, cancelled);
+        }
+    }
+
+    private void executeAggregation(List<PipeExpression> prefix, MergeablePipeExpression aggregation,
+                                    List<Consumer<Predicate<QueryResult>>> partitions, Pipeline rest,
+                                    BooleanSupplier cancelled) {
+        List<ForkJoinTask<ExpressionContext>> tasks = new ArrayList<>();
+        for (Consumer<Predicate<QueryResult>> partition : partitions) {
+            tasks.add(pool.submit(() -> {
+                ExpressionContext context = new ExpressionContext();
+                Pipeline pipeline = queryProcessor.buildPipeline(prefix,
+                                                                 result -> aggregation.process(context,
+                                                                                               result,
+                                                                                               partial -> true));
+                partition.accept(result -> !cancelled.getAsBoolean() && pipeline.process(result));
+                return context;
+            }));
+        }
+        ExpressionContext merged = new ExpressionContext();
+        for (ForkJoinTask<ExpressionContext> task : tasks) {
+            aggregation.merge(merged, task.join());
+        }
+        if (!cancelled.getAsBoolean()) {
+            aggregation.flush(merged, rest);
+        }
+    }
+
+    private void executeOrdered(List<PipeExpression> prefix, List<Consumer<Predicate<QueryResult>>> partitions,
+                                Pipeline rest, BooleanSupplier cancelled) {
+        AtomicBoolean stopped = new AtomicBoolean();
+        BooleanSupplier stop = () -> stopped.get() || cancelled.getAsBoolean();
+        Iterator<Consumer<Predicate<QueryResult>>> remaining = partitions.iterator();
+        Deque<ForkJoinTask<PartitionResults>> inProgress = new ArrayDeque<>();
+        try {
+            while (inProgress.size() < parallelism * 2 && remaining.hasNext()) {
+                inProgress.add(submit(prefix, remaining.next(), stop));
+            }
+            while (!inProgress.isEmpty()) {
+                PartitionResults partitionResults = inProgress.poll().join();
+                if (remaining.hasNext()) {
+                    inProgress.add(submit(prefix, remaining.next(), stop));
+                }
+                if (!partitionResults.sendTo(rest, prefix, stop)) {
+                    return;
+                }
+            }
+        } finally {
+            stopped.set(true);
+        }
+    }
+
+    private ForkJoinTask<PartitionResults> submit(List<PipeExpression> prefix,
+                                                  Consumer<Predicate<QueryResult>> partition,
+                                                  BooleanSupplier stop) {
+        return pool.submit(() -> {
+            PartitionResults results = new PartitionResults(partition);
+            Pipeline pipeline = queryProcessor.buildPipeline(prefix, results::add);
+            partition.accept(result -> !stop.getAsBoolean() && pipeline.process(result));
+            return results;
+        });
+    }
+
+    /**
+     * Results of the stateless steps for one partition. When a partition has too many results to keep in memory, the
+     * results are dropped and the partition is read again when it is its turn to send its results.
+     */
+    private class PartitionResults {
+
+        private final Consumer<Predicate<QueryResult>> partition;
+        private final List<QueryResult> results = new ArrayList<>();
+        private boolean overflow;
+
+        PartitionResults(Consumer<Predicate<QueryResult>> partition) {
+            this.partition = partition;
+        }
+
+        boolean add(QueryResult result) {
+            if (results.size() >= MAX_BUFFERED_RESULTS) {
+                overflow = true;
+                results.clear();
+                return false;
+            }
+            results.add(result);
+            return true;
+        }
+
+        boolean sendTo(Pipeline rest, List<PipeExpression> prefix, BooleanSupplier stop) {
+            if (overflow) {
+                AtomicBoolean more = new AtomicBoolean(true);
+                Pipeline pipeline = queryProcessor.buildPipeline(prefix, result -> {
+                    if (!rest.process(result)) {
+                        more.set(false);
+                    }
+                    return more.get();
+                });
+                partition.accept(result -> !stop.getAsBoolean() && pipeline.process(result));
+                return more.get() && !stop.getAsBoolean();
+            }
+            for (QueryResult result : results) {
+                if (stop.getAsBoolean() || !rest.process(result)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
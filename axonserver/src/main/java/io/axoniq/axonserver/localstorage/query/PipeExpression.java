@@ -19,5 +19,15 @@ public interface PipeExpression {
         return inputColumns;
     }
 
+    /**
+     * Returns true when the expression does not keep state between results, so that separate partitions of the input
+     * can be processed by separate instances of the pipeline.
+     *
+     * @return true if the expression has no state
+     */
+    default boolean isStateless() {
+        return false;
+    }
+
 
 }
@@ -28,6 +28,7 @@ import io.axoniq.axonserver.localstorage.EventWriteStorage;
 import io.axoniq.axonserver.localstorage.QueryOptions;
 import io.axoniq.axonserver.localstorage.Registration;
 import io.axoniq.axonserver.localstorage.SerializedEvent;
+import io.axoniq.axonserver.localstorage.SerializedEventWithToken;
 import io.axoniq.axonserver.localstorage.query.result.AbstractMapExpressionResult;
 import io.axoniq.axonserver.localstorage.query.result.BooleanExpressionResult;
 import io.axoniq.axonserver.localstorage.query.result.DefaultQueryResult;
@@ -40,6 +41,7 @@ import io.axoniq.axonserver.queryparser.FunctionExpr;
 import io.axoniq.axonserver.queryparser.Numeric;
 import io.axoniq.axonserver.queryparser.Query;
 import io.axoniq.axonserver.queryparser.QueryElement;
+import io.axoniq.axonserver.queryparser.StringLiteral;
 import io.grpc.stub.StreamObserver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,6 +62,8 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
  * @author Marc Gathier
@@ -82,6 +86,7 @@ public class QueryEventsRequestStreamObserver implements StreamObserver<QueryEve
     private final long timeout;
     private final EventDecorator eventDecorator;
     private final StreamObserver<QueryEventsResponse> responseObserver;
+    private final ParallelQueryExecutor parallelQueryExecutor;
     private final AtomicReference<Sender> senderRef = new AtomicReference<>();
     private volatile Registration registration;
     private volatile Pipeline pipeLine;
@@ -90,6 +95,19 @@ public class QueryEventsRequestStreamObserver implements StreamObserver<QueryEve
                                             AggregateReader aggregateReader,
                                             long defaultLimit, long timeout, EventDecorator eventDecorator,
                                             StreamObserver<QueryEventsResponse> responseObserver) {
+        this(eventWriteStorage, eventStreamReader, aggregateReader, defaultLimit, timeout, eventDecorator,
+             responseObserver, null);
+    }
+
+    /**
+     * @param parallelQueryExecutor executor for queries on segments in parallel, {@code null} to execute all queries
+     *                              sequentially
+     */
+    public QueryEventsRequestStreamObserver(EventWriteStorage eventWriteStorage, EventStreamReader eventStreamReader,
+                                            AggregateReader aggregateReader,
+                                            long defaultLimit, long timeout, EventDecorator eventDecorator,
+                                            StreamObserver<QueryEventsResponse> responseObserver,
+                                            ParallelQueryExecutor parallelQueryExecutor) {
         this.eventWriteStorage = eventWriteStorage;
         this.eventStreamReader = eventStreamReader;
         this.aggregateReader = aggregateReader;
@@ -97,6 +115,7 @@ public class QueryEventsRequestStreamObserver implements StreamObserver<QueryEve
         this.timeout = timeout;
         this.eventDecorator = eventDecorator;
         this.responseObserver = responseObserver;
+        this.parallelQueryExecutor = parallelQueryExecutor;
     }
 
     @Override
@@ -125,6 +144,7 @@ public class QueryEventsRequestStreamObserver implements StreamObserver<QueryEve
                 Query query = new EventStoreQueryParser().parse(queryString);
                 query.addDefaultLimit(defaultLimit);
                 String aggregateIdentifier = null;
+                String payloadType = null;
                 for (int i = 0; i < query.size(); i++) {
                     if (query.get(i) instanceof FunctionExpr) {
                         FunctionExpr functionExpr = (FunctionExpr) query.get(i);
@@ -144,18 +164,47 @@ public class QueryEventsRequestStreamObserver implements StreamObserver<QueryEve
                                 "=".equals(functionExpr.operator())) {
                             aggregateIdentifier = functionExpr.getParameters().get(1).getLiteral();
                         }
+                        if ("payloadType".equals(functionExpr.getParameters().get(0).getLiteral()) &&
+                                "=".equals(functionExpr.operator()) &&
+                                functionExpr.getParameters().get(1) instanceof StringLiteral) {
+                            payloadType = functionExpr.getParameters().get(1).getLiteral();
+                        }
                     }
                 }
                 logger.info("Executing query: {}", query);
-                pipeLine = new QueryProcessor().buildPipeline(query, this::send);
+                QueryProcessor queryProcessor = new QueryProcessor();
+                List<PipeExpression> pipeExpressions = queryProcessor.resolvePipeExpressions(query);
+                pipeLine = queryProcessor.buildPipeline(pipeExpressions, this::send);
                 sendColumns(pipeLine, aggregateIdentifier != null);
                 if (queryEventsRequest.getLiveEvents() && maxToken > connectionToken) {
                     registration = eventWriteStorage.registerEventListener((token, events) -> pushEventFromStream(token,
                                                                                                                   events,
                                                                                                                   pipeLine));
                 }
-                if (aggregateIdentifier == null) {
-                    QueryOptions queryOptions = new QueryOptions(minConnectionToken, maxToken, query.getStartTime());
+                if (aggregateIdentifier == null && !queryEventsRequest.getLiveEvents()
+                        && parallelQueryExecutor != null
+                        && ParallelQueryExecutor.canExecuteInParallel(pipeExpressions)) {
+                    QueryOptions queryOptions = new QueryOptions(minConnectionToken,
+                                                                 maxToken,
+                                                                 query.getStartTime(),
+                                                                 payloadType);
+                    senderService.submit(() -> {
+                        try {
+                            parallelQueryExecutor.execute(pipeExpressions,
+                                                          queryPartitions(queryOptions),
+                                                          this::send,
+                                                          () -> pipeLine == null);
+                            Optional.ofNullable(senderRef.get())
+                                    .ifPresent(Sender::completed);
+                        } catch (RuntimeException re) {
+                            responseObserver.onError(re);
+                        }
+                    });
+                } else if (aggregateIdentifier == null) {
+                    QueryOptions queryOptions = new QueryOptions(minConnectionToken,
+                                                                 maxToken,
+                                                                 query.getStartTime(),
+                                                                 payloadType);
                     senderService.submit(() -> {
                         eventStreamReader.query(queryOptions,
                                                 event -> pushEvent(event, pipeLine));
@@ -188,6 +237,16 @@ public class QueryEventsRequestStreamObserver implements StreamObserver<QueryEve
         }
     }
 
+    private List<Consumer<Predicate<QueryResult>>> queryPartitions(QueryOptions queryOptions) {
+        List<Consumer<Predicate<QueryResult>>> partitions = new ArrayList<>();
+        eventStreamReader.queryPartitions(queryOptions)
+                         .forEach(partition -> partitions.add(
+                                 predicate -> partition.accept(
+                                         event -> predicate.test(new DefaultQueryResult(
+                                                 new EventExpressionResult(event, eventDecorator))))));
+        return partitions;
+    }
+
     private long getValueAsLong(long maxToken, QueryElement value) {
         if (value instanceof Numeric) {
             try {
@@ -255,13 +314,23 @@ public class QueryEventsRequestStreamObserver implements StreamObserver<QueryEve
     }
 
     private boolean pushEvent(EventWithToken event, Pipeline pipeLine) {
+        return pushEvent(new EventExpressionResult(eventDecorator.decorateEventWithToken(event)), pipeLine);
+    }
+
+    /**
+     * Pushes an event read from the event store. The event is only parsed and decorated if the pipeline needs more
+     * than its header fields.
+     */
+    private boolean pushEvent(SerializedEventWithToken event, Pipeline pipeLine) {
+        return pushEvent(new EventExpressionResult(event, eventDecorator), pipeLine);
+    }
+
+    private boolean pushEvent(EventExpressionResult event, Pipeline pipeLine) {
         if (pipeLine == null) {
             return false;
         }
         try {
-            return pipeLine.process(new DefaultQueryResult(new EventExpressionResult(eventDecorator
-                                                                                             .decorateEventWithToken(
-                                                                                                     event))));
+            return pipeLine.process(new DefaultQueryResult(event));
         } catch (RuntimeException re) {
             try {
                 cancelRegistration();
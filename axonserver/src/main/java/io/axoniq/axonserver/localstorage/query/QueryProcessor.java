@@ -26,16 +26,37 @@ public class QueryProcessor {
     private static ExpressionRegistry expressionRegistry = new ExpressionRegistry();
 
     public Pipeline buildPipeline(Query query, Function<QueryResult, Boolean> terminal) {
-        List<? extends QueryElement> queryElements = query == null ? Collections.emptyList() : query.getParameters();
-        if (queryElements.isEmpty()) {
-            return terminal::apply;
-        }
+        return buildPipeline(resolvePipeExpressions(query), terminal);
+    }
 
-        Queue<PipeExpression> pipeExpressions = new LinkedList<>();
+    /**
+     * Resolves the pipe expressions for the elements of a query.
+     *
+     * @param query the query
+     * @return the pipe expressions in the order of the query
+     */
+    public List<PipeExpression> resolvePipeExpressions(Query query) {
+        List<? extends QueryElement> queryElements = query == null ? Collections.emptyList() : query.getParameters();
+        List<PipeExpression> pipeExpressions = new LinkedList<>();
         for (QueryElement pipelineEntry : queryElements) {
             pipeExpressions.add(expressionRegistry.resolvePipeExpression(pipelineEntry));
         }
-        return new ChainedPipeExpression(pipeExpressions, terminal);
+        return pipeExpressions;
+    }
+
+    /**
+     * Builds a pipeline from resolved pipe expressions. Each pipeline gets its own expression contexts, so pipelines
+     * built from the same expressions do not share state.
+     *
+     * @param pipeExpressions the pipe expressions
+     * @param terminal        the function receiving the results of the pipeline
+     * @return the pipeline
+     */
+    public Pipeline buildPipeline(List<PipeExpression> pipeExpressions, Function<QueryResult, Boolean> terminal) {
+        if (pipeExpressions.isEmpty()) {
+            return terminal::apply;
+        }
+        return new ChainedPipeExpression(new LinkedList<>(pipeExpressions), terminal);
     }
 
 
@@ -52,4 +52,9 @@ public class OrExpression implements Expression, PipeExpression {
         }
         return true;
     }
+
+    @Override
+    public boolean isStateless() {
+        return true;
+    }
 }
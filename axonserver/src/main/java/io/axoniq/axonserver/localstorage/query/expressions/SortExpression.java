@@ -39,4 +39,9 @@ public class SortExpression implements PipeExpression {
         }
         return next.process(result.withSortValues(new ListExpressionResult(sortValues)));
     }
+
+    @Override
+    public boolean isStateless() {
+        return true;
+    }
 }
@@ -29,6 +29,10 @@ public class StringLiteral implements Expression {
         return new StringExpressionResult(literal);
     }
 
+    public String getLiteral() {
+        return literal;
+    }
+
     @Override
     public String alias() {
         return literal;
@@ -9,12 +9,13 @@
 
 package io.axoniq.axonserver.localstorage.query.expressions.functions;
 
-import io.axoniq.axonserver.localstorage.query.Expression;
 import io.axoniq.axonserver.localstorage.query.ExpressionContext;
 import io.axoniq.axonserver.localstorage.query.ExpressionResult;
-import io.axoniq.axonserver.localstorage.query.PipeExpression;
+import io.axoniq.axonserver.localstorage.query.MergeableExpression;
+import io.axoniq.axonserver.localstorage.query.MergeablePipeExpression;
 import io.axoniq.axonserver.localstorage.query.Pipeline;
 import io.axoniq.axonserver.localstorage.query.QueryResult;
+import io.axoniq.axonserver.localstorage.query.result.DefaultQueryResult;
 import io.axoniq.axonserver.localstorage.query.result.MapExpressionResult;
 import io.axoniq.axonserver.localstorage.query.result.StringExpressionResult;
 
@@ -23,7 +24,7 @@ import java.util.List;
 
 import static java.util.Collections.singletonMap;
 
-public abstract class AbstractAggregationFunction implements Expression, PipeExpression {
+public abstract class AbstractAggregationFunction implements MergeableExpression, MergeablePipeExpression {
     protected final String alias;
 
     public AbstractAggregationFunction(String alias) {
@@ -42,6 +43,16 @@ public abstract class AbstractAggregationFunction implements Expression, PipeExp
                                   .withId(new StringExpressionResult(alias())));
     }
 
+    @Override
+    public boolean flush(ExpressionContext context, Pipeline next) {
+        ExpressionResult value = current(context);
+        if (value == null) {
+            return true;
+        }
+        return next.process(new DefaultQueryResult(new MapExpressionResult(singletonMap(alias(), value)))
+                                    .withId(new StringExpressionResult(alias())));
+    }
+
     @Override
     public List<String> getColumnNames(List<String> inputColumns) {
         return Collections.singletonList(alias);
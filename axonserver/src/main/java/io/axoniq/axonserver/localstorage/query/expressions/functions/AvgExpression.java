@@ -44,6 +44,21 @@ public class AvgExpression extends AbstractAggregationFunction{
         return new NumericExpressionResult(newAvg.getAverage());
     }
 
+    @Override
+    public void merge(ExpressionContext target, ExpressionContext partial) {
+        AtomicReference<AvgValue> partialAvg = partial.scoped(this).get(alias);
+        if (partialAvg != null) {
+            target.scoped(this).computeIfAbsent(alias, () -> new AtomicReference<>(new AvgValue()))
+                  .accumulateAndGet(partialAvg.get(), AvgValue::add);
+        }
+    }
+
+    @Override
+    public ExpressionResult current(ExpressionContext context) {
+        AtomicReference<AvgValue> avg = context.scoped(this).get(alias);
+        return avg == null ? null : new NumericExpressionResult(avg.get().getAverage());
+    }
+
     private static class AvgValue {
 
         private final long count;
@@ -39,4 +39,18 @@ public class CountExpression extends AbstractAggregationFunction {
         return new NumericExpressionResult(counter.addAndGet(expressionResult.count()));
     }
 
+    @Override
+    public void merge(ExpressionContext target, ExpressionContext partial) {
+        AtomicLong partialCounter = partial.scoped(this).get(alias);
+        if (partialCounter != null) {
+            target.scoped(this).computeIfAbsent(alias, AtomicLong::new).addAndGet(partialCounter.get());
+        }
+    }
+
+    @Override
+    public ExpressionResult current(ExpressionContext context) {
+        AtomicLong counter = context.scoped(this).get(alias);
+        return counter == null ? null : new NumericExpressionResult(counter.get());
+    }
+
 }
@@ -77,5 +77,8 @@ public class FormatDateExpression implements Expression, PipeExpression {
         return Collections.singletonList(alias);
     }
 
-
+    @Override
+    public boolean isStateless() {
+        return true;
+    }
 }
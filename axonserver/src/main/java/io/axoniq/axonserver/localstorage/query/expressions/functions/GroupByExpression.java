@@ -11,15 +11,18 @@ package io.axoniq.axonserver.localstorage.query.expressions.functions;
 
 import io.axoniq.axonserver.localstorage.query.*;
 import io.axoniq.axonserver.localstorage.query.expressions.ListExpression;
+import io.axoniq.axonserver.localstorage.query.result.DefaultQueryResult;
 import io.axoniq.axonserver.localstorage.query.result.ListExpressionResult;
 import io.axoniq.axonserver.localstorage.query.result.MapExpressionResult;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Marc Gathier
  */
-public class GroupByExpression implements PipeExpression {
+public class GroupByExpression implements MergeablePipeExpression {
+    private static final String GROUPS = "groups";
     private final ListExpression grouper;
     private final Expression[] valueExpressions;
 
@@ -31,6 +34,7 @@ public class GroupByExpression implements PipeExpression {
     @Override
     public boolean process(ExpressionContext context, QueryResult result, Pipeline next) {
         ListExpressionResult groupKey = grouper.apply(context, result.getValue());
+        groups(context).add(groupKey);
         Map<String, ExpressionResult> values = new HashMap<>();
         for (int i = 0; i < grouper.items().size(); i++) {
             values.put(grouper.items().get(i).alias(), groupKey.getValue().get(i));
@@ -41,6 +45,50 @@ public class GroupByExpression implements PipeExpression {
         return next.process(result.withValue(new MapExpressionResult(values)).withId(groupKey));
     }
 
+    private Set<ListExpressionResult> groups(ExpressionContext context) {
+        return context.scoped(this).computeIfAbsent(GROUPS, ConcurrentHashMap::newKeySet);
+    }
+
+    @Override
+    public boolean isMergeable() {
+        for (Expression valueExpression : valueExpressions) {
+            if (!(valueExpression instanceof MergeableExpression)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void merge(ExpressionContext target, ExpressionContext partial) {
+        Set<ListExpressionResult> targetGroups = groups(target);
+        for (ListExpressionResult groupKey : groups(partial)) {
+            targetGroups.add(groupKey);
+            for (Expression valueExpression : valueExpressions) {
+                ((MergeableExpression) valueExpression).merge(target.scoped(groupKey.getValue()),
+                                                              partial.scoped(groupKey.getValue()));
+            }
+        }
+    }
+
+    @Override
+    public boolean flush(ExpressionContext context, Pipeline next) {
+        for (ListExpressionResult groupKey : groups(context)) {
+            Map<String, ExpressionResult> values = new HashMap<>();
+            for (int i = 0; i < grouper.items().size(); i++) {
+                values.put(grouper.items().get(i).alias(), groupKey.getValue().get(i));
+            }
+            for (Expression valueExpression : valueExpressions) {
+                values.put(valueExpression.alias(),
+                           ((MergeableExpression) valueExpression).current(context.scoped(groupKey.getValue())));
+            }
+            if (!next.process(new DefaultQueryResult(new MapExpressionResult(values)).withId(groupKey))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Override
     public List<String> getColumnNames(List<String> inputColumns) {
         List<String> names = new ArrayList<>();
@@ -13,6 +13,7 @@ import com.jayway.jsonpath.JsonPath;
 import io.axoniq.axonserver.localstorage.query.Expression;
 import io.axoniq.axonserver.localstorage.query.ExpressionContext;
 import io.axoniq.axonserver.localstorage.query.ExpressionResult;
+import io.axoniq.axonserver.localstorage.query.expressions.StringLiteral;
 import io.axoniq.axonserver.localstorage.query.result.*;
 import net.minidev.json.JSONArray;
 import net.minidev.json.JSONObject;
@@ -27,18 +28,19 @@ public class JsonPathExpression implements Expression {
     private final String alias;
     private final Expression document;
     private final Expression jsonPath;
+    private final JsonPath compiledPath;
 
     public JsonPathExpression(String alias, Expression[] expressions) {
         this.alias = alias;
         this.document = expressions[0];
         this.jsonPath = expressions[1];
+        this.compiledPath = jsonPath instanceof StringLiteral ? JsonPath.compile(((StringLiteral) jsonPath).getLiteral()) : null;
     }
 
     @Override
     public ExpressionResult apply(ExpressionContext expressionContext, ExpressionResult input) {
         ExpressionResult doc = document.apply(expressionContext, input);
-        String json = jsonPath.apply(expressionContext, input).getValue().toString();
-        Object result = JsonPath.compile(json).read(doc.asJson());
+        Object result = compiledPath(expressionContext, input).read(doc.asJson());
         List<ExpressionResult> values = new ArrayList<>();
         boolean isList = false;
         if( result instanceof JSONArray) {
@@ -55,6 +57,13 @@ public class JsonPathExpression implements Expression {
         return new ListExpressionResult(values);
     }
 
+    private JsonPath compiledPath(ExpressionContext expressionContext, ExpressionResult input) {
+        if (compiledPath != null) {
+            return compiledPath;
+        }
+        return JsonPath.compile(jsonPath.apply(expressionContext, input).getValue().toString());
+    }
+
     private ExpressionResult toExpressionResult(Object value) {
         if( value instanceof String) return new StringExpressionResult((String)value);
         if( value instanceof Number) return new NumericExpressionResult(((Number)value).doubleValue());
@@ -10,9 +10,11 @@
 package io.axoniq.axonserver.localstorage.query.expressions.functions;
 
 import io.axoniq.axonserver.localstorage.query.*;
+import io.axoniq.axonserver.localstorage.query.expressions.StringLiteral;
 import io.axoniq.axonserver.localstorage.query.result.BooleanExpressionResult;
 
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * @author Marc Gathier
@@ -23,11 +25,13 @@ public class MatchExpression implements Expression, PipeExpression {
     private final String alias;
     private final Expression valueExpression;
     private final Expression patternExpression;
+    private final Pattern pattern;
 
     public MatchExpression(String alias, Expression[] expressions) {
         this.alias = alias;
         this.valueExpression = expressions[0];
         this.patternExpression = expressions[1];
+        this.pattern = patternExpression instanceof StringLiteral ? Pattern.compile(((StringLiteral) patternExpression).getLiteral()) : null;
     }
 
     @Override
@@ -35,8 +39,11 @@ public class MatchExpression implements Expression, PipeExpression {
         ExpressionResult value = valueExpression.apply(context, input);
         if( value == null || ! value.isNonNull() ) return BooleanExpressionResult.forValue(false);
 
-        ExpressionResult pattern = patternExpression.apply(context, input);
-        return BooleanExpressionResult.forValue(value.toString().matches(pattern.toString()));
+        if (pattern != null) {
+            return BooleanExpressionResult.forValue(pattern.matcher(value.toString()).matches());
+        }
+        ExpressionResult dynamicPattern = patternExpression.apply(context, input);
+        return BooleanExpressionResult.forValue(value.toString().matches(dynamicPattern.toString()));
     }
 
     @Override
@@ -56,4 +63,9 @@ public class MatchExpression implements Expression, PipeExpression {
     public List<String> getColumnNames(List<String> inputColumns) {
         return inputColumns;
     }
+
+    @Override
+    public boolean isStateless() {
+        return true;
+    }
 }
@@ -35,4 +35,18 @@ public class MaxExpression extends AbstractAggregationFunction {
                             .accumulateAndGet(result, (l, r) -> l == null ? r : l.max(r));
     }
 
+    @Override
+    public void merge(ExpressionContext target, ExpressionContext partial) {
+        AtomicReference<ExpressionResult> partialValue = partial.scoped(this).get(alias);
+        if (partialValue != null && partialValue.get() != null) {
+            target.scoped(this).computeIfAbsent(alias, AtomicReference<ExpressionResult>::new)
+                  .accumulateAndGet(partialValue.get(), (l, r) -> l == null ? r : l.max(r));
+        }
+    }
+
+    @Override
+    public ExpressionResult current(ExpressionContext context) {
+        AtomicReference<ExpressionResult> value = context.scoped(this).get(alias);
+        return value == null ? null : value.get();
+    }
 }
@@ -34,4 +34,19 @@ public class MinExpression extends AbstractAggregationFunction {
         return scopedContext.computeIfAbsent(alias, AtomicReference<ExpressionResult>::new)
                 .accumulateAndGet(result, (l, r) -> l == null ? r : l.min(r));
     }
+
+    @Override
+    public void merge(ExpressionContext target, ExpressionContext partial) {
+        AtomicReference<ExpressionResult> partialValue = partial.scoped(this).get(alias);
+        if (partialValue != null && partialValue.get() != null) {
+            target.scoped(this).computeIfAbsent(alias, AtomicReference<ExpressionResult>::new)
+                  .accumulateAndGet(partialValue.get(), (l, r) -> l == null ? r : l.min(r));
+        }
+    }
+
+    @Override
+    public ExpressionResult current(ExpressionContext context) {
+        AtomicReference<ExpressionResult> value = context.scoped(this).get(alias);
+        return value == null ? null : value.get();
+    }
 }
@@ -45,4 +45,13 @@ public class SelectExpression implements PipeExpression {
         return names;
     }
 
+    @Override
+    public boolean isStateless() {
+        for (Expression expression : expressions) {
+            if (expression instanceof MergeableExpression) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
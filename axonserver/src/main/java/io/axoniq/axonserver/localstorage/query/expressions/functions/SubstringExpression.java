@@ -66,4 +66,9 @@ public class SubstringExpression implements Expression, PipeExpression {
     public List<String> getColumnNames(List<String> inputColumns) {
         return Collections.singletonList(alias);
     }
+
+    @Override
+    public boolean isStateless() {
+        return true;
+    }
 }
@@ -12,6 +12,7 @@ package io.axoniq.axonserver.localstorage.query.expressions.functions;
 import io.axoniq.axonserver.localstorage.query.Expression;
 import io.axoniq.axonserver.localstorage.query.ExpressionContext;
 import io.axoniq.axonserver.localstorage.query.ExpressionResult;
+import io.axoniq.axonserver.localstorage.query.expressions.StringLiteral;
 import io.axoniq.axonserver.localstorage.query.result.*;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
@@ -19,7 +20,6 @@ import org.w3c.dom.Text;
 import org.xml.sax.InputSource;
 
 import javax.xml.namespace.QName;
-import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
@@ -35,6 +35,7 @@ public class XPathExpression implements Expression {
     private final Expression document;
     private final Expression xpath;
     private static final XPathFactory xpathFactory = XPathFactory.newInstance();
+    private static final String COMPILED_XPATH = "compiledXPath";
     private final Expression outputType;
 
     public XPathExpression(String alias, Expression[] expressions) {
@@ -51,25 +52,22 @@ public class XPathExpression implements Expression {
     @Override
     public ExpressionResult apply(ExpressionContext expressionContext, ExpressionResult input) {
         Object doc = document.apply(expressionContext, input).asXml();
-        String xpathValue = xpath.apply(expressionContext, input).getValue().toString();
-        XPath xpathEvaluator = xpathFactory.newXPath();
         Object result = null;
         ExpressionResult outputTypeValue = null;
         try {
+            javax.xml.xpath.XPathExpression compiled = compiledXPath(expressionContext, input);
             if( outputType != null) {
                 outputTypeValue = outputType.apply(expressionContext, input);
                 if( doc instanceof InputSource) {
-                    result = xpathEvaluator.compile(xpathValue).evaluate(
-                            (InputSource)doc, outputType(outputTypeValue));
+                    result = compiled.evaluate((InputSource)doc, outputType(outputTypeValue));
                 } else {
-                    result = xpathEvaluator.compile(xpathValue).evaluate(
-                            doc, outputType(outputTypeValue));
+                    result = compiled.evaluate(doc, outputType(outputTypeValue));
                 }
             } else {
                 if( doc instanceof InputSource) {
-                    result = xpathEvaluator.compile(xpathValue).evaluate((InputSource) doc );
+                    result = compiled.evaluate((InputSource) doc );
                 } else {
-                    result = xpathEvaluator.compile(xpathValue).evaluate(doc);
+                    result = compiled.evaluate(doc);
                 }
             }
         } catch (XPathExpressionException e) {
@@ -91,6 +89,24 @@ public class XPathExpression implements Expression {
         return toExpressionResult(result, outputTypeValue);
     }
 
+    /**
+     * Compiled XPath expressions are not thread safe, so a constant XPath is compiled once per expression context
+     * instead of once per event.
+     */
+    private javax.xml.xpath.XPathExpression compiledXPath(ExpressionContext expressionContext, ExpressionResult input)
+            throws XPathExpressionException {
+        if (xpath instanceof StringLiteral) {
+            ExpressionContext scoped = expressionContext.scoped(this);
+            javax.xml.xpath.XPathExpression compiled = scoped.get(COMPILED_XPATH);
+            if (compiled == null) {
+                compiled = xpathFactory.newXPath().compile(((StringLiteral) xpath).getLiteral());
+                scoped.put(COMPILED_XPATH, compiled);
+            }
+            return compiled;
+        }
+        return xpathFactory.newXPath().compile(xpath.apply(expressionContext, input).getValue().toString());
+    }
+
     private QName outputType(ExpressionResult outputTypeValue) {
         if( outputTypeValue == null || ! outputTypeValue.isNonNull()) return XPathConstants.NODESET;
 
@@ -34,4 +34,8 @@ public class NoOpExpression implements PipeExpression {
         return next.process(result);
     }
 
+    @Override
+    public boolean isStateless() {
+        return true;
+    }
 }
@@ -11,6 +11,9 @@ package io.axoniq.axonserver.localstorage.query.result;
 
 import io.axoniq.axonserver.grpc.MetaDataValue;
 import io.axoniq.axonserver.grpc.event.EventWithToken;
+import io.axoniq.axonserver.localstorage.EventDecorator;
+import io.axoniq.axonserver.localstorage.EventHeader;
+import io.axoniq.axonserver.localstorage.SerializedEventWithToken;
 import io.axoniq.axonserver.localstorage.query.ExpressionResult;
 import org.jetbrains.annotations.NotNull;
 
@@ -24,15 +27,57 @@ import java.util.Map;
  * @author Marc Gathier
  */
 public class EventExpressionResult implements AbstractMapExpressionResult {
-    private final EventWithToken event;
+    private final SerializedEventWithToken serializedEvent;
+    private final EventDecorator eventDecorator;
+    private EventWithToken event;
+    private EventHeader header;
+    /**
+     * The payload data is parsed by JSON path and XPath expressions, keep it so that these expressions can share the
+     * parsed payload.
+     */
+    private ExpressionResult payloadData;
 
     public static final List<String> COLUMN_NAMES = Collections.unmodifiableList(Arrays.asList("token", "eventIdentifier","aggregateIdentifier", "aggregateSequenceNumber", "aggregateType", "payloadType"
                                                                    , "payloadRevision" , "payloadData" , "timestamp", "metaData"));
 
     public EventExpressionResult(EventWithToken event) {
+        this.serializedEvent = null;
+        this.eventDecorator = null;
         this.event = event;
     }
 
+    /**
+     * Creates a result for a serialized event. Header columns are read from the serialized event without parsing the
+     * payload data and meta data. The event is only parsed and decorated when the payload data, meta data or the
+     * complete event is requested.
+     *
+     * @param serializedEvent the serialized event with its token
+     * @param eventDecorator  decorator applied to the event when it is parsed
+     */
+    public EventExpressionResult(SerializedEventWithToken serializedEvent, EventDecorator eventDecorator) {
+        this.serializedEvent = serializedEvent;
+        this.eventDecorator = eventDecorator;
+    }
+
+    private EventWithToken event() {
+        if (event == null) {
+            event = eventDecorator.decorateEventWithToken(serializedEvent.asEventWithToken());
+        }
+        return event;
+    }
+
+    private EventHeader header() {
+        if (header == null) {
+            header = serializedEvent != null ? serializedEvent.getSerializedEvent().header() :
+                    EventHeader.from(event.getEvent());
+        }
+        return header;
+    }
+
+    private long token() {
+        return serializedEvent != null ? serializedEvent.getToken() : event.getToken();
+    }
+
     @Override
     public Iterable<String> getColumnNames() {
         return COLUMN_NAMES;
@@ -40,7 +85,7 @@ public class EventExpressionResult implements AbstractMapExpressionResult {
 
     @Override
     public Object getValue() {
-        return event;
+        return event();
     }
 
     @Override
@@ -52,28 +97,31 @@ public class EventExpressionResult implements AbstractMapExpressionResult {
     public ExpressionResult getByIdentifier(String identifier) {
         switch (identifier) {
             case "eventIdentifier":
-                return new StringExpressionResult(event.getEvent().getMessageIdentifier());
+                return new StringExpressionResult(header().getMessageIdentifier());
             case "aggregateIdentifier":
-                return new StringExpressionResult(event.getEvent().getAggregateIdentifier());
+                return new StringExpressionResult(header().getAggregateIdentifier());
             case "aggregateSequenceNumber":
-                return new NumericExpressionResult(event.getEvent().getAggregateSequenceNumber());
+                return new NumericExpressionResult(header().getAggregateSequenceNumber());
             case "aggregateType":
-                return new StringExpressionResult(event.getEvent().getAggregateType());
+                return new StringExpressionResult(header().getAggregateType());
             case "payloadType":
-                return new StringExpressionResult(event.getEvent().getPayload().getType());
+                return new StringExpressionResult(header().getPayloadType());
             case "payloadData":
-                return new StringExpressionResult(event.getEvent().getPayload().getData().toStringUtf8());
+                if (payloadData == null) {
+                    payloadData = new StringExpressionResult(event().getEvent().getPayload().getData().toStringUtf8());
+                }
+                return payloadData;
             case "payloadRevision":
-                return new StringExpressionResult(event.getEvent().getPayload().getRevision());
+                return new StringExpressionResult(header().getPayloadRevision());
             case "metaData":
-                Map<String, MetaDataValue> stringObjectMap = event.getEvent().getMetaDataMap();
+                Map<String, MetaDataValue> stringObjectMap = event().getEvent().getMetaDataMap();
                 Map<String, ExpressionResult> expressionMap = new HashMap<>();
                 stringObjectMap.forEach((k,v) -> expressionMap.put(k, toExpression(v)));
                 return new MapExpressionResult(expressionMap);
             case "timestamp":
-                return new TimestampExpressionResult(event.getEvent().getTimestamp());
+                return new TimestampExpressionResult(header().getTimestamp());
             case "token":
-                return new NumericExpressionResult(event.getToken());
+                return new NumericExpressionResult(token());
             default:
                 throw new RuntimeException("Invalid identifier: " + identifier);
         }
@@ -100,7 +148,7 @@ public class EventExpressionResult implements AbstractMapExpressionResult {
 
     @Override
     public boolean isNonNull() {
-        return event != null;
+        return event != null || serializedEvent != null;
     }
 
 }
@@ -14,14 +14,31 @@ import io.axoniq.axonserver.localstorage.query.ExpressionResult;
 import net.minidev.json.JSONObject;
 import net.minidev.json.parser.JSONParser;
 import net.minidev.json.parser.ParseException;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
 
+import java.io.StringReader;
 import java.util.Objects;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
 
 /**
  * @author Marc Gathier
  */
 public class StringExpressionResult implements ExpressionResult {
+
+    private static final ThreadLocal<DocumentBuilder> documentBuilder = ThreadLocal.withInitial(
+            StringExpressionResult::createDocumentBuilder);
+
     private final String value;
+    /**
+     * Parsed forms of the value, kept so that multiple JSON path or XPath expressions on the same value (for instance
+     * the payload of an event) only parse it once.
+     */
+    private JSONObject json;
+    private Document xml;
 
     public StringExpressionResult(String value) {
         this.value = value;
@@ -57,11 +74,39 @@ public class StringExpressionResult implements ExpressionResult {
 
     @Override
     public JSONObject asJson() {
+        if (json == null) {
+            try {
+                JSONParser p = new JSONParser(JSONParser.DEFAULT_PERMISSIVE_MODE);
+                json = (JSONObject) p.parse(value);
+            } catch (ParseException e) {
+                throw new IllegalArgumentException("Value is not valid JSON", e);
+            }
+        }
+        return json;
+    }
+
+    @Override
+    public Object asXml() {
+        if (xml == null) {
+            try {
+                xml = documentBuilder.get().parse(new InputSource(new StringReader(toString())));
+            } catch (Exception e) {
+                // let the caller report the invalid XML
+                return ExpressionResult.super.asXml();
+            }
+        }
+        return xml;
+    }
+
+    private static DocumentBuilder createDocumentBuilder() {
         try {
-            JSONParser p = new JSONParser(JSONParser.DEFAULT_PERMISSIVE_MODE);
-            return (JSONObject) p.parse(value);
-        } catch (ParseException e) {
-            throw new IllegalArgumentException("Value is not valid JSON", e);
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            return factory.newDocumentBuilder();
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException("Cannot create XML parser", e);
         }
     }
 
@@ -10,14 +10,28 @@
 package io.axoniq.axonserver.localstorage.transaction;
 
 import io.axoniq.axonserver.localstorage.EventStorageEngine;
+import io.axoniq.axonserver.metric.MeterFactory;
 
 /**
  * @author Marc Gathier
  */
 public class DefaultStorageTransactionManagerFactory implements StorageTransactionManagerFactory {
 
+    private final MeterFactory meterFactory;
+
+    public DefaultStorageTransactionManagerFactory() {
+        this(null);
+    }
+
+    /**
+     * @param meterFactory factory to register the sequence number cache metrics, null for no metrics
+     */
+    public DefaultStorageTransactionManagerFactory(MeterFactory meterFactory) {
+        this.meterFactory = meterFactory;
+    }
+
     @Override
     public StorageTransactionManager createTransactionManager(EventStorageEngine eventStore) {
-        return new SingleInstanceTransactionManager(eventStore);
+        return new SingleInstanceTransactionManager(eventStore, meterFactory);
     }
 }
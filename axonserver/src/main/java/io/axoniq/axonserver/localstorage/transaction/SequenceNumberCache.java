@@ -11,26 +11,39 @@ package io.axoniq.axonserver.localstorage.transaction;
 
 import io.axoniq.axonserver.exception.ErrorCode;
 import io.axoniq.axonserver.exception.MessagingPlatformException;
+import io.axoniq.axonserver.localstorage.EventHeader;
 import io.axoniq.axonserver.localstorage.EventStorageEngine;
 import io.axoniq.axonserver.localstorage.SerializedEvent;
+import io.axoniq.axonserver.metric.BaseMetricName;
+import io.axoniq.axonserver.metric.MeterFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Tags;
 import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.StringUtils;
 
 import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiFunction;
 
 /**
  * Maintains a cache of last sequence numbers per aggregate. Used to verify new events coming in, also considering
  * pending transactions.
- * Cache is limited in the number of entries, eviction policy is least recently used.
+ * <p>
+ * The cache is divided in stripes, each an open addressing hash table on the aggregate identifier with the sequence
+ * number and last used time kept in primitive arrays. The number of entries per stripe is limited, when a stripe is
+ * full an entry is evicted using the clock (second chance) algorithm. Entries that were updated recently are never
+ * evicted, as their transactions may not have been stored yet.
  *
  * @author Marc Gathier
  * @since 4.2
@@ -42,12 +55,22 @@ public class SequenceNumberCache {
                                                                                                                         "cache-cleanup"));
     private static final EventStorageEngine.SearchHint[] NO_HINTS = {};
     private static final EventStorageEngine.SearchHint[] SEARCH_RECENT = {EventStorageEngine.SearchHint.RECENT_ONLY};
+    private static final int STRIPES = 16;
+    private static final long MIN_EVICTION_AGE = TimeUnit.SECONDS.toMillis(10);
 
     private final int maxSize;
     private final BiFunction<String, EventStorageEngine.SearchHint[], Optional<Long>> aggregateSequenceNumberProvider;
     private final Clock clock;
-    private final Map<String, SequenceNumber> sequenceNumbersPerAggregate = new ConcurrentHashMap<>();
+    private final Stripe[] stripes = new Stripe[STRIPES];
     private final ScheduledFuture<?> cleanupTask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final MeterFactory meterFactory;
+    private final List<Meter> meters = new ArrayList<>();
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter evictionCounter;
 
     /**
      * Creates a sequence number cache with specified aggregateSequenceNumber provider and default clock and cache size.
@@ -69,9 +92,44 @@ public class SequenceNumberCache {
     public SequenceNumberCache(
             BiFunction<String, EventStorageEngine.SearchHint[], Optional<Long>> aggregateSequenceNumberProvider,
             Clock clock, int maxSize) {
+        this(aggregateSequenceNumberProvider, clock, maxSize, null, Tags.empty());
+    }
+
+    /**
+     * Creates a sequence number cache with specified aggregateSequenceNumber provider, clock and cache size, that
+     * publishes its hit, miss and eviction counts as metrics.
+     *
+     * @param aggregateSequenceNumberProvider function to retrieve the last sequence number for an aggregate
+     * @param clock                           clock to use to set last used time
+     * @param maxSize                         maximum number of entries for the cache
+     * @param meterFactory                    factory to create metrics meters, null for no metrics
+     * @param tags                            tags for the metrics
+     */
+    public SequenceNumberCache(
+            BiFunction<String, EventStorageEngine.SearchHint[], Optional<Long>> aggregateSequenceNumberProvider,
+            Clock clock, int maxSize, MeterFactory meterFactory, Tags tags) {
         this.aggregateSequenceNumberProvider = aggregateSequenceNumberProvider;
         this.clock = clock;
         this.maxSize = maxSize;
+        int maxEntriesPerStripe = Math.max(1, (maxSize + STRIPES - 1) / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(maxEntriesPerStripe);
+        }
+        this.meterFactory = meterFactory;
+        if (meterFactory != null) {
+            hitCounter = meterFactory.counter(BaseMetricName.AXON_SEQUENCE_NUMBER_CACHE_HIT, tags);
+            missCounter = meterFactory.counter(BaseMetricName.AXON_SEQUENCE_NUMBER_CACHE_MISS, tags);
+            evictionCounter = meterFactory.counter(BaseMetricName.AXON_SEQUENCE_NUMBER_CACHE_EVICTION, tags);
+            meters.add(hitCounter);
+            meters.add(missCounter);
+            meters.add(evictionCounter);
+            meters.add(meterFactory.gauge(BaseMetricName.AXON_SEQUENCE_NUMBER_CACHE_SIZE, tags, this,
+                                          SequenceNumberCache::size));
+        } else {
+            hitCounter = null;
+            missCounter = null;
+            evictionCounter = null;
+        }
         this.cleanupTask = SCHEDULED_EXECUTOR_SERVICE.scheduleAtFixedRate(() -> clearOld(TimeUnit.MINUTES.toMillis(30)),
                                                                           15,
                                                                           15,
@@ -98,67 +156,129 @@ public class SequenceNumberCache {
      * @param force  accept the sequence numbers from the events list as valid
      */
     public Runnable reserveSequenceNumbers(List<SerializedEvent> events, boolean force) {
-        Map<String, MinMaxPair> minMaxPerAggregate = new HashMap<>();
-        events.stream()
-              .filter(SerializedEvent::isDomainEvent)
-              .map(SerializedEvent::asEvent)
-              .forEach(e -> minMaxPerAggregate.computeIfAbsent(e.getAggregateIdentifier(),
-                                                               i -> new MinMaxPair(e.getAggregateIdentifier(),
-                                                                                   e.getAggregateSequenceNumber()))
-                                              .setMax(e.getAggregateSequenceNumber()));
-
-        Map<String, SequenceNumber> oldSequenceNumberPerAggregate = new HashMap<>();
-        Runnable unreserve = () -> oldSequenceNumberPerAggregate
-                .forEach(sequenceNumbersPerAggregate::put);
-            for (Map.Entry<String, MinMaxPair> entry : minMaxPerAggregate.entrySet()) {
-                if (force) {
-                    sequenceNumbersPerAggregate.put(entry.getKey(), new SequenceNumber(entry.getValue().getMax()));
-                } else {
-                    SequenceNumber updated = sequenceNumbersPerAggregate.compute(entry.getKey(),
-                                                                                 (aggId, old) -> checkAndUpdateSequenceNumber(
-                                                                                         aggId,
-                                                                                         old,
-                                                                                         entry.getValue()));
-                    if (!updated.isValid()) {
-                        unreserve.run();
-                        throw new MessagingPlatformException(ErrorCode.INVALID_SEQUENCE,
-                                                             String.format(
-                                                                     "Invalid sequence number %d for aggregate %s, expected %d",
-                                                                     entry.getValue().getMin(),
-                                                                     entry.getKey(),
-                                                                     updated.get() + 1));
-                    }
-                    oldSequenceNumberPerAggregate.putIfAbsent(entry.getKey(),
-                                                              new SequenceNumber(entry.getValue().getMin() - 1));
+        List<MinMaxPair> minMaxPerAggregate = minMaxPerAggregate(events);
+        List<MinMaxPair> reserved = new ArrayList<>(minMaxPerAggregate.size());
+        Runnable unreserve = () -> reserved.forEach(pair -> put(pair.key, pair.getMin() - 1));
+        for (MinMaxPair minMaxPair : minMaxPerAggregate) {
+            if (force) {
+                put(minMaxPair.key, minMaxPair.getMax());
+            } else {
+                long current = checkAndUpdateSequenceNumber(minMaxPair);
+                if (current != minMaxPair.getMax()) {
+                    unreserve.run();
+                    throw new MessagingPlatformException(ErrorCode.INVALID_SEQUENCE,
+                                                         String.format(
+                                                                 "Invalid sequence number %d for aggregate %s, expected %d",
+                                                                 minMaxPair.getMin(),
+                                                                 minMaxPair.key,
+                                                                 current + 1));
                 }
+                reserved.add(minMaxPair);
             }
+        }
         return unreserve;
     }
 
+    /**
+     * Groups the events per aggregate, reading only the header of the events. Most transactions contain events for a
+     * single aggregate, so the map of aggregates is only created when a second aggregate is found.
+     */
+    private List<MinMaxPair> minMaxPerAggregate(List<SerializedEvent> events) {
+        List<MinMaxPair> result = new ArrayList<>(1);
+        Map<String, MinMaxPair> perAggregate = null;
+        MinMaxPair last = null;
+        for (SerializedEvent event : events) {
+            EventHeader header = event.header();
+            if (StringUtils.isEmpty(header.getAggregateType())) {
+                continue;
+            }
+            String aggregateIdentifier = header.getAggregateIdentifier();
+            if (last == null || !last.key.equals(aggregateIdentifier)) {
+                if (perAggregate == null && !result.isEmpty()) {
+                    perAggregate = new HashMap<>();
+                    for (MinMaxPair pair : result) {
+                        perAggregate.put(pair.key, pair);
+                    }
+                }
+                last = perAggregate == null ? null : perAggregate.get(aggregateIdentifier);
+                if (last == null) {
+                    last = new MinMaxPair(aggregateIdentifier, header.getAggregateSequenceNumber());
+                    result.add(last);
+                    if (perAggregate != null) {
+                        perAggregate.put(aggregateIdentifier, last);
+                    }
+                }
+            }
+            last.setMax(header.getAggregateSequenceNumber());
+        }
+        return result;
+    }
+
     /**
      * Checks if the min sequence number for an aggregate has the correct value and updates the cache. If the min
-     * sequence number is valid
-     * it returns a new {@link SequenceNumber} object with max sequence number from minMaxPair.
-     * If the min sequence number supplied in the minMaxPair parameter is not valid, it returns the current sequence
-     * number, with a flag
-     * indicating that the last check was invalid.
+     * sequence number is valid the max sequence number from minMaxPair is stored in the cache.
+     * <p>
+     * The last sequence number is read from the event store outside the lock of the stripe, as this may be slow. If
+     * another transaction adds the aggregate to the cache in the meantime, the value from the cache is used.
      *
-     * @param aggregateIdentfier aggregate identifier to check
-     * @param current            currently cached SequenceNumber for this aggregate
-     * @param minMaxPair         min value to check and max value to set
-     * @return updated SequenceNumber containing the new sequence number or updated valid flag.
+     * @param minMaxPair min value to check and max value to set
+     * @return the max value from the minMaxPair if valid, otherwise the current sequence number for the aggregate
      */
-    private SequenceNumber checkAndUpdateSequenceNumber(String aggregateIdentfier, SequenceNumber current,
-                                                        MinMaxPair minMaxPair) {
-        if (current == null) {
-            current = new SequenceNumber(aggregateSequenceNumberProvider
-                                                 .apply(aggregateIdentfier, searchHints(minMaxPair.min)).orElse(-1L));
+    private long checkAndUpdateSequenceNumber(MinMaxPair minMaxPair) {
+        int hash = hash(minMaxPair.key);
+        Stripe stripe = stripes[hash & (STRIPES - 1)];
+        long fromStore = 0;
+        boolean readFromStore = false;
+        while (true) {
+            synchronized (stripe) {
+                int index = stripe.indexOf(minMaxPair.key, hash);
+                if (index < 0 && readFromStore) {
+                    index = stripe.insert(minMaxPair.key, hash, fromStore, clock.millis());
+                } else if (index >= 0 && !readFromStore) {
+                    increment(hits, hitCounter);
+                    stripe.referenced[index] = true;
+                }
+                if (index >= 0) {
+                    long current = stripe.sequences[index];
+                    if (minMaxPair.getMin() != current + 1) {
+                        return current;
+                    }
+                    stripe.sequences[index] = minMaxPair.getMax();
+                    stripe.timestamps[index] = clock.millis();
+                    return minMaxPair.getMax();
+                }
+            }
+            increment(misses, missCounter);
+            fromStore = aggregateSequenceNumberProvider.apply(minMaxPair.key, searchHints(minMaxPair.getMin()))
+                                                       .orElse(-1L);
+            readFromStore = true;
+        }
+    }
+
+    private void put(String aggregateIdentifier, long sequenceNumber) {
+        int hash = hash(aggregateIdentifier);
+        Stripe stripe = stripes[hash & (STRIPES - 1)];
+        synchronized (stripe) {
+            int index = stripe.indexOf(aggregateIdentifier, hash);
+            if (index < 0) {
+                stripe.insert(aggregateIdentifier, hash, sequenceNumber, clock.millis());
+            } else {
+                stripe.sequences[index] = sequenceNumber;
+                stripe.timestamps[index] = clock.millis();
+            }
         }
-        if (minMaxPair.getMin() == current.get() + 1) {
-            return new SequenceNumber(minMaxPair.max);
+    }
+
+    private static void increment(LongAdder adder, Counter counter) {
+        adder.increment();
+        if (counter != null) {
+            counter.increment();
         }
+    }
 
-        return current.invalid();
+    private static int hash(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
     }
 
     /**
@@ -178,7 +298,11 @@ public class SequenceNumberCache {
     }
 
     public void clear() {
-        sequenceNumbersPerAggregate.clear();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
     }
 
     /**
@@ -187,10 +311,39 @@ public class SequenceNumberCache {
      * @param timeout timeout value
      */
     public void clearOld(long timeout) {
-        if (sequenceNumbersPerAggregate.size() > maxSize) {
+        if (size() > maxSize) {
             long minTimestamp = clock.millis() - timeout;
-            sequenceNumbersPerAggregate.entrySet().removeIf(e -> e.getValue().timestamp() < minTimestamp);
+            for (Stripe stripe : stripes) {
+                synchronized (stripe) {
+                    stripe.removeOlderThan(minTimestamp);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of aggregates in the cache
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
         }
+        return size;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
     }
 
     /**
@@ -200,13 +353,17 @@ public class SequenceNumberCache {
         if (cleanupTask != null && !cleanupTask.isDone()) {
             cleanupTask.cancel(true);
         }
+        if (meterFactory != null) {
+            meters.forEach(meterFactory::remove);
+        }
+        meters.clear();
     }
 
     private class MinMaxPair {
 
         private final String key;
         private final long min;
-        private volatile long max;
+        private long max;
 
         MinMaxPair(String key, long min) {
             this.key = key;
@@ -235,43 +392,164 @@ public class SequenceNumberCache {
         }
     }
 
-    private class SequenceNumber {
+    /**
+     * Open addressing hash table with linear probing. All access must be synchronized on the stripe.
+     */
+    private class Stripe {
+
+        private final int maxEntries;
+        private String[] keys;
+        private int[] hashes;
+        private long[] sequences;
+        private long[] timestamps;
+        private boolean[] referenced;
+        private int size;
+        private int hand;
+
+        Stripe(int maxEntries) {
+            this.maxEntries = maxEntries;
+            allocate(tableSize(Math.min(maxEntries, 1024)));
+        }
+
+        private int tableSize(int entries) {
+            return Integer.highestOneBit(Math.max(2, entries) * 2 - 1) << 1;
+        }
+
+        private void allocate(int tableSize) {
+            keys = new String[tableSize];
+            hashes = new int[tableSize];
+            sequences = new long[tableSize];
+            timestamps = new long[tableSize];
+            referenced = new boolean[tableSize];
+        }
 
-        private final long sequence;
-        private final boolean valid;
-        private final long timestamp;
+        private int slot(int hash) {
+            return (hash >>> 4) & (keys.length - 1);
+        }
 
-        private SequenceNumber(long sequence) {
-            this(sequence, true);
+        int indexOf(String key, int hash) {
+            int mask = keys.length - 1;
+            for (int i = slot(hash); keys[i] != null; i = (i + 1) & mask) {
+                if (hashes[i] == hash && keys[i].equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
         }
 
-        private SequenceNumber(long sequence, boolean valid) {
-            this.sequence = sequence;
-            this.valid = valid;
-            this.timestamp = clock.millis();
+        int insert(String key, int hash, long sequence, long timestamp) {
+            if (size >= maxEntries) {
+                evict(timestamp);
+            }
+            if ((size + 1) * 2 > keys.length) {
+                resize();
+            }
+            int mask = keys.length - 1;
+            int i = slot(hash);
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            hashes[i] = hash;
+            sequences[i] = sequence;
+            timestamps[i] = timestamp;
+            referenced[i] = false;
+            size++;
+            return i;
         }
 
-        public boolean isValid() {
-            return valid;
+        /**
+         * Clock sweep: entries used since the last sweep get a second chance. Recently updated entries are skipped, if
+         * no entry can be evicted the stripe temporarily grows beyond its limit.
+         */
+        private void evict(long now) {
+            int length = keys.length;
+            for (int checked = 0; checked < 2 * length; checked++) {
+                int i = hand;
+                hand = (hand + 1) & (length - 1);
+                if (keys[i] == null) {
+                    continue;
+                }
+                if (referenced[i]) {
+                    referenced[i] = false;
+                } else if (now - timestamps[i] >= MIN_EVICTION_AGE) {
+                    remove(i);
+                    increment(evictions, evictionCounter);
+                    return;
+                }
+            }
         }
 
-        public long get() {
-            return sequence;
+        /**
+         * Removes the entry at the index and moves following entries in the same probe sequence back, so lookups do
+         * not need tombstones.
+         */
+        private void remove(int index) {
+            int mask = keys.length - 1;
+            int free = index;
+            int i = (index + 1) & mask;
+            while (keys[i] != null) {
+                int home = slot(hashes[i]);
+                if (((i - home) & mask) >= ((i - free) & mask)) {
+                    move(i, free);
+                    free = i;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[free] = null;
+            referenced[free] = false;
+            size--;
         }
 
-        public long timestamp() {
-            return timestamp;
+        private void move(int from, int to) {
+            keys[to] = keys[from];
+            hashes[to] = hashes[from];
+            sequences[to] = sequences[from];
+            timestamps[to] = timestamps[from];
+            referenced[to] = referenced[from];
         }
 
-        public SequenceNumber minus(int i) {
-            return new SequenceNumber(sequence - i);
+        private void resize() {
+            String[] oldKeys = keys;
+            int[] oldHashes = hashes;
+            long[] oldSequences = sequences;
+            long[] oldTimestamps = timestamps;
+            boolean[] oldReferenced = referenced;
+            allocate(oldKeys.length * 2);
+            int mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldKeys[j] != null) {
+                    int i = slot(oldHashes[j]);
+                    while (keys[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    keys[i] = oldKeys[j];
+                    hashes[i] = oldHashes[j];
+                    sequences[i] = oldSequences[j];
+                    timestamps[i] = oldTimestamps[j];
+                    referenced[i] = oldReferenced[j];
+                }
+            }
+            hand = 0;
         }
 
-        public SequenceNumber invalid() {
-            if (!valid) {
-                return this;
+        void removeOlderThan(long minTimestamp) {
+            int i = 0;
+            while (i < keys.length) {
+                if (keys[i] != null && timestamps[i] < minTimestamp) {
+                    // removing shifts a later entry into this slot, so check the slot again
+                    remove(i);
+                } else {
+                    i++;
+                }
             }
-            return new SequenceNumber(sequence, false);
+        }
+
+        void clear() {
+            Arrays.fill(keys, null);
+            Arrays.fill(referenced, false);
+            size = 0;
+            hand = 0;
         }
     }
 }
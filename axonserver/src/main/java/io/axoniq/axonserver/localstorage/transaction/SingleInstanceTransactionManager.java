@@ -11,7 +11,10 @@ package io.axoniq.axonserver.localstorage.transaction;
 
 import io.axoniq.axonserver.localstorage.EventStorageEngine;
 import io.axoniq.axonserver.localstorage.SerializedEvent;
+import io.axoniq.axonserver.metric.MeterFactory;
+import io.micrometer.core.instrument.Tags;
 
+import java.time.Clock;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
@@ -24,8 +27,21 @@ public class SingleInstanceTransactionManager implements StorageTransactionManag
 
     public SingleInstanceTransactionManager(
             EventStorageEngine eventStorageEngine) {
+        this(eventStorageEngine, null);
+    }
+
+    public SingleInstanceTransactionManager(
+            EventStorageEngine eventStorageEngine, MeterFactory meterFactory) {
         this.eventStorageEngine = eventStorageEngine;
-        this.sequenceNumberCache = new SequenceNumberCache(eventStorageEngine::getLastSequenceNumber);
+        this.sequenceNumberCache = new SequenceNumberCache(eventStorageEngine::getLastSequenceNumber,
+                                                           Clock.systemUTC(),
+                                                           100_000,
+                                                           meterFactory,
+                                                           Tags.of(MeterFactory.CONTEXT,
+                                                                   eventStorageEngine.getType().getContext(),
+                                                                   "type",
+                                                                   eventStorageEngine.getType().getEventType()
+                                                                                     .toString()));
         eventStorageEngine.registerCloseListener(sequenceNumberCache::close);
     }
 
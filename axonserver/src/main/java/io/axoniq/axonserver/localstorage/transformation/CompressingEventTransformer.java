@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+package io.axoniq.axonserver.localstorage.transformation;
+
+import io.axoniq.axonserver.exception.ErrorCode;
+import io.axoniq.axonserver.exception.MessagingPlatformException;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Event transformer that compresses events using deflate, optionally with a preset dictionary. A dictionary containing
+ * fragments that are common in the events (like payload types, field names and metadata keys) improves the
+ * compression of small events considerably.
+ * <p>
+ * Stored format: a marker byte, followed by the original event when the event is stored uncompressed, or the size of
+ * the original event (int) and the compressed bytes. Events that are small or do not compress well are stored
+ * uncompressed.
+ *
+ * @author Marc Gathier
+ * @since 4.5
+ */
+public class CompressingEventTransformer implements EventTransformer {
+
+    private static final byte UNCOMPRESSED = 0;
+    private static final byte COMPRESSED = 1;
+    private static final int MIN_COMPRESS_SIZE = 64;
+    private static final int HEADER_SIZE = 1 + Integer.BYTES;
+    private static final int MAX_CACHED_BUFFER_SIZE = 1024 * 1024;
+
+    private final int level;
+    private final byte[] dictionary;
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+    private final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[8192]);
+
+    /**
+     * @param level      the deflate compression level
+     * @param dictionary preset dictionary, null for no dictionary
+     */
+    public CompressingEventTransformer(int level, byte[] dictionary) {
+        this.level = level;
+        this.dictionary = dictionary;
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(this.level));
+    }
+
+    @Override
+    public byte[] toStorage(byte[] bytes) {
+        if (bytes.length < MIN_COMPRESS_SIZE) {
+            return uncompressed(bytes);
+        }
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(bytes);
+        deflater.finish();
+        byte[] buffer = buffer(bytes.length);
+        int compressedSize = deflater.deflate(buffer, 0, bytes.length);
+        if (!deflater.finished() || compressedSize + HEADER_SIZE >= bytes.length) {
+            return uncompressed(bytes);
+        }
+        ByteBuffer stored = ByteBuffer.allocate(HEADER_SIZE + compressedSize);
+        stored.put(COMPRESSED);
+        stored.putInt(bytes.length);
+        stored.put(buffer, 0, compressedSize);
+        return stored.array();
+    }
+
+    @Override
+    public byte[] fromStorage(byte[] eventBytes) {
+        if (eventBytes[0] == UNCOMPRESSED) {
+            return Arrays.copyOfRange(eventBytes, 1, eventBytes.length);
+        }
+        int size = ByteBuffer.wrap(eventBytes, 1, Integer.BYTES).getInt();
+        byte[] event = new byte[size];
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(eventBytes, HEADER_SIZE, eventBytes.length - HEADER_SIZE);
+        try {
+            int inflated = inflater.inflate(event);
+            if (inflater.needsDictionary()) {
+                if (dictionary == null) {
+                    throw new MessagingPlatformException(ErrorCode.DATAFILE_READ_ERROR,
+                                                         "Event compressed with a dictionary, no dictionary configured");
+                }
+                inflater.setDictionary(dictionary);
+                inflated += inflater.inflate(event, inflated, size - inflated);
+            }
+            if (inflated != size) {
+                throw new MessagingPlatformException(ErrorCode.DATAFILE_READ_ERROR,
+                                                     "Invalid compressed event, expected " + size + " bytes, got "
+                                                             + inflated);
+            }
+            return event;
+        } catch (DataFormatException | IllegalArgumentException ex) {
+            throw new MessagingPlatformException(ErrorCode.DATAFILE_READ_ERROR,
+                                                 "Failed to decompress event: " + ex.getMessage(),
+                                                 ex);
+        }
+    }
+
+    private static byte[] uncompressed(byte[] bytes) {
+        byte[] stored = new byte[bytes.length + 1];
+        stored[0] = UNCOMPRESSED;
+        System.arraycopy(bytes, 0, stored, 1, bytes.length);
+        return stored;
+    }
+
+    private byte[] buffer(int size) {
+        if (size > MAX_CACHED_BUFFER_SIZE) {
+            return new byte[size];
+        }
+        byte[] buffer = buffers.get();
+        if (buffer.length < size) {
+            buffer = new byte[size];
+            buffers.set(buffer);
+        }
+        return buffer;
+    }
+}
@@ -9,13 +9,114 @@
 
 package io.axoniq.axonserver.localstorage.transformation;
 
+import io.axoniq.axonserver.exception.ErrorCode;
+import io.axoniq.axonserver.exception.MessagingPlatformException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+
 /**
+ * Creates event transformers based on the flags in the segment header. The lowest 4 bits of the flags define the
+ * compression, bit {@link #PRESET_DICTIONARY} indicates that the compression uses the configured dictionary. With bit
+ * {@link #TRANSACTION_COMPRESSION} the compression is applied to complete transactions instead of individual events.
+ *
  * @author Marc Gathier
  */
 public class DefaultEventTransformerFactory implements EventTransformerFactory {
+
+    /**
+     * Flag value for events compressed with deflate, optimized for speed.
+     */
+    public static final int COMPRESSION_DEFLATE_FAST = 0x01;
+    /**
+     * Flag value for events compressed with deflate, using the default compression level.
+     */
+    public static final int COMPRESSION_DEFLATE = 0x02;
+    /**
+     * Flag to use the configured dictionary for compression.
+     */
+    public static final int PRESET_DICTIONARY = 0x10;
+    /**
+     * Flag to compress complete transactions instead of individual events. Uses deflate optimized for speed when no
+     * compression is specified.
+     */
+    public static final int TRANSACTION_COMPRESSION = 0x20;
+    private static final int COMPRESSION_MASK = 0x0F;
+    /**
+     * First segment version that defines the flags. Older segments may contain any value in the flags.
+     */
+    private static final byte FLAGS_VERSION = 2;
+
+    private final File dictionaryFile;
+    private final Map<Integer, EventTransformer> transformers = new ConcurrentHashMap<>();
+    private volatile byte[] dictionary;
+
+    public DefaultEventTransformerFactory() {
+        this(null);
+    }
+
+    /**
+     * @param dictionaryFile file containing the dictionary for compression, may be null
+     */
+    public DefaultEventTransformerFactory(File dictionaryFile) {
+        this.dictionaryFile = dictionaryFile;
+    }
+
     @Override
     public EventTransformer get(byte version, int flags) {
-        return NoOpEventTransformer.INSTANCE;
+        if (version < FLAGS_VERSION) {
+            return NoOpEventTransformer.INSTANCE;
+        }
+        int compression = flags & COMPRESSION_MASK;
+        if (compression == 0 || (flags & TRANSACTION_COMPRESSION) != 0) {
+            return NoOpEventTransformer.INSTANCE;
+        }
+        return transformers.computeIfAbsent(flags & (COMPRESSION_MASK | PRESET_DICTIONARY), this::create);
+    }
+
+    @Override
+    public EventTransformer getTransactionTransformer(byte version, int flags) {
+        if (version < FLAGS_VERSION || (flags & TRANSACTION_COMPRESSION) == 0) {
+            return null;
+        }
+        int compression = flags & COMPRESSION_MASK;
+        if (compression == 0) {
+            compression = COMPRESSION_DEFLATE_FAST;
+        }
+        return transformers.computeIfAbsent(compression | (flags & PRESET_DICTIONARY), this::create);
+    }
+
+    private EventTransformer create(int flags) {
+        byte[] presetDictionary = (flags & PRESET_DICTIONARY) != 0 ? dictionary() : null;
+        switch (flags & COMPRESSION_MASK) {
+            case COMPRESSION_DEFLATE_FAST:
+                return new CompressingEventTransformer(Deflater.BEST_SPEED, presetDictionary);
+            case COMPRESSION_DEFLATE:
+                return new CompressingEventTransformer(Deflater.DEFAULT_COMPRESSION, presetDictionary);
+            default:
+                throw new MessagingPlatformException(ErrorCode.DATAFILE_READ_ERROR,
+                                                     "Unsupported compression in flags: " + flags);
+        }
     }
 
+    private byte[] dictionary() {
+        if (dictionary == null) {
+            if (dictionaryFile == null) {
+                throw new MessagingPlatformException(ErrorCode.DATAFILE_READ_ERROR,
+                                                     "Compression dictionary required, but not configured");
+            }
+            try {
+                dictionary = Files.readAllBytes(dictionaryFile.toPath());
+            } catch (IOException ioException) {
+                throw new MessagingPlatformException(ErrorCode.DATAFILE_READ_ERROR,
+                                                     "Failed to read compression dictionary " + dictionaryFile,
+                                                     ioException);
+            }
+        }
+        return dictionary;
+    }
 }
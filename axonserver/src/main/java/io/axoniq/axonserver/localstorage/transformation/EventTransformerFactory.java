@@ -22,4 +22,15 @@ public interface EventTransformerFactory {
      * @return the transformer
      */
     EventTransformer get(byte version, int flags);
+
+    /**
+     * Get the transformer for complete transactions. When the segment stores transactions as a single transformed
+     * frame, the events in the transaction are not transformed individually.
+     * @param version the version for existing data
+     * @param flags the flags for existing data
+     * @return the transformer, or null when transactions are not transformed
+     */
+    default EventTransformer getTransactionTransformer(byte version, int flags) {
+        return null;
+    }
 }
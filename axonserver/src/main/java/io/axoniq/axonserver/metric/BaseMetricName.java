@@ -81,9 +81,28 @@ public enum BaseMetricName implements MetricName {
                                       "The size of queue holding queries waiting for permits from client"),
     AXON_INDEX_OPEN("file.index.open", "Rate of index files opened"),
     AXON_INDEX_CLOSE("file.index.close", "Rate of index files closed"),
+    AXON_SEGMENT_CHANNEL_OPEN("file.segment.channel.open", "Rate of segment files opened for positional reads"),
+    AXON_SEGMENT_CHANNEL_HIT("file.segment.channel.hit",
+                             "Rate of positional reads on an already opened segment file"),
     AXON_AGGREGATE_READTIME("local.aggregate.readtime", "Elapsed time for reading events from the event store"),
     AXON_LAST_SEQUENCE_READTIME("local.lastsequence.readtime",
-                                "Elapsed time for retrieving the last sequence number for an aggregate");
+                                "Elapsed time for retrieving the last sequence number for an aggregate"),
+    AXON_SEQUENCE_NUMBER_CACHE_HIT("local.sequencenumber.cache.hit",
+                                   "Number of sequence number checks served from the sequence number cache"),
+    AXON_SEQUENCE_NUMBER_CACHE_MISS("local.sequencenumber.cache.miss",
+                                    "Number of sequence number checks that read the last sequence number from the event store"),
+    AXON_SEQUENCE_NUMBER_CACHE_EVICTION("local.sequencenumber.cache.eviction",
+                                        "Number of aggregates evicted from the sequence number cache"),
+    AXON_SEQUENCE_NUMBER_CACHE_SIZE("local.sequencenumber.cache.size",
+                                    "Number of aggregates in the sequence number cache"),
+    AXON_AGGREGATE_CACHE_HIT("local.aggregate.cache.hit",
+                             "Number of aggregate reads served from the aggregate event cache"),
+    AXON_AGGREGATE_CACHE_MISS("local.aggregate.cache.miss",
+                              "Number of aggregate reads that read the events from the event store"),
+    AXON_AGGREGATE_CACHE_EVICTION("local.aggregate.cache.eviction",
+                                  "Number of aggregates evicted from the aggregate event cache"),
+    AXON_AGGREGATE_CACHE_SIZE("local.aggregate.cache.size",
+                              "Size in bytes of the events in the aggregate event cache");
 
 
     private final String name;
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+package io.axoniq.axonserver.localstorage;
+
+import com.google.protobuf.ByteString;
+import io.axoniq.axonserver.grpc.SerializedObject;
+import io.axoniq.axonserver.grpc.event.Event;
+import org.junit.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Marc Gathier
+ */
+public class AggregateEventCacheTest {
+
+    private AggregateEventCache testSubject;
+
+    @Before
+    public void setUp() {
+        testSubject = new AggregateEventCache(10_000);
+    }
+
+    @Test
+    public void storedEventsServedFromCache() {
+        testSubject.eventsStored(0, events("a", 0, 5));
+
+        assertEquals(asList(0, 1, 2, 3, 4), read("a", 0, Long.MAX_VALUE));
+        assertEquals(asList(2, 3), read("a", 2, 4));
+        assertEquals(Collections.emptyList(), read("a", 5, Long.MAX_VALUE));
+        assertEquals(3, testSubject.hits());
+        assertNull(read("b", 0, Long.MAX_VALUE));
+        assertEquals(1, testSubject.misses());
+    }
+
+    @Test
+    public void storedEventsDoNotCreateEntryInTheMiddle() {
+        testSubject.eventsStored(0, events("a", 5, 2));
+
+        assertNull(read("a", 5, Long.MAX_VALUE));
+        assertEquals(0, testSubject.size());
+    }
+
+    @Test
+    public void readEventsMergedWithCachedEvents() {
+        testSubject.add("a", testSubject.stamp("a"), events("a", 3, 3));
+        testSubject.eventsStored(10, events("a", 6, 1));
+        assertEquals(asList(3, 4, 5, 6), read("a", 3, Long.MAX_VALUE));
+
+        testSubject.add("a", testSubject.stamp("a"), events("a", 0, 8));
+        assertEquals(asList(0, 1, 2, 3, 4, 5, 6, 7), read("a", 0, Long.MAX_VALUE));
+
+        testSubject.eventsStored(11, events("a", 8, 1));
+        assertEquals(asList(7, 8), read("a", 7, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void storedEventsOutOfOrder() {
+        testSubject.eventsStored(0, events("a", 0, 5));
+
+        testSubject.eventsStored(6, events("a", 6, 1));
+        testSubject.eventsStored(5, events("a", 5, 1));
+        assertNull(read("a", 0, Long.MAX_VALUE));
+
+        testSubject.add("a", testSubject.stamp("a"), events("a", 0, 7));
+        assertEquals(asList(0, 1, 2, 3, 4, 5, 6), read("a", 0, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void newAggregateStoredOutOfOrder() {
+        testSubject.eventsStored(1, events("a", 1, 1));
+        testSubject.eventsStored(0, events("a", 0, 1));
+
+        assertNull(read("a", 0, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void gapRemovesAggregate() {
+        testSubject.eventsStored(0, events("a", 0, 2));
+        testSubject.eventsStored(2, events("a", 3, 1));
+
+        assertNull(read("a", 0, Long.MAX_VALUE));
+        assertEquals(0, testSubject.size());
+    }
+
+    @Test
+    public void readEventsNotAddedAfterConcurrentStore() {
+        long stamp = testSubject.stamp("a");
+        testSubject.eventsStored(3, events("a", 3, 1));
+
+        testSubject.add("a", stamp, events("a", 0, 3));
+        assertNull(read("a", 0, Long.MAX_VALUE));
+
+        testSubject.add("a", testSubject.stamp("a"), events("a", 0, 4));
+        assertEquals(asList(0, 1, 2, 3), read("a", 0, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void readEventsNotAddedAfterRemoval() {
+        testSubject.eventsStored(0, events("a", 0, 1));
+        long stamp = testSubject.stamp("a");
+        testSubject.invalidate("a");
+
+        testSubject.add("a", stamp, events("a", 0, 1));
+        assertNull(read("a", 0, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        for (int i = 0; i < 100; i++) {
+            testSubject.eventsStored(i, events("aggregate-" + i, 0, 1));
+            read("aggregate-0", 0, Long.MAX_VALUE);
+        }
+
+        assertTrue(testSubject.evictions() > 0);
+        assertTrue(testSubject.bytes() <= 10_000);
+        assertNotNull(read("aggregate-0", 0, Long.MAX_VALUE));
+        assertNull(read("aggregate-1", 0, Long.MAX_VALUE));
+        assertNotNull(read("aggregate-99", 0, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void clear() {
+        testSubject.eventsStored(0, events("a", 0, 3));
+        testSubject.clear();
+
+        assertNull(read("a", 0, Long.MAX_VALUE));
+        assertEquals(0, testSubject.bytes());
+    }
+
+    private List<Long> read(String aggregateId, long minSequenceNumber, long maxSequenceNumber) {
+        List<Long> sequenceNumbers = new ArrayList<>();
+        if (!testSubject.readEvents(aggregateId,
+                                    minSequenceNumber,
+                                    maxSequenceNumber,
+                                    event -> sequenceNumbers.add(event.getAggregateSequenceNumber()))) {
+            return null;
+        }
+        return sequenceNumbers;
+    }
+
+    private static List<Long> asList(long... sequenceNumbers) {
+        return LongStream.of(sequenceNumbers).boxed().collect(Collectors.toList());
+    }
+
+    private static List<SerializedEvent> events(String aggregateId, long first, int count) {
+        List<SerializedEvent> events = new ArrayList<>();
+        for (long i = first; i < first + count; i++) {
+            events.add(new SerializedEvent(Event.newBuilder()
+                                                .setAggregateIdentifier(aggregateId)
+                                                .setAggregateSequenceNumber(i)
+                                                .setAggregateType("Demo")
+                                                .setPayload(SerializedObject.newBuilder()
+                                                                            .setType("DemoEvent")
+                                                                            .setData(ByteString.copyFromUtf8(
+                                                                                    "payload-" + i)))
+                                                .build()));
+        }
+        return events;
+    }
+}
@@ -131,6 +131,30 @@ public class AggregateReaderTest {
         Assert.assertEquals("Demo", events.get(0).getAggregateType());
     }
 
+    @Test
+    public void readEventsWithCache() {
+        AggregateEventCache cache = new AggregateEventCache(1024 * 1024);
+        AggregateReader cachingReader = new AggregateReader(testStorageContainer.getDatafileManagerChain(),
+                                                            new SnapshotReader(testStorageContainer
+                                                                                       .getSnapshotManagerChain()),
+                                                            cache);
+        List<Long> fromStore = new ArrayList<>();
+        cachingReader.readEvents("1", false, 0, event -> fromStore.add(event.getAggregateSequenceNumber()));
+        assertEquals(1, cache.misses());
+
+        List<Long> fromCache = new ArrayList<>();
+        cachingReader.readEvents("1", false, 0, event -> fromCache.add(event.getAggregateSequenceNumber()));
+        assertEquals(1, cache.hits());
+        assertEquals(100, fromCache.size());
+        assertEquals(fromStore, fromCache);
+
+        List<Long> withSnapshot = new ArrayList<>();
+        cachingReader.readEvents("55", true, 0, event -> withSnapshot.add(event.getAggregateSequenceNumber()));
+        cachingReader.readEvents("55", true, 0, event -> withSnapshot.add(event.getAggregateSequenceNumber()));
+        assertEquals(2, cache.hits());
+        assertEquals(50, withSnapshot.size());
+    }
+
     @Test
     public void readHighestSequenceNr() {
         Assert.assertEquals(99, testSubject.readHighestSequenceNr("55"));
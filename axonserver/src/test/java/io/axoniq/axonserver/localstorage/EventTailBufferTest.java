@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+package io.axoniq.axonserver.localstorage;
+
+import io.axoniq.axonserver.grpc.event.Event;
+import org.junit.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Marc Gathier
+ */
+public class EventTailBufferTest {
+
+    private EventTailBuffer testSubject = new EventTailBuffer(10);
+
+    @Test
+    public void getFromEmptyBuffer() {
+        assertNull(testSubject.get(0));
+        assertFalse(testSubject.caughtUp(0));
+    }
+
+    @Test
+    public void append() {
+        testSubject.append(10, events(5));
+        assertNull(testSubject.get(9));
+        assertEquals(10, testSubject.get(10).getToken());
+        assertEquals(14, testSubject.get(14).getToken());
+        assertNull(testSubject.get(15));
+        assertTrue(testSubject.caughtUp(15));
+        assertFalse(testSubject.caughtUp(14));
+    }
+
+    @Test
+    public void appendOverlapping() {
+        testSubject.append(10, events(5));
+        testSubject.append(12, events(5));
+        assertEquals(16, testSubject.get(16).getToken());
+        assertTrue(testSubject.caughtUp(17));
+    }
+
+    @Test
+    public void appendWithGap() {
+        testSubject.append(10, events(5));
+        testSubject.append(20, events(5));
+        assertNull(testSubject.get(15));
+        assertEquals(14, testSubject.get(14).getToken());
+        assertEquals(20, testSubject.get(20).getToken());
+    }
+
+    @Test
+    public void oldEventsOverwritten() {
+        testSubject.append(0, events(40));
+        assertNull(testSubject.get(0));
+        assertEquals(39, testSubject.get(39).getToken());
+    }
+
+    @Test
+    public void clear() {
+        testSubject.append(10, events(5));
+        testSubject.clear();
+        assertNull(testSubject.get(10));
+        assertFalse(testSubject.caughtUp(15));
+    }
+
+    private List<SerializedEvent> events(int count) {
+        List<SerializedEvent> events = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            events.add(new SerializedEvent(Event.newBuilder().setAggregateSequenceNumber(i).build()));
+        }
+        return events;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+package io.axoniq.axonserver.localstorage;
+
+import io.axoniq.axonserver.grpc.event.Event;
+import io.axoniq.axonserver.localstorage.transaction.StorageTransactionManager;
+import org.junit.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Marc Gathier
+ */
+public class EventWriteStorageTest {
+
+    private final CompletableFuture<Long> pendingTransaction = new CompletableFuture<>();
+    private EventWriteStorage testSubject;
+
+    @Before
+    public void setUp() {
+        testSubject = new EventWriteStorage(new StorageTransactionManager() {
+            @Override
+            public CompletableFuture<Long> store(List<SerializedEvent> eventList) {
+                return pendingTransaction;
+            }
+
+            @Override
+            public Runnable reserveSequenceNumbers(List<SerializedEvent> eventList) {
+                return () -> {
+                };
+            }
+
+            @Override
+            public void deleteAllEventData() {
+            }
+        });
+    }
+
+    @Test
+    public void preCompletionListenerRunsBeforeAppendCompletes() {
+        AtomicBoolean completedBeforeListener = new AtomicBoolean(true);
+        CompletableFuture<Void> result = testSubject.store(Collections.singletonList(event()));
+        testSubject.registerPreCompletionListener((token, events) -> completedBeforeListener.set(result.isDone()));
+
+        pendingTransaction.complete(100L);
+
+        assertTrue(result.isDone());
+        assertFalse(completedBeforeListener.get());
+    }
+
+    @Test
+    public void preCompletionListenerNotCalledOnFailure() {
+        AtomicBoolean called = new AtomicBoolean();
+        testSubject.registerPreCompletionListener((token, events) -> called.set(true));
+        CompletableFuture<Void> result = testSubject.store(Collections.singletonList(event()));
+
+        pendingTransaction.completeExceptionally(new RuntimeException("Failed"));
+
+        assertTrue(result.isCompletedExceptionally());
+        assertFalse(called.get());
+    }
+
+    private SerializedEvent event() {
+        return new SerializedEvent(Event.newBuilder()
+                                        .setAggregateIdentifier("aggregate")
+                                        .setAggregateSequenceNumber(0)
+                                        .build());
+    }
+}
@@ -10,7 +10,6 @@
 package io.axoniq.axonserver.localstorage;
 
 import io.axoniq.axonserver.grpc.event.Event;
-import io.axoniq.axonserver.grpc.event.EventWithToken;
 import org.springframework.data.util.CloseableIterator;
 
 import java.util.Optional;
@@ -76,7 +75,7 @@ public class FakeEventStore implements EventStorageEngine {
     }
 
     @Override
-    public void query(QueryOptions queryOptions, Predicate<EventWithToken> consumer) {
+    public void query(QueryOptions queryOptions, Predicate<SerializedEventWithToken> consumer) {
 
     }
 
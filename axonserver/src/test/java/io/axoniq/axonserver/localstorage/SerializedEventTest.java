@@ -9,8 +9,11 @@
 
 package io.axoniq.axonserver.localstorage;
 
+import com.google.protobuf.ByteString;
 import io.axoniq.axonserver.grpc.MetaDataValue;
+import io.axoniq.axonserver.grpc.SerializedObject;
 import io.axoniq.axonserver.grpc.event.Event;
+import io.axoniq.axonserver.grpc.event.PayloadDescription;
 import org.junit.*;
 
 import java.io.IOException;
@@ -69,6 +72,48 @@ public class SerializedEventTest {
         assertEquals(10, testSubject.getAggregateSequenceNumber());
     }
 
+    @Test
+    public void payloadDescription() {
+        Event event = Event.newBuilder(wrapped)
+                           .setPayload(SerializedObject.newBuilder()
+                                                       .setType("DemoType")
+                                                       .setRevision("1.0")
+                                                       .setData(ByteString.copyFromUtf8("payload")))
+                           .build();
+        PayloadDescription payloadDescription = new SerializedEvent(event.toByteArray()).payloadDescription();
+        assertEquals("DemoType", payloadDescription.getType());
+        assertEquals("1.0", payloadDescription.getRevision());
+        assertEquals(payloadDescription, new SerializedEvent(event).payloadDescription());
+    }
+
+    @Test
+    public void payloadDescriptionWithoutPayload() {
+        PayloadDescription payloadDescription = testSubject.payloadDescription();
+        assertEquals("", payloadDescription.getType());
+        assertEquals("", payloadDescription.getRevision());
+    }
+
+    @Test
+    public void header() {
+        Event event = Event.newBuilder(wrapped)
+                           .setMessageIdentifier("messageId")
+                           .setAggregateType("Demo")
+                           .setTimestamp(1234L)
+                           .setPayload(SerializedObject.newBuilder()
+                                                       .setType("DemoType")
+                                                       .setRevision("1.0")
+                                                       .setData(ByteString.copyFromUtf8("payload")))
+                           .build();
+        EventHeader header = new SerializedEvent(event.toByteArray()).header();
+        assertEquals("messageId", header.getMessageIdentifier());
+        assertEquals("aggId", header.getAggregateIdentifier());
+        assertEquals(10, header.getAggregateSequenceNumber());
+        assertEquals("Demo", header.getAggregateType());
+        assertEquals(1234L, header.getTimestamp());
+        assertEquals("DemoType", header.getPayloadType());
+        assertEquals("1.0", header.getPayloadRevision());
+    }
+
     @Test
     public void getMetaData() {
         assertEquals(10L, testSubject.getMetaData().get("sampleInt"));
@@ -13,11 +13,13 @@ import com.google.protobuf.ByteString;
 import io.axoniq.axonserver.grpc.SerializedObject;
 import io.axoniq.axonserver.grpc.event.Event;
 import io.axoniq.axonserver.grpc.event.EventWithToken;
+import io.grpc.Drainable;
 import org.junit.*;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.UUID;
 
 import static org.junit.Assert.*;
@@ -49,6 +51,38 @@ public class SerializedEventWithTokenTest {
         assertArrayEquals(eventWithToken.toByteArray(), actual);
     }
 
+    @Test
+    public void testDrainEventFromDirectBuffer() throws IOException {
+        Event event = Event.newBuilder()
+                           .setPayload(SerializedObject.newBuilder()
+                                                       .setType("test2")
+                                                       .setData(ByteString.copyFromUtf8("Mock"))
+                                                       .build())
+                           .setMessageIdentifier(UUID.randomUUID().toString())
+                           .build();
+        EventWithToken eventWithToken = EventWithToken.newBuilder()
+                                                      .setToken(100)
+                                                      .setEvent(event).build();
+        byte[] eventBytes = event.toByteArray();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(eventBytes.length);
+        buffer.put(eventBytes);
+        buffer.flip();
+
+        SerializedEventWithToken testSubject = new SerializedEventWithToken(100, new SerializedEvent(buffer));
+
+        InputStream inputStream = testSubject.asInputStream();
+        assertTrue(inputStream instanceof Drainable);
+        assertEquals(eventWithToken.getSerializedSize(), inputStream.available());
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        int drained = ((Drainable) inputStream).drainTo(bos);
+        assertEquals(eventWithToken.getSerializedSize(), drained);
+        assertArrayEquals(eventWithToken.toByteArray(), bos.toByteArray());
+        assertEquals(0, inputStream.available());
+
+        assertArrayEquals(eventWithToken.toByteArray(), toByteArray(testSubject.asInputStream()));
+        assertEquals("test2", testSubject.asEvent().getPayload().getType());
+    }
+
     private byte[] toByteArray(InputStream asInputStream) throws IOException {
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
         byte[] bytes = new byte[512];
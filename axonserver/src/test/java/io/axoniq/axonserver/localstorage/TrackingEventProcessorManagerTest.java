@@ -17,7 +17,9 @@ import org.junit.*;
 import org.springframework.data.util.CloseableIterator;
 
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -34,6 +36,7 @@ public class TrackingEventProcessorManagerTest {
     private TrackingEventProcessorManager testSubject;
     private AtomicInteger eventsLeft = new AtomicInteger(10);
     private AtomicBoolean iteratorClosed = new AtomicBoolean();
+    private AtomicInteger iteratorsCreated = new AtomicInteger();
 
     public static void assertWithin(int time, TimeUnit unit, Runnable assertion) throws InterruptedException {
         long now = System.currentTimeMillis();
@@ -56,6 +59,7 @@ public class TrackingEventProcessorManagerTest {
     public void setup() {
         Function<Long, CloseableIterator<SerializedEventWithToken>> iteratorBuilder = (token) -> {
             AtomicLong nextToken = new AtomicLong(token);
+            iteratorsCreated.incrementAndGet();
 
             return new CloseableIterator<SerializedEventWithToken>() {
                 @Override
@@ -201,4 +205,54 @@ public class TrackingEventProcessorManagerTest {
 
         assertWithin(1, TimeUnit.SECONDS, () -> assertEquals(10, useLocalStoreMessagesReceived.get()));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void eventsFromTailBuffer() throws InterruptedException {
+        eventsLeft.set(0);
+        AtomicInteger messagesReceived = new AtomicInteger();
+        TrackingEventProcessorManager.EventTracker tracker =
+                testSubject.createEventTracker(100L,
+                                               "",
+                                               true,
+                                               new StreamObserver<InputStream>() {
+                                                   @Override
+                                                   public void onNext(InputStream value) {
+                                                       messagesReceived.incrementAndGet();
+                                                   }
+
+                                                   @Override
+                                                   public void onError(Throwable t) {
+                                                   }
+
+                                                   @Override
+                                                   public void onCompleted() {
+                                                   }
+                                               });
+        tracker.addPermits(20);
+        tracker.start();
+
+        testSubject.eventsStored(100L, events(5));
+        assertWithin(1, TimeUnit.SECONDS, () -> assertEquals(5, messagesReceived.get()));
+        testSubject.eventsStored(105L, events(5));
+        assertWithin(1, TimeUnit.SECONDS, () -> assertEquals(10, messagesReceived.get()));
+        assertTrue(iteratorClosed.get());
+        int iterators = iteratorsCreated.get();
+
+        testSubject.eventsStored(110L, events(5));
+        assertWithin(1, TimeUnit.SECONDS, () -> assertEquals(15, messagesReceived.get()));
+        assertEquals(iterators, iteratorsCreated.get());
+        tracker.stop();
+    }
+
+    private List<SerializedEvent> events(int count) {
+        List<SerializedEvent> events = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            events.add(new SerializedEvent(Event.newBuilder()
+                                                .setPayload(SerializedObject.newBuilder()
+                                                                            .setType("DemoType")
+                                                                            .setRevision("1.0"))
+                                                .build()));
+        }
+        return events;
+    }
+}
@@ -12,6 +12,8 @@ package io.axoniq.axonserver.localstorage.file;
 import io.axoniq.axonserver.config.SystemInfoProvider;
 import io.axoniq.axonserver.localstorage.EventType;
 import io.axoniq.axonserver.localstorage.EventTypeContext;
+import io.axoniq.axonserver.localstorage.QueryOptions;
+import io.axoniq.axonserver.localstorage.SerializedEvent;
 import io.axoniq.axonserver.localstorage.SerializedTransactionWithToken;
 import io.axoniq.axonserver.localstorage.transformation.DefaultEventTransformerFactory;
 import io.axoniq.axonserver.localstorage.transformation.EventTransformerFactory;
@@ -22,9 +24,18 @@ import io.axoniq.axonserver.test.TestUtils;
 import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.*;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.SortedSet;
+import java.util.concurrent.TimeUnit;
 
+import static io.axoniq.axonserver.test.AssertUtils.assertWithin;
 import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertNotNull;
+import static junit.framework.TestCase.assertNotSame;
+import static junit.framework.TestCase.assertSame;
 import static junit.framework.TestCase.assertTrue;
 
 /**
@@ -32,10 +43,11 @@ import static junit.framework.TestCase.assertTrue;
  */
 public class InputStreamEventStoreTest {
     private InputStreamEventStore testSubject;
+    private EmbeddedDBProperties embeddedDBProperties;
 
     @Before
     public void setUp() {
-        EmbeddedDBProperties embeddedDBProperties = new EmbeddedDBProperties(new SystemInfoProvider() {
+        embeddedDBProperties = new EmbeddedDBProperties(new SystemInfoProvider() {
         });
         embeddedDBProperties.getEvent().setStorage(TestUtils
                                                            .fixPathOnWindows(InputStreamEventStore.class
@@ -72,6 +84,24 @@ public class InputStreamEventStoreTest {
         assertEquals(13, next.getToken());
     }
 
+    @Test
+    public void iterateMappedSegmentWithoutCopies() {
+        Assume.assumeFalse(embeddedDBProperties.getEvent().isCleanRequired());
+        try (EventIterator iterator = testSubject.getEventSource(0).get().createEventIterator(0, 0)) {
+            assertTrue(iterator.hasNext());
+            assertTrue(iterator.next().getSerializedEventWithToken().getSerializedEvent().asByteBuffer().isDirect());
+        }
+    }
+
+    @Test
+    public void iterateSegmentAsStream() {
+        embeddedDBProperties.getEvent().setMaxMappedSegments(0);
+        try (EventIterator iterator = testSubject.getEventSource(0).get().createEventIterator(0, 0)) {
+            assertTrue(iterator.hasNext());
+            assertFalse(iterator.next().getSerializedEventWithToken().getSerializedEvent().asByteBuffer().isDirect());
+        }
+    }
+
     @Test
     public void iterateTransactions() {
         EventSource eventSource = testSubject.getEventSource(0).get();
@@ -85,6 +115,69 @@ public class InputStreamEventStoreTest {
         assertEquals(13, next.getToken());
     }
 
+    @Test
+    public void readEventsAtPosition() {
+        List<EventInformation> events = new ArrayList<>();
+        try (EventIterator iterator = testSubject.getEventSource(0).get().createEventIterator(0, 0)) {
+            iterator.forEachRemaining(events::add);
+        }
+        Collections.reverse(events);
+
+        EventSource eventSource = testSubject.getEventSource(0).get();
+        for (EventInformation event : events) {
+            SerializedEvent serializedEvent = eventSource.readEvent(event.getPosition());
+            assertEquals(event.getEvent().getMessageIdentifier(), serializedEvent.asEvent().getMessageIdentifier());
+        }
+    }
+
+    @Test
+    public void querySkipsSegmentsBeforeMinToken() {
+        List<Long> tokens = new ArrayList<>();
+        testSubject.query(new QueryOptions(16, Long.MAX_VALUE, 0), event -> tokens.add(event.getToken()));
+        assertFalse(tokens.isEmpty());
+        assertEquals(16, (long) tokens.get(0));
+        for (int i = 1; i < tokens.size(); i++) {
+            assertEquals(tokens.get(i - 1) + 1, (long) tokens.get(i));
+        }
+    }
+
+    @Test
+    public void querySkipsSegmentsBeforeMinTimestamp() throws InterruptedException {
+        List<Long> tokens = new ArrayList<>();
+        testSubject.query(new QueryOptions(0, Long.MAX_VALUE, Long.MAX_VALUE), event -> tokens.add(event.getToken()));
+        assertTrue(tokens.isEmpty());
+        assertWithin(1, TimeUnit.SECONDS, () -> assertNotNull(testSubject.zoneMap(14)));
+    }
+
+    @Test
+    public void queryUsesPayloadTypeIndex() {
+        List<Long> expected = new ArrayList<>();
+        String payloadType = testSubject.getEventSource(14).get().createEventIterator(14, 16).next()
+                                        .getEvent().getPayload().getType();
+        testSubject.query(new QueryOptions(0, Long.MAX_VALUE, 0), event -> {
+            if (payloadType.equals(event.asEvent().getPayload().getType())) {
+                expected.add(event.getToken());
+            }
+            return true;
+        });
+
+        embeddedDBProperties.getEvent().setPayloadTypeIndex(true);
+        List<Long> tokens = new ArrayList<>();
+        testSubject.query(new QueryOptions(0, Long.MAX_VALUE, 0, payloadType), event -> tokens.add(event.getToken()));
+        assertNotNull(testSubject.payloadTypeIndex(14));
+        assertEquals(expected, tokens);
+    }
+
+    @Test
+    public void payloadTypeIndexesInMemoryAreBounded() {
+        embeddedDBProperties.getEvent().setPayloadTypeIndex(true);
+        embeddedDBProperties.getEvent().setMaxPayloadTypeIndexesInMemory(1);
+        SegmentPayloadTypeIndex first = testSubject.payloadTypeIndex(0);
+        SegmentPayloadTypeIndex second = testSubject.payloadTypeIndex(14);
+        assertSame(second, testSubject.payloadTypeIndex(14));
+        assertNotSame(first, testSubject.payloadTypeIndex(0));
+    }
+
     @Test
     public void getSegments() {
         SortedSet<Long> segments = testSubject.getSegments();
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+package io.axoniq.axonserver.localstorage.file;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Marc Gathier
+ */
+public class KnownAggregatesFilterTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void growsWithoutFalseNegatives() {
+        KnownAggregatesFilter filter = new KnownAggregatesFilter(100, 0.03);
+        for (int i = 0; i < 1000; i++) {
+            filter.add("aggregate-" + i);
+        }
+
+        assertTrue(filter.stageCount() > 1);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(filter.mightContain("aggregate-" + i));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (filter.mightContain("other-" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue("Too many false positives: " + falsePositives, falsePositives < 60);
+    }
+
+    @Test
+    public void writeAndRead() {
+        KnownAggregatesFilter filter = new KnownAggregatesFilter(100, 0.03);
+        for (int i = 0; i < 500; i++) {
+            filter.add("aggregate-" + i);
+        }
+        File file = new File(temporaryFolder.getRoot(), "aggregates.events.filter");
+        filter.write(file, 1234);
+
+        KnownAggregatesFilter read = KnownAggregatesFilter.read(file);
+        assertFalse(read.isReady());
+        assertEquals(1234, read.lastSegment());
+        assertEquals(filter.stageCount(), read.stageCount());
+        for (int i = 0; i < 500; i++) {
+            assertTrue(read.mightContain("aggregate-" + i));
+        }
+        read.add("new-aggregate");
+        assertTrue(read.mightContain("new-aggregate"));
+    }
+}
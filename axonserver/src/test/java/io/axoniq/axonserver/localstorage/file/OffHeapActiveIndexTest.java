@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+
+package io.axoniq.axonserver.localstorage.file;
+
+import org.junit.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Marc Gathier
+ */
+public class OffHeapActiveIndexTest {
+
+    private OffHeapActiveIndex testSubject;
+
+    @Before
+    public void setUp() {
+        testSubject = new OffHeapActiveIndex();
+    }
+
+    @After
+    public void tearDown() {
+        testSubject.close();
+    }
+
+    @Test
+    public void addAndGet() {
+        for (int i = 0; i < 100; i++) {
+            testSubject.add("aggregate", new IndexEntry(5 + i, 1000 + i, i));
+        }
+        IndexEntries entries = testSubject.get("aggregate");
+        assertEquals(100, entries.size());
+        assertEquals(5, entries.firstSequenceNumber());
+        assertEquals(104, entries.lastSequenceNumber());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(1000 + i, (int) entries.positions().get(i));
+        }
+        assertNull(testSubject.get("unknown"));
+    }
+
+    @Test
+    public void addAll() {
+        testSubject.addAll("aggregate", Arrays.asList(new IndexEntry(0, 10, 0), new IndexEntry(1, 20, 1)));
+        testSubject.addAll("aggregate", Arrays.asList(new IndexEntry(2, 30, 2)));
+        assertEquals(Arrays.asList(10, 20, 30), testSubject.get("aggregate").positions());
+    }
+
+    @Test
+    public void manyAggregates() {
+        int aggregates = 50_000;
+        for (int i = 0; i < aggregates; i++) {
+            testSubject.add("aggregate-" + i, new IndexEntry(0, i, i));
+            testSubject.add("aggregate-" + i, new IndexEntry(1, i + 1, i));
+        }
+        assertEquals(aggregates, testSubject.size());
+        for (int i = 0; i < aggregates; i++) {
+            assertEquals(Arrays.asList(i, i + 1), testSubject.get("aggregate-" + i).positions());
+        }
+
+        Map<String, IndexEntries> all = new HashMap<>();
+        testSubject.forEach(all::put);
+        assertEquals(aggregates, all.size());
+        assertEquals(Arrays.asList(7, 8), all.get("aggregate-7").positions());
+    }
+
+    @Test
+    public void getAfterClose() {
+        testSubject.add("aggregate", new IndexEntry(0, 10, 0));
+        testSubject.close();
+        assertNull(testSubject.get("aggregate"));
+    }
+}
@@ -9,6 +9,7 @@
 
 package io.axoniq.axonserver.localstorage.file;
 
+import com.google.protobuf.ByteString;
 import io.axoniq.axonserver.config.SystemInfoProvider;
 import io.axoniq.axonserver.grpc.SerializedObject;
 import io.axoniq.axonserver.grpc.event.Event;
@@ -26,12 +27,21 @@ import org.junit.*;
 import org.junit.rules.*;
 import org.springframework.data.util.CloseableIterator;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.IntStream;
@@ -45,6 +55,7 @@ public class PrimaryEventStoreTest {
     @ClassRule
     public static TemporaryFolder tempFolder = new TemporaryFolder();
     private PrimaryEventStore testSubject;
+    private StorageProperties eventStorageProperties;
 
     @Before
     public void setUp() throws IOException {
@@ -55,24 +66,30 @@ public class PrimaryEventStoreTest {
         embeddedDBProperties.getEvent().setSegmentSize(512 * 1024L);
         embeddedDBProperties.getSnapshot().setStorage(tempFolder.getRoot().getAbsolutePath());
         embeddedDBProperties.getEvent().setPrimaryCleanupDelay(0);
+        eventStorageProperties = embeddedDBProperties.getEvent();
+        testSubject = createEventStore(eventStorageProperties);
+    }
+
+    private PrimaryEventStore createEventStore(StorageProperties storageProperties) {
         String context = "junit";
         MeterFactory meterFactory = new MeterFactory(new SimpleMeterRegistry(), new DefaultMetricCollector());
-        StandardIndexManager indexManager = new StandardIndexManager(context, embeddedDBProperties.getEvent(),
+        StandardIndexManager indexManager = new StandardIndexManager(context, storageProperties,
                                                                      EventType.EVENT,
                                                                      meterFactory);
         EventTransformerFactory eventTransformerFactory = new DefaultEventTransformerFactory();
         InputStreamEventStore second = new InputStreamEventStore(new EventTypeContext(context, EventType.EVENT),
                                                                  indexManager,
                                                                  eventTransformerFactory,
-                                                                 embeddedDBProperties.getEvent(),
+                                                                 storageProperties,
                                                                  meterFactory);
-        testSubject = new PrimaryEventStore(new EventTypeContext(context, EventType.EVENT),
-                                            indexManager,
-                                            eventTransformerFactory,
-                                            embeddedDBProperties.getEvent(),
-                                            second,
-                                            meterFactory);
-        testSubject.init(false);
+        PrimaryEventStore eventStore = new PrimaryEventStore(new EventTypeContext(context, EventType.EVENT),
+                                                             indexManager,
+                                                             eventTransformerFactory,
+                                                             storageProperties,
+                                                             second,
+                                                             meterFactory);
+        eventStore.init(false);
+        return eventStore;
     }
 
     @Test
@@ -168,6 +185,38 @@ public class PrimaryEventStoreTest {
         }
     }
 
+    @Test
+    public void rolloverUsesPreparedSegment() throws Exception {
+        File preparedFile = eventStorageProperties.preparedDataFile("junit");
+        testSubject.preparedSegment().get(5, TimeUnit.SECONDS);
+        Object preparedFileKey = fileKey(preparedFile);
+        assertNotNull(preparedFileKey);
+
+        setupEvents(100, 100);
+        File[] segments = new File(eventStorageProperties.getStorage("junit"))
+                .listFiles((dir, name) -> name.endsWith(eventStorageProperties.getEventsSuffix()));
+        assertNotNull(segments);
+        assertTrue(segments.length > 1);
+        Arrays.sort(segments);
+        assertEquals(preparedFileKey, fileKey(segments[1]));
+
+        testSubject.preparedSegment().get(5, TimeUnit.SECONDS);
+        assertTrue(preparedFile.exists());
+        assertNotEquals(preparedFileKey, fileKey(preparedFile));
+        try (CloseableIterator<SerializedEventWithToken> iterator = testSubject.getGlobalIterator(0)) {
+            long count = 0;
+            while (iterator.hasNext()) {
+                assertEquals(count, iterator.next().getToken());
+                count++;
+            }
+            assertEquals(10000, count);
+        }
+    }
+
+    private Object fileKey(File file) throws IOException {
+        return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+    }
+
     @Test
     public void testDeletingAllEvents() throws InterruptedException {
         setupEvents(5, 3);
@@ -178,4 +227,259 @@ public class PrimaryEventStoreTest {
         storeEvent();
         assertEquals(0,testSubject.getLastToken());
     }
+
+    @Test
+    public void groupCommit() throws InterruptedException {
+        StorageProperties storageProperties = new StorageProperties(new SystemInfoProvider() {
+        }).withGroupCommit(16, 100)
+          .withStorage(tempFolder.getRoot().getAbsolutePath() + "/" + UUID.randomUUID().toString())
+          .withSegmentSize(512 * 1024L);
+        PrimaryEventStore groupCommitStore = createEventStore(storageProperties);
+        try {
+            int numOfTransactions = 200;
+            CountDownLatch latch = new CountDownLatch(numOfTransactions);
+            Set<Long> firstTokens = ConcurrentHashMap.newKeySet();
+            IntStream.range(0, numOfTransactions).parallel().forEach(j -> {
+                String aggId = UUID.randomUUID().toString();
+                List<SerializedEvent> newEvents = new ArrayList<>();
+                IntStream.range(0, 5).forEach(i -> newEvents.add(new SerializedEvent(
+                        Event.newBuilder().setAggregateIdentifier(aggId)
+                             .setAggregateSequenceNumber(i)
+                             .setAggregateType("Demo")
+                             .setPayload(SerializedObject.newBuilder().build()).build())));
+                groupCommitStore.store(newEvents).thenAccept(t -> {
+                    firstTokens.add(t);
+                    latch.countDown();
+                });
+            });
+
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertEquals(numOfTransactions, firstTokens.size());
+            assertEquals(numOfTransactions * 5 - 1, groupCommitStore.getLastToken());
+
+            Iterator<SerializedTransactionWithToken> transactionIterator =
+                    groupCommitStore.transactionIterator(0, Long.MAX_VALUE);
+            long counter = 0;
+            while (transactionIterator.hasNext()) {
+                SerializedTransactionWithToken transaction = transactionIterator.next();
+                assertTrue(firstTokens.contains(transaction.getToken()));
+                counter++;
+            }
+            assertEquals(numOfTransactions, counter);
+        } finally {
+            groupCommitStore.close(true);
+        }
+    }
+
+    @Test
+    public void groupCommitDoesNotBlockCaller() throws Exception {
+        StorageProperties storageProperties = new StorageProperties(new SystemInfoProvider() {
+        }).withGroupCommit(16, 500_000)
+          .withStorage(tempFolder.getRoot().getAbsolutePath() + "/" + UUID.randomUUID().toString())
+          .withSegmentSize(512 * 1024L);
+        PrimaryEventStore groupCommitStore = createEventStore(storageProperties);
+        try {
+            SerializedEvent event = new SerializedEvent(Event.newBuilder().setAggregateIdentifier("aggregate")
+                                                             .setAggregateSequenceNumber(0)
+                                                             .setAggregateType("Demo")
+                                                             .setPayload(SerializedObject.newBuilder().build())
+                                                             .build());
+            long start = System.nanoTime();
+            CompletableFuture<Long> result = groupCommitStore.store(Collections.singletonList(event));
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 250);
+            assertEquals(0, (long) result.get(5, TimeUnit.SECONDS));
+        } finally {
+            groupCommitStore.close(true);
+        }
+    }
+
+    @Test
+    public void compressedTransactions() throws InterruptedException {
+        StorageProperties storageProperties = new StorageProperties(new SystemInfoProvider() {
+        }).withStorage(tempFolder.getRoot().getAbsolutePath() + "/" + UUID.randomUUID().toString())
+          .withSegmentSize(64 * 1024L);
+        storageProperties.setFlags(DefaultEventTransformerFactory.TRANSACTION_COMPRESSION);
+        PrimaryEventStore compressedStore = createEventStore(storageProperties);
+        try {
+            String aggId = UUID.randomUUID().toString();
+            CountDownLatch latch = new CountDownLatch(100);
+            for (int j = 0; j < 100; j++) {
+                List<SerializedEvent> newEvents = new ArrayList<>();
+                for (int i = 0; i < 20; i++) {
+                    newEvents.add(new SerializedEvent(Event.newBuilder().setAggregateIdentifier(aggId)
+                                                           .setAggregateSequenceNumber(j * 20L + i)
+                                                           .setAggregateType("Demo")
+                                                           .setPayload(SerializedObject.newBuilder()
+                                                                                       .setType("DemoEvent")
+                                                                                       .setData(ByteString.copyFromUtf8(
+                                                                                               "payload " + i)))
+                                                           .build()));
+                }
+                compressedStore.store(newEvents).thenAccept(t -> latch.countDown());
+            }
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            Thread.sleep(1500);
+
+            List<Long> sequenceNumbers = new ArrayList<>();
+            compressedStore.processEventsPerAggregate(aggId, 0, Long.MAX_VALUE, 0,
+                                                      event -> sequenceNumbers
+                                                              .add(event.getAggregateSequenceNumber()));
+            assertEquals(2000, sequenceNumbers.size());
+            for (int i = 0; i < sequenceNumbers.size(); i++) {
+                assertEquals(i, (long) sequenceNumbers.get(i));
+            }
+            assertEquals(1999, (long) compressedStore.getLastSequenceNumber(aggId, Integer.MAX_VALUE, Long.MAX_VALUE).orElse(-1L));
+
+            try (CloseableIterator<SerializedEventWithToken> iterator = compressedStore.getGlobalIterator(30)) {
+                long token = 30;
+                while (iterator.hasNext()) {
+                    SerializedEventWithToken event = iterator.next();
+                    assertEquals(token, event.getToken());
+                    assertEquals(token, event.getSerializedEvent().getAggregateSequenceNumber());
+                    token++;
+                }
+                assertEquals(2000, token);
+            }
+
+            Iterator<SerializedTransactionWithToken> transactionIterator =
+                    compressedStore.transactionIterator(0, Long.MAX_VALUE);
+            long counter = 0;
+            while (transactionIterator.hasNext()) {
+                SerializedTransactionWithToken transaction = transactionIterator.next();
+                assertEquals(20, transaction.getEvents().size());
+                assertEquals(SegmentBasedEventStore.TRANSACTION_VERSION, transaction.getVersion());
+                counter++;
+            }
+            assertEquals(100, counter);
+        } finally {
+            compressedStore.close(true);
+        }
+    }
+
+    @Test
+    public void restartFromActiveIndexCheckpoint() throws InterruptedException, IOException {
+        StorageProperties storageProperties = new StorageProperties(new SystemInfoProvider() {
+        }).withActiveIndexCheckpointInterval(50)
+          .withStorage(tempFolder.getRoot().getAbsolutePath() + "/" + UUID.randomUUID().toString())
+          .withSegmentSize(512 * 1024L);
+        File checkpoint = storageProperties.activeIndexCheckpoint("junit");
+        File earlierCheckpoint = new File(tempFolder.getRoot(), UUID.randomUUID().toString());
+        String aggId = UUID.randomUUID().toString();
+        PrimaryEventStore checkpointStore = createEventStore(storageProperties);
+        storeAggregateEvents(checkpointStore, aggId, 0, 20);
+        Thread.sleep(500);
+        assertTrue(checkpoint.exists());
+        Files.copy(checkpoint.toPath(), earlierCheckpoint.toPath());
+        storeAggregateEvents(checkpointStore, aggId, 20, 20);
+        checkpointStore.close(false);
+
+        // restore the earlier checkpoint, so the events stored after it must be read at startup
+        Files.copy(earlierCheckpoint.toPath(),
+                                 checkpoint.toPath(),
+                                 StandardCopyOption.REPLACE_EXISTING);
+        checkpointStore = createEventStore(storageProperties);
+        try {
+            assertEquals(399, checkpointStore.getLastToken());
+            assertEquals(399, (long) checkpointStore.getLastSequenceNumber(aggId, Integer.MAX_VALUE, Long.MAX_VALUE)
+                                                    .orElse(-1L));
+            List<Long> sequenceNumbers = new ArrayList<>();
+            checkpointStore.processEventsPerAggregate(aggId, 0, Long.MAX_VALUE, 0,
+                                                      event -> sequenceNumbers
+                                                              .add(event.getAggregateSequenceNumber()));
+            assertEquals(400, sequenceNumbers.size());
+            for (int i = 0; i < sequenceNumbers.size(); i++) {
+                assertEquals(i, (long) sequenceNumbers.get(i));
+            }
+        } finally {
+            checkpointStore.close(true);
+        }
+        assertFalse(checkpoint.exists());
+    }
+
+    private void storeAggregateEvents(PrimaryEventStore eventStore, String aggId, int firstTransaction,
+                                      int numOfTransactions) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(numOfTransactions);
+        for (int j = firstTransaction; j < firstTransaction + numOfTransactions; j++) {
+            List<SerializedEvent> newEvents = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                newEvents.add(new SerializedEvent(Event.newBuilder().setAggregateIdentifier(aggId)
+                                                       .setAggregateSequenceNumber(j * 10L + i)
+                                                       .setAggregateType("Demo")
+                                                       .setPayload(SerializedObject.newBuilder().build())
+                                                       .build()));
+            }
+            eventStore.store(newEvents).thenAccept(t -> latch.countDown());
+        }
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void validationManifests() throws InterruptedException {
+        StorageProperties storageProperties = new StorageProperties(new SystemInfoProvider() {
+        }).withValidationManifest(true)
+          .withStorage(tempFolder.getRoot().getAbsolutePath() + "/" + UUID.randomUUID().toString())
+          .withSegmentSize(64 * 1024L);
+        String aggId = UUID.randomUUID().toString();
+        PrimaryEventStore manifestStore = createEventStore(storageProperties);
+        storeAggregateEvents(manifestStore, aggId, 0, 200);
+        Thread.sleep(1500);
+        Set<Long> completedSegments = new TreeSet<>(manifestStore.next.getSegments());
+        assertFalse(completedSegments.isEmpty());
+        for (Long segment : completedSegments) {
+            File manifest = storageProperties.manifest("junit", segment);
+            assertTrue(manifest.exists());
+            assertEquals(segment, (Long) SegmentManifest.read(manifest).segment());
+        }
+        manifestStore.close(false);
+
+        manifestStore = createEventStore(storageProperties);
+        try {
+            manifestStore.validate(Integer.MAX_VALUE);
+            assertEquals(1999, manifestStore.getLastToken());
+            for (Long segment : completedSegments) {
+                assertTrue(manifestStore.validateSegment(segment).isValid());
+            }
+        } finally {
+            manifestStore.close(true);
+        }
+        for (Long segment : completedSegments) {
+            assertFalse(storageProperties.manifest("junit", segment).exists());
+        }
+    }
+
+    @Test
+    public void parallelAggregateRead() throws InterruptedException {
+        StorageProperties storageProperties = new StorageProperties(new SystemInfoProvider() {
+        }).withAggregateReadParallelism(4)
+          .withStorage(tempFolder.getRoot().getAbsolutePath() + "/" + UUID.randomUUID().toString())
+          .withSegmentSize(64 * 1024L);
+        PrimaryEventStore parallelReadStore = createEventStore(storageProperties);
+        try {
+            String aggId = UUID.randomUUID().toString();
+            CountDownLatch latch = new CountDownLatch(50);
+            for (int j = 0; j < 50; j++) {
+                List<SerializedEvent> newEvents = new ArrayList<>();
+                for (int i = 0; i < 20; i++) {
+                    newEvents.add(new SerializedEvent(Event.newBuilder().setAggregateIdentifier(aggId)
+                                                           .setAggregateSequenceNumber(j * 20L + i)
+                                                           .setAggregateType("Demo")
+                                                           .setPayload(SerializedObject.newBuilder().build())
+                                                           .build()));
+                }
+                parallelReadStore.store(newEvents).thenAccept(t -> latch.countDown());
+            }
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+            List<Long> sequenceNumbers = new ArrayList<>();
+            parallelReadStore.processEventsPerAggregate(aggId, 0, Long.MAX_VALUE, 0,
+                                                        event -> sequenceNumbers
+                                                                .add(event.getAggregateSequenceNumber()));
+            assertEquals(1000, sequenceNumbers.size());
+            for (int i = 0; i < sequenceNumbers.size(); i++) {
+                assertEquals(i, (long) sequenceNumbers.get(i));
+            }
+        } finally {
+            parallelReadStore.close(true);
+        }
+    }
 }
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+package io.axoniq.axonserver.localstorage.file;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Marc Gathier
+ */
+public class SegmentBloomIndexTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File file;
+    private SegmentBloomIndex testSubject;
+
+    @Before
+    public void setUp() {
+        file = new File(temporaryFolder.getRoot(), "segments.events.blooms");
+        testSubject = new SegmentBloomIndex(file, 0.03);
+        testSubject.open();
+        for (int segment = 0; segment < 100; segment++) {
+            testSubject.add(segment * 1000L, aggregateIds(segment, 500 + segment * 10));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        testSubject.close(false);
+    }
+
+    @Test
+    public void probe() {
+        for (int segment = 0; segment < 100; segment++) {
+            SegmentBloomIndex.Probe probe = testSubject.probe("aggregate-" + segment + "-7");
+            assertTrue(probe.covers(segment * 1000L));
+            assertTrue(probe.mightContain(segment * 1000L));
+        }
+        int falsePositives = 0;
+        SegmentBloomIndex.Probe probe = testSubject.probe("unknown");
+        for (int segment = 0; segment < 100; segment++) {
+            if (probe.mightContain(segment * 1000L)) {
+                falsePositives++;
+            }
+        }
+        assertTrue("Too many false positives: " + falsePositives, falsePositives < 10);
+        assertFalse(probe.covers(123));
+    }
+
+    @Test
+    public void reopen() {
+        testSubject.remove(5000);
+        testSubject.close(false);
+
+        testSubject = new SegmentBloomIndex(file, 0.03);
+        testSubject.open();
+        assertFalse(testSubject.contains(5000));
+        assertTrue(testSubject.contains(6000));
+        assertTrue(testSubject.probe("aggregate-6-12").mightContain(6000));
+
+        testSubject.add(100_000, aggregateIds(100, 10));
+        assertTrue(testSubject.probe("aggregate-100-2").mightContain(100_000));
+    }
+
+    private List<String> aggregateIds(int segment, int count) {
+        List<String> aggregateIds = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            aggregateIds.add("aggregate-" + segment + "-" + i);
+        }
+        return aggregateIds;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+package io.axoniq.axonserver.localstorage.file;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Marc Gathier
+ */
+public class SegmentManifestTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void writeAndRead() throws IOException {
+        File dataFile = createDataFile();
+        SegmentManifest manifest = SegmentManifest.create(dataFile, 100, 250);
+        File file = new File(temporaryFolder.getRoot(), "00000000000000000100.manifest");
+        manifest.write(file);
+
+        SegmentManifest read = SegmentManifest.read(file);
+        assertEquals(100, read.segment());
+        assertEquals(250, read.lastToken());
+        assertEquals(manifest.checksum(), read.checksum());
+        assertEquals(manifest.validatedAt(), read.validatedAt());
+        assertTrue(read.matches(dataFile));
+        assertEquals(read.checksum(), SegmentManifest.checksum(dataFile, 0));
+    }
+
+    @Test
+    public void detectsChangedFile() throws IOException {
+        File dataFile = createDataFile();
+        SegmentManifest manifest = SegmentManifest.create(dataFile, 0, 250);
+        long lastModified = dataFile.lastModified();
+        try (RandomAccessFile raf = new RandomAccessFile(dataFile, "rw")) {
+            raf.seek(1000);
+            raf.write(0xFF);
+        }
+        assertTrue(dataFile.setLastModified(lastModified));
+
+        assertTrue(manifest.matches(dataFile));
+        assertNotEquals(manifest.checksum(), SegmentManifest.checksum(dataFile, 0));
+
+        assertTrue(dataFile.setLastModified(lastModified + 2000));
+        assertFalse(manifest.matches(dataFile));
+    }
+
+    private File createDataFile() throws IOException {
+        File dataFile = temporaryFolder.newFile();
+        byte[] bytes = new byte[4096];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        Files.write(dataFile.toPath(), bytes);
+        return dataFile;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+package io.axoniq.axonserver.localstorage.file;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Marc Gathier
+ */
+public class SegmentPayloadTypeIndexTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void writeAndRead() throws IOException {
+        SegmentPayloadTypeIndex.Builder builder = new SegmentPayloadTypeIndex.Builder(1000);
+        for (int i = 0; i < 100; i++) {
+            builder.add(1000 + i, 5 + i * 100, i % 3 == 0 ? "TypeA" : "TypeB");
+        }
+        File file = new File(temporaryFolder.getRoot(), "00000000000000001000.pindex");
+        builder.build().write(file);
+
+        SegmentPayloadTypeIndex index = SegmentPayloadTypeIndex.read(file);
+        assertEquals(2, index.payloadTypes().size());
+        SegmentPayloadTypeIndex.Entries entries = index.entries("TypeA");
+        assertEquals(34, entries.size());
+        assertEquals(1003, entries.token(1000, 1));
+        assertEquals(305, entries.position(1));
+        assertEquals(66, index.entries("TypeB").size());
+        assertEquals(0, index.entries("TypeC").size());
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+package io.axoniq.axonserver.localstorage.file;
+
+import org.junit.*;
+import org.junit.rules.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Marc Gathier
+ */
+public class SegmentTimestampIndexTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static final long SEGMENT = 100;
+    private final long[] timestamps = {10, 12, 11, 15, 20, 18, 25, 30, 29, 40};
+
+    private SegmentTimestampIndex createIndex() {
+        SegmentTimestampIndex.Builder builder = new SegmentTimestampIndex.Builder(3);
+        for (int i = 0; i < timestamps.length; i++) {
+            builder.add(SEGMENT + i, timestamps[i]);
+        }
+        return builder.build();
+    }
+
+    private Long scan(long start, long instant) {
+        for (long token = start; token < SEGMENT + timestamps.length; token++) {
+            if (timestamps[(int) (token - SEGMENT)] >= instant) {
+                return token;
+            }
+        }
+        return null;
+    }
+
+    private Long noScan(long start) {
+        fail("Unexpected scan from " + start);
+        return null;
+    }
+
+    @Test
+    public void tokenAtMatchesLinearScan() {
+        SegmentTimestampIndex index = createIndex();
+        for (long instant = 11; instant <= 45; instant++) {
+            long current = instant;
+            Long expected = scan(SEGMENT, instant);
+            assertEquals("instant " + instant,
+                         expected == null ? SEGMENT + timestamps.length : expected,
+                         (long) index.tokenAt(instant, start -> scan(start, current)));
+        }
+    }
+
+    @Test
+    public void tokenAtBeforeFirstEvent() {
+        SegmentTimestampIndex index = createIndex();
+        assertNull(index.tokenAt(9, this::noScan));
+        assertEquals(SEGMENT, (long) index.tokenAt(10, this::noScan));
+    }
+
+    @Test
+    public void tokenAtAfterLastEventDoesNotScan() {
+        SegmentTimestampIndex index = createIndex();
+        assertEquals(SEGMENT + timestamps.length, (long) index.tokenAt(41, this::noScan));
+    }
+
+    @Test
+    public void writeAndRead() throws IOException {
+        File file = new File(tempFolder.newFolder(), "00000000000000000100.tindex");
+        createIndex().write(file);
+        SegmentTimestampIndex index = SegmentTimestampIndex.read(file);
+        assertEquals(10, index.minTimestamp());
+        assertEquals(40, index.maxTimestamp());
+        assertEquals(SEGMENT + 6, (long) index.tokenAt(22, start -> scan(start, 22)));
+    }
+
+    @Test
+    public void emptySegment() {
+        SegmentTimestampIndex index = new SegmentTimestampIndex.Builder(3).build();
+        assertTrue(index.isEmpty());
+        assertNull(index.tokenAt(10, this::noScan));
+    }
+}
@@ -14,6 +14,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.Optional;
 import java.util.SortedMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -86,6 +87,18 @@ public class StandardIndexManagerTest {
         });
     }
 
+    @Test
+    public void cleanupClosesActiveIndexesOfCompletedSegments() {
+        indexManager.addToActiveSegment(0L, "aggregateId", new IndexEntry(0, 0, 0));
+        indexManager.complete(0L);
+        indexManager.addToActiveSegment(10L, "aggregateId", new IndexEntry(1, 0, 10));
+        indexManager.complete(10L);
+        assertEquals(2, indexManager.activeIndexesPendingClose());
+
+        indexManager.cleanup(false);
+        assertEquals(0, indexManager.activeIndexesPendingClose());
+    }
+
     @Test
     public void testIndexRange() {
         long segment = 0L;
@@ -165,4 +178,94 @@ public class StandardIndexManagerTest {
             indexManager.complete(segment);
         }
     }
+
+    @Test
+    public void testSortedIndexFormat() {
+        StandardIndexManager sortedIndexManager = sortedIndexManager();
+        for (int i = 0; i < 1000; i++) {
+            sortedIndexManager.addToActiveSegment(0L, "aggregate-" + i, new IndexEntry(0, i * 10, i));
+            sortedIndexManager.addToActiveSegment(0L, "aggregate-" + i, new IndexEntry(1, i * 10 + 5, i));
+        }
+        sortedIndexManager.complete(0);
+
+        assertTrue(storageProperties.newIndex(context, 0).exists());
+        assertFalse(storageProperties.index(context, 0).exists());
+        for (int i = 0; i < 1000; i++) {
+            SortedMap<Long, IndexEntries> actual = sortedIndexManager.lookupAggregate("aggregate-" + i,
+                                                                                      0,
+                                                                                      Long.MAX_VALUE,
+                                                                                      Long.MAX_VALUE,
+                                                                                      0);
+            assertEquals(Arrays.asList(i * 10, i * 10 + 5), actual.get(0L).positions());
+        }
+        assertTrue(sortedIndexManager.lookupAggregate("unknown", 0, Long.MAX_VALUE, Long.MAX_VALUE, 0).isEmpty());
+        assertEquals(Optional.of(1L), sortedIndexManager.getLastSequenceNumber("aggregate-5", 10, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testConvertToSortedIndexFormat() {
+        indexManager.addToActiveSegment(0L, "aggregateId", new IndexEntry(0, 10, 0));
+        indexManager.addToActiveSegment(0L, "aggregateId", new IndexEntry(1, 20, 1));
+        indexManager.complete(0);
+        indexManager.cleanup(false);
+        assertFalse(storageProperties.newIndex(context, 0).exists());
+
+        StandardIndexManager sortedIndexManager = sortedIndexManager();
+        sortedIndexManager.init();
+        SortedMap<Long, IndexEntries> actual = sortedIndexManager.lookupAggregate("aggregateId",
+                                                                                  0,
+                                                                                  Long.MAX_VALUE,
+                                                                                  Long.MAX_VALUE,
+                                                                                  0);
+        assertEquals(Arrays.asList(10, 20), actual.get(0L).positions());
+        assertTrue(storageProperties.newIndex(context, 0).exists());
+    }
+
+    @Test
+    public void knownAggregatesFilter() {
+        storageProperties.setKnownAggregatesFilter(true);
+        indexManager.init();
+        indexManager.addToActiveSegment(0L, "aggregateId", new IndexEntry(0, 10, 0));
+        indexManager.complete(0);
+        indexManager.addToActiveSegment(1L, "otherAggregateId", new IndexEntry(3, 10, 1));
+
+        assertTrue(storageProperties.knownAggregatesFilter(context).exists());
+        assertEquals(Optional.of(0L), indexManager.getLastSequenceNumber("aggregateId", 10, Long.MAX_VALUE));
+        assertEquals(Optional.of(3L), indexManager.getLastSequenceNumber("otherAggregateId", 10, Long.MAX_VALUE));
+        assertEquals(Optional.empty(), indexManager.getLastSequenceNumber("newAggregateId", 10, Long.MAX_VALUE));
+        indexManager.cleanup(false);
+
+        MeterFactory meterFactory = new MeterFactory(new SimpleMeterRegistry(), new DefaultMetricCollector());
+        StandardIndexManager restarted = new StandardIndexManager(context, storageProperties, EventType.EVENT,
+                                                                  meterFactory);
+        restarted.init();
+        assertEquals(Optional.of(0L), restarted.getLastSequenceNumber("aggregateId", 10, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void segmentBloomIndex() {
+        storageProperties.setSegmentBloomIndex(true);
+        indexManager.init();
+        for (long segment = 0; segment < 5; segment++) {
+            indexManager.addToActiveSegment(segment * 10, "aggregate-" + segment, new IndexEntry(0, 10, segment * 10));
+            indexManager.complete(segment * 10);
+        }
+
+        assertTrue(storageProperties.segmentBloomIndex(context).exists());
+        assertEquals(Optional.of(0L), indexManager.getLastSequenceNumber("aggregate-2", 10, Long.MAX_VALUE));
+        assertEquals(Optional.empty(), indexManager.getLastSequenceNumber("unknown", 10, Long.MAX_VALUE));
+        SortedMap<Long, IndexEntries> actual = indexManager.lookupAggregate("aggregate-0",
+                                                                            0,
+                                                                            Long.MAX_VALUE,
+                                                                            Long.MAX_VALUE,
+                                                                            0);
+        assertEquals(1, actual.size());
+        assertNotNull(actual.get(0L));
+    }
+
+    private StandardIndexManager sortedIndexManager() {
+        storageProperties.setIndexFormat(StandardIndexManager.SORTED_INDEX_FORMAT);
+        MeterFactory meterFactory = new MeterFactory(new SimpleMeterRegistry(), new DefaultMetricCollector());
+        return new StandardIndexManager(context, storageProperties, EventType.EVENT, meterFactory);
+    }
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+package io.axoniq.axonserver.localstorage.query;
+
+import io.axoniq.axonserver.grpc.SerializedObject;
+import io.axoniq.axonserver.grpc.event.Event;
+import io.axoniq.axonserver.grpc.event.EventWithToken;
+import io.axoniq.axonserver.localstorage.query.result.AbstractMapExpressionResult;
+import io.axoniq.axonserver.localstorage.query.result.DefaultQueryResult;
+import io.axoniq.axonserver.localstorage.query.result.EventExpressionResult;
+import io.axoniq.axonserver.queryparser.EventStoreQueryParser;
+import org.junit.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Marc Gathier
+ */
+public class ParallelQueryExecutorTest {
+
+    private final QueryProcessor queryProcessor = new QueryProcessor();
+    private ParallelQueryExecutor testSubject;
+
+    @Before
+    public void setup() {
+        testSubject = new ParallelQueryExecutor(4);
+    }
+
+    @After
+    public void tearDown() {
+        testSubject.shutdown();
+    }
+
+    @Test
+    public void countMergesPartitions() throws Exception {
+        List<QueryResult> results = execute("count()", 10, 100);
+        assertEquals(1, results.size());
+        assertEquals(1000, ((AbstractMapExpressionResult) results.get(0).getValue())
+                .getByIdentifier("count").getNumericValue().longValue());
+    }
+
+    @Test
+    public void groupByMergesPartitions() throws Exception {
+        List<QueryResult> results = execute("groupby(payloadType, count())", 10, 100);
+        assertEquals(2, results.size());
+        results.forEach(r -> assertEquals(500, ((AbstractMapExpressionResult) r.getValue())
+                .getByIdentifier("count").getNumericValue().longValue()));
+    }
+
+    @Test
+    public void filterKeepsPartitionOrder() throws Exception {
+        List<QueryResult> results = execute("payloadType = \"Even\"", 10, 100);
+        assertEquals(500, results.size());
+        long previous = -1;
+        for (QueryResult result : results) {
+            long token = result.getValue().getByIdentifier("token").getNumericValue().longValue();
+            assertTrue(token > previous);
+            previous = token;
+        }
+    }
+
+    @Test
+    public void filterStopsAtLimit() throws Exception {
+        List<QueryResult> results = execute("payloadType = \"Even\" | limit(10)", 10, 100);
+        assertEquals(10, results.size());
+        assertEquals(18, results.get(9).getValue().getByIdentifier("token").getNumericValue().longValue());
+    }
+
+    @Test
+    public void canExecuteInParallel() throws Exception {
+        assertTrue(ParallelQueryExecutor.canExecuteInParallel(resolve("payloadType = \"Even\" | limit(10)")));
+        assertTrue(ParallelQueryExecutor.canExecuteInParallel(resolve("groupby(payloadType, count())")));
+        assertFalse(ParallelQueryExecutor.canExecuteInParallel(resolve("limit(10)")));
+    }
+
+    private List<PipeExpression> resolve(String query) throws Exception {
+        return queryProcessor.resolvePipeExpressions(new EventStoreQueryParser().parse(query));
+    }
+
+    private List<QueryResult> execute(String query, int partitionCount, int partitionSize) throws Exception {
+        List<Consumer<Predicate<QueryResult>>> partitions = new ArrayList<>();
+        for (int i = 0; i < partitionCount; i++) {
+            long first = (long) i * partitionSize;
+            partitions.add(consumer -> {
+                for (long token = first; token < first + partitionSize; token++) {
+                    if (!consumer.test(event(token))) {
+                        return;
+                    }
+                }
+            });
+        }
+        List<QueryResult> results = new ArrayList<>();
+        testSubject.execute(resolve(query), partitions, r -> {
+            synchronized (results) {
+                results.add(r);
+            }
+            return true;
+        }, () -> false);
+        return results;
+    }
+
+    private QueryResult event(long token) {
+        return new DefaultQueryResult(new EventExpressionResult(
+                EventWithToken.newBuilder()
+                              .setToken(token)
+                              .setEvent(Event.newBuilder()
+                                             .setAggregateIdentifier("aggregate-" + token)
+                                             .setPayload(SerializedObject.newBuilder()
+                                                                         .setType(token % 2 == 0 ? "Even" : "Odd")))
+                              .build()));
+    }
+}
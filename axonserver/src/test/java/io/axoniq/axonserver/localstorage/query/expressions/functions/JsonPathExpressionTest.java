@@ -120,4 +120,17 @@ public class JsonPathExpressionTest {
         ListExpressionResult resultList = (ListExpressionResult) result;
     }
 
+    @Test
+    public void applyParsesDocumentOnce() {
+        testSubject = new JsonPathExpression("title", new Expression[]{
+                new Identifier("test"),
+                new StringLiteral("$.book[0].title")
+        });
+        Object parsed = map.get("test").asJson();
+        testSubject.apply(expressionContext, new MapExpressionResult(map));
+        ExpressionResult result = testSubject.apply(expressionContext, new MapExpressionResult(map));
+        assertThat(result.getValue()).isEqualTo("Beginning JSON");
+        assertThat(map.get("test").asJson()).isSameAs(parsed);
+    }
+
 }
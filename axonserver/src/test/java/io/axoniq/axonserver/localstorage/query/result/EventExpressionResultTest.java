@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+package io.axoniq.axonserver.localstorage.query.result;
+
+import com.google.protobuf.ByteString;
+import io.axoniq.axonserver.grpc.SerializedObject;
+import io.axoniq.axonserver.grpc.event.Event;
+import io.axoniq.axonserver.grpc.event.EventWithToken;
+import io.axoniq.axonserver.localstorage.EventDecorator;
+import io.axoniq.axonserver.localstorage.SerializedEvent;
+import io.axoniq.axonserver.localstorage.SerializedEventWithToken;
+import org.junit.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Marc Gathier
+ */
+public class EventExpressionResultTest {
+
+    private final AtomicInteger decorated = new AtomicInteger();
+    private EventExpressionResult testSubject;
+
+    @Before
+    public void setUp() {
+        Event event = Event.newBuilder()
+                           .setAggregateIdentifier("aggId")
+                           .setAggregateType("Demo")
+                           .setTimestamp(1000L)
+                           .setPayload(SerializedObject.newBuilder()
+                                                       .setType("DemoType")
+                                                       .setData(ByteString.copyFromUtf8("payload")))
+                           .build();
+        EventDecorator eventDecorator = new EventDecorator() {
+            @Override
+            public EventWithToken decorateEventWithToken(EventWithToken event) {
+                decorated.incrementAndGet();
+                return event;
+            }
+        };
+        testSubject = new EventExpressionResult(new SerializedEventWithToken(15,
+                                                                             new SerializedEvent(event.toByteArray())),
+                                                eventDecorator);
+    }
+
+    @Test
+    public void headerColumnsDoNotParseEvent() {
+        assertEquals("aggId", testSubject.getByIdentifier("aggregateIdentifier").getValue());
+        assertEquals("DemoType", testSubject.getByIdentifier("payloadType").getValue());
+        assertEquals(15, testSubject.getByIdentifier("token").getNumericValue().longValue());
+        assertEquals(0, decorated.get());
+    }
+
+    @Test
+    public void payloadDataParsesEventOnce() {
+        assertEquals("payload", testSubject.getByIdentifier("payloadData").getValue());
+        assertEquals(15, ((EventWithToken) testSubject.getValue()).getToken());
+        assertEquals(1, decorated.get());
+    }
+}
@@ -167,6 +167,48 @@ public class SequenceNumberCacheTest {
                 serializedEvent("OTHER", "SampleAgg", 11)));
     }
 
+    @Test
+    public void cacheSizeIsBounded() {
+        testSubject = new SequenceNumberCache(SequenceNumberCacheTest::dummySequenceNumberProvider, clock, 32);
+        for (int i = 0; i < 1000; i++) {
+            testSubject.reserveSequenceNumbers(asList(serializedEvent("AGGREGATE-" + i, "SampleAgg", 11)));
+            clock.timeElapses(20_000);
+        }
+
+        assertTrue("Cache size should be limited, was " + testSubject.size(), testSubject.size() <= 32);
+        assertEquals(1000, testSubject.size() + testSubject.evictions());
+        assertEquals(1000, testSubject.misses());
+    }
+
+    @Test
+    public void cacheKeepsRecentEntries() {
+        testSubject = new SequenceNumberCache(SequenceNumberCacheTest::dummySequenceNumberProvider, clock, 16);
+        for (int i = 0; i < 100; i++) {
+            testSubject.reserveSequenceNumbers(asList(serializedEvent("AGGREGATE-" + i, "SampleAgg", 11)));
+        }
+
+        assertEquals(100, testSubject.size());
+        assertEquals(0, testSubject.evictions());
+    }
+
+    @Test
+    public void hitsAndMisses() {
+        testSubject.reserveSequenceNumbers(asList(serializedEvent("OTHER", "SampleAgg", 11)));
+        testSubject.reserveSequenceNumbers(asList(serializedEvent("OTHER", "SampleAgg", 12),
+                                                  serializedEvent("OTHER", "SampleAgg", 13)));
+
+        assertEquals(1, testSubject.misses());
+        assertEquals(1, testSubject.hits());
+    }
+
+    @Test
+    public void rollbackRestoresSequenceNumber() {
+        Runnable rollback = testSubject.reserveSequenceNumbers(asList(serializedEvent("OTHER", "SampleAgg", 11)),
+                                                               false);
+        rollback.run();
+        testSubject.reserveSequenceNumbers(asList(serializedEvent("OTHER", "SampleAgg", 11)));
+    }
+
     private SerializedEvent serializedEvent(String aggregateId, String aggregateType, int sequenceNumber) {
         return new SerializedEvent(Event.newBuilder().setAggregateIdentifier(aggregateId)
                                         .setAggregateType(aggregateType)
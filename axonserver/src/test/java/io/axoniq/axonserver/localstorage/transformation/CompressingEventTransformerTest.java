@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+package io.axoniq.axonserver.localstorage.transformation;
+
+import com.google.protobuf.ByteString;
+import io.axoniq.axonserver.exception.MessagingPlatformException;
+import io.axoniq.axonserver.grpc.SerializedObject;
+import io.axoniq.axonserver.grpc.event.Event;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Marc Gathier
+ */
+public class CompressingEventTransformerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static final String PAYLOAD = "{\"orderId\":\"order-1\",\"customerId\":\"customer-1\",\"lines\":["
+            + "{\"product\":\"product-1\",\"quantity\":1},{\"product\":\"product-2\",\"quantity\":2},"
+            + "{\"product\":\"product-3\",\"quantity\":3}]}";
+
+    static byte[] event(String payload) {
+        return Event.newBuilder()
+                    .setMessageIdentifier("a5b3c4d5-e6f7-4890-a1b2-c3d4e5f6a7b8")
+                    .setAggregateIdentifier("order-1")
+                    .setAggregateType("Order")
+                    .setTimestamp(System.currentTimeMillis())
+                    .setPayload(SerializedObject.newBuilder()
+                                                .setType("com.example.order.OrderCreatedEvent")
+                                                .setData(ByteString.copyFromUtf8(payload)))
+                    .build()
+                    .toByteArray();
+    }
+
+    @Test
+    public void compressesLargeEvents() {
+        CompressingEventTransformer testSubject = new CompressingEventTransformer(1, null);
+        byte[] event = event(PAYLOAD + PAYLOAD + PAYLOAD);
+
+        byte[] stored = testSubject.toStorage(event);
+
+        assertTrue(stored.length < event.length);
+        assertArrayEquals(event, testSubject.fromStorage(stored));
+    }
+
+    @Test
+    public void storesSmallEventsUncompressed() {
+        CompressingEventTransformer testSubject = new CompressingEventTransformer(1, null);
+        byte[] event = "small".getBytes(StandardCharsets.UTF_8);
+
+        byte[] stored = testSubject.toStorage(event);
+
+        assertEquals(event.length + 1, stored.length);
+        assertArrayEquals(event, testSubject.fromStorage(stored));
+    }
+
+    @Test
+    public void dictionaryImprovesCompression() {
+        byte[] dictionary = event(PAYLOAD);
+        byte[] event = event(PAYLOAD.replace('1', '7'));
+        byte[] withoutDictionary = new CompressingEventTransformer(6, null).toStorage(event);
+        CompressingEventTransformer testSubject = new CompressingEventTransformer(6, dictionary);
+
+        byte[] stored = testSubject.toStorage(event);
+
+        assertTrue(stored.length < withoutDictionary.length);
+        assertArrayEquals(event, testSubject.fromStorage(stored));
+    }
+
+    @Test(expected = MessagingPlatformException.class)
+    public void readWithoutDictionaryFails() {
+        byte[] stored = new CompressingEventTransformer(6, event(PAYLOAD)).toStorage(event(PAYLOAD));
+
+        new CompressingEventTransformer(6, null).fromStorage(stored);
+    }
+
+    @Test
+    public void factorySelectsTransformerFromFlags() throws IOException {
+        File dictionaryFile = temporaryFolder.newFile("dictionary");
+        Files.write(dictionaryFile.toPath(), event(PAYLOAD));
+        DefaultEventTransformerFactory factory = new DefaultEventTransformerFactory(dictionaryFile);
+
+        assertSame(NoOpEventTransformer.INSTANCE, factory.get((byte) 2, 0));
+        EventTransformer transformer = factory.get((byte) 2, DefaultEventTransformerFactory.COMPRESSION_DEFLATE
+                | DefaultEventTransformerFactory.PRESET_DICTIONARY);
+        assertSame(transformer, factory.get((byte) 2, DefaultEventTransformerFactory.COMPRESSION_DEFLATE
+                | DefaultEventTransformerFactory.PRESET_DICTIONARY));
+        byte[] event = event(PAYLOAD);
+        assertArrayEquals(event, transformer.fromStorage(transformer.toStorage(event)));
+    }
+
+    @Test
+    public void factoryIgnoresFlagsOfOlderSegmentVersions() {
+        DefaultEventTransformerFactory factory = new DefaultEventTransformerFactory();
+
+        assertSame(NoOpEventTransformer.INSTANCE, factory.get((byte) 0, 0xbdbc0146));
+        assertNull(factory.getTransactionTransformer((byte) 0, 0x7c42abad));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2017-2020 AxonIQ B.V. and/or licensed to AxonIQ B.V.
+ * under one or more contributor license agreements.
+ *
+ *  Licensed under the AxonIQ Open Source License Agreement v1.0;
+ *  you may not use this file except in compliance with the license.
+ *
+ */
+
+package io.axoniq.axonserver.localstorage.transformation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+/**
+ * Measures the cost of writing (toStorage) and reading (fromStorage) events, and the size of the stored events, for
+ * the available event transformers. Run the main method, optionally with the payload size in bytes as argument.
+ *
+ * @author Marc Gathier
+ */
+public class EventTransformerBenchmark {
+
+    private static final int EVENTS = 10_000;
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) {
+        int payloadSize = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+        List<byte[]> events = events(payloadSize);
+        byte[] dictionary = CompressingEventTransformerTest.event(payload(new Random(-1), payloadSize));
+
+        run("none", NoOpEventTransformer.INSTANCE, events);
+        run("deflate-fast", new CompressingEventTransformer(Deflater.BEST_SPEED, null), events);
+        run("deflate", new CompressingEventTransformer(Deflater.DEFAULT_COMPRESSION, null), events);
+        run("deflate-fast+dictionary", new CompressingEventTransformer(Deflater.BEST_SPEED, dictionary), events);
+        run("deflate+dictionary",
+            new CompressingEventTransformer(Deflater.DEFAULT_COMPRESSION, dictionary),
+            events);
+    }
+
+    private static void run(String name, EventTransformer transformer, List<byte[]> events) {
+        long originalBytes = 0;
+        long storedBytes = 0;
+        long writeNanos = 0;
+        long readNanos = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            List<byte[]> stored = new ArrayList<>(events.size());
+            long start = System.nanoTime();
+            for (byte[] event : events) {
+                stored.add(transformer.toStorage(event));
+            }
+            long written = System.nanoTime();
+            for (byte[] event : stored) {
+                transformer.fromStorage(event);
+            }
+            long read = System.nanoTime();
+            // first round is warm up
+            if (round > 0) {
+                writeNanos += written - start;
+                readNanos += read - written;
+                for (int i = 0; i < events.size(); i++) {
+                    originalBytes += events.get(i).length;
+                    storedBytes += stored.get(i).length;
+                }
+            }
+        }
+        long measured = (long) EVENTS * (ROUNDS - 1);
+        System.out.printf("%-25s write %6d ns/event, read %6d ns/event, ratio %.2f%n",
+                          name,
+                          writeNanos / measured,
+                          readNanos / measured,
+                          (double) originalBytes / storedBytes);
+    }
+
+    private static List<byte[]> events(int payloadSize) {
+        Random random = new Random(0);
+        List<byte[]> events = new ArrayList<>(EVENTS);
+        for (int i = 0; i < EVENTS; i++) {
+            events.add(CompressingEventTransformerTest.event(payload(random, payloadSize)));
+        }
+        return events;
+    }
+
+    private static String payload(Random random, int payloadSize) {
+        StringBuilder payload = new StringBuilder("{\"lines\":[");
+        while (payload.length() < payloadSize) {
+            payload.append("{\"product\":\"product-").append(random.nextInt(1000))
+                   .append("\",\"quantity\":").append(random.nextInt(10))
+                   .append(",\"price\":").append(random.nextInt(100_000) / 100.0)
+                   .append("},");
+        }
+        return payload.append("{}]}").toString();
+    }
+}
@@ -10,7 +10,6 @@
 package io.axoniq.axonserver.rest;
 
 import io.axoniq.axonserver.grpc.event.Event;
-import io.axoniq.axonserver.grpc.event.EventWithToken;
 import io.axoniq.axonserver.localstorage.EventStorageEngine;
 import io.axoniq.axonserver.localstorage.EventStoreFactory;
 import io.axoniq.axonserver.localstorage.EventType;
@@ -97,13 +96,13 @@ public class HttpStreamingQueryTest {
 
             @Override
             public void query(QueryOptions queryOptions,
-                              Predicate<EventWithToken> consumer) {
+                              Predicate<SerializedEventWithToken> consumer) {
                 Event event = Event.newBuilder().setAggregateIdentifier("demo").build();
                 int i = 100000;
-                EventWithToken eventWithToken;
+                SerializedEventWithToken eventWithToken;
                 do {
                     i--;
-                    eventWithToken = EventWithToken.newBuilder().setToken(i).setEvent(event).build();
+                    eventWithToken = new SerializedEventWithToken(i, event);
                 } while (consumer.test(eventWithToken));
             }
 